@@ -9,6 +9,8 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
+import com.biglucas.agena.protocol.gemini.BackForwardCache;
+import com.biglucas.agena.protocol.gemini.GeminiSingleton;
 import com.google.android.material.color.DynamicColors;
 
 /**
@@ -31,6 +33,23 @@ public class AgenaApplication extends Application {
         }
     }
 
+    /**
+     * Gives back the memory of the back/forward cache under pressure: half of it while the
+     * system runs low or the app goes to the background, all of it when the process is at
+     * risk of being killed.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        BackForwardCache cache = GeminiSingleton.getGemini().getBackForwardCache();
+        if (level >= TRIM_MEMORY_MODERATE) {
+            cache.trimToSize(0);
+        } else if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW
+                || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            cache.trimToSize(cache.size() / 2);
+        }
+    }
+
     private static class DynamicColorsApplier implements ActivityLifecycleCallbacks {
         @RequiresApi(api = Build.VERSION_CODES.Q)
         @Override
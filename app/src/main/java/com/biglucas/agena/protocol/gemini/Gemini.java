@@ -1,80 +1,156 @@
 package com.biglucas.agena.protocol.gemini;
 
 import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
-import android.util.Log;
 import android.widget.Toast;
 
 import com.biglucas.agena.R;
 import com.biglucas.agena.utils.DatabaseController;
-import com.biglucas.agena.utils.Invoker;
+import com.biglucas.agena.utils.ErrorReporter;
+import com.biglucas.agena.utils.HostDeadlinePreferences;
+import com.biglucas.agena.utils.LinkPrefetchPreferences;
+import com.biglucas.agena.utils.PageCachePreferences;
+import com.biglucas.agena.utils.PreferencesStore;
 import com.biglucas.agena.utils.SSLSocketFactorySingleton;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
+import java.io.InterruptedIOException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
-import javax.net.ssl.SSLSocket;
-
-import com.biglucas.agena.utils.ErrorReporter;
-
 /**
- * Core client implementation for the Gemini protocol (gemini://).
+ * Android adapter over {@link GeminiClient}, the platform-independent Gemini (gemini://) client.
  * <p>
- * This class handles the low-level details of the Gemini protocol, including:
- * <ul>
- *     <li>TLS connection establishment (with mandatory SNI).</li>
- *     <li>Request formatting (`gemini://<host>/<path>\r\n`).</li>
- *     <li>Response header parsing (Status + Meta).</li>
- *     <li>Status code logic dispatch (Success, Redirect, Input, Error).</li>
- *     <li>File downloads respecting Android's storage APIs.</li>
- * </ul>
+ * The protocol itself (TLS with SNI, request formatting, header parsing, redirects and status
+ * dispatch) lives in the {@code gemini-core} module. This class plugs in the app's TLS socket
+ * factory and preferences-backed stores, and handles what a successful response means on
+ * Android: other content types are saved to the public Downloads folder and opened, and visited
+ * pages are added to the history. Pages are also cached in app storage, and in offline mode
+ * only cached pages are shown.
  */
 public class Gemini {
     private static final String TAG = "Gemini";
+    private static final String REDIRECTS_FILE = "permanent_redirects";
+
+    private final GeminiClient client = new GeminiClient(SSLSocketFactorySingleton::getSSLSocketFactory);
+    private final LinkPrefetcher prefetcher = new LinkPrefetcher(client);
+    private final BackForwardCache backForwardCache = new BackForwardCache();
+    private final StaleWhileRevalidate revalidation = new StaleWhileRevalidate(client);
 
     /**
-     * Reads a single line of text from the input stream, decoding as UTF-8.
+     * Receives {@code text/gemini} body lines as they are read from the socket.
      * <p>
-     * Reads bytes until a newline character (0xA) or EOF is reached.
-     * The resulting bytes are decoded using the system's default charset (UTF-8 on Android).
-     *
-     * @param input The source input stream.
-     * @return The line content as a String, or null if EOF is reached immediately.
-     * @throws IOException If an I/O error occurs.
+     * Called on the requesting (background) thread, once per line, in document order.
      */
-    private String readLineFromStream(InputStream input) throws IOException {
-        ArrayList<Byte> bytes = new ArrayList<>();
-        int b = input.read();
-        if (b == -1) {
-            return null;
-        }
-        while (b != -1 && b != 0xA) {
-            bytes.add((byte) b);
-            b = input.read();
+    public interface LineListener extends GeminiClient.LineListener {
+    }
+
+    /**
+     * @return The underlying platform-independent client.
+     */
+    public GeminiClient getClient() {
+        return client;
+    }
+
+    /**
+     * @return TLS session resumption hit rate and handshake timings for this client.
+     */
+    public TlsSessionMetrics getTlsSessionMetrics() {
+        return client.getTlsSessionMetrics();
+    }
+
+    /**
+     * @return Counters of requests executed and coalesced into one already in flight.
+     */
+    public SingleFlight<?, ?> getSingleFlight() {
+        return client.getSingleFlight();
+    }
+
+    /**
+     * @return Known permanent and recent temporary redirects, with hit counters.
+     */
+    public RedirectCache getRedirectCache() {
+        return client.getRedirectCache();
+    }
+
+    /**
+     * @return The per-host deadline estimator used by this client.
+     */
+    public HostDeadlines getHostDeadlines() {
+        return client.getHostDeadlines();
+    }
+
+    /**
+     * @return Recently fetched pages, with hit, miss and eviction counters.
+     */
+    public ResponseCache getResponseCache() {
+        return client.getResponseCache();
+    }
+
+    /**
+     * @return The page cache in app storage, or null before the first request.
+     */
+    public DiskCache getDiskCache() {
+        return client.getDiskCache();
+    }
+
+    /**
+     * @return The link prefetcher, with its hit rate and byte counters.
+     */
+    public LinkPrefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    /**
+     * @return Parsed pages and scroll offsets of recent windows, for instant back navigation.
+     */
+    public BackForwardCache getBackForwardCache() {
+        return backForwardCache;
+    }
+
+    /**
+     * @return Background refreshes of cached pages, with their counters.
+     */
+    public StaleWhileRevalidate getRevalidation() {
+        return revalidation;
+    }
+
+    /**
+     * Decides whether a page just served from the cache should be refreshed in the background:
+     * not in offline mode, not for capsules opted out in the settings, not for fresh copies.
+     */
+    public boolean shouldRevalidate(Context context, Uri uri) {
+        if (PageCachePreferences.isOffline(context)) {
+            return false;
         }
-        byte[] buf = new byte[bytes.size()];
-        for (int i = 0; i < bytes.size(); i++) {
-            buf[i] = bytes.get(i);
+        PageCachePreferences.apply(context, revalidation);
+        return revalidation.shouldRevalidate(uri.toString());
+    }
+
+    /**
+     * Prefetches the first same-capsule links of a rendered page into the cache, if enabled in
+     * the settings. Returns immediately.
+     *
+     * @param page  The page the links were found on.
+     * @param links The link targets as written in the page, in document order.
+     */
+    public void prefetch(Context context, Uri page, List<String> links) {
+        if (!LinkPrefetchPreferences.isEnabled(context)) {
+            return;
         }
-        return Charset.defaultCharset().decode(ByteBuffer.wrap(buf)).toString();
+        LinkPrefetchPreferences.apply(context, prefetcher);
+        prefetcher.prefetch(page.toString(), links);
     }
 
     /**
      * Public entry point for initiating a Gemini request.
      * <p>
-     * Validates the URI against the Gemini spec and delegates to {@link #requestInternal}
-     * to handle the request lifecycle, including redirect following.
+     * Buffers the whole body; see {@link #request(Activity, Uri, LineListener)} for the streaming variant.
      *
      * @param activity The context used for launching intents or showing Toasts.
      * @param uri The Gemini URI to request.
@@ -85,274 +161,139 @@ public class Gemini {
      * @throws KeyManagementException If SSL setup fails.
      */
     public List<String> request(Activity activity, Uri uri) throws IOException, FailedGeminiRequestException, NoSuchAlgorithmException, KeyManagementException {
-        // Validate URI according to Gemini spec
-        validateUri(uri);
-        // Start request with redirect counter at 0
-        return requestInternal(activity, uri, 0);
+        List<String> lines = new ArrayList<>();
+        request(activity, uri, lines::add);
+        return lines;
     }
 
     /**
-     * Validates URI according to Gemini protocol specification
+     * Streaming entry point for initiating a Gemini request.
+     * <p>
+     * Body lines of a {@code text/gemini} response are pushed to {@code listener} as soon as
+     * each one is read, so the caller can start rendering before the transfer finishes.
+     *
+     * @param activity The context used for launching intents or showing Toasts.
+     * @param uri The Gemini URI to request.
+     * @param listener Receives body lines (only for text/gemini responses).
+     * @throws IOException If a network error occurs.
+     * @throws FailedGeminiRequestException If the protocol returns an error status.
+     * @throws NoSuchAlgorithmException If hashing algorithms are missing.
+     * @throws KeyManagementException If SSL setup fails.
      */
-    private void validateUri(Uri uri) throws FailedGeminiRequestException {
-        String uriString = uri.toString();
-
-        // Check maximum URI length (1024 bytes as per spec)
-        if (uriString.getBytes().length > GeminiSpec.MAX_URI_LENGTH_BYTES) {
-            throw new FailedGeminiRequestException.GeminiInvalidUri("URI exceeds maximum length of " + GeminiSpec.MAX_URI_LENGTH_BYTES + " bytes");
-        }
+    public void request(Activity activity, Uri uri, LineListener listener) throws IOException, FailedGeminiRequestException, NoSuchAlgorithmException, KeyManagementException {
+        request(activity, uri, listener, new RequestTimings(uri.toString()));
+    }
 
-        // Check for userinfo (not allowed in Gemini URIs)
-        if (uri.getUserInfo() != null && !uri.getUserInfo().isEmpty()) {
-            throw new FailedGeminiRequestException.GeminiInvalidUri("Userinfo not allowed in Gemini URIs");
-        }
+    /**
+     * Streaming request that also fills in the network phases of {@code timings}
+     * (DNS, connect, TLS, server think-time, body transfer), received bytes and redirect hops.
+     *
+     * @see #request(Activity, Uri, LineListener)
+     */
+    public void request(Activity activity, Uri uri, LineListener listener, RequestTimings timings) throws IOException, FailedGeminiRequestException, NoSuchAlgorithmException, KeyManagementException {
+        request(activity, uri, listener, timings, new Cancellation());
+    }
 
-        // Validate scheme
-        if (uri.getScheme() == null || !uri.getScheme().equals("gemini")) {
-            throw new FailedGeminiRequestException.GeminiInvalidUri("Invalid scheme: " + uri.getScheme());
-        }
+    /**
+     * Cancellable streaming request that prefers cached pages.
+     *
+     * @see #request(Activity, Uri, LineListener, RequestTimings, Cancellation, ResponseCache.Policy)
+     */
+    public void request(Activity activity, Uri uri, LineListener listener, RequestTimings timings,
+                        Cancellation cancellation) throws IOException, FailedGeminiRequestException, NoSuchAlgorithmException, KeyManagementException {
+        request(activity, uri, listener, timings, cancellation, ResponseCache.Policy.PREFER_CACHE);
     }
 
     /**
-     * Executes the raw network request handling connection setup and redirects recursively.
+     * Cancellable streaming request.
      * <p>
-     * This method performs the following steps:
-     * <ol>
-     *     <li>Validates the scheme (must be 'gemini').</li>
-     *     <li>Establishes a secure TLS connection.
-     *         <ul>
-     *             <li>Explicitly sets SNI (Server Name Indication) as required by the Gemini spec.</li>
-     *             <li>Sets a connection timeout.</li>
-     *         </ul>
-     *     </li>
-     *     <li>Sends the request line (`&lt;URL&gt;\r\n`).</li>
-     *     <li>Parses the response header (`&lt;STATUS&gt; &lt;META&gt;`).</li>
-     *     <li>Delegates further processing to {@link #handleResponse}.</li>
-     * </ol>
+     * Cancelling {@code cancellation} from another thread closes the connection and makes this
+     * call fail promptly. Concurrent requests for the same URI may share one connection; each
+     * still records its history entry and downloads its own copy of a file.
      *
-     * @param activity      The context for UI operations (e.g. Toasts).
-     * @param uri           The URI to request.
-     * @param redirectCount Current recursion depth for redirect handling. Throws {@link FailedGeminiRequestException.GeminiTooManyRedirects} if limit is exceeded.
-     * @return A list of strings representing the response content (for text/gemini).
-     * @throws IOException                  On network errors.
-     * @throws FailedGeminiRequestException On protocol errors (status != 20).
-     * @throws NoSuchAlgorithmException     If SSL algorithms are missing.
-     * @throws KeyManagementException       If SSL initialization fails.
+     * @param policy Whether a cached page may be shown instead of fetching it. Ignored in
+     *               offline mode, which only serves cached pages.
+     * @throws InterruptedIOException If the request was cancelled.
+     * @see GeminiClient#request(String, GeminiClient.LineListener, GeminiClient.ResponseHandler, RequestTimings, Cancellation, ResponseCache.Policy)
      */
-    private List<String> requestInternal(Activity activity, Uri uri, int redirectCount) throws IOException, FailedGeminiRequestException, NoSuchAlgorithmException, KeyManagementException {
-        Log.i(TAG, "Requesting: '" + uri.toString() + "' (redirect count: " + redirectCount + ")");
-
-        // Check redirect limit (max 5 as per spec)
-        if (redirectCount > GeminiSpec.MAX_REDIRECTS) {
-            throw new FailedGeminiRequestException.GeminiTooManyRedirects();
-        }
-
-        if (uri.getScheme() == null || !uri.getScheme().equals("gemini")) {
-            Invoker.invokeNewWindow(activity, uri);
-            return new ArrayList<>();
-        }
-
-        int port = uri.getPort();
-        if (port == -1) {
-            port = GeminiSpec.DEFAULT_PORT;
-        }
-
-        SSLSocket socket = (SSLSocket) SSLSocketFactorySingleton
-                .getSSLSocketFactory()
-                .createSocket();
-
-        // Enable SNI (Server Name Indication) as required by Gemini spec
-        // This is enabled by default on Android, but we set it explicitly to be certain
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.N) {
-            javax.net.ssl.SNIHostName serverName = new javax.net.ssl.SNIHostName(uri.getHost());
-            javax.net.ssl.SSLParameters params = socket.getSSLParameters();
-            params.setServerNames(java.util.Collections.singletonList(serverName));
-            socket.setSSLParameters(params);
-        }
-
-        // TODO: configurable timeout
-        socket.connect(new InetSocketAddress(uri.getHost(), port), GeminiSpec.DEFAULT_TIMEOUT_MS);
-        socket.setSoTimeout(GeminiSpec.DEFAULT_TIMEOUT_MS);
-        socket.startHandshake();
-
-        BufferedOutputStream outputStream = new BufferedOutputStream(socket.getOutputStream());
-
-        String cleanedEntity = uri.toString().replace("%2F", "/").trim();
-        String requestEntity = cleanedEntity + GeminiSpec.CRLF;
-
-        outputStream.write(requestEntity.getBytes());
-        outputStream.flush();
-
-        InputStream inputStream = new BufferedInputStream(socket.getInputStream());
-        String headerLine = readLineFromStream(inputStream);
-        if (headerLine == null) {
-            Log.i(TAG, "Server did not respond with a Gemini header");
-            inputStream.close();
-            outputStream.close();
-            throw new FailedGeminiRequestException.GeminiInvalidResponse();
-        }
+    public void request(Activity activity, Uri uri, LineListener listener, RequestTimings timings,
+                        Cancellation cancellation, ResponseCache.Policy policy) throws IOException, FailedGeminiRequestException, NoSuchAlgorithmException, KeyManagementException {
+        policy = configure(activity, policy);
+        client.request(uri.toString(), listener, new ActivityResponseHandler(activity), timings, cancellation, policy);
+    }
 
-        // Parse response code and meta
-        int responseCode;
-        String meta;
-        try {
-            int spaceIndex = headerLine.indexOf(" ");
-            if (spaceIndex == -1) {
-                // No meta field, just status code
-                responseCode = Integer.parseInt(headerLine.trim());
-                meta = "";
-            } else {
-                responseCode = Integer.parseInt(headerLine.substring(0, spaceIndex));
-                meta = headerLine.substring(spaceIndex).trim();
-            }
-        } catch (NumberFormatException | IndexOutOfBoundsException e) {
-            inputStream.close();
-            outputStream.close();
-            throw new FailedGeminiRequestException.GeminiInvalidResponse();
+    /**
+     * Looks up the parsed form of a cached page, so it can be shown without parsing it again,
+     * and records the visit like {@link #request} would. Reads a file; call it on a background
+     * thread, and fall back to {@link #request} when it returns null.
+     *
+     * @return The cached page, or null if it has to be requested.
+     * @see GeminiClient#getCachedPage(String, ResponseCache.Policy, RequestTimings)
+     */
+    public CompactGemtext.Page getCachedPage(Activity activity, Uri uri, RequestTimings timings,
+                                             ResponseCache.Policy policy) {
+        policy = configure(activity, policy);
+        CompactGemtext.Page page = client.getCachedPage(uri.toString(), policy, timings);
+        if (page != null) {
+            new ActivityResponseHandler(activity).onSuccess(page.key, page.meta);
         }
+        return page;
+    }
 
-        Log.i(TAG, "response_code=" + responseCode + ", meta=" + meta);
-
-        // Handle response based on status code ranges
-        try {
-            return handleResponse(activity, uri, inputStream, outputStream, responseCode, meta, cleanedEntity, redirectCount);
-        } finally {
-            try {
-                inputStream.close();
-            } catch (IOException e) {
-                ErrorReporter.reportError(TAG, "Error closing input stream", e);
-            }
-            try {
-                outputStream.close();
-            } catch (IOException e) {
-                ErrorReporter.reportError(TAG, "Error closing output stream", e);
-            }
+    /**
+     * Applies the settings to the client; they are read every time so changes in the settings
+     * screen apply to the next request.
+     *
+     * @return {@code policy}, or {@link ResponseCache.Policy#CACHE_ONLY} in offline mode.
+     */
+    private ResponseCache.Policy configure(Activity activity, ResponseCache.Policy policy) {
+        HostDeadlinePreferences.apply(activity, client.getHostDeadlines());
+        RedirectCache redirectCache = client.getRedirectCache();
+        if (!redirectCache.hasStore()) {
+            redirectCache.setStore(new PreferencesStore(activity, REDIRECTS_FILE));
         }
+        PageCachePreferences.apply(activity, client);
+        return PageCachePreferences.isOffline(activity) ? ResponseCache.Policy.CACHE_ONLY : policy;
     }
 
     /**
-     * Dispatches the response handling logic based on the status code family.
-     *
-     * @param activity      The context for UI operations.
-     * @param uri           The original request URI.
-     * @param inputStream   The socket input stream to read the body from.
-     * @param outputStream  The socket output stream (needed for closing).
-     * @param responseCode  The parsed status code (e.g., 20, 31, 51).
-     * @param meta          The meta string (MIME type for success, redirect URL, or error message).
-     * @param cleanedEntity The sanitized URI string used for display/logic.
-     * @param redirectCount The current redirect recursion depth.
-     * @return A list of strings if the response is text content, otherwise handles side effects (download, error).
-     * @throws IOException                  If reading from the stream fails.
-     * @throws FailedGeminiRequestException If the status code indicates failure or requires input.
-     * @throws NoSuchAlgorithmException     If hashing fails during download.
-     * @throws KeyManagementException       If SSL fails during redirect.
+     * Saves other content types to the public Downloads folder and records visited pages.
      */
-    private List<String> handleResponse(Activity activity, Uri uri, InputStream inputStream,
-                                        BufferedOutputStream outputStream, int responseCode,
-                                        String meta, String cleanedEntity, int redirectCount)
-            throws IOException, FailedGeminiRequestException, NoSuchAlgorithmException, KeyManagementException {
+    private static final class ActivityResponseHandler implements GeminiClient.ResponseHandler {
+        private final Activity activity;
 
-        // Input required (10-19)
-        if (GeminiSpec.isInput(responseCode)) {
-            boolean sensitive = (responseCode == GeminiSpec.STATUS_SENSITIVE_INPUT);
-            throw new FailedGeminiRequestException.GeminiInputRequired(meta, sensitive);
+        ActivityResponseHandler(Activity activity) {
+            this.activity = activity;
         }
 
-        // Success (20-29)
-        if (GeminiSpec.isSuccess(responseCode)) {
-            List<String> lines = new ArrayList<>();
-            if (meta.startsWith("text/gemini")) {
-                while (true) {
-                    String line = readLineFromStream(inputStream);
-                    if (line == null) {
-                        break;
-                    }
-                    Collections.addAll(lines, line.split("\n"));
-                }
+        @Override
+        public void onBody(String uri, String mimeType, InputStream body) throws IOException, NoSuchAlgorithmException {
+            // Download to public Downloads folder
+            GeminiDownloader downloader = new GeminiDownloader();
+            GeminiDownloader.Result result = downloader.download(activity, body, Uri.parse(uri), mimeType);
+            if (result != null) {
+                activity.runOnUiThread(() -> Toast.makeText(activity, result.displayPath, Toast.LENGTH_SHORT).show());
+                Intent intent = new Intent();
+                intent.addFlags(Intent.FLAG_ACTIVITY_NEW_DOCUMENT);
+                intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                intent.setAction(Intent.ACTION_VIEW);
+                intent.setDataAndType(result.uri, mimeType);
+                activity.startActivity(intent);
             } else {
-                // Download to public Downloads folder
-                GeminiDownloader downloader = new GeminiDownloader();
-                GeminiDownloader.Result result = downloader.download(activity, inputStream, Uri.parse(cleanedEntity), meta);
-                if (result != null) {
-                    activity.runOnUiThread(() -> Toast.makeText(activity, result.displayPath, Toast.LENGTH_SHORT).show());
-                    Intent intent = new Intent();
-                    intent.addFlags(Intent.FLAG_ACTIVITY_NEW_DOCUMENT);
-                    intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
-                    intent.setAction(Intent.ACTION_VIEW);
-                    intent.setDataAndType(result.uri, meta);
-                    activity.startActivity(intent);
-                } else {
-                    // Permission was denied, show retry message
-                    activity.runOnUiThread(() -> Toast.makeText(activity, activity.getResources().getString(R.string.please_repeat_action), Toast.LENGTH_SHORT).show());
-                }
+                // Permission was denied, show retry message
+                activity.runOnUiThread(() -> Toast.makeText(activity, activity.getResources().getString(R.string.please_repeat_action), Toast.LENGTH_SHORT).show());
             }
+        }
+
+        @Override
+        public void onSuccess(String uri, String mimeType) {
             try {
                 new DatabaseController(DatabaseController.openDatabase(activity))
-                        .addHistoryEntry(uri);
+                        .addHistoryEntry(Uri.parse(uri));
             } catch (Exception e) {
                 ErrorReporter.reportError(TAG, "Failed to save history for URI: " + uri, e);
                 activity.runOnUiThread(() -> Toast.makeText(activity, R.string.error_database_write, Toast.LENGTH_SHORT).show());
             }
-            return lines;
-        }
-
-        // Redirect (30-39)
-        if (GeminiSpec.isRedirect(responseCode)) {
-            if (meta.isEmpty()) {
-                throw new FailedGeminiRequestException.GeminiInvalidResponse();
-            }
-            // Resolve relative URIs against the current request URI (RFC 3986)
-            Uri redirectUri = Uri.parse(GeminiUriHelper.resolve(uri.toString(), meta.trim()));
-            validateUri(redirectUri);
-            return requestInternal(activity, redirectUri, redirectCount + 1);
-        }
-
-        // Temporary failure (40-49)
-        if (GeminiSpec.isTemporaryFailure(responseCode)) {
-            switch (responseCode) {
-                case GeminiSpec.STATUS_SERVER_UNAVAILABLE:
-                    throw new FailedGeminiRequestException.GeminiServerUnavailable(meta);
-                case GeminiSpec.STATUS_CGI_ERROR:
-                    throw new FailedGeminiRequestException.GeminiCGIError(meta);
-                case GeminiSpec.STATUS_PROXY_ERROR:
-                    throw new FailedGeminiRequestException.GeminiProxyError(meta);
-                case GeminiSpec.STATUS_SLOW_DOWN:
-                    throw new FailedGeminiRequestException.GeminiSlowDown(meta);
-                default:
-                    throw new FailedGeminiRequestException.GeminiTemporaryFailure(meta);
-            }
         }
-
-        // Permanent failure (50-59)
-        if (GeminiSpec.isPermanentFailure(responseCode)) {
-            switch (responseCode) {
-                case GeminiSpec.STATUS_NOT_FOUND:
-                    throw new FailedGeminiRequestException.GeminiNotFound();
-                case GeminiSpec.STATUS_GONE:
-                    throw new FailedGeminiRequestException.GeminiGone();
-                case GeminiSpec.STATUS_PROXY_REQUEST_REFUSED:
-                    throw new FailedGeminiRequestException.GeminiProxyRequestRefused(meta);
-                case GeminiSpec.STATUS_BAD_REQUEST:
-                    throw new FailedGeminiRequestException.GeminiBadRequest(meta);
-                default:
-                    throw new FailedGeminiRequestException.GeminiPermanentFailure(meta);
-            }
-        }
-
-        // Client certificate required (60-69)
-        if (GeminiSpec.isClientCertificateRequired(responseCode)) {
-            switch (responseCode) {
-                case GeminiSpec.STATUS_CERT_NOT_AUTHORIZED:
-                    throw new FailedGeminiRequestException.GeminiCertificateNotAuthorized(meta);
-                case GeminiSpec.STATUS_CERT_NOT_VALID:
-                    throw new FailedGeminiRequestException.GeminiCertificateNotValid(meta);
-                default:
-                    throw new FailedGeminiRequestException.GeminiClientCertificateRequired(meta);
-            }
-        }
-
-        // Unknown status code
-        Log.i(TAG, "Unknown response code: " + responseCode + ", meta: " + meta);
-        throw new FailedGeminiRequestException.GeminiUnimplementedCase();
     }
 }
@@ -9,12 +9,12 @@ import android.util.Log;
 
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.biglucas.agena.protocol.gemini.GemtextDocument;
+import com.biglucas.agena.protocol.gemini.GemtextParser;
 import com.biglucas.agena.utils.ErrorReporter;
 
-import java.io.BufferedReader;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 
 import com.biglucas.agena.R;
 
@@ -22,6 +22,7 @@ public class ContentActivity extends AppCompatActivity {
     private static final String TAG = "ContentActivity";
     private static final int MAX_LINES = 10000;
     private static final long MAX_FILE_SIZE_BYTES = 10 * 1024 * 1024; // 10 MB
+    private static final int READ_BUFFER_SIZE = 8192;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -83,29 +84,25 @@ public class ContentActivity extends AppCompatActivity {
             }
 
             Log.d(TAG, incomingUri.toString());
-            InputStream inputStream = getContentResolver().openInputStream(incomingUri);
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream);
-            BufferedReader dis = new BufferedReader(inputStreamReader);
-            ArrayList<String> lines = new ArrayList<>();
-            int lineCount = 0;
-            while (true) {
-                if (lineCount >= MAX_LINES) {
-                    Log.w(TAG, "File exceeds MAX_LINES, truncating");
-                    break;
+            // Parsed straight from the bytes read; no intermediate list of lines.
+            GemtextParser.LineDecoder decoder = new GemtextParser.LineDecoder();
+            GemtextDocument document = new GemtextDocument();
+            try (InputStream inputStream = getContentResolver().openInputStream(incomingUri)) {
+                byte[] buffer = new byte[READ_BUFFER_SIZE];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    decoder.feed(ByteBuffer.wrap(buffer, 0, read), document::append);
+                    if (decoder.getLineCount() >= MAX_LINES) {
+                        Log.w(TAG, "File exceeds MAX_LINES, truncating");
+                        break;
+                    }
                 }
-                lineCount++;
-                String line = dis.readLine();
-                if (line != null) {
-                    Log.v(TAG, line);
-                }
-                if (line == null) {
-                    break;
-                }
-                lines.add(line);
             }
+            decoder.finish(document::append);
+            document.finish();
             this.getSupportFragmentManager()
                     .beginTransaction()
-                    .replace(R.id.browser_content, new GeminiPageContentFragment(lines, this.getIntent().getData()))
+                    .replace(R.id.browser_content, GeminiPageContentFragment.parsed(document, this.getIntent().getData()))
                     .commit();
         } catch (Exception e) {
             ErrorReporter.reportError(TAG, "Failed to handle intent", e);
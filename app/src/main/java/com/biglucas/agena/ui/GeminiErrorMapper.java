@@ -73,6 +73,8 @@ public final class GeminiErrorMapper {
         // Other Gemini errors
         } else if (e instanceof FailedGeminiRequestException.GeminiInvalidResponse) {
             return context.getString(R.string.error_gemini_invalid_response);
+        } else if (e instanceof FailedGeminiRequestException.GeminiNotCached) {
+            return context.getString(R.string.error_not_cached);
         } else if (e instanceof FailedGeminiRequestException.GeminiUnimplementedCase) {
             return context.getString(R.string.error_gemini_unimplemented);
         }
@@ -1,53 +1,129 @@
 package com.biglucas.agena.ui;
 
-import android.graphics.Typeface;
 import android.net.Uri;
 import android.os.Bundle;
 import android.util.Log;
-import android.view.GestureDetector;
 import android.view.LayoutInflater;
-import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.HorizontalScrollView;
-import android.widget.LinearLayout;
-import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.biglucas.agena.R;
+import com.biglucas.agena.protocol.gemini.BackForwardCache;
+import com.biglucas.agena.protocol.gemini.CompactGemtext;
+import com.biglucas.agena.protocol.gemini.GeminiSingleton;
 import com.biglucas.agena.protocol.gemini.GeminiUriHelper;
-import com.biglucas.agena.protocol.gemini.GemtextParser;
+import com.biglucas.agena.protocol.gemini.GemtextDocument;
+import com.biglucas.agena.protocol.gemini.GemtextOutline;
+import com.biglucas.agena.protocol.gemini.RequestTimings;
 import com.biglucas.agena.utils.Invoker;
-import com.biglucas.agena.utils.StacktraceDialogHandler;
-import com.google.android.material.button.MaterialButton;
 
 import java.util.ArrayList;
-import java.util.IllegalFormatConversionException;
-import java.util.StringTokenizer;
+import java.util.List;
 
 /**
  * Fragment responsible for parsing and rendering `text/gemini` content.
  * <p>
- * This class takes a list of raw Gemini strings and converts them into native Android Views
- * (TextViews, Buttons) to build the page UI dynamically.
+ * This class takes a list of raw Gemini strings and shows them as native Android Views
+ * (TextViews, Buttons) in a {@link RecyclerView}, see {@link GemtextAdapter}. The page is kept as
+ * a {@link GemtextDocument}, so even very large pages are a few arrays rather than objects per
+ * line, and only the rows on screen have views.
+ * <p>
+ * Content can also be streamed in: create the fragment with {@link #streaming(Uri)}, push lines
+ * with {@link #appendLines(List)} as they arrive and call {@link #finishContent()} at the end.
+ * Completed elements are shown immediately, so the first screenful renders while the rest of the
+ * body is still downloading.
+ * <p>
+ * Once the whole page is rendered, its link targets are handed to the prefetcher (see
+ * {@link com.biglucas.agena.protocol.gemini.Gemini#prefetch}) and the hosting
+ * {@link PageActivity} is told, so it can keep a {@link BackForwardCache} snapshot. A fragment
+ * created with {@link #restored(BackForwardCache.Snapshot)} builds its views from such a
+ * snapshot, without parsing, and scrolls back to where the user left the page. One created with
+ * {@link #decoded(CompactGemtext.Page, Uri)} shows a page read back from the disk cache, whose
+ * links were resolved when it was stored.
  */
 public class GeminiPageContentFragment extends Fragment {
 
     private static final String TAG = "GeminiPageContent";
-    private final ArrayList<String> content;
     private final Uri oldURI;
-    private final float textSizeBaseline = 14;
+    /** Resolves the links of the page against {@link #oldURI}. */
+    private final GeminiUriHelper.Resolver linkResolver;
+    private GemtextDocument document;
+    /** Source lines given up front, parsed on first render so the parse is timed. */
+    private List<String> lines;
+    private RecyclerView contentList;
+    private LinearLayoutManager layoutManager;
+    private GemtextAdapter adapter;
+    private RequestTimings timings;
+    /** Link targets as written in the page, in document order. */
+    private final List<String> linkTargets = new ArrayList<>();
+    /** Resolved link targets, for the back/forward cache. */
+    private final List<String> resolvedLinks = new ArrayList<>();
+    private BackForwardCache.Snapshot snapshot;
+    /** Link targets resolved before, used instead of resolving them again; may be null. */
+    private List<String> knownLinks;
+    private boolean complete;
+
+    public GeminiPageContentFragment(List<String> list, Uri oldURI) {
+        this(null, oldURI, true);
+        this.lines = list;
+    }
 
-    public GeminiPageContentFragment(ArrayList<String> list, Uri oldURI) {
-        this.content = list;
+    private GeminiPageContentFragment(GemtextDocument document, Uri oldURI, boolean complete) {
+        this.document = document;
         this.oldURI = oldURI;
+        this.linkResolver = new GeminiUriHelper.Resolver(oldURI.toString());
+        this.complete = complete;
+    }
+
+    /**
+     * Creates an empty fragment whose content will be pushed with {@link #appendLines(List)}.
+     */
+    public static GeminiPageContentFragment streaming(Uri oldURI) {
+        return new GeminiPageContentFragment(new GemtextDocument(), oldURI, false);
+    }
+
+    /**
+     * Creates a fragment showing a page kept in the {@link BackForwardCache}.
+     */
+    public static GeminiPageContentFragment restored(BackForwardCache.Snapshot snapshot) {
+        GeminiPageContentFragment fragment = new GeminiPageContentFragment(snapshot.document, Uri.parse(snapshot.uri), true);
+        fragment.snapshot = snapshot;
+        fragment.knownLinks = snapshot.links;
+        return fragment;
+    }
+
+    /**
+     * Creates a fragment showing a page read back in its parsed form, e.g. from the disk cache.
+     */
+    public static GeminiPageContentFragment decoded(CompactGemtext.Page page, Uri oldURI) {
+        GeminiPageContentFragment fragment = new GeminiPageContentFragment(page.document, oldURI, true);
+        fragment.knownLinks = page.links;
+        return fragment;
+    }
+
+    /**
+     * Creates a fragment showing a complete document that was already parsed.
+     */
+    public static GeminiPageContentFragment parsed(GemtextDocument document, Uri oldURI) {
+        return new GeminiPageContentFragment(document, oldURI, true);
     }
 
     public GeminiPageContentFragment() {
-        this(new ArrayList<>(), Uri.parse("gemini://example.com"));
+        this(new GemtextDocument(), Uri.parse("gemini://example.com"), true);
+    }
+
+    /**
+     * Attaches the timing record of the navigation that produced this content, so parsing,
+     * view building and first paint are accounted for.
+     */
+    public void setTimings(RequestTimings timings) {
+        this.timings = timings;
     }
 
     @Override
@@ -61,144 +137,231 @@ public class GeminiPageContentFragment extends Fragment {
      * Builds the page UI from gemtext source lines.
      * <p>
      * Structural parsing (including preformatted fences) is delegated to
-     * {@link GemtextParser}; this method only maps elements to Android views:
-     * <ul>
-     *     <li><b>Preformatted:</b> Monospace text in a {@link HorizontalScrollView}.</li>
-     *     <li><b>Links (=>):</b> {@link MaterialButton} with {@link GestureDetector}
-     *         for single tap (navigate), double tap (new window), long press (show URL).</li>
-     *     <li><b>Headings (#):</b> Text size scaled by heading level.</li>
-     *     <li><b>List Items (*):</b> Prefixed with a bullet.</li>
-     *     <li><b>Regular Text:</b> Standard paragraphs.</li>
-     * </ul>
+     * {@link GemtextDocument} and mapping elements to views to {@link GemtextAdapter}. Links
+     * react to a single tap (navigate), double tap (new window) and long press (show URL).
      */
     @Override
     public void onViewCreated(@NonNull View view, Bundle savedInstanceState) {
-        LinearLayout contentColumn = this.requireView().findViewById(R.id.content_column);
-        contentColumn.removeAllViewsInLayout();
+        render(view);
+    }
 
-        for (GemtextParser.Element element : GemtextParser.parse(this.content)) {
-            if (element instanceof GemtextParser.Preformatted) {
-                addPreformattedBlock(contentColumn, ((GemtextParser.Preformatted) element).text);
-                continue;
-            }
+    private void render(View view) {
+        this.contentList = view.findViewById(R.id.content_list);
+        this.layoutManager = new LinearLayoutManager(requireContext());
+        this.contentList.setLayoutManager(this.layoutManager);
+        this.contentList.setHasFixedSize(true);
+        // Streamed elements appear in place, as they did in the old column of views.
+        this.contentList.setItemAnimator(null);
+        this.linkTargets.clear();
+        this.resolvedLinks.clear();
+        if (this.lines != null) {
+            beginPhase(RequestTimings.Phase.PARSE);
+            this.document = GemtextDocument.parse(this.lines);
+            endPhase(RequestTimings.Phase.PARSE);
+            this.lines = null;
+        }
+        this.adapter = new GemtextAdapter(this.document, this.resolvedLinks, createLinkListener());
+        this.contentList.setAdapter(this.adapter);
 
-            String item = ((GemtextParser.Line) element).raw;
-            if (item.startsWith("=>")) {
-                addLinkButton(contentColumn, item);
-            } else {
-                addTextElement(contentColumn, item);
-            }
+        // Whatever was parsed so far; later lines continue from the document's state.
+        showCompletedElements();
+        if (this.snapshot != null) {
+            // Links were resolved when the page was first shown.
+            scrollTo(this.snapshot.getScrollElement(), this.snapshot.getScrollOffset());
+            return;
+        }
+        if (this.complete) {
+            onContentRendered();
         }
     }
 
-    private void addPreformattedBlock(LinearLayout container, String text) {
-        HorizontalScrollView horizontalScrollView = new HorizontalScrollView(getContext());
-        TextView txt = new TextView(this.getContext());
-        txt.setText(text);
-        txt.setTypeface(Typeface.MONOSPACE);
-        txt.setClickable(false);
-        txt.setCursorVisible(false);
-        txt.setFocusable(false);
-        horizontalScrollView.addView(txt);
-        container.addView(horizontalScrollView);
+    /**
+     * Replaces the whole page with a newer version of it, in place and keeping the scroll
+     * position (clamped to the new length). Must be called on the main thread.
+     *
+     * @param timings The timing record of the request that fetched the new version.
+     */
+    public void replaceContent(List<String> lines, RequestTimings timings) {
+        this.timings = timings;
+        beginPhase(RequestTimings.Phase.PARSE);
+        // A new document: the old one may be held by the back/forward cache.
+        this.document = GemtextDocument.parse(lines);
+        endPhase(RequestTimings.Phase.PARSE);
+        this.lines = null;
+        this.complete = true;
+        this.snapshot = null;
+        this.knownLinks = null;
+        final View view = getView();
+        if (view == null) {
+            // onViewCreated renders the new content.
+            return;
+        }
+        int element = getScrollElement();
+        int offset = getScrollOffset();
+        render(view);
+        scrollTo(element, offset);
     }
 
-    private void addLinkButton(LinearLayout container, String item) {
-        try {
-            StringTokenizer tokenizer = new StringTokenizer(item.substring(2));
-            if (!tokenizer.hasMoreTokens()) {
-                return;
-            }
-            String buttonURI = tokenizer.nextToken().trim();
-            String label = "";
-            while (tokenizer.hasMoreElements()) {
-                label = String.format("%s %s", label, tokenizer.nextToken());
-            }
-            label = label.trim();
-            if (label.isEmpty()) {
-                label = buttonURI;
-            }
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        this.contentList = null;
+        this.layoutManager = null;
+        this.adapter = null;
+    }
 
-            MaterialButton button = new MaterialButton(this.requireContext());
-            button.setText(label);
-            button.setAllCaps(false);
+    /**
+     * Appends streamed source lines, rendering completed elements right away when the view exists.
+     * Must be called on the main thread.
+     */
+    public void appendLines(List<String> lines) {
+        beginPhase(RequestTimings.Phase.PARSE);
+        for (String line : lines) {
+            this.document.append(line);
+        }
+        endPhase(RequestTimings.Phase.PARSE);
+        if (this.contentList == null) {
+            // View not created yet: onViewCreated renders the accumulated content.
+            return;
+        }
+        showCompletedElements();
+    }
 
-            // Use GeminiUriHelper for resolution
-            String resolvedUriString = GeminiUriHelper.resolve(this.oldURI.toString(), buttonURI);
-            final Uri uri = Uri.parse(resolvedUriString);
+    /**
+     * Marks the streamed content as complete, flushing a preformatted block left open at the end.
+     * Must be called on the main thread.
+     */
+    public void finishContent() {
+        this.complete = true;
+        this.document.finish();
+        if (this.contentList == null) {
+            return;
+        }
+        showCompletedElements();
+        onContentRendered();
+    }
 
-            button.setOnTouchListener(createLinkTouchListener(uri));
-            container.addView(button);
-        } catch (IllegalFormatConversionException e) {
-            StacktraceDialogHandler.show(getContext(), e);
+    private void onContentRendered() {
+        GeminiSingleton.getGemini().prefetch(requireContext(), this.oldURI, this.linkTargets);
+        if (getActivity() instanceof PageActivity) {
+            ((PageActivity) getActivity()).onPageRendered(this);
         }
     }
 
-    private View.OnTouchListener createLinkTouchListener(final Uri uri) {
-        return new View.OnTouchListener() {
-            private final GestureDetector gestureDetector = new GestureDetector(getContext(), new GestureDetector.SimpleOnGestureListener() {
-                @Override
-                public boolean onDoubleTap(@NonNull MotionEvent e) {
-                    Invoker.invokeNewWindow(getActivity(), uri);
-                    return super.onDoubleTap(e);
-                }
+    /**
+     * @return The URI of the page shown.
+     */
+    public Uri getUri() {
+        return this.oldURI;
+    }
 
-                @Override
-                public boolean onSingleTapConfirmed(@NonNull MotionEvent e) {
-                    Invoker.invoke(getActivity(), uri);
-                    return super.onSingleTapConfirmed(e);
-                }
+    /**
+     * @return The parsed page.
+     */
+    public GemtextDocument getDocument() {
+        return this.document;
+    }
 
-                @Override
-                public void onLongPress(@NonNull MotionEvent e) {
-                    Toast.makeText(getContext(), uri.toString(), Toast.LENGTH_SHORT).show();
-                    Log.d(TAG, "long press");
-                    super.onLongPress(e);
-                }
-            });
+    /**
+     * Scrolls so that element {@code index} of the document is at the top, e.g. a heading picked
+     * from the {@link GemtextOutline}. Rows are element indexes, so no layout walk is needed.
+     */
+    public void scrollToElement(int index) {
+        scrollTo(index, 0);
+    }
 
-            @Override
-            public boolean onTouch(View view, MotionEvent motionEvent) {
-                view.performClick();
-                gestureDetector.onTouchEvent(motionEvent);
-                return true;
-            }
-        };
+    /**
+     * @return Resolved targets of the link lines, in document order.
+     */
+    public List<String> getResolvedLinks() {
+        return this.resolvedLinks;
     }
 
-    private void addTextElement(LinearLayout container, String item) {
-        TextView tv = new TextView(this.getContext());
+    /**
+     * @return The element at the top of the screen, or 0 without a view.
+     */
+    public int getScrollElement() {
+        if (this.layoutManager == null) {
+            return 0;
+        }
+        return Math.max(0, this.layoutManager.findFirstVisibleItemPosition());
+    }
 
-        int headingLevels = 0;
-        int cutoutLevels = 0;
-        for (int i = 0; i < item.length(); i++) {
-            if (item.charAt(i) != '#') {
-                break;
-            }
-            headingLevels++;
+    /**
+     * @return Where the top of {@link #getScrollElement()} is, in pixels from the top of the
+     * list (zero or less), or 0 without a view.
+     */
+    public int getScrollOffset() {
+        if (this.layoutManager == null) {
+            return 0;
         }
-        if (headingLevels > 0) {
-            cutoutLevels += headingLevels;
+        View top = this.layoutManager.findViewByPosition(getScrollElement());
+        return top == null ? 0 : top.getTop() - this.contentList.getPaddingTop();
+    }
+
+    private void scrollTo(int element, int offset) {
+        if (this.layoutManager == null || this.adapter.getItemCount() == 0) {
+            return;
         }
+        int clamped = Math.max(0, Math.min(element, this.adapter.getItemCount() - 1));
+        this.layoutManager.scrollToPositionWithOffset(clamped, offset);
+    }
 
-        switch (headingLevels) {
-            case 1: tv.setTextSize(textSizeBaseline * (20f/11f)); break;
-            case 2: tv.setTextSize(textSizeBaseline * (16f/11f)); break;
-            case 3: tv.setTextSize(textSizeBaseline * (14f/11f)); break;
-            case 4: tv.setTextSize(textSizeBaseline * (12f/11f)); break;
-            default: tv.setTextSize(textSizeBaseline);
+    private void beginPhase(RequestTimings.Phase phase) {
+        if (this.timings != null) {
+            this.timings.begin(phase);
         }
+    }
 
-        if (item.startsWith("*")) {
-            cutoutLevels += 1;
+    private void endPhase(RequestTimings.Phase phase) {
+        if (this.timings != null) {
+            this.timings.end(phase);
         }
+    }
 
-        String labelText = item.substring(cutoutLevels).trim();
-        if (item.startsWith("*")) {
-            labelText = String.format("○ %s", labelText);
+    /**
+     * Resolves the links completed since the last call and shows their elements.
+     */
+    private void showCompletedElements() {
+        if (this.adapter.getItemCount() == this.document.size()) {
+            return;
+        }
+        beginPhase(RequestTimings.Phase.VIEW);
+        GemtextOutline outline = this.document.getOutline();
+        GemtextDocument.Cursor link = this.document.cursor();
+        for (int n = this.resolvedLinks.size(); n < outline.getLinkCount(); n++) {
+            link.moveTo(outline.getLinkElement(n));
+            String url = link.url();
+            this.linkTargets.add(url);
+            // Use GeminiUriHelper for resolution, unless the snapshot or the cache already did
+            this.resolvedLinks.add(this.knownLinks != null && n < this.knownLinks.size()
+                    ? this.knownLinks.get(n)
+                    : this.linkResolver.resolve(url));
+        }
+        this.adapter.showCompletedElements();
+        endPhase(RequestTimings.Phase.VIEW);
+        if (this.timings != null) {
+            this.timings.markFirstPaint();
         }
+    }
+
+    private GemtextAdapter.LinkListener createLinkListener() {
+        return new GemtextAdapter.LinkListener() {
+            @Override
+            public void onTap(Uri uri) {
+                Invoker.invoke(getActivity(), uri);
+            }
+
+            @Override
+            public void onDoubleTap(Uri uri) {
+                Invoker.invokeNewWindow(getActivity(), uri);
+            }
 
-        tv.setText(labelText);
-        container.addView(tv);
+            @Override
+            public void onLongPress(Uri uri) {
+                Toast.makeText(getContext(), uri.toString(), Toast.LENGTH_SHORT).show();
+                Log.d(TAG, "long press");
+            }
+        };
     }
 }
@@ -0,0 +1,249 @@
+package com.biglucas.agena.ui;
+
+import android.content.Context;
+import android.graphics.Typeface;
+import android.net.Uri;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.HorizontalScrollView;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.biglucas.agena.protocol.gemini.GemtextDocument;
+import com.google.android.material.button.MaterialButton;
+
+import java.util.List;
+
+/**
+ * Shows the elements of a {@link GemtextDocument} as rows of a {@link RecyclerView}, one row per
+ * element, so only the rows on screen have views, whatever the size of the page.
+ * <p>
+ * Every kind of element has its own view type, so a recycled row only gets new text:
+ * <ul>
+ *     <li><b>Preformatted:</b> Monospace text in a {@link HorizontalScrollView}.</li>
+ *     <li><b>Links (=>):</b> {@link MaterialButton}; taps go to the {@link LinkListener}.</li>
+ *     <li><b>Headings (#):</b> Text size scaled by heading level.</li>
+ *     <li><b>List Items (*):</b> Prefixed with a bullet.</li>
+ *     <li><b>Quotes (&gt;):</b> Italic text.</li>
+ *     <li><b>Regular Text:</b> Standard paragraphs.</li>
+ * </ul>
+ * Links without a URL get an empty row, so adapter positions are element indexes.
+ */
+final class GemtextAdapter extends RecyclerView.Adapter<GemtextAdapter.Row> {
+    private static final int TYPE_EMPTY = -1;
+    private static final float TEXT_SIZE_BASELINE = 14;
+
+    /**
+     * What a link row does when touched.
+     */
+    interface LinkListener {
+        void onTap(Uri uri);
+
+        void onDoubleTap(Uri uri);
+
+        void onLongPress(Uri uri);
+    }
+
+    private final GemtextDocument document;
+    private final GemtextDocument.Cursor cursor;
+    /** Resolved targets of the links with a URL, in document order. */
+    private final List<String> resolvedLinks;
+    private final LinkListener linkListener;
+    /** Elements shown; the document may have grown since. */
+    private int count;
+
+    GemtextAdapter(GemtextDocument document, List<String> resolvedLinks, LinkListener linkListener) {
+        this.document = document;
+        this.cursor = document.cursor();
+        this.resolvedLinks = resolvedLinks;
+        this.linkListener = linkListener;
+        setHasStableIds(true);
+    }
+
+    /**
+     * Shows the elements completed since the last call. Their links must be resolved already.
+     */
+    void showCompletedElements() {
+        int size = this.document.size();
+        if (size > this.count) {
+            int start = this.count;
+            this.count = size;
+            notifyItemRangeInserted(start, size - start);
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return this.count;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        this.cursor.moveTo(position);
+        if (this.cursor.type() == GemtextDocument.LINK && this.cursor.url().isEmpty()) {
+            return TYPE_EMPTY;
+        }
+        return this.cursor.type();
+    }
+
+    @NonNull
+    @Override
+    public Row onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        Context context = parent.getContext();
+        switch (viewType) {
+            case GemtextDocument.PREFORMATTED:
+                return new PreformattedRow(context);
+            case GemtextDocument.LINK:
+                return new LinkRow(context, this.linkListener);
+            case TYPE_EMPTY:
+                View empty = new View(context);
+                empty.setLayoutParams(new RecyclerView.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, 0));
+                return new Row(empty);
+            case GemtextDocument.QUOTE:
+                return new TextRow(context, Typeface.ITALIC);
+            default:
+                return new TextRow(context, Typeface.NORMAL);
+        }
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull Row row, int position) {
+        this.cursor.moveTo(position);
+        switch (row.getItemViewType()) {
+            case GemtextDocument.PREFORMATTED:
+                ((PreformattedRow) row).bind(this.cursor);
+                break;
+            case GemtextDocument.LINK:
+                String resolved = this.resolvedLinks.get(this.document.getOutline().linkIndexOf(position));
+                ((LinkRow) row).bind(this.cursor, Uri.parse(resolved));
+                break;
+            case GemtextDocument.HEADING:
+                ((TextRow) row).bind(this.cursor.text(), headingTextSize(this.cursor.level()));
+                break;
+            case GemtextDocument.LIST_ITEM:
+                ((TextRow) row).bind("○ " + this.cursor.text(), TEXT_SIZE_BASELINE);
+                break;
+            case TYPE_EMPTY:
+                break;
+            default:
+                ((TextRow) row).bind(this.cursor.text(), TEXT_SIZE_BASELINE);
+        }
+    }
+
+    private static float headingTextSize(int level) {
+        switch (level) {
+            case 1: return TEXT_SIZE_BASELINE * (20f/11f);
+            case 2: return TEXT_SIZE_BASELINE * (16f/11f);
+            case 3: return TEXT_SIZE_BASELINE * (14f/11f);
+            case 4: return TEXT_SIZE_BASELINE * (12f/11f);
+            default: return TEXT_SIZE_BASELINE;
+        }
+    }
+
+    private static RecyclerView.LayoutParams rowLayoutParams() {
+        return new RecyclerView.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+    }
+
+    static class Row extends RecyclerView.ViewHolder {
+        Row(View view) {
+            super(view);
+        }
+    }
+
+    private static final class TextRow extends Row {
+        private final TextView text;
+
+        TextRow(Context context, int style) {
+            super(new TextView(context));
+            this.text = (TextView) this.itemView;
+            this.text.setLayoutParams(rowLayoutParams());
+            if (style != Typeface.NORMAL) {
+                this.text.setTypeface(null, style);
+            }
+        }
+
+        void bind(String text, float textSize) {
+            this.text.setTextSize(textSize);
+            this.text.setText(text);
+        }
+    }
+
+    private static final class PreformattedRow extends Row {
+        private final HorizontalScrollView scroll;
+        private final TextView text;
+
+        PreformattedRow(Context context) {
+            super(new HorizontalScrollView(context));
+            this.scroll = (HorizontalScrollView) this.itemView;
+            this.scroll.setLayoutParams(rowLayoutParams());
+            this.text = new TextView(context);
+            this.text.setTypeface(Typeface.MONOSPACE);
+            this.text.setClickable(false);
+            this.text.setCursorVisible(false);
+            this.text.setFocusable(false);
+            this.scroll.addView(this.text);
+        }
+
+        void bind(GemtextDocument.Cursor block) {
+            this.scroll.scrollTo(0, 0);
+            this.text.setText(block.text());
+            String alt = block.alt();
+            // The alt text describes the block to screen readers (ASCII art, code language, ...)
+            this.text.setContentDescription(alt.isEmpty() ? null : alt);
+        }
+    }
+
+    /**
+     * A link button. The gesture detector is made once per row, not per link, and acts on the
+     * link the row is bound to.
+     */
+    private static final class LinkRow extends Row {
+        private final MaterialButton button;
+        private Uri uri;
+
+        LinkRow(Context context, LinkListener listener) {
+            super(new MaterialButton(context));
+            this.button = (MaterialButton) this.itemView;
+            this.button.setLayoutParams(rowLayoutParams());
+            this.button.setAllCaps(false);
+            final GestureDetector gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+                @Override
+                public boolean onDoubleTap(@NonNull MotionEvent e) {
+                    listener.onDoubleTap(uri);
+                    return super.onDoubleTap(e);
+                }
+
+                @Override
+                public boolean onSingleTapConfirmed(@NonNull MotionEvent e) {
+                    listener.onTap(uri);
+                    return super.onSingleTapConfirmed(e);
+                }
+
+                @Override
+                public void onLongPress(@NonNull MotionEvent e) {
+                    listener.onLongPress(uri);
+                    super.onLongPress(e);
+                }
+            });
+            this.button.setOnTouchListener((view, motionEvent) -> {
+                view.performClick();
+                gestureDetector.onTouchEvent(motionEvent);
+                return true;
+            });
+        }
+
+        void bind(GemtextDocument.Cursor link, Uri uri) {
+            this.uri = uri;
+            this.button.setText(link.isTextEmpty() ? link.url() : link.text());
+        }
+    }
+}
@@ -8,14 +8,19 @@ import android.view.View;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.biglucas.agena.R;
+import com.biglucas.agena.protocol.gemini.CompactGemtext;
+import com.biglucas.agena.protocol.gemini.GeminiSpec;
 import com.biglucas.agena.utils.DatabaseController;
 import com.biglucas.agena.utils.StacktraceDialogHandler;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
 
 public class HistoricActivity extends AppCompatActivity {
 
     private static final String TAG = HistoricActivity.class.getSimpleName();
+    private static final String HISTORY_PAGE_FILE = "history.gmb";
+    private static final String HISTORY_BASE_URI = "gemini://example.com";
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -28,11 +33,9 @@ public class HistoricActivity extends AppCompatActivity {
         refreshHistoric();
     }
     public void refreshHistoric() {
-        ArrayList<String> historic = (ArrayList<String>) new DatabaseController(DatabaseController.openDatabase(this))
-                .getHistoryLines();
         try {
-            Log.d(TAG, historic.toString());
-            GeminiPageContentFragment contentFragment = new GeminiPageContentFragment(historic, Uri.parse("gemini://example.com"));
+            CompactGemtext.Page page = historyPage(new DatabaseController(DatabaseController.openDatabase(this)));
+            GeminiPageContentFragment contentFragment = GeminiPageContentFragment.decoded(page, Uri.parse(HISTORY_BASE_URI));
             this.getSupportFragmentManager()
                     .beginTransaction()
                     .replace(R.id.historic_content, contentFragment)
@@ -41,4 +44,29 @@ public class HistoricActivity extends AppCompatActivity {
             StacktraceDialogHandler.show(this, e);
         }
     }
+
+    /**
+     * The history as a parsed page. It is kept in the cache directory and only built again
+     * after a visit was added, so a long history is not parsed and resolved on every open.
+     */
+    private CompactGemtext.Page historyPage(DatabaseController database) {
+        String version = database.getHistoryVersion();
+        File file = new File(getCacheDir(), HISTORY_PAGE_FILE);
+        try {
+            CompactGemtext.Page page = CompactGemtext.read(file);
+            if (page.key.equals(version)) {
+                return page;
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "No usable history page: " + e);
+        }
+        CompactGemtext.Page page = CompactGemtext.parse(version, GeminiSpec.STATUS_SUCCESS, "text/gemini",
+                System.currentTimeMillis(), HISTORY_BASE_URI, database.getHistoryLines());
+        try {
+            CompactGemtext.write(page, file);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to keep the history page", e);
+        }
+        return page;
+    }
 }
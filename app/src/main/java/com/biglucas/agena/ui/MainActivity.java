@@ -141,6 +141,9 @@ public class MainActivity extends AppCompatActivity {
         intent.addFlags(Intent.FLAG_ACTIVITY_NEW_DOCUMENT);
         startActivity(intent);
     }
+    public void onClickSettings(View view) {
+        startActivity(new Intent(this, SettingsActivity.class));
+    }
     public void onClickEnter(View view) {
         EditText input = findViewById(R.id.url);
         String userInput = input.getText().toString().trim();
@@ -2,19 +2,31 @@ package com.biglucas.agena.ui;
 
 import android.content.Context;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.text.InputType;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.TextView;
+import android.widget.Toast;
 
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.ContextCompat;
+import androidx.fragment.app.Fragment;
 
 import com.biglucas.agena.R;
+import com.biglucas.agena.protocol.gemini.BackForwardCache;
+import com.biglucas.agena.protocol.gemini.CompactGemtext;
 import com.biglucas.agena.protocol.gemini.FailedGeminiRequestException;
 import com.biglucas.agena.protocol.gemini.GeminiSingleton;
+import com.biglucas.agena.protocol.gemini.GemtextDocument;
+import com.biglucas.agena.protocol.gemini.GemtextOutline;
+import com.biglucas.agena.protocol.gemini.RequestRunner;
+import com.biglucas.agena.protocol.gemini.RequestTimings;
+import com.biglucas.agena.protocol.gemini.RequestTimingsLog;
+import com.biglucas.agena.protocol.gemini.ResponseCache;
+import com.biglucas.agena.utils.DebugUIHelper;
 import com.biglucas.agena.utils.Invoker;
 import com.biglucas.agena.utils.StacktraceDialogHandler;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
@@ -25,22 +37,175 @@ import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.UUID;
 
 public class PageActivity extends AppCompatActivity {
     private static final String TAG = "PageActivity";
 
+    /** Lines gathered before the first screenful is handed to the renderer. */
+    private static final int FIRST_BATCH_LINES = 40;
+    /** Longest time streamed lines are held back before being rendered. */
+    private static final long BATCH_INTERVAL_MS = 100;
+
+    private static final String STATE_SNAPSHOT_KEY = "snapshot_key";
+    private static final String STATE_URL = "url";
+
     private Uri url;
+    private RequestRunner requestRunner;
+    // The load in flight; cancelled when superseded or when the activity goes away.
+    private RequestRunner.Call currentCall;
+    // Background refresh of a page shown from the cache; cancelled like the load.
+    private RequestRunner.Call revalidationCall;
+    private GeminiPageContentFragment streamingFragment;
+    private RequestTimings timings;
+    // Identifies this window's page in the back/forward cache; survives recreation.
+    private String snapshotKey;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.page_activity);
+        this.requestRunner = new RequestRunner(ContextCompat.getMainExecutor(this));
         String uriStr = Objects.requireNonNull(this.getIntent().getData()).toString();
+        if (savedInstanceState != null && savedInstanceState.getString(STATE_SNAPSHOT_KEY) != null) {
+            this.snapshotKey = savedInstanceState.getString(STATE_SNAPSHOT_KEY);
+            // The page may differ from the intent after an input prompt.
+            uriStr = savedInstanceState.getString(STATE_URL, uriStr);
+        } else {
+            this.snapshotKey = getTaskId() + "/" + UUID.randomUUID();
+        }
 
         this.url = Uri.parse(uriStr.trim());
         TextView urlText = findViewById(R.id.browser_url);
         urlText.setText(this.url.toString());
-        handlePageReload(null);
+        findViewById(R.id.browser_reload).setOnLongClickListener(v -> toggleDebugOverlay());
+        // A recreated window comes back exactly as it was left; back navigation to a window
+        // that is gone and re-opened windows render from the response cache when possible.
+        if (!restoreSnapshot()) {
+            handlePageLoad();
+        }
+    }
+
+    /**
+     * Shows the page from the {@link BackForwardCache}, without network or parsing.
+     *
+     * @return Whether this window's page was cached.
+     */
+    private boolean restoreSnapshot() {
+        BackForwardCache.Snapshot snapshot = GeminiSingleton.getGemini().getBackForwardCache()
+                .get(this.snapshotKey, this.url.toString());
+        if (snapshot == null || this.getSupportFragmentManager().isDestroyed()) {
+            return false;
+        }
+        this.timings = new RequestTimings(this.url.toString());
+        this.timings.setCache("back-forward");
+        RequestTimingsLog.getInstance().add(this.timings);
+        GeminiPageContentFragment fragment = GeminiPageContentFragment.restored(snapshot);
+        fragment.setTimings(this.timings);
+        this.getSupportFragmentManager()
+                .beginTransaction()
+                .replace(R.id.browser_content, fragment)
+                .commit();
+        finishTimings();
+        return true;
+    }
+
+    /**
+     * Keeps the parsed page of this window in the {@link BackForwardCache}. Called by the
+     * content fragment once the whole page is rendered.
+     */
+    void onPageRendered(GeminiPageContentFragment fragment) {
+        if (!this.url.equals(fragment.getUri())) {
+            // A placeholder restored by the fragment manager, or a page that was navigated away from.
+            return;
+        }
+        GeminiSingleton.getGemini().getBackForwardCache().put(this.snapshotKey, this.url.toString(),
+                fragment.getDocument(), fragment.getResolvedLinks());
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        Fragment current = getSupportFragmentManager().findFragmentById(R.id.browser_content);
+        if (current instanceof GeminiPageContentFragment) {
+            GeminiPageContentFragment fragment = (GeminiPageContentFragment) current;
+            GeminiSingleton.getGemini().getBackForwardCache().setScrollPosition(this.snapshotKey,
+                    fragment.getScrollElement(), fragment.getScrollOffset());
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_SNAPSHOT_KEY, this.snapshotKey);
+        outState.putString(STATE_URL, this.url.toString());
+    }
+
+    /**
+     * Shows or hides the request timings overlay. Only available in developer mode.
+     *
+     * @return true if the long press was consumed.
+     */
+    private boolean toggleDebugOverlay() {
+        if (!DebugUIHelper.hasManageExternalStoragePermission(this)) {
+            return false;
+        }
+        TextView overlay = findViewById(R.id.debug_overlay);
+        overlay.setVisibility(overlay.getVisibility() == View.VISIBLE ? View.GONE : View.VISIBLE);
+        refreshDebugOverlay();
+        return true;
+    }
+
+    private void refreshDebugOverlay() {
+        TextView overlay = findViewById(R.id.debug_overlay);
+        if (overlay.getVisibility() != View.VISIBLE) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(GeminiSingleton.getGemini().getTlsSessionMetrics());
+        sb.append('\n').append(GeminiSingleton.getGemini().getSingleFlight());
+        sb.append('\n').append(GeminiSingleton.getGemini().getRedirectCache());
+        sb.append('\n').append(GeminiSingleton.getGemini().getResponseCache());
+        if (GeminiSingleton.getGemini().getDiskCache() != null) {
+            sb.append('\n').append(GeminiSingleton.getGemini().getDiskCache());
+        }
+        sb.append('\n').append(GeminiSingleton.getGemini().getPrefetcher());
+        sb.append('\n').append(GeminiSingleton.getGemini().getBackForwardCache());
+        sb.append('\n').append(GeminiSingleton.getGemini().getRevalidation());
+        for (RequestTimings entry : RequestTimingsLog.getInstance().snapshot()) {
+            sb.append("\n\n").append(entry);
+        }
+        overlay.setText(sb);
+    }
+
+    /**
+     * Shows the table of contents of the current page; picking a heading scrolls to it.
+     */
+    public void handlePageOutline(View view) { // this method is called from the XML
+        Fragment current = getSupportFragmentManager().findFragmentById(R.id.browser_content);
+        if (!(current instanceof GeminiPageContentFragment) || ((GeminiPageContentFragment) current).getDocument() == null) {
+            return;
+        }
+        final GeminiPageContentFragment fragment = (GeminiPageContentFragment) current;
+        final GemtextOutline outline = fragment.getDocument().getOutline();
+        if (outline.getHeadingCount() == 0) {
+            Toast.makeText(this, R.string.outline_empty, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        GemtextDocument.Cursor cursor = fragment.getDocument().cursor();
+        String[] titles = new String[outline.getHeadingCount()];
+        for (int n = 0; n < titles.length; n++) {
+            cursor.moveTo(outline.getHeadingElement(n));
+            StringBuilder title = new StringBuilder();
+            for (int level = 1; level < outline.getHeadingLevel(n); level++) {
+                title.append("    ");
+            }
+            titles[n] = title.append(cursor.text()).toString();
+        }
+        new MaterialAlertDialogBuilder(this)
+                .setTitle(R.string.outline_title)
+                .setItems(titles, (dialog, which) -> fragment.scrollToElement(outline.getHeadingElement(which)))
+                .show();
     }
 
     public void handlePageGo(View view) { // this method is called from the XML
@@ -89,16 +254,104 @@ public class PageActivity extends AppCompatActivity {
         return slashIndex == -1 || slashIndex >= dotIndex;
     }
     public void handlePageReload(View view) {
-        handlePageLoad();
+        handlePageLoad(this.url.toString(), ResponseCache.Policy.RELOAD);
     }
     public void handleLoad(List<String> content) {
         if (this.getSupportFragmentManager().isDestroyed()) return;
+        GeminiPageContentFragment fragment = new GeminiPageContentFragment(new ArrayList<>(content), this.url);
+        fragment.setTimings(this.timings);
         this.getSupportFragmentManager()
                 .beginTransaction()
-                .replace(R.id.browser_content, new GeminiPageContentFragment(new ArrayList<>(content), this.url))
+                .replace(R.id.browser_content, fragment)
                 .commit();
     }
+
+    /**
+     * Renders a batch of streamed body lines, swapping the loading fragment for the content
+     * fragment on the first batch.
+     */
+    private void handlePartialLoad(List<String> lines) {
+        if (this.getSupportFragmentManager().isDestroyed()) return;
+        if (this.streamingFragment == null) {
+            this.streamingFragment = GeminiPageContentFragment.streaming(this.url);
+            this.streamingFragment.setTimings(this.timings);
+            this.getSupportFragmentManager()
+                    .beginTransaction()
+                    .replace(R.id.browser_content, this.streamingFragment)
+                    .commit();
+        }
+        this.streamingFragment.appendLines(lines);
+    }
+
+    /**
+     * Completes a streamed load with the lines that arrived after the last batch.
+     */
+    private void handleLoadComplete(List<String> remaining) {
+        if (this.streamingFragment == null) {
+            // Small or fast page: everything arrived before the first batch was due.
+            handleLoad(remaining);
+        } else if (!this.getSupportFragmentManager().isDestroyed()) {
+            this.streamingFragment.appendLines(remaining);
+            this.streamingFragment.finishContent();
+        }
+        completeLoad();
+    }
+
+    /**
+     * Shows a page read back parsed from the disk cache, without parsing or resolving it again.
+     */
+    private void handleCachedPage(CompactGemtext.Page page) {
+        if (!this.getSupportFragmentManager().isDestroyed()) {
+            GeminiPageContentFragment fragment = GeminiPageContentFragment.decoded(page, this.url);
+            fragment.setTimings(this.timings);
+            this.getSupportFragmentManager()
+                    .beginTransaction()
+                    .replace(R.id.browser_content, fragment)
+                    .commit();
+        }
+        completeLoad();
+    }
+
+    /**
+     * Closes the timings of a load that succeeded and refreshes a page shown from the cache.
+     */
+    private void completeLoad() {
+        finishTimings();
+        if (this.timings.getCache() != null && GeminiSingleton.getGemini().shouldRevalidate(this, this.url)) {
+            Revalidation revalidation = new Revalidation(this);
+            this.revalidationCall = this.requestRunner.submit(revalidation, revalidation);
+        }
+    }
+
+    /**
+     * Swaps the page shown from the cache for the newer version found by revalidation, without
+     * the loading fragment in between.
+     */
+    private void handleRevalidated(List<String> lines, RequestTimings revalidationTimings) {
+        Log.i(TAG, "Cached page changed: " + this.url);
+        Fragment current = this.getSupportFragmentManager().findFragmentById(R.id.browser_content);
+        if (current instanceof GeminiPageContentFragment) {
+            ((GeminiPageContentFragment) current).replaceContent(lines, revalidationTimings);
+        } else {
+            handleLoad(lines);
+        }
+        refreshDebugOverlay();
+    }
+
+    /**
+     * Closes the timing record of the current load. A fragment created by the last commit
+     * renders later and still adds its parse/view time and first paint to the record.
+     */
+    private void finishTimings() {
+        this.timings.markEnd();
+        Log.i(TAG, this.timings.toString());
+        refreshDebugOverlay();
+    }
+
     private void handleLoad(Exception e) {
+        GeminiSingleton.getGemini().getBackForwardCache().remove(this.snapshotKey);
+        this.timings.setError(e);
+        finishTimings();
         // Handle input prompts (status codes 10-19) with dialogs
         if (e instanceof FailedGeminiRequestException.GeminiInputRequired) {
             FailedGeminiRequestException.GeminiInputRequired inputEx = (FailedGeminiRequestException.GeminiInputRequired) e;
@@ -169,6 +422,10 @@ public class PageActivity extends AppCompatActivity {
         handlePageLoad(this.url.toString());
     }
     public void handlePageLoad(String url) {
+        handlePageLoad(url, ResponseCache.Policy.PREFER_CACHE);
+    }
+
+    private void handlePageLoad(String url, ResponseCache.Policy policy) {
         Log.d(TAG, "page load");
         if (this.getSupportFragmentManager().isDestroyed()) return;
         this.getSupportFragmentManager()
@@ -179,52 +436,168 @@ public class PageActivity extends AppCompatActivity {
         Log.i(TAG, uri.toString());
         ((TextView)this.findViewById(R.id.browser_url)).setText(uri.toString());
 
-        new GeminiRequestTask(this).execute();
+        cancelCurrentLoad();
+        this.streamingFragment = null;
+        this.timings = new RequestTimings(uri.toString());
+        if (policy == ResponseCache.Policy.PREFER_CACHE) {
+            // A reload is not a navigation; only count visits towards the prefetch hit rate.
+            GeminiSingleton.getGemini().getPrefetcher().recordNavigation(uri.toString());
+        }
+        RequestTimingsLog.getInstance().add(this.timings);
+        PageRequest request = new PageRequest(this, policy);
+        this.currentCall = this.requestRunner.submit(request, request);
     }
 
-    private static class GeminiRequestTask extends AsyncTask<Void, Void, ArrayList<String>> {
-        private final WeakReference<PageActivity> activityRef;
-        private Exception exception;
-        private ArrayList<String> list;
+    /**
+     * Cancels the load in flight, closing its socket so its thread is released immediately.
+     */
+    private void cancelCurrentLoad() {
+        if (this.currentCall != null) {
+            this.currentCall.cancel();
+            this.currentCall = null;
+        }
+        if (this.revalidationCall != null) {
+            this.revalidationCall.cancel();
+            this.revalidationCall = null;
+        }
+    }
 
-        GeminiRequestTask(PageActivity activity) {
+    @Override
+    protected void onDestroy() {
+        cancelCurrentLoad();
+        super.onDestroy();
+    }
+
+    /**
+     * Runs the request on the {@link RequestRunner}, publishing body lines in batches as they arrive.
+     * A page whose parsed form is in the disk cache is published whole instead, without a request.
+     * <p>
+     * The first batch is published after {@link #FIRST_BATCH_LINES} lines (about a screenful),
+     * later ones at most every {@link #BATCH_INTERVAL_MS}, so slow capsules render progressively
+     * without flooding the main thread with one message per line. Batches and the outcome are
+     * posted through the {@link RequestRunner.Call}, so nothing arrives once it was cancelled.
+     */
+    private static class PageRequest implements RequestRunner.Task<ArrayList<String>>, RequestRunner.Callback<ArrayList<String>> {
+        private final WeakReference<PageActivity> activityRef;
+        private final Uri url;
+        private final RequestTimings timings;
+        private final ResponseCache.Policy policy;
+        private ArrayList<String> batch = new ArrayList<>();
+        private boolean published;
+        private long lastPublishNanos = System.nanoTime();
+
+        PageRequest(PageActivity activity, ResponseCache.Policy policy) {
             this.activityRef = new WeakReference<>(activity);
+            this.url = activity.url;
+            this.timings = activity.timings;
+            this.policy = policy;
         }
 
         @Override
-        protected ArrayList<String> doInBackground(Void... voids) {
-            PageActivity activity = activityRef.get();
-            if (activity == null || activity.isFinishing() || activity.isDestroyed()) {
+        public ArrayList<String> run(RequestRunner.Call call) throws Exception {
+            PageActivity activity = activeActivity();
+            if (activity == null) {
                 return null;
             }
+            CompactGemtext.Page page = GeminiSingleton.getGemini().getCachedPage(activity, this.url,
+                    this.timings, this.policy);
+            if (page != null) {
+                call.post(() -> {
+                    PageActivity active = activeActivity();
+                    if (active != null) {
+                        active.handleCachedPage(page);
+                    }
+                });
+                // Nothing left for onResult.
+                return null;
+            }
+            Log.d(TAG, "* request na thread *");
+            GeminiSingleton.getGemini().request(activity, this.url, line -> onLine(call, line),
+                    this.timings, call.getCancellation(), this.policy);
+            return this.batch;
+        }
+
+        private void onLine(RequestRunner.Call call, String line) {
+            this.batch.add(line);
+            long now = System.nanoTime();
+            boolean due = now - this.lastPublishNanos >= BATCH_INTERVAL_MS * 1_000_000L
+                    || (!this.published && this.batch.size() >= FIRST_BATCH_LINES);
+            if (due) {
+                final ArrayList<String> lines = this.batch;
+                call.post(() -> {
+                    PageActivity activity = activeActivity();
+                    if (activity != null) {
+                        activity.handlePartialLoad(lines);
+                    }
+                });
+                this.batch = new ArrayList<>();
+                this.published = true;
+                this.lastPublishNanos = now;
+            }
+        }
 
-            try {
-                Log.d(TAG, "* request na thread *");
-                // Use activity context and URL from activity
-                // Note: If activity is gone, we might still proceed but results are discarded
-                this.list = (ArrayList<String>) GeminiSingleton.getGemini().request(activity, activity.url);
-            } catch (Exception e) {
-                this.exception = e;
+        @Override
+        public void onResult(ArrayList<String> result) {
+            PageActivity activity = activeActivity();
+            if (activity != null && result != null) {
+                activity.handleLoadComplete(result);
             }
-            return this.list;
         }
 
         @Override
-        protected void onPostExecute(ArrayList<String> result) {
-            Log.d(TAG, "* post execute *");
+        public void onError(Exception e) {
+            PageActivity activity = activeActivity();
+            if (activity != null) {
+                activity.handleLoad(e);
+            }
+        }
+
+        private PageActivity activeActivity() {
             PageActivity activity = activityRef.get();
             if (activity == null || activity.isFinishing() || activity.isDestroyed()) {
-                return;
+                return null;
             }
+            return activity;
+        }
+    }
+
+    /**
+     * Fetches the page shown from the cache again on the {@link RequestRunner} and hands the new
+     * body to the activity only if it changed. Failures are logged: the cached copy stays.
+     */
+    private static class Revalidation implements RequestRunner.Task<List<String>>, RequestRunner.Callback<List<String>> {
+        private final WeakReference<PageActivity> activityRef;
+        private final Uri url;
+        private final RequestTimings timings;
+
+        Revalidation(PageActivity activity) {
+            this.activityRef = new WeakReference<>(activity);
+            this.url = activity.url;
+            this.timings = new RequestTimings(activity.url.toString());
+            RequestTimingsLog.getInstance().add(this.timings);
+        }
 
-            if (result != null) {
-                for (String item : result) {
-                    Log.v(TAG, item);
-                }
-                activity.handleLoad(result);
-            } else {
-                activity.handleLoad(exception);
+        @Override
+        public List<String> run(RequestRunner.Call call) throws Exception {
+            List<String> lines = GeminiSingleton.getGemini().getRevalidation()
+                    .revalidate(this.url.toString(), this.timings, call.getCancellation());
+            this.timings.markEnd();
+            return lines;
+        }
+
+        @Override
+        public void onResult(List<String> lines) {
+            PageActivity activity = this.activityRef.get();
+            if (lines != null && activity != null && !activity.isFinishing() && !activity.isDestroyed()
+                    && this.url.equals(activity.url)) {
+                activity.handleRevalidated(lines, this.timings);
             }
         }
+
+        @Override
+        public void onError(Exception e) {
+            this.timings.setError(e);
+            Log.w(TAG, "Revalidation of " + this.url + " failed", e);
+        }
     }
 }
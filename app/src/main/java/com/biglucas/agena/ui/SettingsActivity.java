@@ -0,0 +1,48 @@
+package com.biglucas.agena.ui;
+
+import android.os.Bundle;
+import android.text.InputType;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.preference.EditTextPreference;
+import androidx.preference.PreferenceFragmentCompat;
+
+import com.biglucas.agena.R;
+import com.biglucas.agena.utils.HostDeadlinePreferences;
+import com.biglucas.agena.utils.PageCachePreferences;
+
+/**
+ * User settings: request timeout overrides and the page cache.
+ */
+public class SettingsActivity extends AppCompatActivity {
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_settings);
+        if (savedInstanceState == null) {
+            this.getSupportFragmentManager()
+                    .beginTransaction()
+                    .replace(R.id.settings_content, new SettingsFragment())
+                    .commit();
+        }
+    }
+
+    public static class SettingsFragment extends PreferenceFragmentCompat {
+        @Override
+        public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
+            setPreferencesFromResource(R.xml.preferences, rootKey);
+            numeric(HostDeadlinePreferences.KEY_CONNECT_TIMEOUT);
+            numeric(HostDeadlinePreferences.KEY_READ_TIMEOUT);
+            numeric(HostDeadlinePreferences.KEY_TOTAL_TIMEOUT);
+            numeric(PageCachePreferences.KEY_DISK_CACHE_MB);
+        }
+
+        private void numeric(String key) {
+            EditTextPreference preference = findPreference(key);
+            if (preference != null) {
+                preference.setOnBindEditTextListener(editText -> editText.setInputType(InputType.TYPE_CLASS_NUMBER));
+            }
+        }
+    }
+}
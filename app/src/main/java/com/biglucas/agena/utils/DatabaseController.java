@@ -40,6 +40,9 @@ public class DatabaseController {
     private static final String SQL_INSERT_HISTORY_URL =
         "INSERT INTO " + TABLE_HISTORY + " (" + COLUMN_URL + ") VALUES (?);";
 
+    private static final String SQL_SELECT_HISTORY_VERSION =
+        "SELECT COUNT(*), MAX(rowid) FROM " + TABLE_HISTORY + ";";
+
     private static final String SQL_SELECT_ALL_HISTORY_ORDERED =
         "SELECT * FROM " + TABLE_HISTORY + " ORDER BY " + COLUMN_ACCESSED + " DESC;";
 
@@ -100,6 +103,23 @@ public class DatabaseController {
         this.db.execSQL(SQL_INSERT_HISTORY_URL, new String[]{uri.toString()});
     }
 
+    /**
+     * Identifies the current contents of the history, so a copy derived from it (such as the
+     * rendered history page) can tell whether it is still up to date. Entries are only ever
+     * added, so the count and the last row id change with every visit.
+     *
+     * @return A string that differs whenever the history, or the database holding it, changed.
+     */
+    public String getHistoryVersion() {
+        Cursor cursor = this.db.rawQuery(SQL_SELECT_HISTORY_VERSION, null);
+        try {
+            cursor.moveToFirst();
+            return this.db.getPath() + " " + cursor.getLong(0) + " " + cursor.getLong(1);
+        } finally {
+            cursor.close();
+        }
+    }
+
     /**
      * Retrieves the browsing history as a list of Gemini-formatted strings.
      * <p>
@@ -0,0 +1,56 @@
+package com.biglucas.agena.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.preference.PreferenceManager;
+
+import com.biglucas.agena.protocol.gemini.HostDeadlines;
+
+/**
+ * Connects {@link HostDeadlines} to Android preferences.
+ * <p>
+ * Learned per-host estimates live in their own preferences file so they survive restarts
+ * without cluttering the user settings. The user overrides (in seconds, empty for automatic)
+ * are read from the default preferences edited in the settings screen.
+ */
+public final class HostDeadlinePreferences {
+    private static final String TAG = "HostDeadlinePreferences";
+    private static final String ESTIMATES_FILE = "host_deadlines";
+
+    public static final String KEY_CONNECT_TIMEOUT = "timeout_connect_seconds";
+    public static final String KEY_READ_TIMEOUT = "timeout_read_seconds";
+    public static final String KEY_TOTAL_TIMEOUT = "timeout_total_seconds";
+
+    private HostDeadlinePreferences() {
+        // This is a utility class and should not be instantiated
+    }
+
+    /**
+     * Attaches persistent storage on first use and applies the current user overrides.
+     * Overrides are read every time so changes in the settings screen apply to the next request.
+     */
+    public static void apply(Context context, HostDeadlines deadlines) {
+        if (!deadlines.hasStore()) {
+            deadlines.setStore(new PreferencesStore(context, ESTIMATES_FILE));
+        }
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        deadlines.setOverrides(
+                secondsToMillis(preferences, KEY_CONNECT_TIMEOUT),
+                secondsToMillis(preferences, KEY_READ_TIMEOUT),
+                secondsToMillis(preferences, KEY_TOTAL_TIMEOUT));
+    }
+
+    private static int secondsToMillis(SharedPreferences preferences, String key) {
+        String value = preferences.getString(key, "");
+        if (value == null || value.trim().isEmpty()) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(value.trim())) * 1000;
+        } catch (NumberFormatException e) {
+            ErrorReporter.reportError(TAG, "Ignoring invalid " + key + ": " + value);
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.biglucas.agena.utils;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+
+import androidx.preference.PreferenceManager;
+
+import com.biglucas.agena.protocol.gemini.LinkPrefetcher;
+
+/**
+ * Connects {@link LinkPrefetcher} to Android preferences and network state.
+ * <p>
+ * Prefetching is off unless enabled in the settings screen. Bytes spent today are kept in their
+ * own preferences file so the daily budget survives restarts, and nothing is prefetched on a
+ * metered network or in offline mode.
+ */
+public final class LinkPrefetchPreferences {
+    private static final String BUDGET_FILE = "prefetch_budget";
+
+    public static final String KEY_PREFETCH = "prefetch_links";
+
+    private LinkPrefetchPreferences() {
+        // This is a utility class and should not be instantiated
+    }
+
+    /**
+     * @return Whether the user enabled link prefetching.
+     */
+    public static boolean isEnabled(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(KEY_PREFETCH, false);
+    }
+
+    /**
+     * Attaches persistent storage and the network condition on first use.
+     */
+    public static void apply(Context context, LinkPrefetcher prefetcher) {
+        final Context appContext = context.getApplicationContext();
+        if (!prefetcher.hasStore()) {
+            prefetcher.setStore(new PreferencesStore(appContext, BUDGET_FILE));
+        }
+        if (!prefetcher.hasCondition()) {
+            final ConnectivityManager connectivity =
+                    (ConnectivityManager) appContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+            prefetcher.setCondition(() -> connectivity != null
+                    && !connectivity.isActiveNetworkMetered()
+                    && !PageCachePreferences.isOffline(appContext));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.biglucas.agena.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.preference.PreferenceManager;
+
+import com.biglucas.agena.protocol.gemini.DiskCache;
+import com.biglucas.agena.protocol.gemini.GeminiClient;
+import com.biglucas.agena.protocol.gemini.StaleWhileRevalidate;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Connects the page caches of {@link GeminiClient} to app storage and the settings screen.
+ * <p>
+ * Pages are cached in the app's cache directory, which the system may clear when storage runs
+ * low. The budget (in MB, empty for the default) and the offline switch are read from the
+ * default preferences on every request, so changes apply right away. So is the list of
+ * capsules whose cached pages are not refreshed in the background.
+ */
+public final class PageCachePreferences {
+    private static final String TAG = "PageCachePreferences";
+    private static final String CACHE_DIRECTORY = "pages";
+
+    public static final String KEY_DISK_CACHE_MB = "disk_cache_mb";
+    public static final String KEY_OFFLINE = "offline_mode";
+    public static final String KEY_REVALIDATE_OPT_OUT = "revalidate_opt_out";
+
+    private PageCachePreferences() {
+        // This is a utility class and should not be instantiated
+    }
+
+    /**
+     * Attaches the disk cache on first use and applies the current budget. Must not be called
+     * on the main thread.
+     */
+    public static synchronized void apply(Context context, GeminiClient client) {
+        DiskCache diskCache = client.getDiskCache();
+        if (diskCache == null) {
+            diskCache = new DiskCache(new File(context.getCacheDir(), CACHE_DIRECTORY));
+            client.setDiskCache(diskCache);
+        }
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        diskCache.setMaxBytes(megabytes(preferences) * 1024L * 1024L);
+    }
+
+    /**
+     * Applies the background refresh opt-out list: host names or URI prefixes separated by
+     * spaces, commas or new lines.
+     */
+    public static void apply(Context context, StaleWhileRevalidate revalidation) {
+        String rules = PreferenceManager.getDefaultSharedPreferences(context).getString(KEY_REVALIDATE_OPT_OUT, "");
+        revalidation.setOptOut(Arrays.asList((rules == null ? "" : rules).split("[\\s,]+")));
+    }
+
+    /**
+     * @return Whether pages should only be served from the cache.
+     */
+    public static boolean isOffline(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(KEY_OFFLINE, false);
+    }
+
+    private static long megabytes(SharedPreferences preferences) {
+        long defaultMegabytes = DiskCache.DEFAULT_MAX_BYTES / (1024L * 1024L);
+        String value = preferences.getString(KEY_DISK_CACHE_MB, "");
+        if (value == null || value.trim().isEmpty()) {
+            return defaultMegabytes;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            ErrorReporter.reportError(TAG, "Ignoring invalid " + KEY_DISK_CACHE_MB + ": " + value);
+            return defaultMegabytes;
+        }
+    }
+}
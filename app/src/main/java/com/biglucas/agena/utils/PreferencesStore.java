@@ -0,0 +1,45 @@
+package com.biglucas.agena.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.biglucas.agena.protocol.gemini.KeyValueStore;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link KeyValueStore} backed by a private {@link SharedPreferences} file.
+ * <p>
+ * Writes use {@link SharedPreferences.Editor#apply()}, so they never block the request thread
+ * on disk I/O.
+ */
+public class PreferencesStore implements KeyValueStore {
+    private final SharedPreferences preferences;
+
+    public PreferencesStore(Context context, String fileName) {
+        this.preferences = context.getApplicationContext()
+                .getSharedPreferences(fileName, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public Map<String, String> load() {
+        Map<String, String> out = new LinkedHashMap<>();
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            if (entry.getValue() instanceof String) {
+                out.put(entry.getKey(), (String) entry.getValue());
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public void save(String key, String value) {
+        preferences.edit().putString(key, value).apply();
+    }
+
+    @Override
+    public void remove(String key) {
+        preferences.edit().remove(key).apply();
+    }
+}
@@ -7,6 +7,7 @@ import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.X509TrustManager;
 
@@ -25,12 +26,21 @@ import javax.net.ssl.X509TrustManager;
  * - Conscrypt provider ensures modern TLS support on older Android devices
  * - SNI is enabled by default in Android's SSLSocket implementation
  * - Currently accepts all certificates (similar to TOFU but without persistence)
+ * - The client session cache is sized and timed explicitly so repeated requests to the same
+ *   capsule resume the TLS session (abbreviated handshake) instead of negotiating a new one.
+ *   Sessions are keyed by host:port, so sockets must be created with the peer host and port
+ *   (see {@link SSLSocketFactory#createSocket(java.net.Socket, String, int, boolean)}).
  * <p>
  * Note: This implementation uses a permissive trust manager that accepts all certificates.
  * This is appropriate for Gemini's TOFU model but means ALL certificates are trusted.
  * A full TOFU implementation would persist first-seen certificates and alert on changes.
  */
 public class SSLSocketFactorySingleton {
+    /** Number of host:port sessions kept for resumption. */
+    public static final int SESSION_CACHE_SIZE = 64;
+    /** How long a cached session may be resumed, in seconds. */
+    public static final int SESSION_TIMEOUT_SECONDS = 60 * 60;
+
     private static volatile SSLSocketFactory factory = null;
 
     private SSLSocketFactorySingleton() {
@@ -57,6 +67,12 @@ public class SSLSocketFactorySingleton {
                     X509TrustManager[] trustManagers = {new GeminiTrustManager()};
                     sslContext.init(null, trustManagers, null);
 
+                    SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+                    if (sessionContext != null) {
+                        sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE);
+                        sessionContext.setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+                    }
+
                     SSLSocketFactorySingleton.factory = sslContext.getSocketFactory();
                 }
             }
@@ -0,0 +1,116 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pages the benchmarks run on: {@code demo}, the pages in {@code demo/*.gmi} one after the other,
+ * and {@code 10k} / {@code 100k}, synthetic pages with that many lines.
+ */
+final class BenchmarkCorpus {
+    /** The page the corpora are resolved against. */
+    static final String PAGE_URI = "gemini://example.com/gemlog/index.gmi";
+
+    private BenchmarkCorpus() {
+    }
+
+    /**
+     * @return The UTF-8 body of the corpus called {@code name}.
+     */
+    static byte[] body(String name) throws IOException {
+        switch (name) {
+            case "demo":
+                return demo();
+            case "10k":
+                return synthetic(10_000);
+            case "100k":
+                return synthetic(100_000);
+            default:
+                throw new IllegalArgumentException("Unknown corpus " + name);
+        }
+    }
+
+    static List<String> lines(byte[] body) throws IOException {
+        GeminiLineReader reader = new GeminiLineReader(new ByteArrayInputStream(body));
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    /**
+     * @return The link targets of {@code lines} as written, in document order.
+     */
+    static List<String> links(List<String> lines) {
+        List<String> links = new ArrayList<>();
+        for (GemtextParser.Element element : GemtextParser.parse(lines)) {
+            if (element instanceof GemtextParser.Link && !((GemtextParser.Link) element).url.isEmpty()) {
+                links.add(((GemtextParser.Link) element).url);
+            }
+        }
+        return links;
+    }
+
+    private static byte[] demo() throws IOException {
+        File directory = new File(System.getProperty("agena.demo", "../demo"));
+        File[] pages = directory.listFiles((dir, name) -> name.endsWith(".gmi"));
+        if (pages == null || pages.length == 0) {
+            throw new IOException("No demo pages in " + directory.getAbsolutePath());
+        }
+        Arrays.sort(pages);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (File page : pages) {
+            try (InputStream in = new FileInputStream(page)) {
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            out.write('\n');
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A capsule index that grew large: mostly links (relative, absolute and to other hosts), with
+     * headings, paragraphs, lists, quotes and a preformatted block now and then.
+     */
+    private static byte[] synthetic(int lines) {
+        StringBuilder sb = new StringBuilder(lines * 48);
+        int i = 0;
+        while (i < lines) {
+            int n = i % 100;
+            if (n == 0) {
+                sb.append("## Entries ").append(i / 100).append('\n');
+            } else if (n == 1) {
+                sb.append("Notes from the week, in the order they were written. Some have replies.\n");
+            } else if (n == 40 && i + 4 < lines) {
+                sb.append("```console\n$ gemget gemini://example.com/\n20 text/gemini\n```\n");
+                i += 3;
+            } else if (n % 17 == 0) {
+                sb.append("* Item ").append(i).append(" of the list\n");
+            } else if (n % 23 == 0) {
+                sb.append("> Quoted reply número ").append(i).append('\n');
+            } else if (n % 5 == 0) {
+                sb.append("=> gemini://mirror").append(i % 7).append(".example.org/posts/").append(i).append(".gmi Mirror\n");
+            } else if (n % 3 == 0) {
+                sb.append("=> ../archive/").append(i).append("/ Archive ").append(i).append('\n');
+            } else {
+                sb.append("=> ").append(i).append(".gmi Entry ").append(i).append(" — a post\n");
+            }
+            i++;
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
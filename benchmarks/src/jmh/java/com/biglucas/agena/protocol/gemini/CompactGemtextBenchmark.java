@@ -0,0 +1,64 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Showing a cached page again: decoding its compact form against parsing it and resolving its
+ * links, from its lines (memory cache) or its body (disk cache). {@code encode} is what the disk
+ * cache pays on its writer thread for every page it stores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompactGemtextBenchmark {
+    @Param({"demo", "10k", "100k"})
+    public String corpus;
+
+    private byte[] body;
+    private List<String> lines;
+    private CompactGemtext.Page page;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        body = BenchmarkCorpus.body(corpus);
+        lines = BenchmarkCorpus.lines(body);
+        page = parse(lines);
+        encoded = CompactGemtext.encode(page);
+    }
+
+    private static CompactGemtext.Page parse(List<String> lines) {
+        return CompactGemtext.parse(BenchmarkCorpus.PAGE_URI, 20, "text/gemini", 0, BenchmarkCorpus.PAGE_URI, lines);
+    }
+
+    @Benchmark
+    public CompactGemtext.Page decode() throws IOException {
+        return CompactGemtext.decode(encoded);
+    }
+
+    @Benchmark
+    public CompactGemtext.Page parseLines() {
+        return parse(lines);
+    }
+
+    @Benchmark
+    public CompactGemtext.Page parseBody() throws IOException {
+        return parse(BenchmarkCorpus.lines(body));
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return CompactGemtext.encode(page);
+    }
+}
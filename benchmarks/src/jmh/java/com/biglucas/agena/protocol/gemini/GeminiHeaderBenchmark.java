@@ -0,0 +1,66 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading and splitting response headers, one of each kind a browsing session sees.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GeminiHeaderBenchmark {
+    private static final String[] HEADERS = {
+            "20 text/gemini",
+            "20 text/gemini; charset=utf-8; lang=en",
+            "20 text/gemini; charset=iso-8859-1",
+            "20 image/png",
+            "31 gemini://example.com/moved/",
+            "10 Search query",
+            "51 Not found",
+            "44 5",
+    };
+
+    private byte[][] responses;
+
+    @Setup
+    public void setUp() {
+        responses = new byte[HEADERS.length][];
+        for (int i = 0; i < HEADERS.length; i++) {
+            responses[i] = (HEADERS[i] + GeminiSpec.CRLF).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /** Only the string work on a header line that was already read. */
+    @Benchmark
+    public void parseHeaderLine(Blackhole blackhole) {
+        for (String header : HEADERS) {
+            blackhole.consume(GeminiSpec.statusOf(header));
+            String meta = GeminiSpec.metaOf(header);
+            blackhole.consume(GeminiSpec.charsetOf(meta));
+        }
+    }
+
+    /** What the client does per response, from the first byte to the body. */
+    @Benchmark
+    public void readAndParseHeader(Blackhole blackhole) throws IOException, FailedGeminiRequestException {
+        for (byte[] response : responses) {
+            GeminiLineReader reader = new GeminiLineReader(new ByteArrayInputStream(response));
+            String header = reader.readHeaderLine();
+            blackhole.consume(GeminiSpec.statusOf(header));
+            String meta = GeminiSpec.metaOf(header);
+            blackhole.consume(GeminiSpec.charsetOf(meta));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the body lines of a text/gemini response from a byte stream, in the charset the
+ * server declared.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GeminiLineReaderBenchmark {
+    @Param({"demo", "10k", "100k"})
+    public String corpus;
+
+    @Param({"UTF-8", "windows-1252"})
+    public String charset;
+
+    private byte[] body;
+    private Charset bodyCharset;
+
+    @Setup
+    public void setUp() throws IOException {
+        bodyCharset = Charset.forName(charset);
+        // Characters the charset lacks become '?', like a server converting its pages would do.
+        body = new String(BenchmarkCorpus.body(corpus), StandardCharsets.UTF_8).getBytes(bodyCharset);
+    }
+
+    @Benchmark
+    public void readLines(Blackhole blackhole) throws IOException {
+        GeminiLineReader reader = new GeminiLineReader(new ByteArrayInputStream(body));
+        reader.setCharset(bodyCharset);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            blackhole.consume(line);
+        }
+    }
+}
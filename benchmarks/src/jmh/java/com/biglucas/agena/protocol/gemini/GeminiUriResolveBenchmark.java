@@ -0,0 +1,49 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolving every link of a page against the page URI, as the page fragment does when it
+ * renders the links.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GeminiUriResolveBenchmark {
+    @Param({"demo", "10k", "100k"})
+    public String corpus;
+
+    private List<String> links;
+
+    @Setup
+    public void setUp() throws IOException {
+        links = BenchmarkCorpus.links(BenchmarkCorpus.lines(BenchmarkCorpus.body(corpus)));
+    }
+
+    @Benchmark
+    public void resolveEach(Blackhole blackhole) {
+        for (String link : links) {
+            blackhole.consume(GeminiUriHelper.resolve(BenchmarkCorpus.PAGE_URI, link));
+        }
+    }
+
+    @Benchmark
+    public void resolveWithPageResolver(Blackhole blackhole) {
+        GeminiUriHelper.Resolver resolver = new GeminiUriHelper.Resolver(BenchmarkCorpus.PAGE_URI);
+        for (String link : links) {
+            blackhole.consume(resolver.resolve(link));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a page: into elements, into the columnar document the app keeps, and straight from
+ * body bytes as they arrive. The {@code FromBytes} benchmarks start from the body instead of
+ * its lines, as a page load does: lines and elements, or the document.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GemtextParseBenchmark {
+    private static final int CHUNK_BYTES = 8192;
+
+    @Param({"demo", "10k", "100k"})
+    public String corpus;
+
+    private byte[] body;
+    private List<String> lines;
+
+    @Setup
+    public void setUp() throws IOException {
+        body = BenchmarkCorpus.body(corpus);
+        lines = BenchmarkCorpus.lines(body);
+    }
+
+    @Benchmark
+    public List<GemtextParser.Element> parse() {
+        return GemtextParser.parse(lines);
+    }
+
+    @Benchmark
+    public GemtextDocument parseDocument() {
+        return GemtextDocument.parse(lines);
+    }
+
+    @Benchmark
+    public List<GemtextParser.Element> pushParseBytes() {
+        GemtextParser.PushParser parser = new GemtextParser.PushParser();
+        List<GemtextParser.Element> out = new ArrayList<>();
+        for (int offset = 0; offset < body.length; offset += CHUNK_BYTES) {
+            parser.feed(ByteBuffer.wrap(body, offset, Math.min(CHUNK_BYTES, body.length - offset)), out);
+        }
+        parser.finish(out);
+        return out;
+    }
+
+    @Benchmark
+    public List<GemtextParser.Element> elementsFromBytes() throws IOException {
+        return GemtextParser.parse(BenchmarkCorpus.lines(body));
+    }
+
+    @Benchmark
+    public GemtextDocument documentFromBytes() throws IOException {
+        GeminiLineReader reader = new GeminiLineReader(new ByteArrayInputStream(body));
+        GemtextDocument document = new GemtextDocument();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            document.append(line);
+        }
+        document.finish();
+        return document;
+    }
+}
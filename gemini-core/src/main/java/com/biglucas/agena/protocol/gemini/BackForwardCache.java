@@ -0,0 +1,151 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the rendered state of recently shown pages so going back to one restores it exactly:
+ * the parsed document, resolved link targets and scroll position, with no request and no parsing.
+ * <p>
+ * Snapshots are keyed by the caller; the app uses one key per window (task and page instance),
+ * so two visits of the same URI in a task keep their own scroll positions. At most
+ * {@code maxPages} snapshots are kept, least recently used first out, and {@link #trimToSize}
+ * lets the app give memory back when the system asks for it.
+ */
+public class BackForwardCache {
+    public static final int DEFAULT_MAX_PAGES = 16;
+
+    /**
+     * The rendered state of one page.
+     */
+    public static final class Snapshot {
+        /** The URI the page was loaded from. */
+        public final String uri;
+        /** The complete parsed page; must not be appended to anymore. */
+        public final GemtextDocument document;
+        /** Resolved targets of the link lines in document order, unmodifiable. */
+        public final List<String> links;
+        private volatile int scrollElement;
+        private volatile int scrollOffset;
+
+        Snapshot(String uri, GemtextDocument document, List<String> links) {
+            this.uri = uri;
+            this.document = document;
+            this.links = Collections.unmodifiableList(new ArrayList<>(links));
+        }
+
+        /** @return The element at the top of the screen when the scroll position was last recorded. */
+        public int getScrollElement() {
+            return scrollElement;
+        }
+
+        /** @return Where the top of that element was, in pixels from the top of the page (zero or less). */
+        public int getScrollOffset() {
+            return scrollOffset;
+        }
+    }
+
+    private final Map<String, Snapshot> snapshots = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxPages;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public BackForwardCache() {
+        this(DEFAULT_MAX_PAGES);
+    }
+
+    public BackForwardCache(int maxPages) {
+        this.maxPages = maxPages;
+    }
+
+    /**
+     * Stores the state of a freshly rendered page under {@code key}, replacing the previous one
+     * (the scroll position starts at the top).
+     *
+     * @return The stored snapshot.
+     */
+    public synchronized Snapshot put(String key, String uri, GemtextDocument document, List<String> links) {
+        Snapshot snapshot = new Snapshot(uri, document, links);
+        snapshots.remove(key);
+        snapshots.put(key, snapshot);
+        trim(maxPages);
+        return snapshot;
+    }
+
+    /**
+     * @return The snapshot stored under {@code key} if it shows {@code uri}, otherwise null.
+     */
+    public synchronized Snapshot get(String key, String uri) {
+        Snapshot snapshot = snapshots.get(key);
+        if (snapshot == null || !snapshot.uri.equals(uri)) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return snapshot;
+    }
+
+    /**
+     * Records the scroll position of the page stored under {@code key}, if any: the element at
+     * the top of the screen and the offset of its top. Pages are laid out lazily, so a position
+     * in pixels from the start of the page is not known.
+     */
+    public synchronized void setScrollPosition(String key, int element, int offset) {
+        Snapshot snapshot = snapshots.get(key);
+        if (snapshot != null) {
+            snapshot.scrollElement = element;
+            snapshot.scrollOffset = offset;
+        }
+    }
+
+    public synchronized void remove(String key) {
+        snapshots.remove(key);
+    }
+
+    /**
+     * Drops least recently used snapshots until at most {@code pages} remain.
+     */
+    public synchronized void trimToSize(int pages) {
+        trim(Math.max(0, pages));
+    }
+
+    private void trim(int pages) {
+        Iterator<Snapshot> eldest = snapshots.values().iterator();
+        while (snapshots.size() > pages && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized int size() {
+        return snapshots.size();
+    }
+
+    public int getMaxPages() {
+        return maxPages;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "back/forward cache: pages=" + snapshots.size() + "/" + maxPages
+                + " hits=" + hits + " misses=" + misses + " evictions=" + evictions;
+    }
+}
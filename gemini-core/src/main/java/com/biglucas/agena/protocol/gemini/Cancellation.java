@@ -0,0 +1,76 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Cancellation signal for one request.
+ * <p>
+ * A thread blocked in a socket read does not react to interrupts, so cancelling also closes
+ * the resource the request is currently blocked on (its socket). The request registers that
+ * resource with {@link #attach(Closeable)}; attaching after cancellation closes it right away,
+ * so there is no window where a cancelled request can still start blocking.
+ */
+public class Cancellation {
+    private boolean cancelled;
+    private Closeable attached;
+
+    /**
+     * Cancels the request and closes the attached resource. Safe to call from any thread, more
+     * than once.
+     */
+    public void cancel() {
+        Closeable toClose;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            toClose = attached;
+            attached = null;
+        }
+        closeQuietly(toClose);
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Makes {@code resource} the one closed on cancellation, replacing any previous one
+     * (which is not closed; its owner does that).
+     *
+     * @throws InterruptedIOException If already cancelled; {@code resource} is closed first.
+     */
+    public void attach(Closeable resource) throws InterruptedIOException {
+        synchronized (this) {
+            if (!cancelled) {
+                attached = resource;
+                return;
+            }
+        }
+        closeQuietly(resource);
+        throw new InterruptedIOException("Request cancelled");
+    }
+
+    /**
+     * @throws InterruptedIOException If the request was cancelled.
+     */
+    public void throwIfCancelled() throws InterruptedIOException {
+        if (isCancelled()) {
+            throw new InterruptedIOException("Request cancelled");
+        }
+    }
+
+    private static void closeQuietly(Closeable resource) {
+        if (resource == null) {
+            return;
+        }
+        try {
+            resource.close();
+        } catch (IOException ignored) {
+            // Nothing useful to do; the request is being abandoned.
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact binary form of a parsed page, so a cached page can be shown again without parsing its
+ * lines or resolving its links.
+ * <p>
+ * It stores the columns of a {@link GemtextDocument} and the resolved link targets. Lengths are
+ * unsigned LEB128 varints, so most take one byte. Everything after the header is deflated, since
+ * the text blob alone is nearly as large as the body it came from:
+ * <pre>
+ *   "AGMB" version:u8 key:str status:u8 meta:str fetchedAtMillis:varint payloadLength:varint
+ *   deflated payload, payloadLength bytes once inflated:
+ *   count:varint textLength:varint hostCount:varint
+ *   hostCount x { host:str links:varint }
+ *   count x { type:u8 [level:u8] [extraLength:varint] textLength:varint }
+ *   text:  textLength bytes, the UTF-8 blob of the document
+ *   linkCount:varint
+ *   linkCount x { shared:varint suffixLength:varint suffix }
+ * </pre>
+ * Headings carry their level, links and preformatted blocks the length of their URL or alt text.
+ * A resolved link is stored as the number of leading bytes it shares with the previous one plus
+ * the rest, since the links of a page mostly share its capsule and directory. Strings are a
+ * varint byte length followed by UTF-8.
+ * <p>
+ * Decoding inflates the payload, copies the text blob once and fills the element arrays; no string is created per
+ * element, only one per resolved link. Damaged or truncated data is rejected with an
+ * {@link IOException}.
+ */
+public final class CompactGemtext {
+    static final byte[] MAGIC = {'A', 'G', 'M', 'B'};
+    static final int VERSION = 4;
+    /** Deflate cannot expand data more than about this much, so larger payloads are damage. */
+    private static final int MAX_INFLATION = 1032;
+
+    /**
+     * A parsed page with its resolved links and the response it came from.
+     */
+    public static final class Page {
+        /** What the page is stored under, e.g. the normalized URI of a cached response. */
+        public final String key;
+        public final int status;
+        public final String meta;
+        /** When the response was read from the network (wall clock). */
+        public final long fetchedAtMillis;
+        /** The complete parsed page; must not be appended to anymore. */
+        public final GemtextDocument document;
+        /** Resolved targets of the links with a URL, in document order, unmodifiable. */
+        public final List<String> links;
+
+        Page(String key, int status, String meta, long fetchedAtMillis, GemtextDocument document, List<String> links) {
+            this.key = key;
+            this.status = status;
+            this.meta = meta;
+            this.fetchedAtMillis = fetchedAtMillis;
+            this.document = document;
+            this.links = Collections.unmodifiableList(links);
+        }
+    }
+
+    private CompactGemtext() {
+    }
+
+    /**
+     * Parses {@code lines} and resolves their links against {@code baseUri}.
+     */
+    public static Page parse(String key, int status, String meta, long fetchedAtMillis, String baseUri,
+                             List<String> lines) {
+        GemtextDocument document = GemtextDocument.parse(lines);
+        GemtextOutline outline = document.getOutline();
+        GemtextDocument.Cursor link = document.cursor();
+        GeminiUriHelper.Resolver resolver = new GeminiUriHelper.Resolver(baseUri);
+        List<String> links = new ArrayList<>(outline.getLinkCount());
+        for (int n = 0; n < outline.getLinkCount(); n++) {
+            link.moveTo(outline.getLinkElement(n));
+            links.add(resolver.resolve(link.url()));
+        }
+        return new Page(key, status, meta, fetchedAtMillis, document, links);
+    }
+
+    public static byte[] encode(Page page) {
+        GemtextDocument document = page.document;
+        int count = document.size();
+        int textLength = document.getTextBytes();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(textLength + count * 3 + page.links.size() * 16 + 16);
+        writeVarint(out, count);
+        writeVarint(out, textLength);
+        Map<String, Integer> hosts = document.getOutline().getLinksPerHost();
+        writeVarint(out, hosts.size());
+        for (Map.Entry<String, Integer> host : hosts.entrySet()) {
+            writeString(out, host.getKey());
+            writeVarint(out, host.getValue());
+        }
+        int end = 0;
+        for (int i = 0; i < count; i++) {
+            int type = document.type(i);
+            out.write(type);
+            if (type == GemtextDocument.HEADING) {
+                out.write(document.level(i));
+            }
+            int extraEnd = document.extraEnd(i);
+            if (type == GemtextDocument.LINK || type == GemtextDocument.PREFORMATTED) {
+                writeVarint(out, extraEnd - end);
+            }
+            end = document.textEnd(i);
+            writeVarint(out, end - extraEnd);
+        }
+        out.write(document.bytes(), 0, textLength);
+        writeVarint(out, page.links.size());
+        byte[] previous = new byte[0];
+        for (String link : page.links) {
+            byte[] current = link.getBytes(StandardCharsets.UTF_8);
+            int shared = 0;
+            int max = Math.min(previous.length, current.length);
+            while (shared < max && previous[shared] == current[shared]) {
+                shared++;
+            }
+            writeVarint(out, shared);
+            writeVarint(out, current.length - shared);
+            out.write(current, shared, current.length - shared);
+            previous = current;
+        }
+        byte[] payload = out.toByteArray();
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream(payload.length / 4 + 64);
+        file.write(MAGIC, 0, MAGIC.length);
+        file.write(VERSION);
+        writeString(file, page.key);
+        file.write(page.status);
+        writeString(file, page.meta);
+        writeVarint(file, page.fetchedAtMillis);
+        writeVarint(file, payload.length);
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(payload);
+            deflater.finish();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                file.write(buffer, 0, deflater.deflate(buffer));
+            }
+        } finally {
+            deflater.end();
+        }
+        return file.toByteArray();
+    }
+
+    /**
+     * @throws IOException If {@code data} is not a complete page of this version.
+     */
+    public static Page decode(byte[] data) throws IOException {
+        Input in = new Input(data);
+        for (byte b : MAGIC) {
+            if (in.readByte() != b) {
+                throw new IOException("Not a compact gemtext page");
+            }
+        }
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported compact gemtext version " + version);
+        }
+        String key = in.readString();
+        int status = in.readByte();
+        String meta = in.readString();
+        long fetchedAtMillis = in.readVarint();
+        long payloadLength = in.readVarint();
+        if (payloadLength < 0 || payloadLength > (long) in.remaining() * MAX_INFLATION) {
+            throw new IOException("Damaged compact gemtext length " + payloadLength);
+        }
+        in = new Input(in.inflate((int) payloadLength));
+        int count = in.readLength();
+        int textLength = in.readLength();
+        int hostCount = in.readLength();
+        String[] hosts = new String[hostCount];
+        int[] hostLinks = new int[hostCount];
+        for (int i = 0; i < hostCount; i++) {
+            hosts[i] = in.readString();
+            hostLinks[i] = in.readLength();
+        }
+
+        byte[] types = new byte[count];
+        byte[] levels = new byte[count];
+        int[] extraEnds = new int[count];
+        int[] textEnds = new int[count];
+        long end = 0;
+        for (int i = 0; i < count; i++) {
+            int type = in.readByte();
+            if (type < GemtextDocument.TEXT || type > GemtextDocument.PREFORMATTED) {
+                throw new IOException("Damaged compact gemtext element " + i);
+            }
+            types[i] = (byte) type;
+            if (type == GemtextDocument.HEADING) {
+                levels[i] = (byte) in.readByte();
+            }
+            if (type == GemtextDocument.LINK || type == GemtextDocument.PREFORMATTED) {
+                end += in.readLength();
+            }
+            long extraEnd = end;
+            end += in.readLength();
+            if (end > textLength) {
+                throw new IOException("Damaged compact gemtext element " + i);
+            }
+            extraEnds[i] = (int) extraEnd;
+            textEnds[i] = (int) end;
+        }
+        if (end != textLength) {
+            throw new IOException("Inconsistent compact gemtext text length");
+        }
+        GemtextDocument document = new GemtextDocument(in.readBytes(textLength), types, levels, extraEnds, textEnds, count);
+        GemtextOutline outline = document.getOutline();
+        for (int i = 0; i < hostCount; i++) {
+            outline.countLinks(hosts[i], hostLinks[i]);
+        }
+
+        int linkCount = in.readLength();
+        if (linkCount != outline.getLinkCount()) {
+            throw new IOException("Inconsistent compact gemtext link count");
+        }
+        List<String> links = new ArrayList<>(linkCount);
+        byte[] link = new byte[64];
+        int linkLength = 0;
+        for (int n = 0; n < linkCount; n++) {
+            // Refers to the previous link, not to the bytes left.
+            long shared = in.readVarint();
+            int suffix = in.readLength();
+            if (shared < 0 || shared > linkLength) {
+                throw new IOException("Damaged compact gemtext link " + n);
+            }
+            linkLength = (int) shared + suffix;
+            if (linkLength > link.length) {
+                link = Arrays.copyOf(link, Math.max(linkLength, link.length * 2));
+            }
+            in.readBytes(link, (int) shared, suffix);
+            links.add(new String(link, 0, linkLength, StandardCharsets.UTF_8));
+        }
+        if (in.remaining() != 0) {
+            throw new IOException("Trailing bytes in compact gemtext payload");
+        }
+        return new Page(key, status, meta, fetchedAtMillis, document, links);
+    }
+
+    /**
+     * @throws IOException If the file cannot be read or does not hold a valid page.
+     */
+    public static Page read(File file) throws IOException {
+        long length = file.length();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Too large for a compact gemtext page: " + file);
+        }
+        byte[] data = new byte[(int) length];
+        try (InputStream in = new FileInputStream(file)) {
+            int off = 0;
+            while (off < data.length) {
+                int n = in.read(data, off, data.length - off);
+                if (n < 0) {
+                    throw new IOException("Truncated compact gemtext page: " + file);
+                }
+                off += n;
+            }
+        }
+        return decode(data);
+    }
+
+    /**
+     * Writes {@code page} to {@code file}, replacing it. Not atomic: a torn file fails to
+     * {@link #read}.
+     */
+    public static void write(Page page, File file) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(encode(page));
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /** Reads the encoded fields, failing on data that ends too early. */
+    private static final class Input {
+        private final byte[] data;
+        private int position;
+
+        Input(byte[] data) {
+            this.data = data;
+        }
+
+        int remaining() {
+            return data.length - position;
+        }
+
+        int readByte() throws IOException {
+            if (position >= data.length) {
+                throw new IOException("Truncated compact gemtext page");
+            }
+            return data[position++] & 0xFF;
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Damaged compact gemtext varint");
+        }
+
+        /**
+         * @return A length or count. Each counted item takes at least a byte, so a value larger
+         * than the bytes left is damage, rejected before anything is allocated for it.
+         */
+        int readLength() throws IOException {
+            long value = readVarint();
+            if (value < 0 || value > remaining()) {
+                throw new IOException("Damaged compact gemtext length " + value);
+            }
+            return (int) value;
+        }
+
+        /**
+         * Inflates the rest of the data, which must be exactly one deflate stream of
+         * {@code length} bytes.
+         */
+        byte[] inflate(int length) throws IOException {
+            byte[] out = new byte[length];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(data, position, remaining());
+                int off = 0;
+                while (!inflater.finished()) {
+                    int n = inflater.inflate(out, off, out.length - off);
+                    off += n;
+                    if (n == 0 && !inflater.finished()) {
+                        break;
+                    }
+                }
+                if (!inflater.finished() || off != length || inflater.getRemaining() != 0) {
+                    throw new IOException("Truncated compact gemtext page");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Damaged compact gemtext page", e);
+            } finally {
+                inflater.end();
+            }
+            position = data.length;
+            return out;
+        }
+
+        String readString() throws IOException {
+            int length = readLength();
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        byte[] readBytes(int length) throws IOException {
+            byte[] out = new byte[length];
+            readBytes(out, 0, length);
+            return out;
+        }
+
+        void readBytes(byte[] out, int offset, int length) throws IOException {
+            if (length > remaining()) {
+                throw new IOException("Truncated compact gemtext page");
+            }
+            System.arraycopy(data, position, out, offset, length);
+            position += length;
+        }
+    }
+}
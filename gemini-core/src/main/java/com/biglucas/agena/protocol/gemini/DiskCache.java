@@ -0,0 +1,555 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Size-bounded on-disk cache of successful {@code text/gemini} responses, so cold starts and
+ * revisits to heavy pages are served without a connection or TLS handshake.
+ * <p>
+ * Every response lives in its own file, named after a hash of its normalized URI, with its
+ * parsed form (see {@link CompactGemtext}) next to it, so showing it again can skip parsing and
+ * link resolution (see {@link #getPage}). An index file lists the entries with their size (both
+ * files) and fetch time in least recently used order, so the recency survives restarts. All are
+ * written atomically (to a temporary file that is then renamed over the old one), so a crash
+ * leaves either the old or the new copy; leftovers and files missing from the index are deleted
+ * when the cache is first used. When the files exceed the byte budget the least recently used
+ * ones are deleted.
+ * <p>
+ * Writes, renames and deletions run on a single background thread, outside the lock that guards
+ * the in-memory index; reads happen on the requesting thread. Neither may be the UI thread. The
+ * counters are readable from any thread without taking that lock, so {@link #toString()} never
+ * waits for cache I/O. Entries older than the maximum age are not served unless stale copies are
+ * explicitly allowed (e.g. offline).
+ */
+public class DiskCache {
+    private static final Logger LOG = Logger.getLogger("DiskCache");
+
+    public static final long DEFAULT_MAX_BYTES = 20L * 1024 * 1024;
+    public static final long DEFAULT_MAX_AGE_MS = 24L * 60 * 60 * 1000;
+
+    static final String INDEX_FILE = "index";
+    private static final String INDEX_HEADER = "agena-page-cache 4";
+    static final String TEMP_SUFFIX = ".tmp";
+    static final String PAGE_SUFFIX = ".gmb";
+
+    private static final Executor SHARED_WRITER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "gemini-disk-cache");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** What the index knows about one cached response. */
+    private static final class Record {
+        final String fileName;
+        /** Of the response and its parsed form together. */
+        final long bytes;
+        final long fetchedAtMillis;
+
+        Record(String fileName, long bytes, long fetchedAtMillis) {
+            this.fileName = fileName;
+            this.bytes = bytes;
+            this.fetchedAtMillis = fetchedAtMillis;
+        }
+    }
+
+    private final File directory;
+    private final Executor writer;
+    private final long maxAgeMs;
+    private final Map<String, Record> records = new LinkedHashMap<>(16, 0.75f, true);
+    private volatile long maxBytes;
+    private boolean loaded;
+    private boolean indexWritePending;
+    // Only changed while holding the lock; volatile so they can be read without it.
+    private volatile int entryCount;
+    private volatile long bytes;
+    private volatile long hits;
+    private volatile long misses;
+    private volatile long evictions;
+
+    public DiskCache(File directory) {
+        this(directory, DEFAULT_MAX_BYTES, DEFAULT_MAX_AGE_MS, SHARED_WRITER);
+    }
+
+    public DiskCache(File directory, long maxBytes, long maxAgeMs, Executor writer) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.maxAgeMs = maxAgeMs;
+        this.writer = writer;
+    }
+
+    /**
+     * Changes the byte budget. A smaller budget is enforced on the next write.
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format(Locale.ROOT, "%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-1.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Keys end up in a line-based index, so they must not contain its separators. */
+    private static boolean isStorable(String key) {
+        return ResponseCache.isCacheable(key) && key.indexOf('\t') == -1 && key.indexOf('\n') == -1;
+    }
+
+    /**
+     * @param allowStale Whether an entry older than the maximum age may be returned.
+     * @return The cached response for {@code uri}, or null if there is none (or it is unreadable).
+     */
+    public ResponseCache.Entry get(String uri, boolean allowStale) {
+        String key = GeminiUriHelper.normalize(uri);
+        Record record;
+        synchronized (this) {
+            ensureLoaded();
+            record = records.get(key);
+            if (record == null || (!allowStale && System.currentTimeMillis() - record.fetchedAtMillis > maxAgeMs)) {
+                misses++;
+                return null;
+            }
+        }
+        ResponseCache.Entry entry = read(new File(directory, record.fileName), key);
+        synchronized (this) {
+            if (entry == null) {
+                misses++;
+                if (records.get(key) == record) {
+                    LOG.warning("Dropping unreadable cache entry for " + key);
+                    drop(key, record);
+                }
+                return null;
+            }
+            hits++;
+            // Persist the new recency order.
+            scheduleIndexWrite();
+            return entry;
+        }
+    }
+
+    /**
+     * @param allowStale Whether an entry older than the maximum age may be returned.
+     * @return The parsed form of the cached response for {@code uri}, with its links resolved
+     * against the URI, or null if there is none (or it is unreadable). A hit is only counted
+     * when a page is returned, so a caller falling back to {@link #get} counts the miss there.
+     */
+    public CompactGemtext.Page getPage(String uri, boolean allowStale) {
+        String key = GeminiUriHelper.normalize(uri);
+        Record record;
+        synchronized (this) {
+            ensureLoaded();
+            record = records.get(key);
+            if (record == null || (!allowStale && System.currentTimeMillis() - record.fetchedAtMillis > maxAgeMs)) {
+                return null;
+            }
+        }
+        CompactGemtext.Page page;
+        try {
+            page = CompactGemtext.read(new File(directory, record.fileName + PAGE_SUFFIX));
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Cannot read the parsed form of " + key, e);
+            return null;
+        }
+        if (!page.key.equals(key) || page.fetchedAtMillis != record.fetchedAtMillis) {
+            // Replaced by a newer copy since the record was looked up.
+            return null;
+        }
+        synchronized (this) {
+            hits++;
+            scheduleIndexWrite();
+        }
+        return page;
+    }
+
+    /**
+     * @return The cached response for {@code uri} whatever its age, or null; not counted as a
+     * hit or miss.
+     */
+    public ResponseCache.Entry peek(String uri) {
+        String key = GeminiUriHelper.normalize(uri);
+        Record record;
+        synchronized (this) {
+            ensureLoaded();
+            record = records.get(key);
+        }
+        return record == null ? null : read(new File(directory, record.fileName), key);
+    }
+
+    /**
+     * @return When the cached response for {@code uri} was fetched, or -1 if there is none.
+     * Does not touch the files.
+     */
+    public synchronized long getFetchedAtMillis(String uri) {
+        ensureLoaded();
+        Record record = records.get(GeminiUriHelper.normalize(uri));
+        return record == null ? -1 : record.fetchedAtMillis;
+    }
+
+    /**
+     * Stores a response in the background.
+     */
+    public void put(String uri, int status, String meta, List<String> lines) {
+        String key = GeminiUriHelper.normalize(uri);
+        if (!isStorable(key)) {
+            return;
+        }
+        long fetchedAtMillis = System.currentTimeMillis();
+        List<String> copy = new ArrayList<>(lines);
+        writer.execute(() -> write(key, status, meta, copy, fetchedAtMillis));
+    }
+
+    /**
+     * Deletes the cached response for {@code uri}, if any.
+     */
+    public synchronized void remove(String uri) {
+        ensureLoaded();
+        String key = GeminiUriHelper.normalize(uri);
+        Record record = records.get(key);
+        if (record != null) {
+            drop(key, record);
+        }
+    }
+
+    public synchronized int size() {
+        ensureLoaded();
+        return records.size();
+    }
+
+    public synchronized long getBytes() {
+        ensureLoaded();
+        return bytes;
+    }
+
+    public long getHitCount() {
+        return hits;
+    }
+
+    public long getMissCount() {
+        return misses;
+    }
+
+    public long getEvictionCount() {
+        return evictions;
+    }
+
+    /** Runs on the writer thread. */
+    private void write(String key, int status, String meta, List<String> lines, long fetchedAtMillis) {
+        String name = fileName(key);
+        File temp = new File(directory, name + TEMP_SUFFIX);
+        File pageTemp = new File(directory, name + PAGE_SUFFIX + TEMP_SUFFIX);
+        try {
+            synchronized (this) {
+                ensureLoaded();
+            }
+            try (OutputStream out = new FileOutputStream(temp);
+                 Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+                w.write(key);
+                w.write('\n');
+                w.write(Integer.toString(status));
+                w.write('\n');
+                w.write(meta);
+                w.write('\n');
+                w.write(Long.toString(fetchedAtMillis));
+                w.write('\n');
+                for (String line : lines) {
+                    w.write(line);
+                    w.write('\n');
+                }
+            }
+            CompactGemtext.write(CompactGemtext.parse(key, status, meta, fetchedAtMillis, key, lines), pageTemp);
+            long length = temp.length() + pageTemp.length();
+            if (length > maxBytes) {
+                temp.delete();
+                pageTemp.delete();
+                synchronized (this) {
+                    Record old = records.get(key);
+                    if (old != null) {
+                        drop(key, old);
+                    }
+                }
+                return;
+            }
+            // Readers holding the old record read the new files, which have the same key; the
+            // fetch time in the parsed form tells a reader it belongs to another record.
+            rename(temp, new File(directory, name));
+            rename(pageTemp, new File(directory, name + PAGE_SUFFIX));
+            List<String> index;
+            synchronized (this) {
+                Record old = records.put(key, new Record(name, length, fetchedAtMillis));
+                if (old != null) {
+                    bytes -= old.bytes;
+                }
+                bytes += length;
+                entryCount = records.size();
+                trim();
+                indexWritePending = false;
+                index = indexLines();
+            }
+            writeIndex(index);
+        } catch (IOException e) {
+            temp.delete();
+            pageTemp.delete();
+            LOG.log(Level.WARNING, "Failed to cache " + key, e);
+        }
+    }
+
+    private static void rename(File from, File to) throws IOException {
+        if (!from.renameTo(to)) {
+            // Platforms whose rename does not replace: retry once the old copy is gone.
+            to.delete();
+            if (!from.renameTo(to)) {
+                throw new IOException("Cannot rename " + from + " to " + to);
+            }
+        }
+    }
+
+    /**
+     * @return The entry stored in {@code file}, or null if it is missing, truncated or belongs to another key.
+     */
+    static ResponseCache.Entry read(File file, String key) {
+        byte[] data;
+        try (InputStream in = new FileInputStream(file)) {
+            long length = file.length();
+            if (length > Integer.MAX_VALUE) {
+                return null;
+            }
+            data = new byte[(int) length];
+            int off = 0;
+            while (off < data.length) {
+                int n = in.read(data, off, data.length - off);
+                if (n < 0) {
+                    return null;
+                }
+                off += n;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        String text = new String(data, StandardCharsets.UTF_8);
+        if (!text.endsWith("\n")) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>();
+        int start = 0;
+        int end;
+        while ((end = text.indexOf('\n', start)) != -1) {
+            fields.add(text.substring(start, end));
+            start = end + 1;
+        }
+        if (fields.size() < 4 || !fields.get(0).equals(key)) {
+            return null;
+        }
+        try {
+            int status = Integer.parseInt(fields.get(1));
+            long fetchedAtMillis = Long.parseLong(fields.get(3));
+            return new ResponseCache.Entry(key, status, fields.get(2), fields.subList(4, fields.size()), fetchedAtMillis);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            LOG.warning("Cannot create " + directory);
+            return;
+        }
+        readIndex();
+        entryCount = records.size();
+        writer.execute(this::deleteUnknownFiles);
+        trim();
+    }
+
+    /** Removes temporary files of interrupted writes and files the index does not know. */
+    private void deleteUnknownFiles() {
+        Set<String> known = new HashSet<>();
+        synchronized (this) {
+            for (Record record : records.values()) {
+                known.add(record.fileName);
+                known.add(record.fileName + PAGE_SUFFIX);
+            }
+        }
+        // Files are only created on the writer thread, so none appears while this runs.
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.getName().equals(INDEX_FILE) && !known.contains(file.getName())) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private void readIndex() {
+        File index = new File(directory, INDEX_FILE);
+        if (!index.isFile()) {
+            return;
+        }
+        String text;
+        try (InputStream in = new FileInputStream(index)) {
+            byte[] data = new byte[(int) index.length()];
+            int off = 0;
+            while (off < data.length) {
+                int n = in.read(data, off, data.length - off);
+                if (n < 0) {
+                    break;
+                }
+                off += n;
+            }
+            text = new String(data, 0, off, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Cannot read the cache index", e);
+            return;
+        }
+        String[] lines = text.split("\n");
+        if (lines.length == 0 || !lines[0].equals(INDEX_HEADER)) {
+            return;
+        }
+        // Lines are in least recently used order, so inserting them rebuilds the recency.
+        for (int i = 1; i < lines.length; i++) {
+            String[] parts = lines[i].split("\t");
+            if (parts.length != 4) {
+                continue;
+            }
+            try {
+                Record record = new Record(parts[1], Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+                if (!record.fileName.equals(fileName(parts[0]))
+                        || new File(directory, record.fileName).length()
+                        + new File(directory, record.fileName + PAGE_SUFFIX).length() != record.bytes) {
+                    continue;
+                }
+                records.put(parts[0], record);
+                bytes += record.bytes;
+            } catch (NumberFormatException e) {
+                // Skip the damaged line.
+            }
+        }
+    }
+
+    private void scheduleIndexWrite() {
+        if (indexWritePending) {
+            return;
+        }
+        indexWritePending = true;
+        writer.execute(() -> {
+            List<String> index;
+            synchronized (DiskCache.this) {
+                if (!indexWritePending) {
+                    // A write stored the index in the meantime.
+                    return;
+                }
+                indexWritePending = false;
+                index = indexLines();
+            }
+            writeIndex(index);
+        });
+    }
+
+    /** @return The lines of the index file, least recently used entry first. */
+    private List<String> indexLines() {
+        List<String> lines = new ArrayList<>(records.size() + 1);
+        lines.add(INDEX_HEADER);
+        for (Map.Entry<String, Record> entry : records.entrySet()) {
+            Record record = entry.getValue();
+            lines.add(entry.getKey() + '\t' + record.fileName + '\t' + record.bytes + '\t' + record.fetchedAtMillis);
+        }
+        return lines;
+    }
+
+    /** Runs on the writer thread, which orders the snapshots. */
+    private void writeIndex(List<String> lines) {
+        File temp = new File(directory, INDEX_FILE + TEMP_SUFFIX);
+        try {
+            try (Writer w = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+                for (String line : lines) {
+                    w.write(line);
+                    w.write('\n');
+                }
+            }
+            rename(temp, new File(directory, INDEX_FILE));
+        } catch (IOException e) {
+            temp.delete();
+            LOG.log(Level.WARNING, "Cannot write the cache index", e);
+        }
+    }
+
+    /** Deletes least recently used files until the cache fits its budget. */
+    private void trim() {
+        Iterator<Map.Entry<String, Record>> eldest = records.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Record> entry = eldest.next();
+            eldest.remove();
+            scheduleDelete(entry.getKey(), entry.getValue());
+            bytes -= entry.getValue().bytes;
+            evictions++;
+        }
+        entryCount = records.size();
+    }
+
+    private void drop(String key, Record record) {
+        records.remove(key);
+        scheduleDelete(key, record);
+        bytes -= record.bytes;
+        entryCount = records.size();
+        scheduleIndexWrite();
+    }
+
+    /**
+     * Deletes the files of a dropped record on the writer thread, unless the key was stored again
+     * by then: its new files have the same names.
+     */
+    private void scheduleDelete(String key, Record record) {
+        writer.execute(() -> {
+            synchronized (DiskCache.this) {
+                if (records.containsKey(key)) {
+                    return;
+                }
+            }
+            new File(directory, record.fileName).delete();
+            new File(directory, record.fileName + PAGE_SUFFIX).delete();
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "disk cache: entries=" + entryCount + " bytes=" + bytes / 1024 + "/" + maxBytes / 1024 + "KiB"
+                + " hits=" + hits + " misses=" + misses + " evictions=" + evictions;
+    }
+}
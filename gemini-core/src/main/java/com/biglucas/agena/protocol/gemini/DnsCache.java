@@ -0,0 +1,104 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * TTL-bounded, in-process cache of host name lookups.
+ * <p>
+ * Every request used to resolve the capsule host again through {@code new InetSocketAddress}.
+ * This cache keeps all addresses returned for a host (both families, so the connector can race
+ * them) for {@link #DEFAULT_TTL_MS}. Failed lookups are not cached, and the least recently used
+ * host is dropped once {@link #DEFAULT_MAX_ENTRIES} hosts are cached.
+ */
+public class DnsCache {
+    public static final long DEFAULT_TTL_MS = 60_000;
+    public static final int DEFAULT_MAX_ENTRIES = 128;
+
+    /**
+     * Resolves a host name to all of its addresses.
+     */
+    public interface Resolver {
+        InetAddress[] resolve(String host) throws UnknownHostException;
+    }
+
+    /** Resolver backed by the platform's {@link InetAddress#getAllByName(String)}. */
+    public static final Resolver SYSTEM_RESOLVER = InetAddress::getAllByName;
+
+    private static final class Entry {
+        final InetAddress[] addresses;
+        final long expiresAtNanos;
+
+        Entry(InetAddress[] addresses, long expiresAtNanos) {
+            this.addresses = addresses;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    private final Resolver resolver;
+    private final long ttlNanos;
+    private final Map<String, Entry> entries;
+    private long hits;
+    private long misses;
+
+    public DnsCache() {
+        this(SYSTEM_RESOLVER, DEFAULT_TTL_MS, DEFAULT_MAX_ENTRIES);
+    }
+
+    public DnsCache(Resolver resolver, long ttlMillis, final int maxEntries) {
+        this.resolver = resolver;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the addresses for {@code host}, resolving only when there is no live cache entry.
+     *
+     * @throws UnknownHostException If the host cannot be resolved.
+     */
+    public InetAddress[] lookup(String host) throws UnknownHostException {
+        String key = host.toLowerCase(Locale.ROOT);
+        long now = System.nanoTime();
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && now - entry.expiresAtNanos < 0) {
+                hits++;
+                return entry.addresses.clone();
+            }
+            misses++;
+        }
+
+        // Resolve outside the lock so a slow lookup does not block other hosts.
+        InetAddress[] addresses = resolver.resolve(host);
+        if (addresses == null || addresses.length == 0) {
+            throw new UnknownHostException(host);
+        }
+        synchronized (this) {
+            entries.put(key, new Entry(addresses.clone(), System.nanoTime() + ttlNanos));
+        }
+        return addresses;
+    }
+
+    /**
+     * Drops the cached addresses for {@code host}, e.g. after none of them accepted a connection.
+     */
+    public synchronized void invalidate(String host) {
+        entries.remove(host.toLowerCase(Locale.ROOT));
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+}
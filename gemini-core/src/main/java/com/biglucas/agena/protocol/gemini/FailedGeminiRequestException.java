@@ -135,6 +135,12 @@ public class FailedGeminiRequestException extends Exception {
         }
     }
 
+    public static class GeminiNotCached extends FailedGeminiRequestException {
+        public GeminiNotCached(String uri) {
+            super("Not available offline: " + uri);
+        }
+    }
+
     public static class GeminiUnimplementedCase extends FailedGeminiRequestException {
         GeminiUnimplementedCase() {
             super("Unimplemented case");
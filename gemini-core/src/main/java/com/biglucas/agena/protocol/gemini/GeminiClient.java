@@ -0,0 +1,881 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Platform-independent Gemini client: connection setup, request, header parsing, redirects and
+ * status dispatch, without any Android dependency.
+ * <p>
+ * The TLS layer and the threads used by {@link #requestAsync} are pluggable, so the same client
+ * runs inside the app (with its trust-on-first-use socket factory) and on a plain JVM against a
+ * local server, e.g. for load tests. Everything the app does with a response beyond reading it
+ * (downloads, history) goes through a {@link ResponseHandler}.
+ * <p>
+ * The client keeps the state shared by all its requests: DNS cache, TLS session metrics,
+ * learned deadlines, known redirects, cached responses and the requests currently in flight.
+ */
+public class GeminiClient {
+    private static final Logger LOG = Logger.getLogger("Gemini");
+
+    private static final ExecutorService SHARED_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "gemini-client");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Receives {@code text/gemini} body lines as they are read from the socket.
+     * <p>
+     * Called on the requesting (background) thread, once per line, in document order.
+     */
+    public interface LineListener {
+        void onLine(String line);
+    }
+
+    /**
+     * Handles the parts of a successful response that are not {@code text/gemini} lines.
+     * <p>
+     * Every request calls its own handler, also when it was coalesced with another one (see
+     * {@link SingleFlight}): {@code onSuccess} runs once per request, and a body that is not
+     * {@code text/gemini} is fetched again for each coalesced request, since it is a stream only
+     * one handler can read.
+     */
+    public interface ResponseHandler {
+        /** Ignores other bodies and successes. */
+        ResponseHandler NONE = new ResponseHandler() {
+            @Override
+            public void onBody(String uri, String mimeType, InputStream body) {
+                // Nothing to do; the connection is closed without reading the body.
+            }
+
+            @Override
+            public void onSuccess(String uri, String mimeType) {
+                // Nothing to do.
+            }
+        };
+
+        /**
+         * Receives a body that is not {@code text/gemini} while the connection is still open.
+         * The whole-response deadline is disarmed first, since downloads may be large.
+         *
+         * @param uri The URI that answered, after redirects.
+         */
+        void onBody(String uri, String mimeType, InputStream body) throws IOException, NoSuchAlgorithmException;
+
+        /**
+         * Called once a successful (2x) response was completely handled.
+         *
+         * @param uri The URI that answered, after redirects.
+         */
+        void onSuccess(String uri, String mimeType);
+    }
+
+    /**
+     * Supplies the TLS socket factory, asked once per connection so it can be created lazily.
+     */
+    public interface SocketFactorySource {
+        SSLSocketFactory get() throws NoSuchAlgorithmException, KeyManagementException;
+    }
+
+    /**
+     * Scheme, userinfo, host and port of a URI, split as leniently as the request line is sent.
+     */
+    static final class Endpoint {
+        final String scheme;
+        final String userInfo;
+        final String host;
+        final int port;
+
+        private Endpoint(String scheme, String userInfo, String host, int port) {
+            this.scheme = scheme;
+            this.userInfo = userInfo;
+            this.host = host;
+            this.port = port;
+        }
+
+        private static int indexOfDelimiter(String uri, int from) {
+            for (int i = from; i < uri.length(); i++) {
+                char c = uri.charAt(i);
+                if (c == '/' || c == '?' || c == '#') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        static Endpoint parse(String uri) {
+            String scheme = null;
+            int rest = 0;
+            int colon = uri.indexOf(':');
+            int delimiter = indexOfDelimiter(uri, 0);
+            if (colon > 0 && (delimiter == -1 || colon < delimiter)) {
+                scheme = uri.substring(0, colon);
+                rest = colon + 1;
+            }
+            if (!uri.startsWith("//", rest)) {
+                return new Endpoint(scheme, null, null, -1);
+            }
+            int end = indexOfDelimiter(uri, rest + 2);
+            String authority = uri.substring(rest + 2, end == -1 ? uri.length() : end);
+            String userInfo = null;
+            int at = authority.lastIndexOf('@');
+            if (at != -1) {
+                userInfo = authority.substring(0, at);
+                authority = authority.substring(at + 1);
+            }
+            int port = -1;
+            int portColon = authority.lastIndexOf(':');
+            if (portColon != -1 && authority.indexOf(']', portColon) == -1) {
+                try {
+                    port = Integer.parseInt(authority.substring(portColon + 1));
+                } catch (NumberFormatException e) {
+                    port = -1;
+                }
+                authority = authority.substring(0, portColon);
+            }
+            if (authority.startsWith("[") && authority.endsWith("]")) {
+                authority = authority.substring(1, authority.length() - 1);
+            }
+            return new Endpoint(scheme, userInfo, authority, port);
+        }
+    }
+
+    private final SocketFactorySource socketFactorySource;
+    private final ExecutorService executor;
+    private final DnsCache dnsCache;
+    private final HappyEyeballsConnector connector;
+    private final TlsSessionMetrics tlsSessionMetrics = new TlsSessionMetrics();
+    private final HostDeadlines hostDeadlines = new HostDeadlines();
+    private final SingleFlight<String, Outcome> singleFlight = new SingleFlight<>();
+    private final RedirectCache redirectCache = new RedirectCache();
+    private final ResponseCache responseCache = new ResponseCache();
+    private volatile DiskCache diskCache;
+
+    public GeminiClient(SocketFactorySource socketFactorySource) {
+        this(socketFactorySource, SHARED_EXECUTOR);
+    }
+
+    public GeminiClient(SocketFactorySource socketFactorySource, ExecutorService executor) {
+        this(socketFactorySource, executor, new DnsCache(), new HappyEyeballsConnector());
+    }
+
+    public GeminiClient(SocketFactorySource socketFactorySource, ExecutorService executor,
+                        DnsCache dnsCache, HappyEyeballsConnector connector) {
+        this.socketFactorySource = socketFactorySource;
+        this.executor = executor;
+        this.dnsCache = dnsCache;
+        this.connector = connector;
+    }
+
+    /**
+     * @return TLS session resumption hit rate and handshake timings for this client.
+     */
+    public TlsSessionMetrics getTlsSessionMetrics() {
+        return tlsSessionMetrics;
+    }
+
+    /**
+     * @return Counters of requests executed and coalesced into one already in flight.
+     */
+    public SingleFlight<?, ?> getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * @return Known permanent and recent temporary redirects, with hit counters.
+     */
+    public RedirectCache getRedirectCache() {
+        return redirectCache;
+    }
+
+    /**
+     * @return The per-host deadline estimator used by this client.
+     */
+    public HostDeadlines getHostDeadlines() {
+        return hostDeadlines;
+    }
+
+    /**
+     * @return Recently fetched pages, with hit, miss and eviction counters.
+     */
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * @return The persistent second-level cache, or null if there is none.
+     */
+    public DiskCache getDiskCache() {
+        return diskCache;
+    }
+
+    /**
+     * Adds a persistent cache behind the in-memory one. Pages found there are also served
+     * without a connection, and every page stored in memory is written to it as well.
+     */
+    public void setDiskCache(DiskCache diskCache) {
+        this.diskCache = diskCache;
+    }
+
+    /**
+     * Runs a request on the client's executor.
+     *
+     * @see #requestAsync(String, LineListener, ResponseHandler)
+     */
+    public CompletableFuture<RequestTimings> requestAsync(String uri, LineListener listener) {
+        return requestAsync(uri, listener, ResponseHandler.NONE);
+    }
+
+    /**
+     * Runs a request on the client's executor.
+     * <p>
+     * The future completes with the request's timings (status, bytes, redirect hops and phase
+     * durations) or exceptionally with the same exceptions the blocking variant throws.
+     * Cancelling the future closes the connection. {@code CompletableFuture} needs API level 24
+     * on Android; the app itself uses the blocking variant on a {@link RequestRunner}.
+     */
+    public CompletableFuture<RequestTimings> requestAsync(String uri, LineListener listener, ResponseHandler handler) {
+        return requestAsync(uri, listener, handler, ResponseCache.Policy.PREFER_CACHE);
+    }
+
+    /**
+     * Runs a request on the client's executor, using the response cache as {@code policy} says.
+     *
+     * @see #requestAsync(String, LineListener, ResponseHandler)
+     */
+    public CompletableFuture<RequestTimings> requestAsync(String uri, LineListener listener, ResponseHandler handler,
+                                                          ResponseCache.Policy policy) {
+        RequestTimings timings = new RequestTimings(uri);
+        Cancellation cancellation = new Cancellation();
+        CompletableFuture<RequestTimings> future = new CompletableFuture<RequestTimings>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                // Complete first: closing the socket makes the request fail, which would win the race.
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                cancellation.cancel();
+                return cancelled;
+            }
+        };
+        try {
+            executor.execute(() -> {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    request(uri, listener, handler, timings, cancellation, policy);
+                    timings.markEnd();
+                    future.complete(timings);
+                } catch (Exception e) {
+                    timings.setError(e);
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Blocking request that discards anything but {@code text/gemini} lines.
+     *
+     * @see #request(String, LineListener, ResponseHandler, RequestTimings, Cancellation)
+     */
+    public void request(String uri, LineListener listener) throws IOException, FailedGeminiRequestException, NoSuchAlgorithmException, KeyManagementException {
+        request(uri, listener, ResponseHandler.NONE, new RequestTimings(uri), new Cancellation());
+    }
+
+    /**
+     * Blocking, cancellable streaming request that prefers cached responses.
+     *
+     * @see #request(String, LineListener, ResponseHandler, RequestTimings, Cancellation, ResponseCache.Policy)
+     */
+    public void request(String uri, LineListener listener, ResponseHandler handler, RequestTimings timings,
+                        Cancellation cancellation) throws IOException, FailedGeminiRequestException, NoSuchAlgorithmException, KeyManagementException {
+        request(uri, listener, handler, timings, cancellation, ResponseCache.Policy.PREFER_CACHE);
+    }
+
+    /**
+     * Blocking, cancellable streaming request.
+     * <p>
+     * Validates the URI against the Gemini spec and follows redirects. Body lines of a
+     * {@code text/gemini} response are pushed to {@code listener} as soon as each one is read,
+     * and the network phases, received bytes and redirect hops are filled into {@code timings}.
+     * Cancelling {@code cancellation} from another thread makes this call fail promptly.
+     * <p>
+     * Concurrent requests for the same normalized URI and cache policy share one connection if
+     * they overlap before the first body line is read, e.g. a link double-tapped into two windows
+     * of a slow capsule: the first one runs and the others receive its lines and outcome. The
+     * socket is closed once all of them are cancelled. Each request still calls its own
+     * {@code handler} (see {@link ResponseHandler}).
+     * <p>
+     * Successful {@code text/gemini} responses are kept in the {@link ResponseCache} and, if
+     * set, the {@link DiskCache}; with {@link ResponseCache.Policy#PREFER_CACHE} a cached page is
+     * replayed to {@code listener} without touching the network, and with
+     * {@link ResponseCache.Policy#CACHE_ONLY} nothing else is tried.
+     *
+     * @throws FailedGeminiRequestException.GeminiNotCached If offline and the page is not cached.
+     * @throws InterruptedIOException       If the request was cancelled.
+     * @throws SocketTimeoutException       If a per-host deadline passed.
+     * @throws IOException                  On other network errors.
+     * @throws FailedGeminiRequestException If the protocol returns an error status.
+     * @throws NoSuchAlgorithmException     If hashing algorithms are missing.
+     * @throws KeyManagementException       If SSL setup fails.
+     */
+    public void request(String uri, LineListener listener, ResponseHandler handler, RequestTimings timings,
+                        Cancellation cancellation, ResponseCache.Policy policy) throws IOException, FailedGeminiRequestException, NoSuchAlgorithmException, KeyManagementException {
+        validateUri(uri);
+        // Requests with different cache policies may be answered differently, and a prefetch
+        // must not hold up a navigation; never join them.
+        String key = policy + " " + GeminiUriHelper.normalize(uri);
+        Outcome outcome;
+        try {
+            outcome = singleFlight.execute(key, listener::onLine, cancellation, (sink, shared) -> {
+                Outcome result = new Outcome(handler, cancellation);
+                requestUncoalesced(uri, sink::onItem, result, timings, shared, policy);
+                return result;
+            });
+        } catch (IOException | FailedGeminiRequestException | NoSuchAlgorithmException
+                 | KeyManagementException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            // Not thrown by requestUncoalesced; kept for the compiler.
+            throw new IOException(e);
+        }
+        if (outcome.hasBody && outcome.bodyHandler != handler) {
+            // The body went to another request's handler, or to none; fetch a copy for this one.
+            requestUncoalesced(uri, listener, handler, timings, cancellation, policy);
+            return;
+        }
+        handler.onSuccess(outcome.uri, outcome.mimeType);
+    }
+
+    /**
+     * Looks up the parsed form of a page in the {@link DiskCache}, so showing it again skips
+     * parsing its lines and resolving its links. Callers fall back to
+     * {@link #request(String, LineListener, ResponseHandler, RequestTimings, Cancellation, ResponseCache.Policy)}
+     * when this returns null.
+     *
+     * @return The cached page, or null if there is no disk cache, {@code policy} is
+     * {@link ResponseCache.Policy#RELOAD}, a redirect from {@code uri} is known, the page is not
+     * on disk (or too old for {@code policy}), or the memory cache holds a newer copy.
+     */
+    public CompactGemtext.Page getCachedPage(String uri, ResponseCache.Policy policy, RequestTimings timings) {
+        DiskCache disk = diskCache;
+        if (disk == null || policy == ResponseCache.Policy.RELOAD || redirectCache.contains(uri)) {
+            return null;
+        }
+        CompactGemtext.Page page = disk.getPage(uri, policy == ResponseCache.Policy.CACHE_ONLY);
+        if (page == null) {
+            return null;
+        }
+        ResponseCache.Entry newer = responseCache.peek(uri);
+        if (newer != null && newer.fetchedAtMillis != page.fetchedAtMillis) {
+            return null;
+        }
+        LOG.info("Serving '" + page.key + "' parsed from the disk cache");
+        timings.setCache("disk");
+        timings.setStatusCode(page.status);
+        return page;
+    }
+
+    /**
+     * How a possibly shared request ended, so every participant can call its own handler. The
+     * body of a response that is not {@code text/gemini} goes to the handler of the request that
+     * runs, unless that request was cancelled in the meantime.
+     */
+    private static final class Outcome implements ResponseHandler {
+        private final ResponseHandler handler;
+        private final Cancellation cancellation;
+        String uri;
+        String mimeType;
+        boolean hasBody;
+        /** The handler that read the body, or null. */
+        ResponseHandler bodyHandler;
+
+        Outcome(ResponseHandler handler, Cancellation cancellation) {
+            this.handler = handler;
+            this.cancellation = cancellation;
+        }
+
+        @Override
+        public void onBody(String uri, String mimeType, InputStream body) throws IOException, NoSuchAlgorithmException {
+            hasBody = true;
+            if (!cancellation.isCancelled()) {
+                bodyHandler = handler;
+                handler.onBody(uri, mimeType, body);
+            }
+        }
+
+        @Override
+        public void onSuccess(String uri, String mimeType) {
+            this.uri = uri;
+            this.mimeType = mimeType;
+        }
+    }
+
+    private void requestUncoalesced(String uri, LineListener listener, ResponseHandler handler, RequestTimings timings,
+                                    Cancellation cancellation, ResponseCache.Policy policy) throws IOException, FailedGeminiRequestException, NoSuchAlgorithmException, KeyManagementException {
+        ResponseDeadline deadline = new ResponseDeadline();
+        try {
+            // Start request with redirect counter at 0
+            requestInternal(uri, listener, handler, timings, deadline, cancellation, policy, 0);
+        } catch (IOException e) {
+            if (cancellation.isCancelled()) {
+                // The socket was closed under the blocked read; report the cancellation instead.
+                throw new InterruptedIOException("Request cancelled");
+            }
+            if (deadline.hasExpired()) {
+                // The watchdog closed the socket; report why the read failed.
+                throw new SocketTimeoutException("Response exceeded the " + deadline.getDeadlineMs() + " ms deadline");
+            }
+            throw e;
+        } finally {
+            deadline.disarm();
+        }
+    }
+
+    /**
+     * Validates URI according to Gemini protocol specification
+     */
+    static void validateUri(String uri) throws FailedGeminiRequestException {
+        // Check maximum URI length (1024 bytes as per spec)
+        if (uri.getBytes(StandardCharsets.UTF_8).length > GeminiSpec.MAX_URI_LENGTH_BYTES) {
+            throw new FailedGeminiRequestException.GeminiInvalidUri("URI exceeds maximum length of " + GeminiSpec.MAX_URI_LENGTH_BYTES + " bytes");
+        }
+
+        Endpoint endpoint = Endpoint.parse(uri);
+        // Check for userinfo (not allowed in Gemini URIs)
+        if (endpoint.userInfo != null && !endpoint.userInfo.isEmpty()) {
+            throw new FailedGeminiRequestException.GeminiInvalidUri("Userinfo not allowed in Gemini URIs");
+        }
+
+        // Validate scheme
+        if (endpoint.scheme == null || !endpoint.scheme.equals("gemini")) {
+            throw new FailedGeminiRequestException.GeminiInvalidUri("Invalid scheme: " + endpoint.scheme);
+        }
+
+        if (endpoint.host == null || endpoint.host.isEmpty()) {
+            throw new FailedGeminiRequestException.GeminiInvalidUri("Missing host");
+        }
+    }
+
+    /**
+     * Executes the raw network request handling connection setup and redirects recursively.
+     * <p>
+     * This method performs the following steps:
+     * <ol>
+     *     <li>Establishes a secure TLS connection.
+     *         <ul>
+     *             <li>Explicitly sets SNI (Server Name Indication) as required by the Gemini spec.</li>
+     *             <li>Resolves through {@link DnsCache} and connects with {@link HappyEyeballsConnector}
+     *                 within a connection timeout.</li>
+     *             <li>Layers TLS over a connected socket keyed by host:port, so cached sessions
+     *                 are resumed; whether each handshake resumed is recorded in {@link TlsSessionMetrics}.</li>
+     *         </ul>
+     *     </li>
+     *     <li>Sends the request line (`&lt;URL&gt;\r\n`).</li>
+     *     <li>Parses the response header (`&lt;STATUS&gt; &lt;META&gt;`).</li>
+     *     <li>Delegates further processing to {@link #handleResponse}.</li>
+     * </ol>
+     *
+     * @param uri           The URI to request, already validated.
+     * @param listener      Receives the response content lines (for text/gemini).
+     * @param handler       Receives other bodies and successes.
+     * @param timings       Collects per-phase timings, byte counts and redirect hops.
+     * @param deadline      Whole-response deadline, re-armed for every hop.
+     * @param cancellation  Receives the connection of every hop so the request can be aborted.
+     * @param policy        Whether a cached response may be served.
+     * @param redirectCount Current recursion depth for redirect handling. Throws {@link FailedGeminiRequestException.GeminiTooManyRedirects} if limit is exceeded.
+     */
+    private void requestInternal(String uri, LineListener listener, ResponseHandler handler, RequestTimings timings,
+                                 ResponseDeadline deadline, Cancellation cancellation, ResponseCache.Policy policy,
+                                 int redirectCount) throws IOException, FailedGeminiRequestException, NoSuchAlgorithmException, KeyManagementException {
+        LOG.info("Requesting: '" + uri + "' (redirect count: " + redirectCount + ")");
+        timings.setRedirectHops(redirectCount);
+
+        // Check redirect limit (max 5 as per spec)
+        if (redirectCount > GeminiSpec.MAX_REDIRECTS) {
+            throw new FailedGeminiRequestException.GeminiTooManyRedirects();
+        }
+        cancellation.throwIfCancelled();
+
+        // Take known redirects without asking the server. They count as hops, so a cached
+        // loop still ends at MAX_REDIRECTS. A reload asks the server again and re-learns the
+        // hop, so a capsule that moved back is not sent to its old address forever.
+        String cachedTarget = null;
+        if (policy == ResponseCache.Policy.RELOAD) {
+            redirectCache.remove(uri);
+        } else {
+            cachedTarget = redirectCache.lookup(uri);
+        }
+        if (cachedTarget != null) {
+            LOG.info("Cached redirect: '" + uri + "' -> '" + cachedTarget + "'");
+            followRedirect(uri, cachedTarget, listener, handler, timings, deadline, cancellation, policy, redirectCount);
+            return;
+        }
+
+        if (policy != ResponseCache.Policy.RELOAD) {
+            ResponseCache.Entry cached = responseCache.get(uri, policy == ResponseCache.Policy.CACHE_ONLY);
+            String layer = "memory";
+            DiskCache disk = diskCache;
+            if (cached == null && disk != null) {
+                cached = disk.get(uri, policy == ResponseCache.Policy.CACHE_ONLY);
+                layer = "disk";
+                if (cached != null) {
+                    responseCache.put(cached);
+                }
+            }
+            if (cached != null) {
+                serveCached(cached, layer, listener, handler, timings);
+                return;
+            }
+            if (policy == ResponseCache.Policy.CACHE_ONLY) {
+                throw new FailedGeminiRequestException.GeminiNotCached(uri);
+            }
+        }
+
+        Endpoint endpoint = Endpoint.parse(uri);
+        String host = endpoint.host;
+        int port = endpoint.port;
+        if (port == -1) {
+            port = GeminiSpec.DEFAULT_PORT;
+        }
+
+        // Connect a plain socket first and layer TLS over it with the peer host and port, so the
+        // client session cache can find (and resume) the session negotiated on the last visit.
+        // Addresses come from the in-process DNS cache; IPv6 and IPv4 candidates are raced so a
+        // broken route costs one attempt delay instead of the whole connect timeout.
+        // Deadlines are learned per host; see HostDeadlines.
+        HostDeadlines.Deadlines deadlines = hostDeadlines.deadlinesFor(host);
+        LOG.fine("Deadlines for " + host + ": " + deadlines);
+
+        timings.begin(RequestTimings.Phase.DNS);
+        InetAddress[] addresses;
+        try {
+            addresses = dnsCache.lookup(host);
+        } finally {
+            timings.end(RequestTimings.Phase.DNS);
+        }
+        Socket plainSocket;
+        timings.begin(RequestTimings.Phase.CONNECT);
+        long connectStart = System.nanoTime();
+        try {
+            plainSocket = connector.connect(addresses, port, deadlines.connectMs);
+            hostDeadlines.recordConnect(host, (System.nanoTime() - connectStart) / 1_000_000L);
+        } catch (IOException e) {
+            // The cached addresses may be stale; resolve again next time.
+            dnsCache.invalidate(host);
+            throw e;
+        } finally {
+            timings.end(RequestTimings.Phase.CONNECT);
+        }
+        // Closing the plain socket aborts whatever TLS read is blocked on top of it.
+        deadline.arm(plainSocket, deadlines.totalMs);
+        cancellation.attach(plainSocket);
+        SSLSocket socket;
+        try {
+            socket = (SSLSocket) socketFactorySource.get().createSocket(plainSocket, host, port, true);
+        } catch (IOException | NoSuchAlgorithmException | KeyManagementException | RuntimeException e) {
+            plainSocket.close();
+            throw e;
+        }
+        // The TLS socket was created with autoClose, so closing it also closes plainSocket.
+        cancellation.attach(socket);
+        setServerName(socket, host);
+
+        socket.setSoTimeout(deadlines.readMs);
+        long handshakeStartMillis = System.currentTimeMillis();
+        long handshakeStart = System.nanoTime();
+        timings.begin(RequestTimings.Phase.TLS);
+        try {
+            socket.startHandshake();
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        } finally {
+            timings.end(RequestTimings.Phase.TLS);
+        }
+        long handshakeNanos = System.nanoTime() - handshakeStart;
+        boolean resumed = tlsSessionMetrics.record(TlsSessionMetrics.endpointKey(host, port),
+                socket.getSession(), handshakeStartMillis, handshakeNanos);
+        timings.setTlsResumed(resumed);
+        LOG.info("TLS handshake took " + handshakeNanos / 1_000_000L + " ms (resumed=" + resumed + "); " + tlsSessionMetrics);
+
+        BufferedOutputStream outputStream = new BufferedOutputStream(socket.getOutputStream());
+
+        String cleanedEntity = uri.replace("%2F", "/").trim();
+        String requestEntity = cleanedEntity + GeminiSpec.CRLF;
+
+        timings.begin(RequestTimings.Phase.SERVER);
+        long requestSent = System.nanoTime();
+        outputStream.write(requestEntity.getBytes(StandardCharsets.UTF_8));
+        outputStream.flush();
+
+        GeminiLineReader inputStream = new GeminiLineReader(socket.getInputStream());
+        String headerLine;
+        try {
+            headerLine = inputStream.readHeaderLine();
+            if (headerLine != null) {
+                hostDeadlines.recordFirstByte(host, (System.nanoTime() - requestSent) / 1_000_000L);
+            }
+        } catch (SocketTimeoutException e) {
+            // Counted as a (long) sample so a host that is slower than we thought gets more time.
+            hostDeadlines.recordFirstByte(host, (System.nanoTime() - requestSent) / 1_000_000L);
+            inputStream.close();
+            outputStream.close();
+            throw e;
+        } catch (FailedGeminiRequestException e) {
+            LOG.info("Server sent a header longer than " + GeminiSpec.MAX_HEADER_LENGTH_BYTES + " bytes");
+            inputStream.close();
+            outputStream.close();
+            throw e;
+        } finally {
+            timings.end(RequestTimings.Phase.SERVER);
+        }
+        if (headerLine == null) {
+            LOG.info("Server did not respond with a Gemini header");
+            inputStream.close();
+            outputStream.close();
+            throw new FailedGeminiRequestException.GeminiInvalidResponse();
+        }
+
+        // Parse response code and meta
+        int responseCode;
+        String meta;
+        try {
+            responseCode = GeminiSpec.statusOf(headerLine);
+            meta = GeminiSpec.metaOf(headerLine);
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            inputStream.close();
+            outputStream.close();
+            throw new FailedGeminiRequestException.GeminiInvalidResponse();
+        }
+
+        LOG.info("response_code=" + responseCode + ", meta=" + meta);
+        timings.setStatusCode(responseCode);
+
+        // Handle response based on status code ranges
+        try {
+            handleResponse(uri, host, listener, handler, timings, deadline, cancellation, policy, inputStream,
+                    responseCode, meta, cleanedEntity, redirectCount);
+        } finally {
+            timings.addBytesReceived(inputStream.getBytesRead());
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Error closing input stream", e);
+            }
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Error closing output stream", e);
+            }
+        }
+    }
+
+    /**
+     * Replays a cached response as if it had just been read.
+     */
+    private static void serveCached(ResponseCache.Entry entry, String layer, LineListener listener,
+                                    ResponseHandler handler, RequestTimings timings) {
+        LOG.info("Serving '" + entry.uri + "' from the " + layer + " cache");
+        timings.setCache(layer);
+        timings.setStatusCode(entry.status);
+        for (String line : entry.lines) {
+            listener.onLine(line);
+        }
+        handler.onSuccess(entry.uri, entry.meta);
+    }
+
+    /**
+     * Enables SNI (Server Name Indication) as required by the Gemini spec.
+     * <p>
+     * Most TLS providers already derive it from the host passed to {@code createSocket}; it is
+     * set explicitly to be certain. {@link SNIHostName} only exists from Android 7.0 on, and IP
+     * literals cannot be server names, so either case falls back to the provider's choice.
+     */
+    private static void setServerName(SSLSocket socket, String host) {
+        try {
+            SSLParameters params = socket.getSSLParameters();
+            params.setServerNames(Collections.singletonList(new SNIHostName(host)));
+            socket.setSSLParameters(params);
+        } catch (LinkageError | IllegalArgumentException e) {
+            LOG.fine("Not setting SNI for " + host + ": " + e);
+        }
+    }
+
+    /**
+     * Requests {@code target} as the next redirect hop of {@code uri}.
+     * <p>
+     * If the chain turns out to loop, the cached redirect from {@code uri} is forgotten on the
+     * way out, so the next visit asks the server again instead of replaying the loop.
+     */
+    private void followRedirect(String uri, String target, LineListener listener, ResponseHandler handler, RequestTimings timings,
+                                ResponseDeadline deadline, Cancellation cancellation, ResponseCache.Policy policy, int redirectCount)
+            throws IOException, FailedGeminiRequestException, NoSuchAlgorithmException, KeyManagementException {
+        try {
+            requestInternal(target, listener, handler, timings, deadline, cancellation, policy, redirectCount + 1);
+        } catch (FailedGeminiRequestException.GeminiTooManyRedirects e) {
+            redirectCache.remove(uri);
+            throw e;
+        }
+    }
+
+    /**
+     * Dispatches the response handling logic based on the status code family.
+     *
+     * @param uri           The request URI of this hop.
+     * @param host          The host of {@code uri}.
+     * @param listener      Receives body lines of a text/gemini response.
+     * @param handler       Receives other bodies and the success.
+     * @param timings       Collects the body transfer time.
+     * @param deadline      Whole-response deadline; disarmed for other bodies, which may be large.
+     * @param cancellation  Passed on to redirect hops.
+     * @param policy        Passed on to redirect hops.
+     * @param inputStream   The line reader over the socket input stream to read the body from.
+     * @param responseCode  The parsed status code (e.g., 20, 31, 51).
+     * @param meta          The meta string (MIME type for success, redirect URL, or error message).
+     * @param cleanedEntity The sanitized URI string that was sent.
+     * @param redirectCount The current redirect recursion depth.
+     */
+    private void handleResponse(String uri, String host, LineListener listener, ResponseHandler handler, RequestTimings timings,
+                                ResponseDeadline deadline, Cancellation cancellation, ResponseCache.Policy policy,
+                                GeminiLineReader inputStream,
+                                int responseCode, String meta, String cleanedEntity, int redirectCount)
+            throws IOException, FailedGeminiRequestException, NoSuchAlgorithmException, KeyManagementException {
+
+        // Input required (10-19)
+        if (GeminiSpec.isInput(responseCode)) {
+            boolean sensitive = (responseCode == GeminiSpec.STATUS_SENSITIVE_INPUT);
+            throw new FailedGeminiRequestException.GeminiInputRequired(meta, sensitive);
+        }
+
+        // Success (20-29)
+        if (GeminiSpec.isSuccess(responseCode)) {
+            timings.begin(RequestTimings.Phase.TRANSFER);
+            if (meta.startsWith("text/gemini")) {
+                long bodyStart = System.nanoTime();
+                long headerBytes = inputStream.getBytesRead();
+                inputStream.setCharset(GeminiSpec.charsetOf(meta));
+                List<String> body = ResponseCache.isCacheable(uri) ? new ArrayList<>() : null;
+                while (true) {
+                    String line = inputStream.readLine();
+                    if (line == null) {
+                        break;
+                    }
+                    listener.onLine(line);
+                    if (body != null) {
+                        body.add(line);
+                    }
+                }
+                hostDeadlines.recordTransfer(host, inputStream.getBytesRead() - headerBytes,
+                        (System.nanoTime() - bodyStart) / 1_000_000L);
+                if (body != null) {
+                    responseCache.put(uri, responseCode, meta, body);
+                    DiskCache disk = diskCache;
+                    if (disk != null) {
+                        disk.put(uri, responseCode, meta, body);
+                    }
+                }
+            } else {
+                // Downloads can be arbitrarily large; only the idle-read timeout applies.
+                deadline.disarm();
+                handler.onBody(cleanedEntity, meta, inputStream);
+            }
+            timings.end(RequestTimings.Phase.TRANSFER);
+            handler.onSuccess(uri, meta);
+            return;
+        }
+
+        // Redirect (30-39)
+        if (GeminiSpec.isRedirect(responseCode)) {
+            if (meta.isEmpty()) {
+                throw new FailedGeminiRequestException.GeminiInvalidResponse();
+            }
+            // Resolve relative URIs against the current request URI (RFC 3986)
+            String redirectUri = GeminiUriHelper.resolve(uri, meta.trim());
+            validateUri(redirectUri);
+            redirectCache.record(uri, redirectUri, responseCode == GeminiSpec.STATUS_PERMANENT_REDIRECT);
+            followRedirect(uri, redirectUri, listener, handler, timings, deadline, cancellation, policy, redirectCount);
+            return;
+        }
+
+        // Temporary failure (40-49)
+        if (GeminiSpec.isTemporaryFailure(responseCode)) {
+            switch (responseCode) {
+                case GeminiSpec.STATUS_SERVER_UNAVAILABLE:
+                    throw new FailedGeminiRequestException.GeminiServerUnavailable(meta);
+                case GeminiSpec.STATUS_CGI_ERROR:
+                    throw new FailedGeminiRequestException.GeminiCGIError(meta);
+                case GeminiSpec.STATUS_PROXY_ERROR:
+                    throw new FailedGeminiRequestException.GeminiProxyError(meta);
+                case GeminiSpec.STATUS_SLOW_DOWN:
+                    throw new FailedGeminiRequestException.GeminiSlowDown(meta);
+                default:
+                    throw new FailedGeminiRequestException.GeminiTemporaryFailure(meta);
+            }
+        }
+
+        // Permanent failure (50-59)
+        if (GeminiSpec.isPermanentFailure(responseCode)) {
+            // Do not keep serving a page that is gone.
+            responseCache.remove(uri);
+            DiskCache disk = diskCache;
+            if (disk != null) {
+                disk.remove(uri);
+            }
+            switch (responseCode) {
+                case GeminiSpec.STATUS_NOT_FOUND:
+                    throw new FailedGeminiRequestException.GeminiNotFound();
+                case GeminiSpec.STATUS_GONE:
+                    throw new FailedGeminiRequestException.GeminiGone();
+                case GeminiSpec.STATUS_PROXY_REQUEST_REFUSED:
+                    throw new FailedGeminiRequestException.GeminiProxyRequestRefused(meta);
+                case GeminiSpec.STATUS_BAD_REQUEST:
+                    throw new FailedGeminiRequestException.GeminiBadRequest(meta);
+                default:
+                    throw new FailedGeminiRequestException.GeminiPermanentFailure(meta);
+            }
+        }
+
+        // Client certificate required (60-69)
+        if (GeminiSpec.isClientCertificateRequired(responseCode)) {
+            switch (responseCode) {
+                case GeminiSpec.STATUS_CERT_NOT_AUTHORIZED:
+                    throw new FailedGeminiRequestException.GeminiCertificateNotAuthorized(meta);
+                case GeminiSpec.STATUS_CERT_NOT_VALID:
+                    throw new FailedGeminiRequestException.GeminiCertificateNotValid(meta);
+                default:
+                    throw new FailedGeminiRequestException.GeminiClientCertificateRequired(meta);
+            }
+        }
+
+        // Unknown status code
+        LOG.info("Unknown response code: " + responseCode + ", meta: " + meta);
+        throw new FailedGeminiRequestException.GeminiUnimplementedCase();
+    }
+}
@@ -0,0 +1,293 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffered, LF-terminated line reader for Gemini responses.
+ * <p>
+ * Replaces the old byte-at-a-time reader that boxed every byte into an {@code ArrayList<Byte>}.
+ * Bytes are pulled from the socket in bulk into a single reusable buffer, scanned for LF and
+ * decoded straight from that buffer. Only lines that straddle a buffer refill are copied, into a
+ * carry-over array that is also reused between lines.
+ * <p>
+ * Lines are decoded as UTF-8 unless {@link #setCharset(Charset)} says otherwise. Pure-ASCII
+ * lines, most of a typical page, skip the decoder and become strings directly; other charsets
+ * go through one {@link CharsetDecoder} and output buffer reused for the whole response.
+ * <p>
+ * The reader is itself an {@link InputStream}: bytes that were buffered past the header are
+ * served first, so non-text bodies (downloads) can be consumed through it without losing data.
+ */
+public class GeminiLineReader extends InputStream {
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+
+    private final InputStream input;
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+
+    // Holds the start of a line whose terminator has not been buffered yet.
+    private byte[] carry = new byte[0];
+    private int carryLength;
+    private long bytesRead;
+
+    private Charset charset = GeminiSpec.DEFAULT_CHARSET;
+    // Only for charsets the String constructor does not handle well; null otherwise.
+    private CharsetDecoder decoder;
+    private ByteBuffer bufferView;
+    private ByteBuffer carryView;
+    private CharBuffer decoded;
+
+    public GeminiLineReader(InputStream input) {
+        this(input, DEFAULT_BUFFER_SIZE);
+    }
+
+    public GeminiLineReader(InputStream input, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive");
+        }
+        this.input = input;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Sets the charset of the body lines read from now on, e.g. {@link GeminiSpec#charsetOf(String)}
+     * of the response meta. It must encode ASCII as itself, since lines are split on the LF byte.
+     */
+    public void setCharset(Charset charset) {
+        if (charset.equals(this.charset)) {
+            return;
+        }
+        this.charset = charset;
+        if (charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.ISO_8859_1)
+                || charset.equals(StandardCharsets.US_ASCII)) {
+            // The String constructor has its own fast paths for these.
+            decoder = null;
+        } else {
+            decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Reads the response header line ({@code <STATUS><SPACE><META><CR><LF>}).
+     * <p>
+     * The header is capped at {@link GeminiSpec#MAX_HEADER_LENGTH_BYTES}, so a server that never
+     * sends LF cannot make the client buffer an unbounded amount of data.
+     *
+     * @return The header without its line terminator, or null if the stream ended immediately.
+     * @throws IOException If an I/O error occurs.
+     * @throws FailedGeminiRequestException.GeminiInvalidResponse If the header exceeds the spec limit.
+     */
+    public String readHeaderLine() throws IOException, FailedGeminiRequestException {
+        try {
+            return readLine(GeminiSpec.MAX_HEADER_LENGTH_BYTES);
+        } catch (LineTooLongException e) {
+            throw new FailedGeminiRequestException.GeminiInvalidResponse();
+        }
+    }
+
+    /**
+     * Reads a body line without a length limit.
+     * <p>
+     * Lines are terminated by LF; a trailing CR is dropped so CRLF documents render cleanly.
+     *
+     * @return The line content, or null if EOF is reached immediately.
+     * @throws IOException If an I/O error occurs.
+     */
+    public String readLine() throws IOException {
+        return readLine(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reads one line of at most {@code maxBytes} bytes, counting the line terminator.
+     */
+    private String readLine(int maxBytes) throws IOException {
+        carryLength = 0;
+        boolean consumed = false;
+        while (true) {
+            if (position >= limit && !fill()) {
+                return consumed ? decode(carry, 0, carryLength) : null;
+            }
+            consumed = true;
+
+            int lf = indexOfLineFeed(position, limit);
+            int end = lf == -1 ? limit : lf;
+            int chunk = end - position;
+            long total = (long) carryLength + chunk + (lf == -1 ? 0 : 1);
+            if (total > maxBytes) {
+                throw new LineTooLongException();
+            }
+
+            if (lf != -1 && carryLength == 0) {
+                // Common case: the whole line is already buffered, decode it in place.
+                String line = decode(buffer, position, chunk);
+                position = lf + 1;
+                return line;
+            }
+
+            appendToCarry(position, chunk);
+            position = end;
+            if (lf != -1) {
+                position = lf + 1;
+                return decode(carry, 0, carryLength);
+            }
+        }
+    }
+
+    private int indexOfLineFeed(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == LF) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void appendToCarry(int offset, int length) {
+        if (length == 0) {
+            return;
+        }
+        int required = carryLength + length;
+        if (required > carry.length) {
+            int grown = Math.max(required, Math.max(carry.length * 2, buffer.length));
+            byte[] newCarry = new byte[grown];
+            System.arraycopy(carry, 0, newCarry, 0, carryLength);
+            carry = newCarry;
+        }
+        System.arraycopy(buffer, offset, carry, carryLength, length);
+        carryLength = required;
+    }
+
+    private String decode(byte[] bytes, int offset, int length) {
+        if (length > 0 && bytes[offset + length - 1] == CR) {
+            length--;
+        }
+        if (decoder == null) {
+            return new String(bytes, offset, length, charset);
+        }
+        if (isAscii(bytes, offset, length)) {
+            // The charset is an ASCII superset, so the bytes are the characters.
+            return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+        }
+        return decodeWithDecoder(bytes, offset, length);
+    }
+
+    private static boolean isAscii(byte[] bytes, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            if (bytes[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String decodeWithDecoder(byte[] bytes, int offset, int length) {
+        ByteBuffer in;
+        if (bytes == buffer) {
+            if (bufferView == null) {
+                bufferView = ByteBuffer.wrap(buffer);
+            }
+            in = bufferView;
+        } else {
+            // The carry array is replaced when it grows.
+            if (carryView == null || carryView.array() != bytes) {
+                carryView = ByteBuffer.wrap(bytes);
+            }
+            in = carryView;
+        }
+        in.limit(offset + length).position(offset);
+
+        int required = (int) Math.ceil(length * (double) decoder.maxCharsPerByte());
+        if (decoded == null || decoded.capacity() < required) {
+            decoded = CharBuffer.allocate(Math.max(required, 256));
+        }
+        decoded.clear();
+        decoder.reset();
+        decoder.decode(in, decoded, true);
+        decoder.flush(decoded);
+        decoded.flip();
+        return decoded.toString();
+    }
+
+    /**
+     * Refills the buffer from the underlying stream.
+     *
+     * @return false on EOF.
+     */
+    private boolean fill() throws IOException {
+        int read = input.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            position = 0;
+            limit = 0;
+            return false;
+        }
+        position = 0;
+        limit = read;
+        bytesRead += read;
+        return true;
+    }
+
+    /**
+     * @return Total bytes pulled from the underlying stream so far (header included).
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position >= limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position < limit) {
+            int count = Math.min(len, limit - position);
+            System.arraycopy(buffer, position, b, off, count);
+            position += count;
+            return count;
+        }
+        // Nothing buffered: read straight into the caller's array.
+        int read = input.read(b, off, len);
+        if (read > 0) {
+            bytesRead += read;
+        }
+        return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (limit - position) + input.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    private static final class LineTooLongException extends IOException {
+        LineTooLongException() {
+            super("Line exceeds maximum length");
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Defines constants and specifications for the Gemini protocol.
+ * <p>
+ * This class serves as the single source of truth for protocol-specific values,
+ * such as status codes, default ports, and limits, replacing magic numbers
+ * throughout the codebase.
+ */
+public final class GeminiSpec {
+    private GeminiSpec() {} // Prevent instantiation
+
+    // Protocol constants
+    public static final String CRLF = "\r\n";
+    public static final String DOWNLOAD_DIRECTORY_NAME = "AGENA";
+
+    // Network defaults
+    public static final int DEFAULT_PORT = 1965;
+    public static final int MAX_REDIRECTS = 5;
+    public static final int MAX_URI_LENGTH_BYTES = 1024;
+    public static final int MAX_META_LENGTH_BYTES = 1024;
+    // <STATUS><SPACE><META><CR><LF>
+    public static final int MAX_HEADER_LENGTH_BYTES = 2 + 1 + MAX_META_LENGTH_BYTES + 2;
+
+    // Text bodies without a charset parameter are UTF-8
+    public static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
+    private static final String ASCII_PROBE = "\r\n\t !#*=>`09AZaz";
+
+    // Status Code Categories (Ranges)
+    public static final int CATEGORY_INPUT = 10;
+    public static final int CATEGORY_SUCCESS = 20;
+    public static final int CATEGORY_REDIRECT = 30;
+    public static final int CATEGORY_TEMP_FAILURE = 40;
+    public static final int CATEGORY_PERM_FAILURE = 50;
+    public static final int CATEGORY_CLIENT_CERT = 60;
+    public static final int CATEGORY_RESERVED = 70; // Upper bound for certs
+
+    // Specific Status Codes
+    public static final int STATUS_INPUT = 10;
+    public static final int STATUS_SENSITIVE_INPUT = 11;
+
+    public static final int STATUS_SUCCESS = 20;
+
+    public static final int STATUS_REDIRECT = 30;
+    public static final int STATUS_PERMANENT_REDIRECT = 31;
+
+    public static final int STATUS_TEMP_FAILURE = 40;
+    public static final int STATUS_SERVER_UNAVAILABLE = 41;
+    public static final int STATUS_CGI_ERROR = 42;
+    public static final int STATUS_PROXY_ERROR = 43;
+    public static final int STATUS_SLOW_DOWN = 44;
+
+    public static final int STATUS_PERM_FAILURE = 50;
+    public static final int STATUS_NOT_FOUND = 51;
+    public static final int STATUS_GONE = 52;
+    public static final int STATUS_PROXY_REQUEST_REFUSED = 53;
+    public static final int STATUS_BAD_REQUEST = 59;
+
+    public static final int STATUS_CLIENT_CERT_REQUIRED = 60;
+    public static final int STATUS_CERT_NOT_AUTHORIZED = 61;
+    public static final int STATUS_CERT_NOT_VALID = 62;
+
+    // Helper methods for ranges
+    public static boolean isInput(int code) {
+        return code >= CATEGORY_INPUT && code < CATEGORY_SUCCESS;
+    }
+
+    public static boolean isSuccess(int code) {
+        return code >= CATEGORY_SUCCESS && code < CATEGORY_REDIRECT;
+    }
+
+    public static boolean isRedirect(int code) {
+        return code >= CATEGORY_REDIRECT && code < CATEGORY_TEMP_FAILURE;
+    }
+
+    public static boolean isTemporaryFailure(int code) {
+        return code >= CATEGORY_TEMP_FAILURE && code < CATEGORY_PERM_FAILURE;
+    }
+
+    public static boolean isPermanentFailure(int code) {
+        return code >= CATEGORY_PERM_FAILURE && code < CATEGORY_CLIENT_CERT;
+    }
+
+    public static boolean isClientCertificateRequired(int code) {
+        return code >= CATEGORY_CLIENT_CERT && code < CATEGORY_RESERVED;
+    }
+
+    /**
+     * @return The status code of a response header line ({@code <STATUS><SPACE><META>}).
+     * @throws NumberFormatException If the header does not start with a number.
+     */
+    public static int statusOf(String headerLine) {
+        int spaceIndex = headerLine.indexOf(' ');
+        if (spaceIndex == -1) {
+            // No meta field, just status code
+            return Integer.parseInt(headerLine.trim());
+        }
+        return Integer.parseInt(headerLine.substring(0, spaceIndex));
+    }
+
+    /**
+     * @return The meta of a response header line, empty if there is none.
+     */
+    public static String metaOf(String headerLine) {
+        int spaceIndex = headerLine.indexOf(' ');
+        return spaceIndex == -1 ? "" : headerLine.substring(spaceIndex).trim();
+    }
+
+    /**
+     * Picks the charset declared by the {@code charset} parameter of a success meta, e.g.
+     * {@code text/gemini; charset=iso-8859-1}.
+     * <p>
+     * Falls back to {@link #DEFAULT_CHARSET} when the parameter is missing, names a charset this
+     * platform does not support, or names one that does not encode ASCII as itself (UTF-16 and
+     * the like): body lines are split on the LF byte, which only works for ASCII supersets.
+     */
+    public static Charset charsetOf(String meta) {
+        if (meta == null) {
+            return DEFAULT_CHARSET;
+        }
+        int semicolon = meta.indexOf(';');
+        while (semicolon >= 0) {
+            int next = meta.indexOf(';', semicolon + 1);
+            String parameter = meta.substring(semicolon + 1, next < 0 ? meta.length() : next).trim();
+            int equals = parameter.indexOf('=');
+            if (equals > 0 && parameter.substring(0, equals).trim().toLowerCase(Locale.ROOT).equals("charset")) {
+                String name = parameter.substring(equals + 1).trim();
+                if (name.length() >= 2 && name.startsWith("\"") && name.endsWith("\"")) {
+                    name = name.substring(1, name.length() - 1);
+                }
+                return charsetNamed(name);
+            }
+            semicolon = next;
+        }
+        return DEFAULT_CHARSET;
+    }
+
+    private static Charset charsetNamed(String name) {
+        Charset charset;
+        try {
+            charset = Charset.forName(name);
+        } catch (IllegalArgumentException e) {
+            // Illegal or unsupported charset name
+            return DEFAULT_CHARSET;
+        }
+        if (!charset.canEncode() || !Arrays.equals(ASCII_PROBE.getBytes(charset),
+                ASCII_PROBE.getBytes(StandardCharsets.US_ASCII))) {
+            return DEFAULT_CHARSET;
+        }
+        return charset;
+    }
+}
@@ -0,0 +1,397 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Locale;
+
+/**
+ * Utility class for handling Gemini URIs.
+ * <p>
+ * This class provides methods for resolving relative URIs and sanitizing malformed URIs commonly found in Gemini pages.
+ * Relative references are resolved by {@link Resolver}, an RFC 3986 resolver made for link-heavy pages;
+ * normalization uses standard Java {@link URI}. Both are platform-independent and unit-testable.
+ */
+public class GeminiUriHelper {
+
+    /**
+     * Resolves a target URI against a base URI, handling malformed target URIs gracefully.
+     * <p>
+     * Equivalent to {@code new Resolver(baseUriString).resolve(target)}; keep a {@link Resolver}
+     * to resolve many links against the same page.
+     *
+     * @param baseUriString The base URI string (e.g., the current page URL).
+     * @param target The target URI string (relative or absolute).
+     * @return The resolved absolute URI string.
+     */
+    public static String resolve(String baseUriString, String target) {
+        return new Resolver(baseUriString).resolve(target);
+    }
+
+    /**
+     * Resolves references against one base URI following RFC 3986 section 5.2, parsing the base
+     * only once. Plain string scanning, no {@link URI} and no exceptions, so a page can resolve
+     * every link cheaply.
+     * <p>
+     * Base paths that do not end in {@code /} or {@code .gmi} are treated as directories (a
+     * trailing slash is applied to the path component only). Appending {@code /} to the full URI
+     * string would corrupt query strings used after Gemini status 10 input responses.
+     * <p>
+     * Absolute targets are returned as written, except that spaces and square brackets after the
+     * authority are percent-encoded ({@code foo[1].gmi}); brackets are only kept around an IP
+     * literal host. Targets with other characters not allowed in a URI (common in Gemini links)
+     * are sanitized by removing everything but letters, digits and {@code :/.-} before resolving.
+     * If the base is not a valid absolute URI, targets are returned unchanged.
+     */
+    public static final class Resolver {
+        private final boolean valid;
+        private final boolean opaque;
+        private final String scheme;
+        private final String authority;
+        private final String path;
+        private final String query;
+        // Everything up to the last slash of the path, for merging relative paths.
+        private final String directory;
+
+        public Resolver(String baseUriString) {
+            String base = escape(baseUriString.trim());
+            int colon = schemeEnd(base);
+            if (colon < 0 || !isLegal(base)) {
+                valid = false;
+                opaque = false;
+                scheme = null;
+                authority = null;
+                path = "";
+                query = null;
+                directory = "";
+                return;
+            }
+            valid = true;
+            scheme = base.substring(0, colon);
+            int pathStart = colon + 1;
+            if (base.startsWith("//", pathStart)) {
+                int authorityEnd = indexOfAny(base, "/?#", pathStart + 2);
+                authority = base.substring(pathStart + 2, authorityEnd);
+                pathStart = authorityEnd;
+            } else {
+                authority = null;
+            }
+            int queryStart = indexOfAny(base, "?#", pathStart);
+            String basePath = base.substring(pathStart, queryStart);
+            opaque = authority == null && !basePath.startsWith("/");
+            if (queryStart < base.length() && base.charAt(queryStart) == '?') {
+                query = base.substring(queryStart + 1, indexOfAny(base, "#", queryStart));
+            } else {
+                query = null;
+            }
+            if (!basePath.endsWith("/") && !basePath.endsWith(".gmi")) {
+                basePath = basePath + "/";
+            }
+            path = basePath;
+            directory = basePath.substring(0, basePath.lastIndexOf('/') + 1);
+        }
+
+        /**
+         * @param target The target URI string (relative or absolute).
+         * @return The resolved absolute URI string.
+         */
+        public String resolve(String target) {
+            if (!valid) {
+                return target;
+            }
+            String reference = escape(target.trim());
+            if (!isLegal(reference)) {
+                reference = sanitize(reference);
+            }
+            if (opaque || schemeEnd(reference) >= 0) {
+                return reference;
+            }
+
+            int n = reference.length();
+            int queryStart = indexOfAny(reference, "?#", 0);
+            int fragmentStart = reference.indexOf('#', queryStart);
+            if (fragmentStart < 0) {
+                fragmentStart = n;
+            }
+            StringBuilder sb = new StringBuilder(scheme.length() + path.length() + n + 16);
+            sb.append(scheme).append(':');
+            if (reference.startsWith("//")) {
+                // Network-path reference: only the scheme comes from the base.
+                int authorityEnd = indexOfAny(reference, "/?#", 2);
+                sb.append(reference, 0, authorityEnd);
+                sb.append(removeDotSegments(reference.substring(authorityEnd, queryStart)));
+                return sb.append(reference, queryStart, n).toString();
+            }
+            if (authority != null) {
+                sb.append("//").append(authority);
+            }
+            if (queryStart == 0) {
+                // Empty path: the base path, and its query unless the reference has one.
+                sb.append(path);
+                if (fragmentStart > 0) {
+                    // Starts with '?'.
+                    return sb.append(reference).toString();
+                }
+                if (query != null) {
+                    sb.append('?').append(query);
+                }
+                return sb.append(reference).toString();
+            }
+            String referencePath = reference.substring(0, queryStart);
+            if (referencePath.startsWith("/")) {
+                sb.append(removeDotSegments(referencePath));
+            } else {
+                sb.append(removeDotSegments(directory + referencePath));
+            }
+            return sb.append(reference, queryStart, n).toString();
+        }
+    }
+
+    /**
+     * @return The index of the colon ending a valid scheme, or -1 if {@code uri} has no scheme.
+     */
+    private static int schemeEnd(String uri) {
+        if (uri.isEmpty() || !isAsciiLetter(uri.charAt(0))) {
+            return -1;
+        }
+        for (int i = 1; i < uri.length(); i++) {
+            char c = uri.charAt(i);
+            if (c == ':') {
+                return i;
+            }
+            if (!isAsciiLetter(c) && !(c >= '0' && c <= '9') && c != '+' && c != '-' && c != '.') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * @return Where the authority of {@code uri} starts (after {@code //}), or -1 if it has none.
+     */
+    private static int authorityStart(String uri) {
+        int start = schemeEnd(uri) + 1;
+        return uri.startsWith("//", start) ? start + 2 : -1;
+    }
+
+    /**
+     * @return Whether the host of {@code uri[from, to)} is an IP literal such as {@code [::1]},
+     * optionally with user info before and a port after it.
+     */
+    private static boolean isIpLiteralAuthority(String uri, int from, int to) {
+        int open = uri.lastIndexOf('@', to - 1) + 1;
+        if (open < from) {
+            open = from;
+        }
+        int close = uri.indexOf(']', open);
+        if (open >= to || uri.charAt(open) != '[' || close < 0 || close >= to || close == open + 1) {
+            return false;
+        }
+        for (int i = open + 1; i < close; i++) {
+            char c = uri.charAt(i);
+            if (!isHexDigit(c) && c != ':' && c != '.') {
+                return false;
+            }
+        }
+        if (close + 1 == to) {
+            return true;
+        }
+        if (uri.charAt(close + 1) != ':') {
+            return false;
+        }
+        for (int i = close + 2; i < to; i++) {
+            if (uri.charAt(i) < '0' || uri.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Percent-encodes spaces and square brackets after the authority, where a URI may not have
+     * them but Gemini links often do.
+     */
+    private static String escape(String uri) {
+        int authorityStart = authorityStart(uri);
+        int from = authorityStart < 0 ? 0 : indexOfAny(uri, "/?#", authorityStart);
+        if (indexOfAny(uri, " []", from) == uri.length()) {
+            return uri;
+        }
+        StringBuilder sb = new StringBuilder(uri.length() + 16);
+        sb.append(uri, 0, from);
+        for (int i = from; i < uri.length(); i++) {
+            char c = uri.charAt(i);
+            if (c == ' ') {
+                sb.append("%20");
+            } else if (c == '[') {
+                sb.append("%5B");
+            } else if (c == ']') {
+                sb.append("%5D");
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int indexOfAny(String s, String chars, int from) {
+        for (int i = from; i < s.length(); i++) {
+            if (chars.indexOf(s.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return s.length();
+    }
+
+    /**
+     * @return Whether {@code uri} only has characters a URI may contain: RFC 3986 unreserved and
+     * reserved characters, valid percent escapes and, as {@link URI} allows, non-ASCII characters
+     * other than spaces and controls. Square brackets are only legal around an IP literal host.
+     */
+    private static boolean isLegal(String uri) {
+        int authorityStart = authorityStart(uri);
+        int authorityEnd = authorityStart < 0 ? -1 : indexOfAny(uri, "/?#", authorityStart);
+        boolean ipLiteral = authorityStart >= 0 && isIpLiteralAuthority(uri, authorityStart, authorityEnd);
+        for (int i = 0; i < uri.length(); i++) {
+            char c = uri.charAt(i);
+            if (c == '[' || c == ']') {
+                if (!ipLiteral || i < authorityStart || i >= authorityEnd) {
+                    return false;
+                }
+            } else if (c >= 0x80) {
+                if (Character.isSpaceChar(c) || Character.isISOControl(c)) {
+                    return false;
+                }
+            } else if (c == '%') {
+                if (i + 2 >= uri.length() || !isHexDigit(uri.charAt(i + 1)) || !isHexDigit(uri.charAt(i + 2))) {
+                    return false;
+                }
+                i += 2;
+            } else if (!isAsciiLetter(c) && !(c >= '0' && c <= '9') && "-._~:/?#@!$&'()*+,;=".indexOf(c) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isHexDigit(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    /**
+     * Fallback for malformed URIs: some sites have invalid characters in links, so keep only
+     * letters, digits and {@code :/.-}.
+     */
+    private static String sanitize(String target) {
+        StringBuilder sb = new StringBuilder(target.length());
+        for (int i = 0; i < target.length(); i++) {
+            char c = target.charAt(i);
+            if (isAsciiLetter(c) || (c >= '0' && c <= '9') || c == ':' || c == '/' || c == '.' || c == '-') {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Removes {@code .} and {@code ..} segments (RFC 3986 section 5.2.4). Paths without any are
+     * returned as they are.
+     */
+    static String removeDotSegments(String path) {
+        if (!hasDotSegments(path)) {
+            return path;
+        }
+        StringBuilder out = new StringBuilder(path.length());
+        int i = 0;
+        int n = path.length();
+        while (i < n) {
+            if (path.startsWith("../", i)) {
+                i += 3;
+            } else if (path.startsWith("./", i)) {
+                i += 2;
+            } else if (path.startsWith("/./", i)) {
+                i += 2;
+            } else if (i + 2 == n && path.startsWith("/.", i)) {
+                out.append('/');
+                i = n;
+            } else if (path.startsWith("/../", i)) {
+                i += 3;
+                out.setLength(Math.max(out.lastIndexOf("/"), 0));
+            } else if (i + 3 == n && path.startsWith("/..", i)) {
+                out.setLength(Math.max(out.lastIndexOf("/"), 0));
+                out.append('/');
+                i = n;
+            } else if ((i + 1 == n && path.charAt(i) == '.') || (i + 2 == n && path.startsWith("..", i))) {
+                i = n;
+            } else {
+                int next = path.indexOf('/', path.charAt(i) == '/' ? i + 1 : i);
+                if (next < 0) {
+                    next = n;
+                }
+                out.append(path, i, next);
+                i = next;
+            }
+        }
+        return out.toString();
+    }
+
+    private static boolean hasDotSegments(String path) {
+        int segmentStart = 0;
+        int n = path.length();
+        for (int i = 0; i <= n; i++) {
+            if (i == n || path.charAt(i) == '/') {
+                int length = i - segmentStart;
+                if ((length == 1 && path.charAt(segmentStart) == '.')
+                        || (length == 2 && path.charAt(segmentStart) == '.' && path.charAt(segmentStart + 1) == '.')) {
+                    return true;
+                }
+                segmentStart = i + 1;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Normalizes a Gemini URI so equivalent spellings map to the same key (for request
+     * coalescing and caches).
+     * <p>
+     * Scheme and host are lowercased, the default Gemini port is dropped, an empty path becomes
+     * {@code /}, dot segments are removed and the fragment (never sent to the server) is dropped.
+     * The query is kept as is. Strings that do not parse are returned trimmed.
+     *
+     * @param uriString The URI to normalize.
+     * @return The normalized URI string.
+     */
+    public static String normalize(String uriString) {
+        String trimmed = uriString.trim();
+        URI uri;
+        try {
+            uri = new URI(trimmed).normalize();
+        } catch (URISyntaxException e) {
+            return trimmed;
+        }
+        if (uri.getScheme() == null || uri.getHost() == null) {
+            return trimmed;
+        }
+        String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+        StringBuilder sb = new StringBuilder();
+        sb.append(scheme).append("://");
+        if (uri.getRawUserInfo() != null) {
+            sb.append(uri.getRawUserInfo()).append('@');
+        }
+        sb.append(uri.getHost().toLowerCase(Locale.ROOT));
+        boolean defaultPort = uri.getPort() == GeminiSpec.DEFAULT_PORT && scheme.equals("gemini");
+        if (uri.getPort() != -1 && !defaultPort) {
+            sb.append(':').append(uri.getPort());
+        }
+        String path = uri.getRawPath();
+        sb.append(path == null || path.isEmpty() ? "/" : path);
+        if (uri.getRawQuery() != null) {
+            sb.append('?').append(uri.getRawQuery());
+        }
+        return sb.toString();
+    }
+}
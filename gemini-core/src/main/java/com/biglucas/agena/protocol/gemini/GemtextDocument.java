@@ -0,0 +1,333 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Columnar in-memory form of a gemtext document, for pages with tens of thousands of lines.
+ * <p>
+ * The text of every element is stored as UTF-8 in one {@code byte[]}; the rest is kept in
+ * primitive arrays, one slot per element: type, heading level and where its fields end. A page
+ * costs a handful of arrays instead of a string, an element and its substrings per line.
+ * Elements are read through a {@link Cursor}, a flyweight that moves over the arrays, so strings
+ * are only created for what is actually shown.
+ * <p>
+ * Element {@code i} owns the bytes from the end of element {@code i - 1}: first its URL (links)
+ * or alt text (preformatted blocks), then its text, i.e. what a renderer shows: the trimmed line,
+ * a heading, list item or quote without its marker, a link label or a preformatted body.
+ * <p>
+ * Lines are appended as they arrive, following the rules of {@link GemtextParser.StreamParser};
+ * {@link #finish()} flushes a preformatted block left open. A {@link GemtextOutline} of the
+ * headings and links is kept up to date on the way. Not thread-safe.
+ */
+public final class GemtextDocument {
+    public static final int TEXT = 0;
+    public static final int LINK = 1;
+    public static final int HEADING = 2;
+    public static final int LIST_ITEM = 3;
+    public static final int QUOTE = 4;
+    public static final int PREFORMATTED = 5;
+
+    private static final int INITIAL_ELEMENTS = 64;
+
+    private byte[] bytes = new byte[INITIAL_ELEMENTS * 32];
+    private int length;
+    private byte[] types = new byte[INITIAL_ELEMENTS];
+    private byte[] levels = new byte[INITIAL_ELEMENTS];
+    private int[] extraEnds = new int[INITIAL_ELEMENTS];
+    private int[] textEnds = new int[INITIAL_ELEMENTS];
+    private int count;
+
+    private final GemtextOutline outline = new GemtextOutline();
+    private final int[] bounds = new int[5];
+    // Byte offset of the open preformatted block's body, or -1.
+    private int preformattedBody = -1;
+
+    public GemtextDocument() {
+    }
+
+    /**
+     * Wraps complete columns, e.g. decoded by {@link CompactGemtext}, and indexes their headings
+     * and links. Link hosts are not known here; the caller adds them to the outline.
+     */
+    GemtextDocument(byte[] bytes, byte[] types, byte[] levels, int[] extraEnds, int[] textEnds, int count) {
+        this.bytes = bytes;
+        this.length = bytes.length;
+        this.types = types;
+        this.levels = levels;
+        this.extraEnds = extraEnds;
+        this.textEnds = textEnds;
+        this.count = count;
+        for (int i = 0; i < count; i++) {
+            if (types[i] == HEADING) {
+                outline.addHeading(i, levels[i]);
+            } else if (types[i] == LINK && extraEnds[i] > (i == 0 ? 0 : textEnds[i - 1])) {
+                outline.addLinkElement(i);
+            }
+        }
+    }
+
+    /**
+     * @return A complete document parsed from {@code lines}.
+     */
+    public static GemtextDocument parse(List<String> lines) {
+        GemtextDocument document = new GemtextDocument();
+        for (String line : lines) {
+            document.append(line);
+        }
+        document.finish();
+        return document;
+    }
+
+    /**
+     * Consumes one source line. Completed elements become visible right away; a preformatted
+     * block only once its closing fence arrives (or on {@link #finish()}).
+     *
+     * @param raw source line (null is treated as an empty string)
+     */
+    public void append(String raw) {
+        String line = raw == null ? "" : raw;
+
+        if (line.startsWith("```")) {
+            if (preformattedBody >= 0) {
+                closePreformatted();
+            } else {
+                // The alt text goes first, the body lines after it.
+                String alt = line.substring(3).trim();
+                appendUtf8(alt, 0, alt.length());
+                preformattedBody = length;
+            }
+            return;
+        }
+
+        if (preformattedBody >= 0) {
+            if (length > preformattedBody) {
+                appendByte((byte) '\n');
+            }
+            appendUtf8(line, 0, line.length());
+            return;
+        }
+
+        int type = GemtextParser.scan(line, bounds);
+        appendUtf8(line, bounds[2], bounds[3]);
+        int extraEnd = length;
+        if (type == LINK && GemtextParser.needsCollapsing(line, bounds[0], bounds[1])) {
+            String label = GemtextParser.collapseWhitespace(line, bounds[0], bounds[1]);
+            appendUtf8(label, 0, label.length());
+        } else {
+            appendUtf8(line, bounds[0], bounds[1]);
+        }
+        if (type == HEADING) {
+            outline.addHeading(count, bounds[4]);
+        } else if (type == LINK) {
+            outline.addLink(count, line, bounds[2], bounds[3]);
+        }
+        addElement(type, bounds[4], extraEnd);
+    }
+
+    /**
+     * Signals end of input, flushing an unclosed preformatted block.
+     */
+    public void finish() {
+        if (preformattedBody >= 0) {
+            closePreformatted();
+        }
+    }
+
+    private void closePreformatted() {
+        addElement(PREFORMATTED, 0, preformattedBody);
+        preformattedBody = -1;
+    }
+
+    private void addElement(int type, int level, int extraEnd) {
+        ensureElements(count + 1);
+        types[count] = (byte) type;
+        levels[count] = (byte) Math.min(level, Byte.MAX_VALUE);
+        extraEnds[count] = extraEnd;
+        textEnds[count] = length;
+        count++;
+    }
+
+    private void ensureElements(int required) {
+        if (required > types.length) {
+            int grown = Math.max(required, types.length * 2);
+            types = Arrays.copyOf(types, grown);
+            levels = Arrays.copyOf(levels, grown);
+            extraEnds = Arrays.copyOf(extraEnds, grown);
+            textEnds = Arrays.copyOf(textEnds, grown);
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(length + extra, bytes.length * 2));
+        }
+    }
+
+    private void appendByte(byte b) {
+        ensureCapacity(1);
+        bytes[length++] = b;
+    }
+
+    /**
+     * Encodes {@code text[from, to)} as UTF-8, without an intermediate array for ASCII.
+     */
+    private void appendUtf8(String text, int from, int to) {
+        ensureCapacity(to - from);
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                byte[] encoded = text.substring(i, to).getBytes(StandardCharsets.UTF_8);
+                ensureCapacity(encoded.length);
+                System.arraycopy(encoded, 0, bytes, length, encoded.length);
+                length += encoded.length;
+                return;
+            }
+            bytes[length++] = (byte) c;
+        }
+    }
+
+    /**
+     * @return Number of completed elements.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return The index of headings and links, growing with the document.
+     */
+    public GemtextOutline getOutline() {
+        return outline;
+    }
+
+    /**
+     * @return Bytes of element text held, for diagnostics.
+     */
+    public int getTextBytes() {
+        return length;
+    }
+
+    /** @return The UTF-8 of all elements, valid up to {@link #getTextBytes()}. */
+    byte[] bytes() {
+        return bytes;
+    }
+
+    int type(int index) {
+        return types[index];
+    }
+
+    int level(int index) {
+        return levels[index];
+    }
+
+    /** @return Where the URL or alt text of element {@code index} ends and its text starts. */
+    int extraEnd(int index) {
+        return extraEnds[index];
+    }
+
+    int textEnd(int index) {
+        return textEnds[index];
+    }
+
+    /**
+     * @return A cursor placed before the first element.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Flyweight view of one element; {@link #next()} and {@link #moveTo(int)} move it over the
+     * document without allocating. Sees elements completed after it was created.
+     */
+    public final class Cursor {
+        private int index = -1;
+
+        private Cursor() {
+        }
+
+        /**
+         * Moves to the next element.
+         *
+         * @return False (and stays put) at the end of the document.
+         */
+        public boolean next() {
+            if (index + 1 >= count) {
+                return false;
+            }
+            index++;
+            return true;
+        }
+
+        /**
+         * Moves to element {@code index}, e.g. {@code -1} to restart before the first element.
+         */
+        public void moveTo(int index) {
+            if (index < -1 || index >= count) {
+                throw new IndexOutOfBoundsException("Element " + index + " of " + count);
+            }
+            this.index = index;
+        }
+
+        public int index() {
+            return index;
+        }
+
+        /**
+         * @return One of {@link #TEXT}, {@link #LINK}, {@link #HEADING}, {@link #LIST_ITEM},
+         * {@link #QUOTE} or {@link #PREFORMATTED}.
+         */
+        public int type() {
+            return types[index];
+        }
+
+        /**
+         * @return Number of leading {@code #} of a heading, 0 for other elements.
+         */
+        public int level() {
+            return levels[index];
+        }
+
+        /**
+         * @return What to show: the trimmed line, the text after a marker, a link label (empty
+         * if none) or a preformatted body.
+         */
+        public String text() {
+            return string(extraEnds[index], textEnds[index]);
+        }
+
+        /**
+         * @return Whether {@link #text()} is empty, without creating it.
+         */
+        public boolean isTextEmpty() {
+            return extraEnds[index] == textEnds[index];
+        }
+
+        /**
+         * @return The URL of a link as written (empty if none), or null for other elements.
+         */
+        public String url() {
+            return types[index] == LINK ? string(start(), extraEnds[index]) : null;
+        }
+
+        /**
+         * @return The alt text of a preformatted block (empty if none), or null for other elements.
+         */
+        public String alt() {
+            return types[index] == PREFORMATTED ? string(start(), extraEnds[index]) : null;
+        }
+
+        private int start() {
+            return index == 0 ? 0 : textEnds[index - 1];
+        }
+
+        private String string(int from, int to) {
+            if (index < 0) {
+                throw new IllegalStateException("Cursor is before the first element");
+            }
+            return new String(bytes, from, to - from, StandardCharsets.UTF_8);
+        }
+    }
+}
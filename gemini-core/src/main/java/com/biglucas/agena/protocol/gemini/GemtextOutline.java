@@ -0,0 +1,176 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Side index of a {@link GemtextDocument}, filled in while it is parsed: where the headings
+ * (and their levels) and the links are, and how many links point to each host. A table of
+ * contents and "jump to heading N" read it directly, without walking the elements again.
+ * <p>
+ * Positions are element indexes in the document. Links are counted under the host of their
+ * URL as written: {@code ""} for relative links (the page's own capsule), and the scheme (e.g.
+ * {@code "mailto:"}) for URLs without a host.
+ */
+public final class GemtextOutline {
+    private int[] headingElements = new int[16];
+    private byte[] headingLevels = new byte[16];
+    private int headingCount;
+    private int[] linkElements = new int[64];
+    private int linkCount;
+    private final Map<String, Integer> linksPerHost = new HashMap<>();
+
+    GemtextOutline() {
+    }
+
+    void addHeading(int element, int level) {
+        if (headingCount == headingElements.length) {
+            headingElements = Arrays.copyOf(headingElements, headingCount * 2);
+            headingLevels = Arrays.copyOf(headingLevels, headingCount * 2);
+        }
+        headingElements[headingCount] = element;
+        headingLevels[headingCount] = (byte) Math.min(level, Byte.MAX_VALUE);
+        headingCount++;
+    }
+
+    /**
+     * Records a link whose URL is {@code line[urlStart, urlEnd)}; an empty URL is not a link.
+     */
+    void addLink(int element, String line, int urlStart, int urlEnd) {
+        if (urlStart == urlEnd) {
+            return;
+        }
+        addLinkElement(element);
+        countLinks(hostOf(line, urlStart, urlEnd), 1);
+    }
+
+    /** Records a link without counting it under a host; see {@link #countLinks}. */
+    void addLinkElement(int element) {
+        if (linkCount == linkElements.length) {
+            linkElements = Arrays.copyOf(linkElements, linkCount * 2);
+        }
+        linkElements[linkCount++] = element;
+    }
+
+    void countLinks(String host, int links) {
+        Integer known = linksPerHost.get(host);
+        linksPerHost.put(host, known == null ? links : known + links);
+    }
+
+    /**
+     * @return The host of {@code url[from, to)} in lower case, {@code ""} for a relative
+     * reference or the scheme followed by {@code :} when there is no host.
+     */
+    static String hostOf(String url, int from, int to) {
+        int authority;
+        if (url.startsWith("//", from)) {
+            authority = from + 2;
+        } else {
+            int colon = -1;
+            for (int i = from; i < to; i++) {
+                char c = url.charAt(i);
+                if (c == ':') {
+                    colon = i;
+                    break;
+                }
+                if (c == '/' || c == '?' || c == '#') {
+                    break;
+                }
+            }
+            if (colon < 0) {
+                return "";
+            }
+            if (!url.startsWith("//", colon + 1)) {
+                return url.substring(from, colon + 1).toLowerCase(Locale.ROOT);
+            }
+            authority = colon + 3;
+        }
+        int end = authority;
+        while (end < to && "/?#".indexOf(url.charAt(end)) < 0) {
+            end++;
+        }
+        int start = url.lastIndexOf('@', end - 1) + 1;
+        if (start <= authority) {
+            start = authority;
+        }
+        int hostEnd = end;
+        if (start < end && url.charAt(start) == '[') {
+            // IPv6 literal: the port, if any, follows the closing bracket.
+            int bracket = url.indexOf(']', start);
+            if (bracket >= 0 && bracket < end) {
+                hostEnd = bracket + 1;
+            }
+        } else {
+            int port = url.lastIndexOf(':', end - 1);
+            if (port >= start) {
+                hostEnd = port;
+            }
+        }
+        return url.substring(start, hostEnd).toLowerCase(Locale.ROOT);
+    }
+
+    public int getHeadingCount() {
+        return headingCount;
+    }
+
+    /**
+     * @return The element index of heading {@code n}, for {@link GemtextDocument.Cursor#moveTo(int)}.
+     */
+    public int getHeadingElement(int n) {
+        checkIndex(n, headingCount);
+        return headingElements[n];
+    }
+
+    /**
+     * @return The level (number of leading {@code #}) of heading {@code n}.
+     */
+    public int getHeadingLevel(int n) {
+        checkIndex(n, headingCount);
+        return headingLevels[n];
+    }
+
+    /**
+     * @return Links with a URL; links without one are not counted.
+     */
+    public int getLinkCount() {
+        return linkCount;
+    }
+
+    /**
+     * @return The element index of link {@code n}.
+     */
+    public int getLinkElement(int n) {
+        checkIndex(n, linkCount);
+        return linkElements[n];
+    }
+
+    /**
+     * @return The number {@code n} of the link at element {@code element}, for
+     * {@link #getLinkElement(int)}, or -1 if that element is not a link with a URL.
+     */
+    public int linkIndexOf(int element) {
+        int index = Arrays.binarySearch(linkElements, 0, linkCount, element);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * @return Number of links per host, unmodifiable.
+     */
+    public Map<String, Integer> getLinksPerHost() {
+        return Collections.unmodifiableMap(linksPerHost);
+    }
+
+    private static void checkIndex(int n, int count) {
+        if (n < 0 || n >= count) {
+            throw new IndexOutOfBoundsException(n + " of " + count);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "outline: headings=" + headingCount + " links=" + linkCount + " hosts=" + linksPerHost.size();
+    }
+}
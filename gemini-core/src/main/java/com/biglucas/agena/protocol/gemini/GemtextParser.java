@@ -0,0 +1,469 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parses {@code text/gemini} source lines into structural elements.
+ * <p>
+ * Keeps preformatted-block state out of the Android UI layer so the rules can be
+ * unit-tested. An unclosed preformatted fence at end-of-input is treated as a
+ * complete block (common on partial or poorly authored pages).
+ * <p>
+ * Every other line is classified once, in a single pass over its characters, into a typed
+ * {@link Line}: {@link Link}, {@link Heading}, {@link ListItem}, {@link Quote} or {@link Text}.
+ * Renderers only map nodes to views. As the spec says, a list item needs a space after the
+ * {@code *}: {@code *foo} is plain text.
+ */
+public final class GemtextParser {
+    private GemtextParser() {}
+
+    /**
+     * One structural piece of a gemtext document.
+     */
+    public abstract static class Element {
+        private Element() {}
+    }
+
+    /**
+     * A preformatted block body (without the surrounding fence lines).
+     */
+    public static final class Preformatted extends Element {
+        /** Text after the opening fence (e.g. a language or a description), possibly empty. */
+        public final String alt;
+        public final String text;
+
+        public Preformatted(String text) {
+            this("", text);
+        }
+
+        public Preformatted(String alt, String text) {
+            this.alt = alt;
+            this.text = text;
+        }
+    }
+
+    /**
+     * A non-preformatted source line; parsers emit one of its typed subclasses.
+     */
+    public static class Line extends Element {
+        /** The line as written. */
+        public final String raw;
+
+        public Line(String raw) {
+            this.raw = raw;
+        }
+    }
+
+    /**
+     * A plain paragraph.
+     */
+    public static final class Text extends Line {
+        public Text(String raw) {
+            super(raw);
+        }
+    }
+
+    /**
+     * {@code => URL [label]}; the URL is as written, not resolved.
+     */
+    public static final class Link extends Line {
+        /** Empty when the line has no URL. */
+        public final String url;
+        /** Empty when the line has no label; runs of whitespace are collapsed to one space. */
+        public final String label;
+
+        public Link(String raw, String url, String label) {
+            super(raw);
+            this.url = url;
+            this.label = label;
+        }
+    }
+
+    /**
+     * {@code #}, {@code ##}, {@code ###} (or more) followed by the heading text.
+     */
+    public static final class Heading extends Line {
+        /** Number of leading {@code #}, at least 1. */
+        public final int level;
+        public final String text;
+
+        public Heading(String raw, int level, String text) {
+            super(raw);
+            this.level = level;
+            this.text = text;
+        }
+    }
+
+    /**
+     * {@code * item}.
+     */
+    public static final class ListItem extends Line {
+        public final String text;
+
+        public ListItem(String raw, String text) {
+            super(raw);
+            this.text = text;
+        }
+    }
+
+    /**
+     * {@code > quoted text}.
+     */
+    public static final class Quote extends Line {
+        public final String text;
+
+        public Quote(String raw, String text) {
+            super(raw);
+            this.text = text;
+        }
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    /** What a link label is split into words at, like the default {@code StringTokenizer}. */
+    private static boolean isLabelWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    /**
+     * @return Whether the label {@code line[from, to)} has whitespace other than single spaces.
+     */
+    static boolean needsCollapsing(String line, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = line.charAt(i);
+            if (isLabelWhitespace(c) && (c != ' ' || (i + 1 < to && isLabelWhitespace(line.charAt(i + 1))))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The label {@code line[from, to)} with every run of whitespace replaced by one space.
+     */
+    static String collapseWhitespace(String line, int from, int to) {
+        if (!needsCollapsing(line, from, to)) {
+            return line.substring(from, to);
+        }
+        StringBuilder sb = new StringBuilder(to - from);
+        boolean space = false;
+        for (int i = from; i < to; i++) {
+            char c = line.charAt(i);
+            if (isLabelWhitespace(c)) {
+                space = true;
+            } else {
+                if (space && sb.length() > 0) {
+                    sb.append(' ');
+                }
+                space = false;
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Classifies a non-preformatted source line without allocating: writes the bounds of its
+     * text (trimmed), of its URL (links only) and its heading level into {@code bounds}. Link
+     * labels still need {@link #collapseWhitespace}.
+     *
+     * @param bounds At least 5 slots: text start, text end, URL start, URL end, level.
+     * @return One of the {@link GemtextDocument} element types, never {@code PREFORMATTED}.
+     */
+    static int scan(String line, int[] bounds) {
+        int length = line.length();
+        int type = GemtextDocument.TEXT;
+        int textStart = 0;
+        int urlStart = 0;
+        int urlEnd = 0;
+        int level = 0;
+        if (line.startsWith("=>")) {
+            type = GemtextDocument.LINK;
+            urlStart = 2;
+            while (urlStart < length && isWhitespace(line.charAt(urlStart))) {
+                urlStart++;
+            }
+            urlEnd = urlStart;
+            while (urlEnd < length && !isWhitespace(line.charAt(urlEnd))) {
+                urlEnd++;
+            }
+            textStart = urlEnd;
+        } else if (line.startsWith("#")) {
+            type = GemtextDocument.HEADING;
+            level = 1;
+            while (level < length && line.charAt(level) == '#') {
+                level++;
+            }
+            textStart = level;
+        } else if (line.startsWith("* ")) {
+            type = GemtextDocument.LIST_ITEM;
+            textStart = 2;
+        } else if (line.startsWith(">")) {
+            type = GemtextDocument.QUOTE;
+            textStart = 1;
+        }
+        // Same as String.trim().
+        int textEnd = length;
+        while (textStart < textEnd && line.charAt(textStart) <= ' ') {
+            textStart++;
+        }
+        while (textEnd > textStart && line.charAt(textEnd - 1) <= ' ') {
+            textEnd--;
+        }
+        bounds[0] = textStart;
+        bounds[1] = textEnd;
+        bounds[2] = urlStart;
+        bounds[3] = urlEnd;
+        bounds[4] = level;
+        return type;
+    }
+
+    /**
+     * Classifies a non-preformatted source line.
+     *
+     * @param raw source line (null is treated as an empty string)
+     * @return A {@link Link}, {@link Heading}, {@link ListItem}, {@link Quote} or {@link Text}.
+     */
+    public static Line classify(String raw) {
+        String line = raw == null ? "" : raw;
+        int[] bounds = new int[5];
+        int type = scan(line, bounds);
+        switch (type) {
+            case GemtextDocument.LINK:
+                return new Link(line, line.substring(bounds[2], bounds[3]), collapseWhitespace(line, bounds[0], bounds[1]));
+            case GemtextDocument.HEADING:
+                return new Heading(line, bounds[4], line.substring(bounds[0], bounds[1]));
+            case GemtextDocument.LIST_ITEM:
+                return new ListItem(line, line.substring(bounds[0], bounds[1]));
+            case GemtextDocument.QUOTE:
+                return new Quote(line, line.substring(bounds[0], bounds[1]));
+            default:
+                return new Text(line);
+        }
+    }
+
+    /**
+     * Parses gemtext lines into ordered elements.
+     *
+     * @param lines source lines (may be empty; null entries are treated as empty strings)
+     * @return unmodifiable list of elements in document order
+     */
+    public static List<Element> parse(List<String> lines) {
+        if (lines == null || lines.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<Element> out = new ArrayList<>(lines.size());
+        StreamParser parser = new StreamParser();
+        for (String raw : lines) {
+            parser.feed(raw, out);
+        }
+        parser.finish(out);
+        return Collections.unmodifiableList(out);
+    }
+
+    /**
+     * Incremental parser for documents that arrive line by line.
+     * <p>
+     * Elements are emitted as soon as they are complete: ordinary lines immediately, preformatted
+     * blocks when their closing fence arrives (or on {@link #finish}). Produces the same elements
+     * as {@link #parse(List)} for the same input.
+     */
+    public static final class StreamParser {
+        private StringBuilder preformatted;
+        private String alt;
+
+        /**
+         * Consumes one source line, appending any completed elements to {@code out}.
+         *
+         * @param raw source line (null is treated as an empty string)
+         * @param out destination for completed elements
+         */
+        public void feed(String raw, List<Element> out) {
+            String item = raw == null ? "" : raw;
+
+            if (item.startsWith("```")) {
+                if (preformatted != null) {
+                    out.add(new Preformatted(alt, preformatted.toString()));
+                    preformatted = null;
+                } else {
+                    preformatted = new StringBuilder();
+                    alt = item.substring(3).trim();
+                }
+                return;
+            }
+
+            if (preformatted != null) {
+                if (preformatted.length() > 0) {
+                    preformatted.append('\n');
+                }
+                preformatted.append(item);
+                return;
+            }
+
+            out.add(classify(item));
+        }
+
+        /**
+         * Signals end of input, flushing an unclosed preformatted block to {@code out}.
+         */
+        public void finish(List<Element> out) {
+            // Unclosed fence: still emit what was collected so content is not dropped.
+            if (preformatted != null) {
+                out.add(new Preformatted(alt, preformatted.toString()));
+                preformatted = null;
+            }
+        }
+    }
+
+    /**
+     * Incremental parser for documents that arrive as raw bytes, e.g. chunks read from a socket
+     * or a file: a {@link LineDecoder} feeding a {@link StreamParser}. Elements are emitted as
+     * soon as their line (or closing fence) arrives.
+     */
+    public static final class PushParser {
+        private final LineDecoder decoder = new LineDecoder();
+        private final StreamParser lines = new StreamParser();
+
+        /**
+         * Consumes a chunk of the document, appending any completed elements to {@code out}.
+         * The chunk is read to its limit.
+         */
+        public void feed(ByteBuffer chunk, List<Element> out) {
+            decoder.feed(chunk, line -> lines.feed(line, out));
+        }
+
+        /**
+         * Signals end of input: flushes the last line if it has no LF and an unclosed
+         * preformatted block to {@code out}.
+         */
+        public void finish(List<Element> out) {
+            decoder.finish(line -> lines.feed(line, out));
+            lines.finish(out);
+        }
+
+        /**
+         * @return Lines completed so far.
+         */
+        public int getLineCount() {
+            return decoder.getLineCount();
+        }
+    }
+
+    /**
+     * Splits a byte stream into lines, e.g. chunks read from a socket or a file.
+     * <p>
+     * UTF-8 is decoded incrementally (malformed input is replaced, not rejected), so a character
+     * or a line may be split anywhere between chunks. Lines end at LF, with a trailing CR dropped,
+     * and are handed over as soon as they are complete; text after the last LF is a line too.
+     * Produces the same lines as {@link GeminiLineReader#readLine()}.
+     */
+    public static final class LineDecoder {
+        private static final int CHAR_BUFFER_SIZE = 4096;
+
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+        // The start of a character split between chunks (at most 3 bytes).
+        private final ByteBuffer split = ByteBuffer.allocate(4);
+        private final StringBuilder line = new StringBuilder();
+        private boolean lineStarted;
+        private int lineCount;
+
+        /**
+         * Consumes a chunk, passing every line it completes to {@code listener}. The chunk is
+         * read to its limit.
+         */
+        public void feed(ByteBuffer chunk, GeminiClient.LineListener listener) {
+            while (split.position() > 0 && chunk.hasRemaining()) {
+                // Complete the split character one byte at a time.
+                split.put(chunk.get());
+                split.flip();
+                decode(split, false, listener);
+                boolean done = !split.hasRemaining();
+                split.compact();
+                if (done) {
+                    break;
+                }
+            }
+            decode(chunk, false, listener);
+            split.put(chunk);
+        }
+
+        /**
+         * Signals end of input, flushing an incomplete character and the last line if it has
+         * no LF.
+         */
+        public void finish(GeminiClient.LineListener listener) {
+            split.flip();
+            decode(split, true, listener);
+            split.clear();
+            decoder.flush(chars);
+            chars.flip();
+            scan(listener);
+            chars.clear();
+            if (lineStarted) {
+                endLine(listener);
+            }
+        }
+
+        /**
+         * @return Lines completed so far.
+         */
+        public int getLineCount() {
+            return lineCount;
+        }
+
+        private void decode(ByteBuffer in, boolean endOfInput, GeminiClient.LineListener listener) {
+            while (true) {
+                CoderResult result = decoder.decode(in, chars, endOfInput);
+                chars.flip();
+                scan(listener);
+                chars.clear();
+                if (!result.isOverflow()) {
+                    return;
+                }
+            }
+        }
+
+        private void scan(GeminiClient.LineListener listener) {
+            char[] array = chars.array();
+            int start = chars.position();
+            int limit = chars.limit();
+            for (int i = start; i < limit; i++) {
+                if (array[i] == '\n') {
+                    line.append(array, start, i - start);
+                    endLine(listener);
+                    start = i + 1;
+                }
+            }
+            if (start < limit) {
+                line.append(array, start, limit - start);
+                lineStarted = true;
+            }
+        }
+
+        private void endLine(GeminiClient.LineListener listener) {
+            int length = line.length();
+            if (length > 0 && line.charAt(length - 1) == '\r') {
+                length--;
+            }
+            String completed = line.substring(0, length);
+            line.setLength(0);
+            lineStarted = false;
+            lineCount++;
+            listener.onLine(completed);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens a TCP connection by racing a host's addresses, in the style of RFC 8305 (Happy Eyeballs v2).
+ * <p>
+ * Addresses are ordered IPv6 first, alternating address families. The first attempt starts
+ * immediately; each following attempt starts when the previous one fails or after
+ * {@link #DEFAULT_ATTEMPT_DELAY_MS}, whichever comes first. The first socket to connect wins and
+ * every other attempt is abandoned (late connections close themselves). A broken IPv6 route thus
+ * costs one attempt delay instead of a full connect timeout.
+ */
+public class HappyEyeballsConnector {
+    /** "Connection Attempt Delay" recommended by RFC 8305, section 5. */
+    public static final long DEFAULT_ATTEMPT_DELAY_MS = 250;
+
+    /**
+     * Opens one connection to a single address.
+     */
+    public interface Dialer {
+        Socket connect(InetSocketAddress address, int timeoutMs) throws IOException;
+    }
+
+    /** Dialer that connects a plain, unconnected {@link Socket}. */
+    public static final Dialer PLAIN_DIALER = (address, timeoutMs) -> {
+        Socket socket = new Socket();
+        try {
+            socket.connect(address, timeoutMs);
+        } catch (IOException e) {
+            closeQuietly(socket);
+            throw e;
+        }
+        return socket;
+    };
+
+    private static final ExecutorService SHARED_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "happy-eyeballs");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Dialer dialer;
+    private final ExecutorService executor;
+    private final long attemptDelayMs;
+
+    public HappyEyeballsConnector() {
+        this(PLAIN_DIALER, SHARED_EXECUTOR, DEFAULT_ATTEMPT_DELAY_MS);
+    }
+
+    public HappyEyeballsConnector(Dialer dialer, ExecutorService executor, long attemptDelayMs) {
+        this.dialer = dialer;
+        this.executor = executor;
+        this.attemptDelayMs = attemptDelayMs;
+    }
+
+    /**
+     * Orders addresses IPv6 first, then alternating families, keeping resolver order within a family.
+     */
+    public static List<InetAddress> interleave(InetAddress[] addresses) {
+        List<InetAddress> v6 = new ArrayList<>();
+        List<InetAddress> v4 = new ArrayList<>();
+        for (InetAddress address : addresses) {
+            if (address instanceof Inet6Address) {
+                v6.add(address);
+            } else {
+                v4.add(address);
+            }
+        }
+        List<InetAddress> ordered = new ArrayList<>(addresses.length);
+        for (int i = 0; i < Math.max(v6.size(), v4.size()); i++) {
+            if (i < v6.size()) {
+                ordered.add(v6.get(i));
+            }
+            if (i < v4.size()) {
+                ordered.add(v4.get(i));
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Connects to whichever address answers first.
+     *
+     * @param addresses Candidate addresses (at least one).
+     * @param port      Destination port.
+     * @param timeoutMs Overall budget for all attempts.
+     * @return The connected socket.
+     * @throws SocketTimeoutException If no attempt succeeded within {@code timeoutMs}.
+     * @throws IOException            The last failure if every attempt failed.
+     */
+    public Socket connect(InetAddress[] addresses, int port, int timeoutMs) throws IOException {
+        List<InetAddress> ordered = interleave(addresses);
+        if (ordered.isEmpty()) {
+            throw new IOException("No addresses to connect to");
+        }
+        if (ordered.size() == 1) {
+            return dialer.connect(new InetSocketAddress(ordered.get(0), port), timeoutMs);
+        }
+
+        Race race = new Race();
+        ExecutorCompletionService<Socket> completion = new ExecutorCompletionService<>(executor);
+        List<Future<Socket>> attempts = new ArrayList<>(ordered.size());
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        IOException failure = null;
+        boolean interrupted = false;
+        int next = 0;
+        int pending = 0;
+
+        try {
+            attempts.add(completion.submit(attempt(race, ordered.get(next++), port, deadline)));
+            pending++;
+
+            while (pending > 0) {
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMs <= 0) {
+                    break;
+                }
+                long waitMs = next < ordered.size() ? Math.min(attemptDelayMs, remainingMs) : remainingMs;
+                Future<Socket> done = completion.poll(waitMs, TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    // Attempt delay elapsed without an answer: start the next address in parallel.
+                    if (next < ordered.size()) {
+                        attempts.add(completion.submit(attempt(race, ordered.get(next++), port, deadline)));
+                        pending++;
+                    }
+                    continue;
+                }
+                pending--;
+                try {
+                    done.get();
+                    break;
+                } catch (ExecutionException e) {
+                    failure = e.getCause() instanceof IOException
+                            ? (IOException) e.getCause()
+                            : new IOException(e.getCause());
+                    if (next < ordered.size()) {
+                        attempts.add(completion.submit(attempt(race, ordered.get(next++), port, deadline)));
+                        pending++;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            interrupted = true;
+            failure = new IOException("Interrupted while connecting", e);
+        } finally {
+            for (Future<Socket> attempt : attempts) {
+                attempt.cancel(true);
+            }
+        }
+
+        Socket winner = race.settle();
+        if (winner != null) {
+            return winner;
+        }
+        if (!interrupted && (pending > 0 || failure == null)) {
+            throw new SocketTimeoutException("Connect timed out after " + timeoutMs + " ms");
+        }
+        throw failure;
+    }
+
+    private Callable<Socket> attempt(Race race, InetAddress address, int port, long deadline) {
+        return () -> {
+            int timeoutMs = (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+            Socket socket = dialer.connect(new InetSocketAddress(address, port), timeoutMs);
+            if (!race.claim(socket)) {
+                closeQuietly(socket);
+                throw new IOException("Connection to " + address + " lost the race");
+            }
+            return socket;
+        };
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Nothing useful to do with a failed close of an unused socket.
+        }
+    }
+
+    /**
+     * Decides the single winner of a race; attempts finishing after it is settled lose.
+     */
+    private static final class Race {
+        private boolean settled;
+        private Socket winner;
+
+        synchronized boolean claim(Socket socket) {
+            if (settled) {
+                return false;
+            }
+            settled = true;
+            winner = socket;
+            return true;
+        }
+
+        synchronized Socket settle() {
+            settled = true;
+            return winner;
+        }
+    }
+}
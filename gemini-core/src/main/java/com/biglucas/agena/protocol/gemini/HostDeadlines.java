@@ -0,0 +1,299 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Learns connect, idle-read and total deadlines per host.
+ * <p>
+ * A single fixed timeout either lets a hung fast host block for the full period or cuts off a
+ * slow but healthy one. Instead, every request feeds three samples for its host: the connect
+ * time (about one round trip), the time to the response header (round trip plus server
+ * think-time, the longest gap a reader normally waits) and the body throughput. Round trip and
+ * first-byte estimates are smoothed like a TCP retransmission timer (RFC 6298: a smoothed mean
+ * plus four times the mean deviation), and the deadlines are a safety margin over those,
+ * clamped to sane bounds. Hosts without samples get the defaults.
+ * <p>
+ * Estimates are written through a {@link KeyValueStore} so they survive restarts; at most
+ * {@link #DEFAULT_MAX_HOSTS} hosts are kept, least recently used first out. User overrides,
+ * when set, win over learned values.
+ */
+public class HostDeadlines {
+    /** Hosts without samples get 5 s to connect and 5 s between reads. */
+    public static final int DEFAULT_CONNECT_MS = 5_000;
+    public static final int DEFAULT_READ_MS = 5_000;
+    public static final long DEFAULT_TOTAL_MS = 60_000;
+
+    static final int MIN_CONNECT_MS = 2_000;
+    static final int MAX_CONNECT_MS = 20_000;
+    /** Low enough that a fast host which hangs is given up on quickly. */
+    static final int MIN_READ_MS = 1_000;
+    static final int MAX_READ_MS = 60_000;
+    static final long MIN_TOTAL_MS = 15_000;
+    static final long MAX_TOTAL_MS = 300_000;
+
+    /** Deadlines are this many retransmission timeouts. */
+    private static final int MARGIN = 3;
+    /** Expected transfer time is multiplied by this before being added to the total. */
+    private static final int TRANSFER_MARGIN = 4;
+    /** Bodies smaller than this say more about latency than throughput and are not sampled. */
+    static final long MIN_THROUGHPUT_SAMPLE_BYTES = 16 * 1024;
+    public static final int DEFAULT_MAX_HOSTS = 256;
+
+    /**
+     * Deadlines to apply to one request.
+     */
+    public static final class Deadlines {
+        /** Upper bound for establishing the TCP connection. */
+        public final int connectMs;
+        /** Upper bound for any single read ({@code SO_TIMEOUT}). */
+        public final int readMs;
+        /** Upper bound for the whole response, from connect until the body ends. */
+        public final long totalMs;
+
+        public Deadlines(int connectMs, int readMs, long totalMs) {
+            this.connectMs = connectMs;
+            this.readMs = readMs;
+            this.totalMs = totalMs;
+        }
+
+        @Override
+        public String toString() {
+            return "connect=" + connectMs + "ms read=" + readMs + "ms total=" + totalMs + "ms";
+        }
+    }
+
+    /**
+     * Smoothed latency and throughput of one host. All times in milliseconds.
+     */
+    static final class Estimate {
+        double rtt = -1;
+        double rttVar;
+        double firstByte = -1;
+        double firstByteVar;
+        double bytesPerMs = -1;
+        double bodyBytes = -1;
+
+        void addRtt(double sample) {
+            if (rtt < 0) {
+                rtt = sample;
+                rttVar = sample / 2;
+            } else {
+                rttVar = 0.75 * rttVar + 0.25 * Math.abs(rtt - sample);
+                rtt = 0.875 * rtt + 0.125 * sample;
+            }
+        }
+
+        void addFirstByte(double sample) {
+            if (firstByte < 0) {
+                firstByte = sample;
+                firstByteVar = sample / 2;
+            } else {
+                firstByteVar = 0.75 * firstByteVar + 0.25 * Math.abs(firstByte - sample);
+                firstByte = 0.875 * firstByte + 0.125 * sample;
+            }
+        }
+
+        void addTransfer(long bytes, double ms) {
+            bodyBytes = bodyBytes < 0 ? bytes : 0.75 * bodyBytes + 0.25 * bytes;
+            if (bytes >= MIN_THROUGHPUT_SAMPLE_BYTES && ms > 0) {
+                double sample = bytes / ms;
+                bytesPerMs = bytesPerMs < 0 ? sample : 0.75 * bytesPerMs + 0.25 * sample;
+            }
+        }
+
+        String encode() {
+            return String.format(Locale.ROOT, "%.1f,%.1f,%.1f,%.1f,%.3f,%.0f",
+                    rtt, rttVar, firstByte, firstByteVar, bytesPerMs, bodyBytes);
+        }
+
+        /**
+         * @return The decoded estimate, or null if {@code encoded} is malformed.
+         */
+        static Estimate decode(String encoded) {
+            if (encoded == null) {
+                return null;
+            }
+            String[] parts = encoded.split(",");
+            if (parts.length != 6) {
+                return null;
+            }
+            try {
+                Estimate estimate = new Estimate();
+                estimate.rtt = Double.parseDouble(parts[0]);
+                estimate.rttVar = Double.parseDouble(parts[1]);
+                estimate.firstByte = Double.parseDouble(parts[2]);
+                estimate.firstByteVar = Double.parseDouble(parts[3]);
+                estimate.bytesPerMs = Double.parseDouble(parts[4]);
+                estimate.bodyBytes = Double.parseDouble(parts[5]);
+                return estimate;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    private final Map<String, Estimate> estimates;
+    private KeyValueStore store;
+    private boolean loaded;
+    private int connectOverrideMs;
+    private int readOverrideMs;
+    private long totalOverrideMs;
+
+    public HostDeadlines() {
+        this(KeyValueStore.NONE, DEFAULT_MAX_HOSTS);
+    }
+
+    public HostDeadlines(KeyValueStore store, final int maxHosts) {
+        this.store = store;
+        this.estimates = new LinkedHashMap<String, Estimate>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Estimate> eldest) {
+                return size() > maxHosts;
+            }
+        };
+    }
+
+    /**
+     * Replaces the backing store, which holds estimates in their {@link Estimate#encode() encoded}
+     * form. Estimates are (re)loaded from it on next use.
+     */
+    public synchronized void setStore(KeyValueStore store) {
+        this.store = store;
+        this.loaded = false;
+    }
+
+    public synchronized boolean hasStore() {
+        return store != KeyValueStore.NONE;
+    }
+
+    /**
+     * Sets user overrides; a value of 0 or less means "learn it".
+     */
+    public synchronized void setOverrides(int connectMs, int readMs, long totalMs) {
+        this.connectOverrideMs = Math.max(0, connectMs);
+        this.readOverrideMs = Math.max(0, readMs);
+        this.totalOverrideMs = Math.max(0, totalMs);
+    }
+
+    private static String key(String host) {
+        return host.toLowerCase(Locale.ROOT);
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        for (Map.Entry<String, String> entry : store.load().entrySet()) {
+            Estimate estimate = Estimate.decode(entry.getValue());
+            if (estimate == null) {
+                store.remove(entry.getKey());
+            } else {
+                estimates.put(entry.getKey(), estimate);
+            }
+        }
+        trimStore();
+    }
+
+    /** Removes hosts evicted from memory from the store as well. */
+    private void trimStore() {
+        Map<String, String> stored = store.load();
+        Iterator<String> hosts = stored.keySet().iterator();
+        while (hosts.hasNext()) {
+            String host = hosts.next();
+            if (!estimates.containsKey(host)) {
+                store.remove(host);
+            }
+        }
+    }
+
+    private Estimate estimateFor(String key) {
+        ensureLoaded();
+        Estimate estimate = estimates.get(key);
+        if (estimate == null) {
+            estimate = new Estimate();
+            int before = estimates.size();
+            estimates.put(key, estimate);
+            if (estimates.size() <= before) {
+                // The map was full and dropped its least recently used host.
+                trimStore();
+            }
+        }
+        return estimate;
+    }
+
+    private static long clamp(double value, long min, long max) {
+        return Math.max(min, Math.min(max, Math.round(value)));
+    }
+
+    /**
+     * @return The deadlines to use for the next request to {@code host}.
+     */
+    public synchronized Deadlines deadlinesFor(String host) {
+        ensureLoaded();
+        Estimate estimate = estimates.get(key(host));
+
+        int connectMs = DEFAULT_CONNECT_MS;
+        int readMs = DEFAULT_READ_MS;
+        long totalMs = DEFAULT_TOTAL_MS;
+        if (estimate != null && estimate.rtt >= 0) {
+            connectMs = (int) clamp(MARGIN * (estimate.rtt + 4 * estimate.rttVar), MIN_CONNECT_MS, MAX_CONNECT_MS);
+        }
+        if (estimate != null && estimate.firstByte >= 0) {
+            readMs = (int) clamp(MARGIN * (estimate.firstByte + 4 * estimate.firstByteVar), MIN_READ_MS, MAX_READ_MS);
+            double transferMs = estimate.bytesPerMs > 0 && estimate.bodyBytes > 0
+                    ? estimate.bodyBytes / estimate.bytesPerMs : 0;
+            totalMs = clamp(connectMs + readMs + TRANSFER_MARGIN * transferMs, MIN_TOTAL_MS, MAX_TOTAL_MS);
+        }
+
+        if (connectOverrideMs > 0) {
+            connectMs = connectOverrideMs;
+        }
+        if (readOverrideMs > 0) {
+            readMs = readOverrideMs;
+        }
+        if (totalOverrideMs > 0) {
+            totalMs = totalOverrideMs;
+        }
+        return new Deadlines(connectMs, readMs, totalMs);
+    }
+
+    /**
+     * Records how long the TCP connect to {@code host} took.
+     */
+    public synchronized void recordConnect(String host, long millis) {
+        String key = key(host);
+        Estimate estimate = estimateFor(key);
+        estimate.addRtt(millis);
+        store.save(key, estimate.encode());
+    }
+
+    /**
+     * Records the time from sending the request until the response header arrived. A header
+     * read that timed out should be recorded too, with the time waited, so the deadline grows.
+     */
+    public synchronized void recordFirstByte(String host, long millis) {
+        String key = key(host);
+        Estimate estimate = estimateFor(key);
+        estimate.addFirstByte(millis);
+        store.save(key, estimate.encode());
+    }
+
+    /**
+     * Records a completely read body.
+     */
+    public synchronized void recordTransfer(String host, long bytes, long millis) {
+        String key = key(host);
+        Estimate estimate = estimateFor(key);
+        estimate.addTransfer(bytes, millis);
+        store.save(key, estimate.encode());
+    }
+
+    public synchronized int size() {
+        ensureLoaded();
+        return estimates.size();
+    }
+}
@@ -0,0 +1,33 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Minimal persistent string map used by the client's learned state (host deadlines, permanent
+ * redirects). The app backs it with {@code SharedPreferences}; tests use a plain map.
+ */
+public interface KeyValueStore {
+    /** @return All stored entries. */
+    Map<String, String> load();
+
+    void save(String key, String value);
+
+    void remove(String key);
+
+    /** Store that keeps nothing; state only lives as long as the process. */
+    KeyValueStore NONE = new KeyValueStore() {
+        @Override
+        public Map<String, String> load() {
+            return new LinkedHashMap<>();
+        }
+
+        @Override
+        public void save(String key, String value) {
+        }
+
+        @Override
+        public void remove(String key) {
+        }
+    };
+}
@@ -0,0 +1,453 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Speculatively fetches the first links of a rendered page into the {@link ResponseCache}, so
+ * following one of them renders without a round trip.
+ * <p>
+ * Only the first {@code maxLinks} distinct same-capsule links that look like gemtext pages are
+ * considered: links to other hosts, queries (user input, CGI scripts), files with other
+ * extensions and pages that are already cached are skipped. At most {@code maxConcurrent}
+ * fetches run at once. Body lines are charged to the page and daily byte budgets as they are
+ * read, and a fetch is cancelled as soon as either budget is exceeded, so a budget is overrun by
+ * at most what the running fetches had already buffered. The daily total is kept in a
+ * {@link KeyValueStore} so it survives restarts.
+ * <p>
+ * Prefetching a new page drops the queued fetches of the previous one and cancels its running
+ * ones. Fetches go through
+ * {@link GeminiClient#request} with {@link ResponseCache.Policy#PREFETCH} and a handler that
+ * ignores other bodies. A navigation to a page that is being prefetched therefore never joins the
+ * prefetch (see {@link SingleFlight}); it runs with its own handler, which records history and
+ * downloads files.
+ * <p>
+ * Navigations reported through {@link #recordNavigation(String)} are matched against the
+ * prefetched pages, so the hit rate tells whether {@code maxLinks} is worth its bytes.
+ */
+public class LinkPrefetcher {
+    private static final Logger LOG = Logger.getLogger("Gemini");
+
+    public static final int DEFAULT_MAX_LINKS = 5;
+    public static final int DEFAULT_MAX_CONCURRENT = 2;
+    public static final long DEFAULT_MAX_PAGE_BYTES = 256 * 1024;
+    public static final long DEFAULT_MAX_DAILY_BYTES = 5 * 1024 * 1024;
+    /** How many prefetched pages are remembered for hit accounting. */
+    static final int MAX_TRACKED = 256;
+
+    static final String KEY_DAY = "day";
+    static final String KEY_DAY_BYTES = "bytes";
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    private static final ExecutorService SHARED_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "gemini-prefetch");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    /**
+     * Tells whether prefetching is currently allowed, e.g. not on a metered network. Asked when
+     * a page is submitted and again before each fetch starts.
+     */
+    public interface Condition {
+        Condition ALWAYS = () -> true;
+
+        boolean allowsPrefetch();
+    }
+
+    /** Bytes a page may still spend on its links, shared by its fetches. */
+    private static final class PageBudget {
+        long remaining;
+
+        PageBudget(long remaining) {
+            this.remaining = remaining;
+        }
+    }
+
+    private static final class Fetch {
+        final String uri;
+        final PageBudget budget;
+        final long generation;
+        final Cancellation cancellation = new Cancellation();
+        /** Bytes charged to the budgets while the body was being read. */
+        long charged;
+        boolean overBudget;
+
+        Fetch(String uri, PageBudget budget, long generation) {
+            this.uri = uri;
+            this.budget = budget;
+            this.generation = generation;
+        }
+    }
+
+    private final GeminiClient client;
+    private final Executor executor;
+    private final int maxLinks;
+    private final int maxConcurrent;
+    private final long maxPageBytes;
+    private final long maxDailyBytes;
+    private final Deque<Fetch> queue = new ArrayDeque<>();
+    private final Set<Fetch> running = new HashSet<>();
+    private final Set<String> prefetched = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_TRACKED;
+        }
+    });
+    private Condition condition = Condition.ALWAYS;
+    private KeyValueStore store = KeyValueStore.NONE;
+    private boolean loaded;
+    private long generation;
+    private long day;
+    private long dayBytes;
+    private long fetchedCount;
+    private long fetchedBytes;
+    private long hits;
+    private long failures;
+    private long pausedCount;
+    private long overBudgetCount;
+
+    public LinkPrefetcher(GeminiClient client) {
+        this(client, SHARED_EXECUTOR, DEFAULT_MAX_LINKS, DEFAULT_MAX_CONCURRENT,
+                DEFAULT_MAX_PAGE_BYTES, DEFAULT_MAX_DAILY_BYTES);
+    }
+
+    public LinkPrefetcher(GeminiClient client, Executor executor, int maxLinks, int maxConcurrent,
+                          long maxPageBytes, long maxDailyBytes) {
+        this.client = client;
+        this.executor = executor;
+        this.maxLinks = maxLinks;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.maxPageBytes = maxPageBytes;
+        this.maxDailyBytes = maxDailyBytes;
+    }
+
+    public synchronized void setCondition(Condition condition) {
+        this.condition = condition;
+    }
+
+    public synchronized boolean hasCondition() {
+        return condition != Condition.ALWAYS;
+    }
+
+    /**
+     * Replaces the store holding the daily byte count; it is (re)loaded from it on next use.
+     */
+    public synchronized void setStore(KeyValueStore store) {
+        this.store = store;
+        this.loaded = false;
+    }
+
+    public synchronized boolean hasStore() {
+        return store != KeyValueStore.NONE;
+    }
+
+    /**
+     * Picks the links worth prefetching from a page, in document order.
+     *
+     * @param pageUri  The absolute URI of the page.
+     * @param links    Link targets, relative or absolute, in document order.
+     * @param maxLinks How many candidates to return at most.
+     * @return Normalized absolute URIs on the same host and port as the page.
+     */
+    static List<String> select(String pageUri, List<String> links, int maxLinks) {
+        List<String> out = new ArrayList<>();
+        String page = GeminiUriHelper.normalize(pageUri);
+        GeminiClient.Endpoint origin = GeminiClient.Endpoint.parse(page);
+        if (origin.host == null || !"gemini".equals(origin.scheme)) {
+            return out;
+        }
+        Set<String> seen = new LinkedHashSet<>();
+        seen.add(page);
+        GeminiUriHelper.Resolver resolver = new GeminiUriHelper.Resolver(page);
+        for (String link : links) {
+            if (out.size() >= maxLinks) {
+                break;
+            }
+            String uri = GeminiUriHelper.normalize(resolver.resolve(link));
+            if (!seen.add(uri) || !ResponseCache.isCacheable(uri) || !looksLikePage(uri)) {
+                continue;
+            }
+            GeminiClient.Endpoint target = GeminiClient.Endpoint.parse(uri);
+            if ("gemini".equals(target.scheme) && origin.host.equals(target.host)
+                    && origin.port == target.port && target.userInfo == null) {
+                out.add(uri);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @return Whether the last path segment of a normalized URI is a directory, has no
+     * extension or is a gemtext file, i.e. the response is likely cacheable.
+     */
+    static boolean looksLikePage(String uri) {
+        int start = uri.indexOf("//") + 2;
+        int pathStart = uri.indexOf('/', start);
+        if (pathStart == -1) {
+            return true;
+        }
+        String segment = uri.substring(uri.lastIndexOf('/') + 1);
+        int dot = segment.lastIndexOf('.');
+        if (dot == -1) {
+            return true;
+        }
+        String extension = segment.substring(dot + 1).toLowerCase(Locale.ROOT);
+        return extension.equals("gmi") || extension.equals("gemini");
+    }
+
+    /**
+     * Queues the first links of a freshly rendered page, replacing the queue of the previous
+     * page and cancelling its running fetches. Returns immediately; selection and fetches happen
+     * on the prefetch executor.
+     *
+     * @param pageUri The absolute URI of the page.
+     * @param links   Link targets, relative or absolute, in document order.
+     */
+    public void prefetch(String pageUri, List<String> links) {
+        final List<String> copy = new ArrayList<>(links);
+        final long submitted;
+        final List<Fetch> superseded;
+        synchronized (this) {
+            submitted = ++generation;
+            queue.clear();
+            superseded = new ArrayList<>(running);
+        }
+        for (Fetch fetch : superseded) {
+            fetch.cancellation.cancel();
+        }
+        executor.execute(() -> enqueue(pageUri, copy, submitted));
+    }
+
+    private void enqueue(String pageUri, List<String> links, long submitted) {
+        List<String> candidates = select(pageUri, links, maxLinks);
+        boolean allowed = condition().allowsPrefetch();
+        synchronized (this) {
+            if (submitted != generation) {
+                return;
+            }
+            if (!allowed) {
+                pausedCount++;
+                return;
+            }
+            PageBudget budget = new PageBudget(maxPageBytes);
+            for (String uri : candidates) {
+                queue.add(new Fetch(uri, budget, submitted));
+            }
+            drain();
+        }
+    }
+
+    private synchronized Condition condition() {
+        return condition;
+    }
+
+    /** Starts queued fetches while there is room; called with the lock held. */
+    private void drain() {
+        while (running.size() < maxConcurrent && !queue.isEmpty()) {
+            final Fetch fetch = queue.poll();
+            if (fetch.generation != generation || prefetched.contains(fetch.uri)
+                    || client.getResponseCache().contains(fetch.uri)) {
+                continue;
+            }
+            if (fetch.budget.remaining <= 0 || remainingToday() <= 0) {
+                overBudgetCount++;
+                continue;
+            }
+            running.add(fetch);
+            executor.execute(() -> run(fetch));
+        }
+    }
+
+    private void run(Fetch fetch) {
+        RequestTimings timings = new RequestTimings(fetch.uri);
+        boolean[] gemtext = new boolean[1];
+        GeminiClient.ResponseHandler handler = new GeminiClient.ResponseHandler() {
+            @Override
+            public void onBody(String uri, String mimeType, InputStream body) {
+                // Not a page; the connection is closed without reading the body.
+            }
+
+            @Override
+            public void onSuccess(String uri, String mimeType) {
+                gemtext[0] = mimeType.startsWith("text/gemini");
+            }
+        };
+        boolean ok = false;
+        try {
+            if (condition().allowsPrefetch()) {
+                client.request(fetch.uri, line -> charge(fetch, timings, line), handler, timings,
+                        fetch.cancellation, ResponseCache.Policy.PREFETCH);
+                ok = gemtext[0];
+            } else {
+                synchronized (this) {
+                    pausedCount++;
+                }
+            }
+        } catch (Exception e) {
+            if (fetch.cancellation.isCancelled()) {
+                // Over budget (already counted) or superseded by a new page.
+                LOG.fine("Prefetch of " + fetch.uri + " cancelled");
+            } else {
+                LOG.log(Level.FINE, "Prefetch of " + fetch.uri + " failed", e);
+                synchronized (this) {
+                    failures++;
+                }
+            }
+        } finally {
+            finish(fetch, timings.getBytesReceived(), ok && timings.getCache() == null);
+        }
+    }
+
+    /**
+     * Charges a body line read from the network to the budgets, cancelling the fetch once the
+     * page or daily budget is exceeded. Lines replayed from the cache cost nothing.
+     */
+    private void charge(Fetch fetch, RequestTimings timings, String line) {
+        if (timings.getCache() != null) {
+            return;
+        }
+        // The line terminator was read too; count it as one byte.
+        long bytes = line.getBytes(StandardCharsets.UTF_8).length + 1;
+        synchronized (this) {
+            spend(fetch, bytes);
+            fetch.charged += bytes;
+            if (fetch.overBudget || (fetch.budget.remaining >= 0 && remainingToday() >= 0)) {
+                return;
+            }
+            fetch.overBudget = true;
+            overBudgetCount++;
+        }
+        fetch.cancellation.cancel();
+    }
+
+    /** Takes {@code bytes} from the page and daily budgets; called with the lock held. */
+    private void spend(Fetch fetch, long bytes) {
+        fetch.budget.remaining -= bytes;
+        remainingToday();
+        dayBytes += bytes;
+        fetchedBytes += bytes;
+    }
+
+    private synchronized void finish(Fetch fetch, long bytes, boolean fetched) {
+        running.remove(fetch);
+        // The header and anything read after the last line have not been charged yet.
+        spend(fetch, Math.max(0, bytes - fetch.charged));
+        if (bytes > 0) {
+            store.save(KEY_DAY, Long.toString(day));
+            store.save(KEY_DAY_BYTES, Long.toString(dayBytes));
+        }
+        if (fetched) {
+            fetchedCount++;
+            prefetched.add(fetch.uri);
+        }
+        drain();
+    }
+
+    /**
+     * @return Bytes left for today, starting a new day (UTC) if needed; called with the lock held.
+     */
+    private long remainingToday() {
+        long today = System.currentTimeMillis() / DAY_MS;
+        if (!loaded) {
+            loaded = true;
+            Map<String, String> saved = store.load();
+            try {
+                day = Long.parseLong(saved.get(KEY_DAY));
+                dayBytes = Long.parseLong(saved.get(KEY_DAY_BYTES));
+            } catch (NumberFormatException e) {
+                day = today;
+                dayBytes = 0;
+            }
+        }
+        if (day != today) {
+            day = today;
+            dayBytes = 0;
+        }
+        return maxDailyBytes - dayBytes;
+    }
+
+    /**
+     * Records that the user opened {@code uri}, counting a hit if it was prefetched. Each
+     * prefetched page counts at most once.
+     *
+     * @return Whether the page was prefetched.
+     */
+    public synchronized boolean recordNavigation(String uri) {
+        if (prefetched.remove(GeminiUriHelper.normalize(uri))) {
+            hits++;
+            return true;
+        }
+        return false;
+    }
+
+    /** @return Pages fetched into the cache by the prefetcher. */
+    public synchronized long getFetchedCount() {
+        return fetchedCount;
+    }
+
+    public synchronized long getFetchedBytes() {
+        return fetchedBytes;
+    }
+
+    /** @return Prefetched pages the user then opened. */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /** @return Hits per prefetched page, between 0 and 1. */
+    public synchronized double getHitRate() {
+        return fetchedCount == 0 ? 0 : (double) hits / fetchedCount;
+    }
+
+    /** @return Fetches currently running. */
+    public synchronized int getRunningCount() {
+        return running.size();
+    }
+
+    public synchronized long getFailureCount() {
+        return failures;
+    }
+
+    /** @return Pages or fetches skipped because the {@link Condition} disallowed them. */
+    public synchronized long getPausedCount() {
+        return pausedCount;
+    }
+
+    /** @return Links skipped or fetches cancelled because the page or daily budget was used up. */
+    public synchronized long getOverBudgetCount() {
+        return overBudgetCount;
+    }
+
+    /** @return Bytes fetched today, including earlier runs of the process. */
+    public synchronized long getDailyBytes() {
+        remainingToday();
+        return dayBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "prefetch: pages=" + fetchedCount + " hits=" + hits
+                + String.format(Locale.ROOT, " (%.0f%%)", getHitRate() * 100)
+                + " bytes=" + fetchedBytes / 1024 + "KiB today=" + dayBytes / 1024 + "/" + maxDailyBytes / 1024 + "KiB"
+                + " running=" + running.size() + " queued=" + queue.size()
+                + " paused=" + pausedCount + " overBudget=" + overBudgetCount + " failures=" + failures;
+    }
+}
@@ -0,0 +1,178 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers redirects so known hops are taken without a round trip.
+ * <p>
+ * Permanent redirects (status 31) are kept in a size-bounded LRU map written through a
+ * {@link KeyValueStore}, so a capsule that moved costs a connection and TLS handshake only on
+ * the first visit ever. Temporary redirects (status 30) may change at any time and are only
+ * remembered in memory for {@link #DEFAULT_TEMPORARY_TTL_MS}.
+ * <p>
+ * Keys and targets are normalized URIs (see {@link GeminiUriHelper#normalize(String)}). The
+ * cache follows a single hop per lookup; callers count cached hops like real ones, so a cached
+ * loop still ends at {@link GeminiSpec#MAX_REDIRECTS}, and should {@link #remove(String)} the
+ * entries of a chain that turned out to loop.
+ */
+public class RedirectCache {
+    public static final int DEFAULT_MAX_PERMANENT = 256;
+    public static final int DEFAULT_MAX_TEMPORARY = 64;
+    public static final long DEFAULT_TEMPORARY_TTL_MS = 60_000;
+
+    private static final class Temporary {
+        final String target;
+        final long expiresAtNanos;
+
+        Temporary(String target, long expiresAtNanos) {
+            this.target = target;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    private final Map<String, String> permanent;
+    private final Map<String, Temporary> temporary;
+    private final long temporaryTtlNanos;
+    private KeyValueStore store;
+    private boolean loaded;
+    private long permanentHits;
+    private long temporaryHits;
+
+    public RedirectCache() {
+        this(KeyValueStore.NONE, DEFAULT_MAX_PERMANENT, DEFAULT_MAX_TEMPORARY, DEFAULT_TEMPORARY_TTL_MS);
+    }
+
+    public RedirectCache(KeyValueStore store, final int maxPermanent, final int maxTemporary, long temporaryTtlMs) {
+        this.store = store;
+        this.temporaryTtlNanos = temporaryTtlMs * 1_000_000L;
+        this.permanent = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                if (size() > maxPermanent) {
+                    RedirectCache.this.store.remove(eldest.getKey());
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.temporary = new LinkedHashMap<String, Temporary>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Temporary> eldest) {
+                return size() > maxTemporary;
+            }
+        };
+    }
+
+    /**
+     * Replaces the store holding permanent redirects; they are (re)loaded from it on next use.
+     */
+    public synchronized void setStore(KeyValueStore store) {
+        this.store = store;
+        this.loaded = false;
+    }
+
+    public synchronized boolean hasStore() {
+        return store != KeyValueStore.NONE;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        // Insertion goes through removeEldestEntry, so an oversized store is trimmed here.
+        for (Map.Entry<String, String> entry : store.load().entrySet()) {
+            permanent.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * @return The cached target of {@code uri}, or null if no redirect is known.
+     */
+    public synchronized String lookup(String uri) {
+        ensureLoaded();
+        String key = GeminiUriHelper.normalize(uri);
+        String target = permanent.get(key);
+        if (target != null) {
+            permanentHits++;
+            return target;
+        }
+        Temporary entry = temporary.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAtNanos >= 0) {
+            temporary.remove(key);
+            return null;
+        }
+        temporaryHits++;
+        return entry.target;
+    }
+
+    /**
+     * @return Whether a redirect from {@code uri} is known; not counted as a hit.
+     */
+    public synchronized boolean contains(String uri) {
+        ensureLoaded();
+        String key = GeminiUriHelper.normalize(uri);
+        if (permanent.containsKey(key)) {
+            return true;
+        }
+        Temporary entry = temporary.get(key);
+        return entry != null && System.nanoTime() - entry.expiresAtNanos < 0;
+    }
+
+    /**
+     * Records a redirect received from a server.
+     *
+     * @param permanentRedirect true for status 31, false for other 3x statuses.
+     */
+    public synchronized void record(String from, String to, boolean permanentRedirect) {
+        ensureLoaded();
+        String key = GeminiUriHelper.normalize(from);
+        String target = GeminiUriHelper.normalize(to);
+        if (key.equals(target)) {
+            // A self-redirect would loop on every visit; never cache it.
+            return;
+        }
+        if (permanentRedirect) {
+            temporary.remove(key);
+            permanent.put(key, target);
+            store.save(key, target);
+        } else {
+            temporary.put(key, new Temporary(target, System.nanoTime() + temporaryTtlNanos));
+        }
+    }
+
+    /**
+     * Forgets any redirect from {@code uri}.
+     */
+    public synchronized void remove(String uri) {
+        ensureLoaded();
+        String key = GeminiUriHelper.normalize(uri);
+        temporary.remove(key);
+        if (permanent.remove(key) != null) {
+            store.remove(key);
+        }
+    }
+
+    public synchronized int size() {
+        ensureLoaded();
+        return permanent.size() + temporary.size();
+    }
+
+    public synchronized long getPermanentHitCount() {
+        return permanentHits;
+    }
+
+    public synchronized long getTemporaryHitCount() {
+        return temporaryHits;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "redirect cache: permanent=" + permanent.size() + " (hits " + permanentHits + ")"
+                + " temporary=" + temporary.size() + " (hits " + temporaryHits + ")";
+    }
+}
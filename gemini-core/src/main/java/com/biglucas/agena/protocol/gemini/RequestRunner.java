@@ -0,0 +1,126 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs requests on a worker pool and hands results back on a callback executor (the main
+ * thread in the app), returning a {@link Call} that can cancel them.
+ * <p>
+ * Cancelling a call closes the socket its request registered with the call's
+ * {@link Cancellation}, so a thread blocked reading from a slow server is released right away
+ * instead of when the read times out, and nothing from a cancelled call, progress or result,
+ * is delivered afterwards.
+ */
+public class RequestRunner {
+    private static final ExecutorService SHARED_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "gemini-request");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Work executed on a worker thread.
+     */
+    public interface Task<T> {
+        /**
+         * @param call The running call; pass its {@link Call#getCancellation()} down to the
+         *             blocking code and use {@link Call#post(Runnable)} to publish progress.
+         */
+        T run(Call call) throws Exception;
+    }
+
+    /**
+     * Receives the outcome on the callback executor, unless the call was cancelled.
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+
+        void onError(Exception e);
+    }
+
+    /**
+     * Handle to a submitted task.
+     */
+    public static final class Call {
+        private final Cancellation cancellation = new Cancellation();
+        private final Executor callbackExecutor;
+        private Future<?> future;
+
+        Call(Executor callbackExecutor) {
+            this.callbackExecutor = callbackExecutor;
+        }
+
+        private synchronized void setFuture(Future<?> future) {
+            this.future = future;
+            if (cancellation.isCancelled()) {
+                future.cancel(true);
+            }
+        }
+
+        /**
+         * Cancels the task: closes its attached socket, interrupts its thread and drops any
+         * pending callbacks. Safe to call from any thread, more than once.
+         */
+        public void cancel() {
+            cancellation.cancel();
+            Future<?> toCancel;
+            synchronized (this) {
+                toCancel = future;
+            }
+            if (toCancel != null) {
+                toCancel.cancel(true);
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancellation.isCancelled();
+        }
+
+        public Cancellation getCancellation() {
+            return cancellation;
+        }
+
+        /**
+         * Runs {@code action} on the callback executor if the call has not been cancelled by
+         * then.
+         */
+        public void post(Runnable action) {
+            callbackExecutor.execute(() -> {
+                if (!isCancelled()) {
+                    action.run();
+                }
+            });
+        }
+    }
+
+    private final ExecutorService executor;
+    private final Executor callbackExecutor;
+
+    public RequestRunner(Executor callbackExecutor) {
+        this(SHARED_EXECUTOR, callbackExecutor);
+    }
+
+    public RequestRunner(ExecutorService executor, Executor callbackExecutor) {
+        this.executor = executor;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    public <T> Call submit(Task<T> task, Callback<T> callback) {
+        Call call = new Call(callbackExecutor);
+        call.setFuture(executor.submit(() -> {
+            if (call.isCancelled()) {
+                return;
+            }
+            try {
+                T result = task.run(call);
+                call.post(() -> callback.onResult(result));
+            } catch (Exception e) {
+                call.post(() -> callback.onError(e));
+            }
+        }));
+        return call;
+    }
+}
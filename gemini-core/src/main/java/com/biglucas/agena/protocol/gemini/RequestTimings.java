@@ -0,0 +1,204 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.util.Locale;
+
+/**
+ * Per-navigation timing record.
+ * <p>
+ * Every phase keeps the monotonic ({@link System#nanoTime()}) timestamp it first began, the
+ * timestamp it last ended and the total time spent in it. Phases can repeat — network phases
+ * once per redirect hop, parsing and view building once per streamed batch — and the totals
+ * add up across repetitions. Byte counts, redirect hops, status and TLS resumption are recorded
+ * alongside so a slow page can be attributed to the phase that made it slow.
+ * <p>
+ * Network phases are written from the request thread and render phases from the main thread,
+ * so all accessors are synchronized.
+ */
+public class RequestTimings {
+
+    /**
+     * Phases of a navigation, in the order they normally happen.
+     */
+    public enum Phase {
+        DNS("dns"),
+        CONNECT("connect"),
+        TLS("tls"),
+        /** From sending the request line until the response header arrives (server think-time). */
+        SERVER("server"),
+        /** Reading the response body. */
+        TRANSFER("transfer"),
+        PARSE("parse"),
+        VIEW("view");
+
+        final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final int PHASES = Phase.values().length;
+
+    private final String uri;
+    private final long startNanos;
+    private final long[] firstBegin = new long[PHASES];
+    private final long[] lastEnd = new long[PHASES];
+    private final long[] totalNanos = new long[PHASES];
+    private final long[] openSince = new long[PHASES];
+    private long firstPaintNanos;
+    private long endNanos;
+    private long bytesReceived;
+    private int redirectHops;
+    private int statusCode;
+    private Boolean tlsResumed;
+    private String cache;
+    private String error;
+
+    public RequestTimings(String uri) {
+        this.uri = uri;
+        this.startNanos = System.nanoTime();
+    }
+
+    public synchronized void begin(Phase phase) {
+        long now = System.nanoTime();
+        int i = phase.ordinal();
+        if (firstBegin[i] == 0) {
+            firstBegin[i] = now;
+        }
+        openSince[i] = now;
+    }
+
+    public synchronized void end(Phase phase) {
+        int i = phase.ordinal();
+        if (openSince[i] == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        totalNanos[i] += now - openSince[i];
+        lastEnd[i] = now;
+        openSince[i] = 0;
+    }
+
+    /**
+     * Marks the first time content became visible. Later calls are ignored.
+     */
+    public synchronized void markFirstPaint() {
+        if (firstPaintNanos == 0) {
+            firstPaintNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Marks the navigation as finished (content complete or failed).
+     */
+    public synchronized void markEnd() {
+        endNanos = System.nanoTime();
+    }
+
+    public synchronized void addBytesReceived(long bytes) {
+        bytesReceived += bytes;
+    }
+
+    public synchronized void setRedirectHops(int redirectHops) {
+        this.redirectHops = redirectHops;
+    }
+
+    public synchronized void setStatusCode(int statusCode) {
+        this.statusCode = statusCode;
+    }
+
+    public synchronized void setTlsResumed(boolean tlsResumed) {
+        this.tlsResumed = tlsResumed;
+    }
+
+    /**
+     * Records that the response was served by a cache instead of the network.
+     *
+     * @param layer Name of the cache that answered, e.g. "memory".
+     */
+    public synchronized void setCache(String layer) {
+        this.cache = layer;
+    }
+
+    public synchronized void setError(Throwable error) {
+        this.error = error.getClass().getSimpleName();
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    /** @return Monotonic timestamp the phase first began, or 0 if it never did. */
+    public synchronized long getBeginNanos(Phase phase) {
+        return firstBegin[phase.ordinal()];
+    }
+
+    /** @return Monotonic timestamp the phase last ended, or 0 if it never did. */
+    public synchronized long getEndNanos(Phase phase) {
+        return lastEnd[phase.ordinal()];
+    }
+
+    /** @return Total time spent in the phase across all repetitions. */
+    public synchronized long getDurationNanos(Phase phase) {
+        return totalNanos[phase.ordinal()];
+    }
+
+    /** @return Time from start to first paint, or -1 if nothing was painted yet. */
+    public synchronized long getTimeToFirstPaintNanos() {
+        return firstPaintNanos == 0 ? -1 : firstPaintNanos - startNanos;
+    }
+
+    /** @return Time from start to end, or -1 while the navigation is in progress. */
+    public synchronized long getTotalNanos() {
+        return endNanos == 0 ? -1 : endNanos - startNanos;
+    }
+
+    public synchronized long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public synchronized int getRedirectHops() {
+        return redirectHops;
+    }
+
+    public synchronized int getStatusCode() {
+        return statusCode;
+    }
+
+    /** @return The cache that answered, or null if the response came from the network. */
+    public synchronized String getCache() {
+        return cache;
+    }
+
+    private static String ms(long nanos) {
+        return nanos < 0 ? "-" : String.format(Locale.ROOT, "%.1f", nanos / 1e6);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder(uri);
+        sb.append("\n  status=").append(statusCode)
+                .append(" bytes=").append(bytesReceived)
+                .append(" redirects=").append(redirectHops);
+        if (tlsResumed != null) {
+            sb.append(" tlsResumed=").append(tlsResumed);
+        }
+        if (cache != null) {
+            sb.append(" cache=").append(cache);
+        }
+        if (error != null) {
+            sb.append(" error=").append(error);
+        }
+        sb.append("\n ");
+        for (Phase phase : Phase.values()) {
+            sb.append(' ').append(phase.label).append('=').append(ms(totalNanos[phase.ordinal()]));
+        }
+        sb.append("\n  firstPaint=").append(ms(getTimeToFirstPaintNanos()))
+                .append(" total=").append(ms(getTotalNanos())).append(" ms");
+        return sb.toString();
+    }
+}
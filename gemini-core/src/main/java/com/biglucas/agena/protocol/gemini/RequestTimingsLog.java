@@ -0,0 +1,64 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded in-memory ring of the most recent {@link RequestTimings}.
+ * <p>
+ * Keeps memory constant no matter how long the app runs: once {@link #DEFAULT_CAPACITY}
+ * records are stored, each new one overwrites the oldest.
+ */
+public class RequestTimingsLog {
+    public static final int DEFAULT_CAPACITY = 32;
+
+    private static RequestTimingsLog instance;
+
+    private final RequestTimings[] ring;
+    private int next;
+    private int size;
+
+    public RequestTimingsLog(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.ring = new RequestTimings[capacity];
+    }
+
+    /**
+     * @return The process-wide log used by the browser UI.
+     */
+    public static synchronized RequestTimingsLog getInstance() {
+        if (instance == null) {
+            instance = new RequestTimingsLog(DEFAULT_CAPACITY);
+        }
+        return instance;
+    }
+
+    public synchronized void add(RequestTimings timings) {
+        ring[next] = timings;
+        next = (next + 1) % ring.length;
+        if (size < ring.length) {
+            size++;
+        }
+    }
+
+    /**
+     * @return The stored records, newest first.
+     */
+    public synchronized List<RequestTimings> snapshot() {
+        List<RequestTimings> out = new ArrayList<>(size);
+        for (int i = 1; i <= size; i++) {
+            out.add(ring[(next - i + ring.length) % ring.length]);
+        }
+        return out;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return ring.length;
+    }
+}
@@ -0,0 +1,266 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory cache of successful {@code text/gemini} responses, so going back to a page or
+ * opening it again in a new window renders without a round trip.
+ * <p>
+ * Entries are keyed by normalized URI (see {@link GeminiUriHelper#normalize(String)}) and
+ * bounded by their approximate heap size rather than their number, since a single gemlog
+ * archive can outweigh a hundred small index pages. The least recently used entries are evicted
+ * first. Responses to URIs with a query are not cached: they usually answer user input or come
+ * from a CGI script.
+ * <p>
+ * Entries older than the maximum age are not served, except to offline requests. The age counts
+ * from the network fetch, so a page read back from the {@link DiskCache} keeps its age here.
+ */
+public class ResponseCache {
+    public static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+    /** Same as the disk cache, so a page is fresh for as long in either layer. */
+    public static final long DEFAULT_MAX_AGE_MS = DiskCache.DEFAULT_MAX_AGE_MS;
+
+    /** Rough heap cost of an entry, its map node and its line list, excluding the lines. */
+    static final int ENTRY_OVERHEAD_BYTES = 128;
+    /** Rough heap cost of a String object and its array header, excluding the characters. */
+    static final int LINE_OVERHEAD_BYTES = 40;
+
+    /**
+     * How a request uses the cache.
+     */
+    public enum Policy {
+        /** Serve from the cache when possible, otherwise fetch and store. */
+        PREFER_CACHE,
+        /** Always fetch (e.g. the reload button) and replace the cached copy. */
+        RELOAD,
+        /** Offline: serve from the cache, even stale copies, and never touch the network. */
+        CACHE_ONLY,
+        /**
+         * Speculative fetch (see {@link LinkPrefetcher}): uses the cache like {@link #PREFER_CACHE},
+         * but never shares a connection with a request the user made.
+         */
+        PREFETCH
+    }
+
+    /**
+     * A cached response.
+     */
+    public static final class Entry {
+        /** The normalized URI that answered. */
+        public final String uri;
+        public final int status;
+        public final String meta;
+        /** The body lines, unmodifiable. */
+        public final List<String> lines;
+        /** When the response was read from the network (wall clock). */
+        public final long fetchedAtMillis;
+        final long bytes;
+        private volatile byte[] digest;
+
+        Entry(String uri, int status, String meta, List<String> lines, long fetchedAtMillis) {
+            this.uri = uri;
+            this.status = status;
+            this.meta = meta;
+            this.lines = Collections.unmodifiableList(new ArrayList<>(lines));
+            this.fetchedAtMillis = fetchedAtMillis;
+            this.bytes = estimateBytes(uri, meta, lines);
+        }
+
+        /**
+         * @return Whether {@code other} holds the same body, compared by digest.
+         */
+        public boolean sameBody(List<String> other) {
+            byte[] mine = digest;
+            if (mine == null) {
+                mine = digest(lines);
+                digest = mine;
+            }
+            return Arrays.equals(mine, digest(other));
+        }
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxBytes;
+    private final long maxAgeMs;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ResponseCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    public ResponseCache(long maxBytes) {
+        this(maxBytes, DEFAULT_MAX_AGE_MS);
+    }
+
+    public ResponseCache(long maxBytes, long maxAgeMs) {
+        this.maxBytes = maxBytes;
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    static long estimateBytes(String uri, String meta, List<String> lines) {
+        long total = ENTRY_OVERHEAD_BYTES + 2L * uri.length() + 2L * meta.length();
+        for (String line : lines) {
+            total += LINE_OVERHEAD_BYTES + 2L * line.length();
+        }
+        return total;
+    }
+
+    /**
+     * @return SHA-256 of the body lines, each followed by a newline.
+     */
+    static byte[] digest(List<String> lines) {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java and Android platform is required to provide SHA-256.
+            throw new IllegalStateException(e);
+        }
+        for (String line : lines) {
+            sha256.update(line.getBytes(StandardCharsets.UTF_8));
+            sha256.update((byte) '\n');
+        }
+        return sha256.digest();
+    }
+
+    /**
+     * @return Whether a response to {@code uri} may be stored at all.
+     */
+    public static boolean isCacheable(String uri) {
+        return uri.indexOf('?') == -1;
+    }
+
+    /**
+     * @return The fresh cached response for {@code uri}, or null on a miss.
+     * @see #get(String, boolean)
+     */
+    public Entry get(String uri) {
+        return get(uri, false);
+    }
+
+    /**
+     * @param allowStale Whether an entry older than the maximum age may be returned.
+     * @return The cached response for {@code uri}, or null on a miss.
+     */
+    public synchronized Entry get(String uri, boolean allowStale) {
+        Entry entry = entries.get(GeminiUriHelper.normalize(uri));
+        if (entry == null || (!allowStale && isStale(entry))) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry;
+    }
+
+    private boolean isStale(Entry entry) {
+        return System.currentTimeMillis() - entry.fetchedAtMillis > maxAgeMs;
+    }
+
+    /**
+     * @return The cached response for {@code uri} or null, without counting a hit or miss.
+     */
+    public synchronized Entry peek(String uri) {
+        return entries.get(GeminiUriHelper.normalize(uri));
+    }
+
+    /**
+     * @return Whether a response for {@code uri} is cached, fresh or stale, without counting a
+     * hit or miss or touching its recency.
+     */
+    public synchronized boolean contains(String uri) {
+        return entries.containsKey(GeminiUriHelper.normalize(uri));
+    }
+
+    /**
+     * Stores a response, evicting least recently used entries until the cache fits its budget.
+     * Responses larger than the whole budget, and responses to URIs with a query, are not
+     * stored; an older copy of them is dropped.
+     */
+    public synchronized void put(String uri, int status, String meta, List<String> lines) {
+        String key = GeminiUriHelper.normalize(uri);
+        put(new Entry(key, status, meta, lines, System.currentTimeMillis()));
+    }
+
+    /**
+     * Stores an entry read from another cache, keeping its fetch time.
+     */
+    synchronized void put(Entry entry) {
+        String key = entry.uri;
+        remove(key);
+        if (!isCacheable(key)) {
+            return;
+        }
+        if (entry.bytes > maxBytes) {
+            return;
+        }
+        entries.put(key, entry);
+        bytes += entry.bytes;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            Entry evicted = eldest.next();
+            eldest.remove();
+            bytes -= evicted.bytes;
+            evictions++;
+        }
+    }
+
+    /**
+     * Forgets the cached response for {@code uri}, if any.
+     */
+    public synchronized void remove(String uri) {
+        Entry removed = entries.remove(GeminiUriHelper.normalize(uri));
+        if (removed != null) {
+            bytes -= removed.bytes;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Approximate heap size of all entries.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "response cache: entries=" + entries.size() + " bytes=" + bytes / 1024 + "/" + maxBytes / 1024 + "KiB"
+                + " hits=" + hits + " misses=" + misses + " evictions=" + evictions;
+    }
+}
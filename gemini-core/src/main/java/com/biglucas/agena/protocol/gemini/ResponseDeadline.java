@@ -0,0 +1,72 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enforces a whole-response deadline on top of the per-read socket timeout.
+ * <p>
+ * {@code SO_TIMEOUT} only bounds the gap between two reads, so a server trickling a byte every
+ * few seconds could hold a request forever. When armed, this closes the connection once the
+ * deadline passes; the blocked read then fails and {@link #hasExpired()} tells the caller why.
+ * Arming again (for the next redirect hop) replaces the previous target and deadline.
+ */
+public class ResponseDeadline {
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "gemini-deadline");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ScheduledFuture<?> pending;
+    private long deadlineMs;
+    private boolean expired;
+
+    /**
+     * Closes {@code target} after {@code timeoutMs} unless disarmed or re-armed first.
+     */
+    public synchronized void arm(final Closeable target, long timeoutMs) {
+        disarm();
+        deadlineMs = timeoutMs;
+        pending = SCHEDULER.schedule(() -> expire(target), timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void expire(Closeable target) {
+        synchronized (this) {
+            expired = true;
+        }
+        try {
+            target.close();
+        } catch (IOException ignored) {
+            // Closing is the whole point; a failure here leaves nothing to do.
+        }
+    }
+
+    /**
+     * Cancels the pending deadline, if any.
+     */
+    public synchronized void disarm() {
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    /**
+     * @return true if a deadline passed and its connection was closed.
+     */
+    public synchronized boolean hasExpired() {
+        return expired;
+    }
+
+    /**
+     * @return The last armed deadline, in milliseconds.
+     */
+    public synchronized long getDeadlineMs() {
+        return deadlineMs;
+    }
+}
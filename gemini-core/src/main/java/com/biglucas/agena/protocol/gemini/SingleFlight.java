@@ -0,0 +1,248 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.io.Closeable;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coalesces concurrent identical requests into one.
+ * <p>
+ * The first caller for a key (the leader) runs the work; callers arriving while it is in flight
+ * (followers) do not open a connection of their own. Instead they receive every item the leader
+ * has produced so far and then the rest as it arrives, on their own thread, and finish with the
+ * leader's outcome: the same result or the same exception. Side effects belong with the caller
+ * that acts on the result, not in the work, which runs for only one of them.
+ * <p>
+ * Items are only kept for replay once a follower has joined, so a request nobody joined holds no
+ * extra copy of its response. A caller arriving after such a request produced its first item
+ * runs the work itself; followers can only join while the leader waits for its first item.
+ * <p>
+ * The work runs with a cancellation of its own, cancelled only when every participant (leader
+ * and followers) has been cancelled. A cancelled participant stops receiving items and gets an
+ * {@link InterruptedIOException}; the others are not affected. A leader cancelled while followers
+ * remain keeps running the work for them on its thread, without handing items to its listener.
+ *
+ * @param <E> Type of the streamed items (body lines).
+ * @param <R> Type of the result handed to every participant.
+ */
+public class SingleFlight<E, R> {
+
+    /**
+     * Receives streamed items, in order, on the caller's own thread.
+     */
+    public interface Listener<E> {
+        void onItem(E item);
+    }
+
+    /**
+     * The work to coalesce. Items pushed to {@code sink} and the returned result reach the leader
+     * and all followers. {@code cancellation} is cancelled once nobody waits for the result
+     * anymore.
+     */
+    public interface Work<E, R> {
+        R run(Listener<E> sink, Cancellation cancellation) throws Exception;
+    }
+
+    private static final class Flight<E, R> {
+        final Cancellation shared = new Cancellation();
+        final List<E> items = new ArrayList<>();
+        int participants = 1;
+        int produced;
+        boolean recording;
+        boolean done;
+        R result;
+        Exception failure;
+
+        /**
+         * Adds a follower if it can still see the whole response.
+         */
+        synchronized boolean join() {
+            if (done || shared.isCancelled() || (produced > 0 && !recording)) {
+                return false;
+            }
+            participants++;
+            recording = true;
+            return true;
+        }
+
+        void leave() {
+            synchronized (this) {
+                participants--;
+                notifyAll();
+                if (participants > 0) {
+                    return;
+                }
+            }
+            shared.cancel();
+        }
+    }
+
+    /**
+     * Closed by a participant's cancellation: takes it out of the flight, at most once.
+     */
+    private static final class Participant implements Closeable {
+        private final Flight<?, ?> flight;
+        private boolean left;
+
+        Participant(Flight<?, ?> flight) {
+            this.flight = flight;
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (left) {
+                    return;
+                }
+                left = true;
+            }
+            flight.leave();
+        }
+    }
+
+    private final Map<String, Flight<E, R>> inFlight = new HashMap<>();
+    private long executed;
+    private long coalesced;
+
+    /**
+     * Runs {@code work} for {@code key}, or joins the identical request already in flight.
+     *
+     * @param key          Identity of the request, e.g. the normalized URI.
+     * @param listener     Receives the items of the response.
+     * @param cancellation Cancels this caller's participation.
+     * @return What the work returned.
+     * @throws InterruptedIOException If this caller was cancelled.
+     * @throws Exception              Whatever the work threw.
+     */
+    public R execute(String key, Listener<E> listener, Cancellation cancellation, Work<E, R> work) throws Exception {
+        Flight<E, R> flight;
+        boolean leader;
+        synchronized (this) {
+            flight = inFlight.get(key);
+            leader = flight == null || !flight.join();
+            if (leader) {
+                flight = new Flight<>();
+                inFlight.put(key, flight);
+                executed++;
+            } else {
+                coalesced++;
+            }
+        }
+        try {
+            // Cancelling this caller takes it out of the flight instead of closing a socket.
+            cancellation.attach(new Participant(flight));
+        } catch (InterruptedIOException e) {
+            if (leader) {
+                remove(key, flight);
+            }
+            throw e;
+        }
+        if (leader) {
+            return lead(key, flight, listener, cancellation, work);
+        }
+        return follow(flight, listener, cancellation);
+    }
+
+    private R lead(String key, Flight<E, R> flight, Listener<E> listener, Cancellation cancellation,
+                   Work<E, R> work) throws Exception {
+        R result = null;
+        Exception failure = null;
+        try {
+            result = work.run(item -> {
+                synchronized (flight) {
+                    flight.produced++;
+                    if (flight.recording) {
+                        flight.items.add(item);
+                        flight.notifyAll();
+                    }
+                }
+                if (!cancellation.isCancelled()) {
+                    listener.onItem(item);
+                }
+            }, flight.shared);
+        } catch (Exception e) {
+            failure = e;
+        } finally {
+            remove(key, flight);
+            synchronized (flight) {
+                flight.done = true;
+                flight.result = result;
+                flight.failure = failure;
+                flight.notifyAll();
+            }
+        }
+        cancellation.throwIfCancelled();
+        if (failure != null) {
+            throw failure;
+        }
+        return result;
+    }
+
+    private synchronized void remove(String key, Flight<E, R> flight) {
+        if (inFlight.get(key) == flight) {
+            inFlight.remove(key);
+        }
+    }
+
+    /**
+     * Replays and then tails the leader's items.
+     */
+    private R follow(Flight<E, R> flight, Listener<E> listener, Cancellation cancellation) throws Exception {
+        int next = 0;
+        List<E> pending = new ArrayList<>();
+        while (true) {
+            boolean done;
+            R result;
+            Exception failure;
+            synchronized (flight) {
+                while (next == flight.items.size() && !flight.done && !cancellation.isCancelled()) {
+                    try {
+                        flight.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        cancellation.cancel();
+                        throw new InterruptedIOException("Request cancelled");
+                    }
+                }
+                cancellation.throwIfCancelled();
+                pending.addAll(flight.items.subList(next, flight.items.size()));
+                next = flight.items.size();
+                done = flight.done;
+                result = flight.result;
+                failure = flight.failure;
+            }
+            for (E item : pending) {
+                listener.onItem(item);
+            }
+            pending.clear();
+            if (done) {
+                if (failure != null) {
+                    throw failure;
+                }
+                return result;
+            }
+        }
+    }
+
+    /**
+     * @return Number of requests that actually ran.
+     */
+    public synchronized long getExecutedCount() {
+        return executed;
+    }
+
+    /**
+     * @return Number of requests that were served by joining one already in flight.
+     */
+    public synchronized long getCoalescedCount() {
+        return coalesced;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "single-flight: executed=" + executed + " coalesced=" + coalesced;
+    }
+}
@@ -0,0 +1,172 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Stale-while-revalidate for cached pages: the cached copy is shown right away and fetched
+ * again in the background, and the caller only has to redraw when the body actually changed.
+ * <p>
+ * Pages younger than {@code minAgeMs} are not revalidated, so going back and forth between two
+ * pages does not fetch them every time. Capsules can opt out with rules that are either a host
+ * name ({@code example.com}, exact match) or a URI prefix ({@code gemini://example.com/cgi/}),
+ * e.g. for pages that are expensive to generate or that should stay as they were read.
+ */
+public class StaleWhileRevalidate {
+    public static final long DEFAULT_MIN_AGE_MS = 60_000;
+
+    private final GeminiClient client;
+    private final long minAgeMs;
+    private List<String> optOutHosts = Collections.emptyList();
+    private List<String> optOutPrefixes = Collections.emptyList();
+    private long revalidated;
+    private long changed;
+    private long skipped;
+
+    public StaleWhileRevalidate(GeminiClient client) {
+        this(client, DEFAULT_MIN_AGE_MS);
+    }
+
+    public StaleWhileRevalidate(GeminiClient client, long minAgeMs) {
+        this.client = client;
+        this.minAgeMs = minAgeMs;
+    }
+
+    /**
+     * Replaces the opt-out rules. Blank rules are ignored.
+     *
+     * @param rules Host names or URI prefixes (anything containing {@code ://}).
+     */
+    public synchronized void setOptOut(Collection<String> rules) {
+        List<String> hosts = new ArrayList<>();
+        List<String> prefixes = new ArrayList<>();
+        for (String rule : rules) {
+            String trimmed = rule.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            if (trimmed.contains("://")) {
+                prefixes.add(GeminiUriHelper.normalize(trimmed));
+            } else {
+                hosts.add(trimmed.toLowerCase(Locale.ROOT));
+            }
+        }
+        this.optOutHosts = hosts;
+        this.optOutPrefixes = prefixes;
+    }
+
+    /**
+     * @return Whether {@code uri} matches an opt-out rule.
+     */
+    public synchronized boolean isOptedOut(String uri) {
+        String normalized = GeminiUriHelper.normalize(uri);
+        String host = GeminiClient.Endpoint.parse(normalized).host;
+        if (host != null && optOutHosts.contains(host)) {
+            return true;
+        }
+        for (String prefix : optOutPrefixes) {
+            if (normalized.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decides whether a page that was just served from the cache should be fetched again.
+     *
+     * @return False for opted-out URIs, pages in neither cache and fresh copies.
+     */
+    public boolean shouldRevalidate(String uri) {
+        boolean should = !isOptedOut(uri);
+        if (should) {
+            long fetchedAtMillis = fetchedAtMillis(uri);
+            should = fetchedAtMillis >= 0 && System.currentTimeMillis() - fetchedAtMillis >= minAgeMs;
+        }
+        if (!should) {
+            synchronized (this) {
+                skipped++;
+            }
+        }
+        return should;
+    }
+
+    /**
+     * Fetches {@code uri} again, bypassing the caches (which are updated with the answer), and
+     * compares the body with the copy that was cached. Blocks; call it on a background thread.
+     *
+     * @return The new body lines if they differ from the cached copy, or null if unchanged or
+     * no longer a {@code text/gemini} page.
+     * @see GeminiClient#request(String, GeminiClient.LineListener, GeminiClient.ResponseHandler, RequestTimings, Cancellation, ResponseCache.Policy)
+     */
+    public List<String> revalidate(String uri, RequestTimings timings, Cancellation cancellation)
+            throws IOException, FailedGeminiRequestException, NoSuchAlgorithmException, KeyManagementException {
+        ResponseCache.Entry cached = client.getResponseCache().peek(uri);
+        DiskCache disk = client.getDiskCache();
+        if (cached == null && disk != null) {
+            // Shown from its parsed form (see GeminiClient#getCachedPage), so only on disk.
+            cached = disk.peek(uri);
+        }
+        List<String> lines = new ArrayList<>();
+        boolean[] gemtext = new boolean[1];
+        GeminiClient.ResponseHandler handler = new GeminiClient.ResponseHandler() {
+            @Override
+            public void onBody(String uri, String mimeType, InputStream body) {
+                // Not a page anymore; the connection is closed without reading the body.
+            }
+
+            @Override
+            public void onSuccess(String uri, String mimeType) {
+                gemtext[0] = mimeType.startsWith("text/gemini");
+            }
+        };
+        client.request(uri, lines::add, handler, timings, cancellation, ResponseCache.Policy.RELOAD);
+        boolean same = !gemtext[0] || cached != null && cached.sameBody(lines);
+        synchronized (this) {
+            revalidated++;
+            if (!same) {
+                changed++;
+            }
+        }
+        return same ? null : lines;
+    }
+
+    /**
+     * @return When the cached copy of {@code uri} was fetched, from memory or else disk, or -1.
+     */
+    private long fetchedAtMillis(String uri) {
+        ResponseCache.Entry cached = client.getResponseCache().peek(uri);
+        if (cached != null) {
+            return cached.fetchedAtMillis;
+        }
+        DiskCache disk = client.getDiskCache();
+        return disk == null ? -1 : disk.getFetchedAtMillis(uri);
+    }
+
+    public synchronized long getRevalidatedCount() {
+        return revalidated;
+    }
+
+    /** @return Revalidations that found a different body. */
+    public synchronized long getChangedCount() {
+        return changed;
+    }
+
+    /** @return Cached pages not revalidated: opted out or still fresh. */
+    public synchronized long getSkippedCount() {
+        return skipped;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "revalidation: done=" + revalidated + " changed=" + changed + " skipped=" + skipped
+                + " optOut=" + (optOutHosts.size() + optOutPrefixes.size());
+    }
+}
@@ -0,0 +1,97 @@
+package com.biglucas.agena.protocol.gemini;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.net.ssl.SSLSession;
+
+/**
+ * Tracks TLS session resumption per {@code host:port}.
+ * <p>
+ * A handshake counts as resumed when the negotiated session predates the handshake (resumed
+ * sessions keep their original creation time) or carries the same non-empty session ID as the
+ * previous connection to that endpoint. Exposes the resumption hit rate and the average handshake
+ * time of full and resumed handshakes so the effect of the client session cache is visible.
+ */
+public class TlsSessionMetrics {
+    private final Map<String, byte[]> lastSessionIds = new HashMap<>();
+    private long fullHandshakes;
+    private long resumedHandshakes;
+    private long fullHandshakeNanos;
+    private long resumedHandshakeNanos;
+
+    /**
+     * Builds the key sessions are cached under.
+     */
+    public static String endpointKey(String host, int port) {
+        return host.toLowerCase(Locale.ROOT) + ":" + port;
+    }
+
+    /**
+     * Records a completed handshake.
+     *
+     * @param endpoint             The {@link #endpointKey} of the peer.
+     * @param session              The negotiated session.
+     * @param handshakeStartMillis Wall-clock time just before the handshake started.
+     * @param handshakeNanos       Duration of the handshake.
+     * @return Whether the handshake resumed a cached session.
+     */
+    public synchronized boolean record(String endpoint, SSLSession session, long handshakeStartMillis, long handshakeNanos) {
+        byte[] id = session.getId();
+        byte[] previousId = lastSessionIds.get(endpoint);
+        boolean sameId = id != null && id.length > 0 && Arrays.equals(id, previousId);
+        boolean resumed = sameId || session.getCreationTime() < handshakeStartMillis;
+        if (id != null && id.length > 0) {
+            lastSessionIds.put(endpoint, id.clone());
+        }
+        record(resumed, handshakeNanos);
+        return resumed;
+    }
+
+    /**
+     * Records a handshake whose resumption state is already known.
+     */
+    public synchronized void record(boolean resumed, long handshakeNanos) {
+        if (resumed) {
+            resumedHandshakes++;
+            resumedHandshakeNanos += handshakeNanos;
+        } else {
+            fullHandshakes++;
+            fullHandshakeNanos += handshakeNanos;
+        }
+    }
+
+    public synchronized long getHandshakeCount() {
+        return fullHandshakes + resumedHandshakes;
+    }
+
+    public synchronized long getResumedCount() {
+        return resumedHandshakes;
+    }
+
+    /**
+     * @return Fraction of handshakes that resumed a session, in [0, 1]; 0 when none happened yet.
+     */
+    public synchronized double getHitRate() {
+        long total = fullHandshakes + resumedHandshakes;
+        return total == 0 ? 0 : (double) resumedHandshakes / total;
+    }
+
+    public synchronized double getAverageFullHandshakeMs() {
+        return fullHandshakes == 0 ? 0 : fullHandshakeNanos / 1e6 / fullHandshakes;
+    }
+
+    public synchronized double getAverageResumedHandshakeMs() {
+        return resumedHandshakes == 0 ? 0 : resumedHandshakeNanos / 1e6 / resumedHandshakes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ROOT,
+                "TLS handshakes=%d resumed=%d hitRate=%.2f avgFull=%.1fms avgResumed=%.1fms",
+                getHandshakeCount(), resumedHandshakes, getHitRate(),
+                getAverageFullHandshakeMs(), getAverageResumedHandshakeMs());
+    }
+}
@@ -0,0 +1,71 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BackForwardCacheTest {
+
+    private static final GemtextDocument PAGE =
+            GemtextDocument.parse(Arrays.asList("# Title", "=> next.gmi Next", "```", "code", "```"));
+    private static final List<String> LINKS = Collections.singletonList("gemini://example.com/next.gmi");
+
+    @Test
+    public void snapshotsKeepDocumentLinksAndScroll() {
+        BackForwardCache cache = new BackForwardCache();
+        cache.put("1/a", "gemini://example.com/", PAGE, LINKS);
+        cache.setScrollPosition("1/a", 2, -420);
+
+        BackForwardCache.Snapshot snapshot = cache.get("1/a", "gemini://example.com/");
+        assertNotNull(snapshot);
+        assertSame(PAGE, snapshot.document);
+        assertEquals(LINKS, snapshot.links);
+        assertEquals(2, snapshot.getScrollElement());
+        assertEquals(-420, snapshot.getScrollOffset());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void aKeyShowingAnotherUriIsAMiss() {
+        BackForwardCache cache = new BackForwardCache();
+        cache.put("1/a", "gemini://example.com/", PAGE, LINKS);
+        assertNull(cache.get("1/a", "gemini://example.com/?query"));
+        assertNull(cache.get("1/b", "gemini://example.com/"));
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void aNewRenderStartsAtTheTop() {
+        BackForwardCache cache = new BackForwardCache();
+        cache.put("1/a", "gemini://example.com/", PAGE, LINKS);
+        cache.setScrollPosition("1/a", 1, -100);
+        cache.put("1/a", "gemini://example.com/", PAGE, LINKS);
+        BackForwardCache.Snapshot snapshot = cache.get("1/a", "gemini://example.com/");
+        assertEquals(0, snapshot.getScrollElement());
+        assertEquals(0, snapshot.getScrollOffset());
+    }
+
+    @Test
+    public void leastRecentlyUsedPagesAreEvicted() {
+        BackForwardCache cache = new BackForwardCache(2);
+        cache.put("a", "gemini://example.com/a", PAGE, LINKS);
+        cache.put("b", "gemini://example.com/b", PAGE, LINKS);
+        assertNotNull(cache.get("a", "gemini://example.com/a"));
+        cache.put("c", "gemini://example.com/c", PAGE, LINKS);
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b", "gemini://example.com/b"));
+        assertNotNull(cache.get("a", "gemini://example.com/a"));
+
+        cache.trimToSize(1);
+        assertEquals(1, cache.size());
+        assertNotNull(cache.get("a", "gemini://example.com/a"));
+        cache.trimToSize(0);
+        assertEquals(0, cache.size());
+        assertEquals(3, cache.getEvictionCount());
+    }
+}
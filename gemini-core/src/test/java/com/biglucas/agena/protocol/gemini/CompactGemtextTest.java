@@ -0,0 +1,122 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CompactGemtextTest {
+
+    private static final String PAGE_URI = "gemini://example.com/log/";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** The demo capsule repeated until it has about {@code lines} lines, like a large index. */
+    private static List<String> largePage(int lines) throws IOException {
+        List<String> page = new ArrayList<>();
+        while (page.size() < lines) {
+            page.addAll(GemtextParserTest.demoPage("index.gmi"));
+            page.addAll(GemtextParserTest.demoPage("text.gmi"));
+        }
+        return page;
+    }
+
+    private static int bodyBytes(List<String> lines) {
+        int bytes = 0;
+        for (String line : lines) {
+            bytes += line.getBytes(StandardCharsets.UTF_8).length + 1;
+        }
+        return bytes;
+    }
+
+    @Test
+    public void decodedPagesMatchTheParsedOnes() throws IOException {
+        List<String> lines = new ArrayList<>(largePage(1_000));
+        lines.addAll(Arrays.asList("=> gemini://é.example/ Ünïcode label ", "=>", "#### Deep",
+                "```  ascii  ", "", "a", "```", "* item", ">quote", "  plain  ", "```", "unclosed"));
+        CompactGemtext.Page parsed = CompactGemtext.parse(PAGE_URI, 20, "text/gemini; lang=en", 1234L, PAGE_URI, lines);
+
+        CompactGemtext.Page decoded = CompactGemtext.decode(CompactGemtext.encode(parsed));
+
+        assertEquals(PAGE_URI, decoded.key);
+        assertEquals(20, decoded.status);
+        assertEquals("text/gemini; lang=en", decoded.meta);
+        assertEquals(1234L, decoded.fetchedAtMillis);
+        GemtextDocumentTest.assertSameContent(GemtextParser.parse(lines), decoded.document);
+        assertEquals(parsed.links, decoded.links);
+        GemtextOutline expected = parsed.document.getOutline();
+        GemtextOutline outline = decoded.document.getOutline();
+        assertEquals(expected.getHeadingCount(), outline.getHeadingCount());
+        for (int n = 0; n < expected.getHeadingCount(); n++) {
+            assertEquals(expected.getHeadingElement(n), outline.getHeadingElement(n));
+            assertEquals(expected.getHeadingLevel(n), outline.getHeadingLevel(n));
+        }
+        assertEquals(expected.getLinkCount(), outline.getLinkCount());
+        for (int n = 0; n < expected.getLinkCount(); n++) {
+            assertEquals(expected.getLinkElement(n), outline.getLinkElement(n));
+        }
+        assertEquals(expected.getLinksPerHost(), outline.getLinksPerHost());
+    }
+
+    @Test
+    public void linksAreStoredResolved() throws IOException {
+        CompactGemtext.Page page = CompactGemtext.parse(PAGE_URI, 20, "text/gemini", 0, PAGE_URI,
+                Arrays.asList("=> one.gmi", "=> ../about/ About", "=>", "=> gemini://other.org/ Other"));
+
+        assertEquals(Arrays.asList("gemini://example.com/log/one.gmi", "gemini://example.com/about/",
+                "gemini://other.org/"), CompactGemtext.decode(CompactGemtext.encode(page)).links);
+    }
+
+    @Test
+    public void largePagesAreSmallerThanTheirBody() throws IOException {
+        List<String> lines = largePage(20_000);
+        byte[] encoded = CompactGemtext.encode(CompactGemtext.parse(PAGE_URI, 20, "text/gemini", 0, PAGE_URI, lines));
+        System.out.println("compact gemtext: " + encoded.length + " bytes for a " + bodyBytes(lines) + " byte body");
+        assertTrue(encoded.length < bodyBytes(lines));
+    }
+
+    @Test
+    public void damagedDataIsRejected() throws IOException {
+        byte[] encoded = CompactGemtext.encode(CompactGemtext.parse(PAGE_URI, 20, "text/gemini", 0, PAGE_URI,
+                GemtextParserTest.demoPage("index.gmi")));
+        for (int length : new int[]{0, 3, 10, encoded.length / 2, encoded.length - 1}) {
+            try {
+                CompactGemtext.decode(Arrays.copyOf(encoded, length));
+                fail("Decoded " + length + " of " + encoded.length + " bytes");
+            } catch (IOException expected) {
+                // Truncated.
+            }
+        }
+        byte[] newer = encoded.clone();
+        newer[CompactGemtext.MAGIC.length]++;
+        try {
+            CompactGemtext.decode(newer);
+            fail("Decoded another version");
+        } catch (IOException expected) {
+            // Written by another version.
+        }
+    }
+
+    @Test
+    public void pagesRoundTripThroughFiles() throws IOException {
+        File file = new File(folder.getRoot(), "page.gmb");
+        CompactGemtext.Page page = CompactGemtext.parse("history 3", 20, "text/gemini", 0, PAGE_URI,
+                Arrays.asList("# History", "=> gemini://example.com/ 2024-01-01 gemini://example.com/"));
+
+        CompactGemtext.write(page, file);
+
+        CompactGemtext.Page read = CompactGemtext.read(file);
+        assertEquals("history 3", read.key);
+        assertEquals(page.links, read.links);
+        assertEquals(2, read.document.size());
+    }
+}
@@ -0,0 +1,158 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DiskCacheTest {
+
+    private static final List<String> PAGE = Arrays.asList("# Gemlog", "", "A line with ünïcode", "=> /next Next");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Writes synchronously, so tests see the result of put right away. */
+    private DiskCache open(File directory, long maxBytes) {
+        return new DiskCache(directory, maxBytes, DiskCache.DEFAULT_MAX_AGE_MS, Runnable::run);
+    }
+
+    private static void overwrite(File file, String content) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void entriesSurviveARestart() throws IOException {
+        File directory = folder.newFolder();
+        open(directory, DiskCache.DEFAULT_MAX_BYTES).put("gemini://Example.com/log/", 20, "text/gemini; lang=en", PAGE);
+
+        DiskCache reopened = open(directory, DiskCache.DEFAULT_MAX_BYTES);
+        ResponseCache.Entry entry = reopened.get("gemini://example.com:1965/log/", false);
+        assertNotNull(entry);
+        assertEquals("gemini://example.com/log/", entry.uri);
+        assertEquals(20, entry.status);
+        assertEquals("text/gemini; lang=en", entry.meta);
+        assertEquals(PAGE, entry.lines);
+        assertEquals(1, reopened.getHitCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedFilesAreDeletedToFitTheBudget() throws IOException {
+        File directory = folder.newFolder();
+        DiskCache cache = open(directory, DiskCache.DEFAULT_MAX_BYTES);
+        cache.put("gemini://example.com/a", 20, "text/gemini", PAGE);
+        long entryBytes = cache.getBytes();
+
+        cache.setMaxBytes(entryBytes * 2 + entryBytes / 2);
+        cache.put("gemini://example.com/b", 20, "text/gemini", PAGE);
+        assertNotNull(cache.get("gemini://example.com/a", false));
+        cache.put("gemini://example.com/c", 20, "text/gemini", PAGE);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.get("gemini://example.com/b", false));
+        assertNotNull(cache.get("gemini://example.com/a", false));
+
+        // The recency order is persisted with the index.
+        DiskCache reopened = open(directory, entryBytes * 2 + entryBytes / 2);
+        reopened.put("gemini://example.com/d", 20, "text/gemini", PAGE);
+        assertNotNull(reopened.get("gemini://example.com/a", false));
+        assertNull(reopened.get("gemini://example.com/c", false));
+        // Only the two entries (each a response and its parsed form) and the index remain.
+        assertEquals(5, directory.listFiles().length);
+    }
+
+    @Test
+    public void parsedPagesAreReadWithResolvedLinks() throws IOException {
+        File directory = folder.newFolder();
+        open(directory, DiskCache.DEFAULT_MAX_BYTES).put("gemini://Example.com/log/", 20, "text/gemini", PAGE);
+
+        DiskCache reopened = open(directory, DiskCache.DEFAULT_MAX_BYTES);
+        CompactGemtext.Page page = reopened.getPage("gemini://example.com/log/", false);
+        assertNotNull(page);
+        assertEquals("gemini://example.com/log/", page.key);
+        assertEquals(PAGE.size(), page.document.size());
+        assertEquals(Arrays.asList("gemini://example.com/next"), page.links);
+        assertEquals(reopened.getFetchedAtMillis("gemini://example.com/log/"), page.fetchedAtMillis);
+        assertEquals(1, reopened.getHitCount());
+
+        new File(directory, DiskCache.fileName("gemini://example.com/log/") + DiskCache.PAGE_SUFFIX).delete();
+        assertNull(reopened.getPage("gemini://example.com/log/", false));
+        assertNull(reopened.getPage("gemini://example.com/other", false));
+        assertEquals(1, reopened.getHitCount());
+    }
+
+    @Test
+    public void staleEntriesAreOnlyServedWhenAllowed() throws Exception {
+        DiskCache cache = new DiskCache(folder.newFolder(), DiskCache.DEFAULT_MAX_BYTES, 0, Runnable::run);
+        cache.put("gemini://example.com/", 20, "text/gemini", PAGE);
+        Thread.sleep(5);
+        assertNull(cache.get("gemini://example.com/", false));
+        assertNotNull(cache.get("gemini://example.com/", true));
+    }
+
+    @Test
+    public void damagedFilesAreDropped() throws IOException {
+        File directory = folder.newFolder();
+        DiskCache cache = open(directory, DiskCache.DEFAULT_MAX_BYTES);
+        cache.put("gemini://example.com/", 20, "text/gemini", PAGE);
+        File file = new File(directory, DiskCache.fileName("gemini://example.com/"));
+        overwrite(file, "gemini://example.com/\n20\ntext/gemini\nnot a time\n");
+
+        assertNull(cache.get("gemini://example.com/", true));
+        assertEquals(0, cache.size());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void leftoversOfInterruptedWritesAreRemoved() throws IOException {
+        File directory = folder.newFolder();
+        open(directory, DiskCache.DEFAULT_MAX_BYTES).put("gemini://example.com/", 20, "text/gemini", PAGE);
+        File temp = new File(directory, DiskCache.fileName("gemini://example.com/other") + DiskCache.TEMP_SUFFIX);
+        File orphan = new File(directory, DiskCache.fileName("gemini://example.com/orphan"));
+        overwrite(temp, "half a wri");
+        overwrite(orphan, "not in the index\n");
+
+        DiskCache reopened = open(directory, DiskCache.DEFAULT_MAX_BYTES);
+        assertEquals(1, reopened.size());
+        assertFalse(temp.exists());
+        assertFalse(orphan.exists());
+        assertNotNull(reopened.get("gemini://example.com/", false));
+    }
+
+    @Test
+    public void removeDeletesTheFile() throws IOException {
+        File directory = folder.newFolder();
+        DiskCache cache = open(directory, DiskCache.DEFAULT_MAX_BYTES);
+        cache.put("gemini://example.com/gone", 20, "text/gemini", PAGE);
+        cache.remove("gemini://example.com/gone");
+        assertNull(cache.get("gemini://example.com/gone", true));
+        assertFalse(new File(directory, DiskCache.fileName("gemini://example.com/gone")).exists());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void statsDoNotWaitForTheCacheLock() throws Exception {
+        DiskCache cache = open(folder.newFolder(), DiskCache.DEFAULT_MAX_BYTES);
+        cache.put("gemini://example.com/", 20, "text/gemini", PAGE);
+        String[] stats = new String[1];
+        Thread ui = new Thread(() -> stats[0] = cache.toString());
+        // Stands in for a write holding the lock.
+        synchronized (cache) {
+            ui.start();
+            ui.join(5_000);
+        }
+        assertNotNull(stats[0]);
+        assertTrue(stats[0].contains("entries=1"));
+    }
+}
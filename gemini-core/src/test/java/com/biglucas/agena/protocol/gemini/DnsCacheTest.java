@@ -0,0 +1,97 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DnsCacheTest {
+
+    private static InetAddress address(int last) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[]{10, 0, 0, (byte) last});
+    }
+
+    @Test
+    public void repeatedLookupsHitTheCache() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        InetAddress expected = address(1);
+        DnsCache cache = new DnsCache(host -> {
+            calls.incrementAndGet();
+            return new InetAddress[]{expected};
+        }, 60_000, 16);
+
+        assertArrayEquals(new InetAddress[]{expected}, cache.lookup("example.com"));
+        assertArrayEquals(new InetAddress[]{expected}, cache.lookup("EXAMPLE.com"));
+        assertEquals(1, calls.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void expiredEntriesAreResolvedAgain() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        DnsCache cache = new DnsCache(host -> new InetAddress[]{address(calls.incrementAndGet())}, 20, 16);
+
+        assertEquals(address(1), cache.lookup("example.com")[0]);
+        Thread.sleep(40);
+        assertEquals(address(2), cache.lookup("example.com")[0]);
+    }
+
+    @Test
+    public void invalidateForcesNewLookup() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        DnsCache cache = new DnsCache(host -> new InetAddress[]{address(calls.incrementAndGet())}, 60_000, 16);
+
+        cache.lookup("example.com");
+        cache.invalidate("example.com");
+        cache.lookup("example.com");
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void failedLookupsAreNotCached() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        DnsCache cache = new DnsCache(host -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new UnknownHostException(host);
+            }
+            return new InetAddress[]{address(9)};
+        }, 60_000, 16);
+
+        try {
+            cache.lookup("example.com");
+            fail("first lookup should fail");
+        } catch (UnknownHostException expected) {
+            // expected
+        }
+        assertEquals(address(9), cache.lookup("example.com")[0]);
+    }
+
+    @Test
+    public void leastRecentlyUsedHostIsEvicted() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        DnsCache cache = new DnsCache(host -> {
+            calls.incrementAndGet();
+            return new InetAddress[]{address(1)};
+        }, 60_000, 2);
+
+        cache.lookup("a");
+        cache.lookup("b");
+        cache.lookup("a");
+        cache.lookup("c"); // evicts b
+        cache.lookup("a");
+        assertEquals(3, calls.get());
+        cache.lookup("b");
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    public void returnedArraysCannotCorruptTheCache() throws Exception {
+        DnsCache cache = new DnsCache(host -> new InetAddress[]{address(1)}, 60_000, 16);
+        cache.lookup("example.com")[0] = address(2);
+        assertEquals(address(1), cache.lookup("example.com")[0]);
+    }
+}
@@ -0,0 +1,624 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link GeminiClient} on the JVM against a local server. TLS is replaced by a plaintext
+ * pass-through through the pluggable socket factory, so no certificates are needed.
+ */
+public class GeminiClientTest {
+    private static final String HOST = "capsule.test";
+
+    /** Plain TCP pretending to be TLS. */
+    private static final class PlaintextSocket extends SSLSocket {
+        private final Socket socket;
+
+        PlaintextSocket(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override public InputStream getInputStream() throws IOException { return socket.getInputStream(); }
+        @Override public OutputStream getOutputStream() throws IOException { return socket.getOutputStream(); }
+        @Override public void setSoTimeout(int timeout) throws SocketException { socket.setSoTimeout(timeout); }
+        @Override public synchronized void close() throws IOException { socket.close(); }
+        @Override public boolean isClosed() { return socket.isClosed(); }
+        @Override public void startHandshake() { }
+        @Override public SSLSession getSession() {
+            return (SSLSession) Proxy.newProxyInstance(SSLSession.class.getClassLoader(), new Class<?>[]{SSLSession.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "getId": return new byte[]{1};
+                            case "getCreationTime": return System.currentTimeMillis();
+                            default: return null;
+                        }
+                    });
+        }
+        @Override public String[] getSupportedCipherSuites() { return new String[0]; }
+        @Override public String[] getEnabledCipherSuites() { return new String[0]; }
+        @Override public void setEnabledCipherSuites(String[] suites) { }
+        @Override public String[] getSupportedProtocols() { return new String[0]; }
+        @Override public String[] getEnabledProtocols() { return new String[0]; }
+        @Override public void setEnabledProtocols(String[] protocols) { }
+        @Override public void addHandshakeCompletedListener(HandshakeCompletedListener listener) { }
+        @Override public void removeHandshakeCompletedListener(HandshakeCompletedListener listener) { }
+        @Override public void setUseClientMode(boolean mode) { }
+        @Override public boolean getUseClientMode() { return true; }
+        @Override public void setNeedClientAuth(boolean need) { }
+        @Override public boolean getNeedClientAuth() { return false; }
+        @Override public void setWantClientAuth(boolean want) { }
+        @Override public boolean getWantClientAuth() { return false; }
+        @Override public void setEnableSessionCreation(boolean flag) { }
+        @Override public boolean getEnableSessionCreation() { return true; }
+    }
+
+    private static final class PlaintextSocketFactory extends SSLSocketFactory {
+        @Override public Socket createSocket(Socket socket, String host, int port, boolean autoClose) { return new PlaintextSocket(socket); }
+        @Override public String[] getDefaultCipherSuites() { return new String[0]; }
+        @Override public String[] getSupportedCipherSuites() { return new String[0]; }
+        @Override public Socket createSocket(String host, int port) { throw new UnsupportedOperationException(); }
+        @Override public Socket createSocket(String host, int port, InetAddress local, int localPort) { throw new UnsupportedOperationException(); }
+        @Override public Socket createSocket(InetAddress host, int port) { throw new UnsupportedOperationException(); }
+        @Override public Socket createSocket(InetAddress address, int port, InetAddress local, int localPort) { throw new UnsupportedOperationException(); }
+    }
+
+    /** Answers each request path with a canned response; unknown paths hang until closed. */
+    private final Map<String, String> responses = new ConcurrentHashMap<>();
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    /** Paths whose response is held back until their latch opens. */
+    private final Map<String, CountDownLatch> gates = new ConcurrentHashMap<>();
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerSocket server;
+    private ExecutorService executor;
+    private GeminiClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    new Thread(() -> serve(socket)).start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        executor = Executors.newCachedThreadPool();
+        DnsCache dnsCache = new DnsCache(host -> new InetAddress[]{InetAddress.getLoopbackAddress()},
+                DnsCache.DEFAULT_TTL_MS, DnsCache.DEFAULT_MAX_ENTRIES);
+        client = new GeminiClient(PlaintextSocketFactory::new, executor, dnsCache, new HappyEyeballsConnector());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        executor.shutdownNow();
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            String line = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8)).readLine();
+            String path = line.substring(line.indexOf('/', "gemini://".length()));
+            requests.add(path);
+            String response = responses.get(path);
+            if (response == null) {
+                // Hang until the client goes away.
+                while (s.getInputStream().read() != -1) {
+                    // Discard.
+                }
+                return;
+            }
+            CountDownLatch gate = gates.get(path);
+            if (gate != null && !gate.await(5, TimeUnit.SECONDS)) {
+                return;
+            }
+            s.getOutputStream().write(response.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // The client went away.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Collects the bodies and successes it is given. */
+    private static final class RecordingHandler implements GeminiClient.ResponseHandler {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final List<String> successes = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void onBody(String uri, String mimeType, InputStream in) throws IOException {
+            byte[] buffer = new byte[64];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+        }
+
+        @Override
+        public void onSuccess(String uri, String mimeType) {
+            successes.add(mimeType);
+        }
+    }
+
+    /**
+     * Starts two requests for {@code path} with their own handlers, the second one joining the
+     * first while the server holds the response back.
+     */
+    private void requestTwiceCoalesced(String path, GeminiClient.ResponseHandler first,
+                                       GeminiClient.ResponseHandler second) throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        gates.put(path, gate);
+        Future<RequestTimings> leader = client.requestAsync(uri(path), line -> { }, first);
+        while (!requests.contains(path)) {
+            Thread.sleep(1);
+        }
+        Future<RequestTimings> follower = client.requestAsync(uri(path), line -> { }, second);
+        while (client.getSingleFlight().getCoalescedCount() < 1) {
+            Thread.sleep(1);
+        }
+        gate.countDown();
+        leader.get(5, TimeUnit.SECONDS);
+        follower.get(5, TimeUnit.SECONDS);
+    }
+
+    private String uri(String path) {
+        return "gemini://" + HOST + ":" + server.getLocalPort() + path;
+    }
+
+    @Test
+    public void asyncRequestStreamsLinesAndCompletesWithTimings() throws Exception {
+        responses.put("/", "20 text/gemini\r\n# Hello\r\nworld\r\n");
+        List<String> lines = Collections.synchronizedList(new ArrayList<>());
+
+        RequestTimings timings = client.requestAsync(uri("/"), lines::add).get(5, TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList("# Hello", "world"), lines);
+        assertEquals(20, timings.getStatusCode());
+        assertEquals(0, timings.getRedirectHops());
+        assertTrue(timings.getBytesReceived() > 0);
+    }
+
+    @Test
+    public void permanentRedirectsAreFollowedAndRemembered() throws Exception {
+        responses.put("/old", "31 /new\r\n");
+        responses.put("/new", "20 text/gemini\r\nmoved\r\n");
+
+        List<String> lines = new ArrayList<>();
+        client.request(uri("/old"), lines::add);
+        // Forget the page so the second visit has to reach the server.
+        client.getResponseCache().clear();
+        client.request(uri("/old"), lines::add);
+
+        assertEquals(Arrays.asList("moved", "moved"), lines);
+        // The second visit went straight to the target.
+        assertEquals(Arrays.asList("/old", "/new", "/new"), requests);
+        assertEquals(1, client.getRedirectCache().getPermanentHitCount());
+    }
+
+    @Test
+    public void reloadsRelearnPermanentRedirects() throws Exception {
+        responses.put("/old", "31 /new\r\n");
+        responses.put("/new", "20 text/gemini\r\nmoved\r\n");
+        client.request(uri("/old"), line -> { });
+
+        // The capsule moved back.
+        responses.put("/old", "20 text/gemini\r\nback\r\n");
+        List<String> lines = new ArrayList<>();
+        client.request(uri("/old"), lines::add, GeminiClient.ResponseHandler.NONE,
+                new RequestTimings(uri("/old")), new Cancellation(), ResponseCache.Policy.RELOAD);
+
+        assertEquals(Collections.singletonList("back"), lines);
+        assertEquals(Arrays.asList("/old", "/new", "/old"), requests);
+        assertNull(client.getRedirectCache().lookup(uri("/old")));
+    }
+
+    @Test
+    public void cachedPagesAreServedWithoutTheNetworkUnlessReloaded() throws Exception {
+        responses.put("/page", "20 text/gemini\r\ncached line\r\n");
+        client.request(uri("/page"), line -> { });
+
+        List<String> lines = new ArrayList<>();
+        RequestTimings timings = client.requestAsync(uri("/page"), lines::add).get(5, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList("cached line"), lines);
+        assertEquals("memory", timings.getCache());
+        assertEquals(20, timings.getStatusCode());
+        assertEquals(Collections.singletonList("/page"), requests);
+
+        responses.put("/page", "20 text/gemini\r\nfresh line\r\n");
+        lines.clear();
+        timings = client.requestAsync(uri("/page"), lines::add, GeminiClient.ResponseHandler.NONE,
+                ResponseCache.Policy.RELOAD).get(5, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList("fresh line"), lines);
+        assertNull(timings.getCache());
+        assertEquals("fresh line", client.getResponseCache().get(uri("/page")).lines.get(0));
+    }
+
+    @Test
+    public void pagesOnDiskAreServedAfterMemoryIsCleared() throws Exception {
+        client.setDiskCache(new DiskCache(folder.newFolder(), DiskCache.DEFAULT_MAX_BYTES,
+                DiskCache.DEFAULT_MAX_AGE_MS, Runnable::run));
+        responses.put("/log.gmi", "20 text/gemini\r\n# Gemlog\r\n");
+        client.request(uri("/log.gmi"), line -> { });
+        client.getResponseCache().clear();
+
+        List<String> lines = new ArrayList<>();
+        RequestTimings timings = client.requestAsync(uri("/log.gmi"), lines::add).get(5, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList("# Gemlog"), lines);
+        assertEquals("disk", timings.getCache());
+        assertEquals(1, requests.size());
+        // Promoted back into memory.
+        assertNotNull(client.getResponseCache().get(uri("/log.gmi")));
+    }
+
+    @Test
+    public void pagesOnDiskAreShownParsedUnlessReloadedOrRedirected() throws Exception {
+        client.setDiskCache(new DiskCache(folder.newFolder(), DiskCache.DEFAULT_MAX_BYTES,
+                DiskCache.DEFAULT_MAX_AGE_MS, Runnable::run));
+        responses.put("/log/", "20 text/gemini\r\n# Gemlog\r\n=> entry.gmi Entry\r\n");
+        responses.put("/old", "31 /log/\r\n");
+        assertNull(client.getCachedPage(uri("/log/"), ResponseCache.Policy.PREFER_CACHE, new RequestTimings(uri("/log/"))));
+        client.request(uri("/log/"), line -> { });
+        client.request(uri("/old"), line -> { });
+
+        RequestTimings timings = new RequestTimings(uri("/log/"));
+        CompactGemtext.Page page = client.getCachedPage(uri("/log/"), ResponseCache.Policy.PREFER_CACHE, timings);
+        assertNotNull(page);
+        assertEquals(2, page.document.size());
+        assertEquals(Collections.singletonList(uri("/log/entry.gmi")), page.links);
+        assertEquals("disk", timings.getCache());
+        assertEquals(20, timings.getStatusCode());
+        assertNull(client.getCachedPage(uri("/log/"), ResponseCache.Policy.RELOAD, new RequestTimings(uri("/log/"))));
+        // Followed through request(), which takes the hop.
+        assertNull(client.getCachedPage(uri("/old"), ResponseCache.Policy.PREFER_CACHE, new RequestTimings(uri("/old"))));
+        assertEquals(Arrays.asList("/log/", "/old"), requests);
+    }
+
+    @Test
+    public void offlineRequestsNeverTouchTheNetwork() throws Exception {
+        responses.put("/cached", "20 text/gemini\r\nsaved\r\n");
+        client.request(uri("/cached"), line -> { });
+
+        List<String> lines = new ArrayList<>();
+        client.requestAsync(uri("/cached"), lines::add, GeminiClient.ResponseHandler.NONE,
+                ResponseCache.Policy.CACHE_ONLY).get(5, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList("saved"), lines);
+        try {
+            client.requestAsync(uri("/elsewhere"), line -> { }, GeminiClient.ResponseHandler.NONE,
+                    ResponseCache.Policy.CACHE_ONLY).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FailedGeminiRequestException.GeminiNotCached);
+        }
+        assertEquals(Collections.singletonList("/cached"), requests);
+    }
+
+    @Test
+    public void prefetchedLinksAreCachedAndCountedAsHits() throws Exception {
+        responses.put("/a", "20 text/gemini\r\npage a\r\n");
+        responses.put("/b", "20 text/gemini\r\npage b\r\n");
+        responses.put("/c", "20 text/gemini\r\npage c\r\n");
+        // Runs inline, so everything is done when prefetch returns.
+        LinkPrefetcher prefetcher = new LinkPrefetcher(client, Runnable::run, 2, 1,
+                LinkPrefetcher.DEFAULT_MAX_PAGE_BYTES, LinkPrefetcher.DEFAULT_MAX_DAILY_BYTES);
+
+        prefetcher.prefetch(uri("/"), Arrays.asList("a", "gemini://elsewhere.test/x", "/b", "/c"));
+
+        assertEquals(Arrays.asList("/a", "/b"), requests);
+        assertEquals(2, prefetcher.getFetchedCount());
+        assertTrue(prefetcher.getDailyBytes() > 0);
+        List<String> lines = new ArrayList<>();
+        RequestTimings timings = client.requestAsync(uri("/b"), lines::add).get(5, TimeUnit.SECONDS);
+        assertEquals("memory", timings.getCache());
+        assertTrue(prefetcher.recordNavigation(uri("/b")));
+        assertFalse(prefetcher.recordNavigation(uri("/b")));
+        assertEquals(0.5, prefetcher.getHitRate(), 0.001);
+    }
+
+    @Test
+    public void navigationsNeverJoinARunningPrefetch() throws Exception {
+        responses.put("/page", "20 text/gemini\r\npage\r\n");
+        CountDownLatch gate = new CountDownLatch(1);
+        gates.put("/page", gate);
+        LinkPrefetcher prefetcher = new LinkPrefetcher(client, executor, 1, 1,
+                LinkPrefetcher.DEFAULT_MAX_PAGE_BYTES, LinkPrefetcher.DEFAULT_MAX_DAILY_BYTES);
+        prefetcher.prefetch(uri("/"), Collections.singletonList("/page"));
+        while (!requests.contains("/page")) {
+            Thread.sleep(1);
+        }
+
+        RecordingHandler handler = new RecordingHandler();
+        Future<RequestTimings> navigation = client.requestAsync(uri("/page"), line -> { }, handler);
+        // The navigation opens its own connection instead of waiting for the prefetch.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (requests.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        gate.countDown();
+        navigation.get(5, TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList("/page", "/page"), requests);
+        assertEquals(0, client.getSingleFlight().getCoalescedCount());
+        assertEquals(Collections.singletonList("text/gemini"), handler.successes);
+    }
+
+    @Test
+    public void prefetchStopsAtTheBudgetsAndWhenDisallowed() throws Exception {
+        responses.put("/a", "20 text/gemini\r\npage a\r\n");
+        responses.put("/b", "20 text/gemini\r\npage b\r\n");
+        Map<String, String> saved = new ConcurrentHashMap<>();
+        KeyValueStore store = new KeyValueStore() {
+            @Override public Map<String, String> load() { return saved; }
+            @Override public void save(String key, String value) { saved.put(key, value); }
+            @Override public void remove(String key) { saved.remove(key); }
+        };
+        // The page budget is the size of one response: the first fetch uses all of it.
+        LinkPrefetcher prefetcher = new LinkPrefetcher(client, Runnable::run, 5, 1,
+                responses.get("/a").length(), LinkPrefetcher.DEFAULT_MAX_DAILY_BYTES);
+        prefetcher.setStore(store);
+        prefetcher.prefetch(uri("/"), Arrays.asList("/a", "/b"));
+        assertEquals(Collections.singletonList("/a"), requests);
+        assertEquals(1, prefetcher.getOverBudgetCount());
+        assertEquals(Long.toString(prefetcher.getDailyBytes()), saved.get(LinkPrefetcher.KEY_DAY_BYTES));
+
+        prefetcher.setCondition(() -> false);
+        prefetcher.prefetch(uri("/a"), Collections.singletonList("/b"));
+        assertEquals(Collections.singletonList("/a"), requests);
+        assertEquals(1, prefetcher.getPausedCount());
+    }
+
+    @Test
+    public void prefetchIsCancelledOnceItExceedsTheBudget() throws Exception {
+        StringBuilder big = new StringBuilder("20 text/gemini\r\n");
+        for (int i = 0; i < 4000; i++) {
+            big.append("a line of a page that is far too big to prefetch whole\r\n");
+        }
+        responses.put("/big", big.toString());
+        LinkPrefetcher prefetcher = new LinkPrefetcher(client, Runnable::run, 5, 1, 1024,
+                LinkPrefetcher.DEFAULT_MAX_DAILY_BYTES);
+
+        prefetcher.prefetch(uri("/"), Collections.singletonList("/big"));
+
+        assertEquals(1, prefetcher.getOverBudgetCount());
+        assertEquals(0, prefetcher.getFailureCount());
+        assertEquals(0, prefetcher.getFetchedCount());
+        assertFalse(client.getResponseCache().contains(uri("/big")));
+        assertTrue(prefetcher.getDailyBytes() < big.length() / 2);
+    }
+
+    @Test
+    public void aNewPageCancelsRunningPrefetches() throws Exception {
+        // "/slow" never answers, so only the cancellation can end its fetch.
+        LinkPrefetcher prefetcher = new LinkPrefetcher(client, executor, 5, 1,
+                LinkPrefetcher.DEFAULT_MAX_PAGE_BYTES, LinkPrefetcher.DEFAULT_MAX_DAILY_BYTES);
+        prefetcher.prefetch(uri("/"), Collections.singletonList("/slow"));
+        while (!requests.contains("/slow")) {
+            Thread.sleep(1);
+        }
+
+        prefetcher.prefetch(uri("/other"), Collections.emptyList());
+        // Well within the read deadline, which would also end the fetch.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (prefetcher.getRunningCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+
+        assertEquals(0, prefetcher.getRunningCount());
+        assertEquals(0, prefetcher.getFailureCount());
+    }
+
+    @Test
+    public void revalidationReportsOnlyChangedBodies() throws Exception {
+        responses.put("/feed", "20 text/gemini\r\n# Feed\r\n=> /post-1 First\r\n");
+        client.request(uri("/feed"), line -> { });
+        StaleWhileRevalidate revalidation = new StaleWhileRevalidate(client, 0);
+        assertTrue(revalidation.shouldRevalidate(uri("/feed")));
+
+        assertNull(revalidation.revalidate(uri("/feed"), new RequestTimings(uri("/feed")), new Cancellation()));
+
+        responses.put("/feed", "20 text/gemini\r\n# Feed\r\n=> /post-2 Second\r\n=> /post-1 First\r\n");
+        assertEquals(Arrays.asList("# Feed", "=> /post-2 Second", "=> /post-1 First"),
+                revalidation.revalidate(uri("/feed"), new RequestTimings(uri("/feed")), new Cancellation()));
+        // The cache now holds the new copy.
+        assertEquals(3, client.getResponseCache().peek(uri("/feed")).lines.size());
+        assertEquals(Arrays.asList("/feed", "/feed", "/feed"), requests);
+        assertEquals(2, revalidation.getRevalidatedCount());
+        assertEquals(1, revalidation.getChangedCount());
+    }
+
+    @Test
+    public void freshPagesAreNotRevalidated() throws Exception {
+        responses.put("/feed", "20 text/gemini\r\n# Feed\r\n");
+        client.request(uri("/feed"), line -> { });
+        StaleWhileRevalidate revalidation = new StaleWhileRevalidate(client);
+        assertFalse(revalidation.shouldRevalidate(uri("/feed")));
+        assertFalse(revalidation.shouldRevalidate(uri("/not-cached")));
+        assertEquals(2, revalidation.getSkippedCount());
+    }
+
+    @Test
+    public void otherBodiesGoToTheHandler() throws Exception {
+        responses.put("/file.txt", "20 text/plain\r\nplain text");
+        RecordingHandler handler = new RecordingHandler();
+
+        client.requestAsync(uri("/file.txt"), line -> fail("not gemtext"), handler).get(5, TimeUnit.SECONDS);
+
+        assertEquals("plain text", handler.body.toString("UTF-8"));
+        assertEquals(Collections.singletonList("text/plain"), handler.successes);
+    }
+
+    @Test
+    public void coalescedRequestsEachReportTheirOwnSuccess() throws Exception {
+        responses.put("/page", "20 text/gemini\r\nshared\r\n");
+        RecordingHandler first = new RecordingHandler();
+        RecordingHandler second = new RecordingHandler();
+
+        requestTwiceCoalesced("/page", first, second);
+
+        assertEquals(Collections.singletonList("/page"), requests);
+        assertEquals(Collections.singletonList("text/gemini"), first.successes);
+        assertEquals(Collections.singletonList("text/gemini"), second.successes);
+    }
+
+    @Test
+    public void coalescedRequestsEachGetTheirOwnCopyOfOtherBodies() throws Exception {
+        responses.put("/file", "20 text/plain\r\nplain text");
+        RecordingHandler first = new RecordingHandler();
+        RecordingHandler second = new RecordingHandler();
+
+        requestTwiceCoalesced("/file", first, second);
+
+        // A body is a stream only one handler can read, so the joined request fetched its own.
+        assertEquals(Arrays.asList("/file", "/file"), requests);
+        assertEquals("plain text", first.body.toString("UTF-8"));
+        assertEquals("plain text", second.body.toString("UTF-8"));
+        assertEquals(Collections.singletonList("text/plain"), first.successes);
+        assertEquals(Collections.singletonList("text/plain"), second.successes);
+    }
+
+    @Test
+    public void errorStatusFailsTheFutureWithTheTypedException() throws Exception {
+        responses.put("/missing", "51 Not found\r\n");
+        try {
+            client.requestAsync(uri("/missing"), line -> { }).get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FailedGeminiRequestException.GeminiNotFound);
+        }
+    }
+
+    @Test
+    public void cancellingTheFutureReleasesTheRequestThread() throws Exception {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        try {
+            DnsCache dnsCache = new DnsCache(host -> new InetAddress[]{InetAddress.getLoopbackAddress()},
+                    DnsCache.DEFAULT_TTL_MS, DnsCache.DEFAULT_MAX_ENTRIES);
+            GeminiClient singleThreaded = new GeminiClient(PlaintextSocketFactory::new, single, dnsCache, new HappyEyeballsConnector());
+            Future<RequestTimings> hanging = singleThreaded.requestAsync(uri("/hang"), line -> { });
+            while (requests.isEmpty()) {
+                Thread.sleep(1);
+            }
+            assertTrue(hanging.cancel(true));
+            try {
+                hanging.get();
+                fail();
+            } catch (CancellationException expected) {
+                // Cancelled.
+            }
+            // The only worker thread is free again well before any read timeout.
+            CountDownLatch ran = new CountDownLatch(1);
+            single.execute(ran::countDown);
+            assertTrue(ran.await(2, TimeUnit.SECONDS));
+        } finally {
+            single.shutdownNow();
+        }
+    }
+
+    @Test
+    public void cancelledFutureIsNotFailedByItsClosedSocket() throws Exception {
+        // Cancelling closes the socket, which makes the request fail on its own thread. The
+        // future must be cancelled before that failure can complete it, every time.
+        for (int i = 0; i < 20; i++) {
+            String path = "/hang-" + i;
+            Future<RequestTimings> hanging = client.requestAsync(uri(path), line -> { });
+            while (!requests.contains(path)) {
+                Thread.sleep(1);
+            }
+            assertTrue(hanging.cancel(true));
+            try {
+                hanging.get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (CancellationException expected) {
+                // Cancelled, not failed.
+            }
+        }
+    }
+
+    @Test
+    public void cancelledBlockingRequestThrowsInterruptedIOException() throws Exception {
+        Cancellation cancellation = new Cancellation();
+        Thread canceller = new Thread(() -> {
+            while (requests.isEmpty()) {
+                Thread.yield();
+            }
+            cancellation.cancel();
+        });
+        canceller.start();
+        try {
+            client.request(uri("/hang"), line -> { }, GeminiClient.ResponseHandler.NONE,
+                    new RequestTimings(uri("/hang")), cancellation);
+            fail();
+        } catch (InterruptedIOException expected) {
+            // Cancelled.
+        }
+        canceller.join(5000);
+    }
+
+    @Test
+    public void invalidUrisAreRejectedBeforeConnecting() throws Exception {
+        for (String invalid : new String[]{"https://" + HOST + "/", "gemini://user@" + HOST + "/", "gemini:///path"}) {
+            try {
+                client.request(invalid, line -> { });
+                fail(invalid);
+            } catch (FailedGeminiRequestException.GeminiInvalidUri expected) {
+                // Rejected.
+            }
+        }
+        assertTrue(requests.isEmpty());
+    }
+
+    @Test
+    public void endpointParsingIsLenient() {
+        GeminiClient.Endpoint endpoint = GeminiClient.Endpoint.parse("gemini://Example.com:1966/a b?q#f");
+        assertEquals("gemini", endpoint.scheme);
+        assertEquals("Example.com", endpoint.host);
+        assertEquals(1966, endpoint.port);
+        assertNull(endpoint.userInfo);
+
+        GeminiClient.Endpoint ipv6 = GeminiClient.Endpoint.parse("gemini://[::1]/");
+        assertEquals("::1", ipv6.host);
+        assertEquals(-1, ipv6.port);
+    }
+}
@@ -0,0 +1,144 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link GeminiLineReader} allocates less per body line than the old
+ * byte-at-a-time reader. The numbers themselves are measured by {@code GeminiLineReaderBenchmark}
+ * in the benchmarks module.
+ * <p>
+ * Uses HotSpot's per-thread allocation counter; skipped on JVMs that do not provide it.
+ */
+public class GeminiLineReaderAllocationTest {
+    private static final int LINES = 20_000;
+    private static final int ROUNDS = 5;
+
+    /**
+     * Copy of the reader {@link Gemini} used before {@link GeminiLineReader}, kept as the baseline.
+     */
+    private static String legacyReadLine(InputStream input) throws IOException {
+        return legacyReadLine(input, Charset.defaultCharset());
+    }
+
+    private static String legacyReadLine(InputStream input, Charset charset) throws IOException {
+        ArrayList<Byte> bytes = new ArrayList<>();
+        int b = input.read();
+        if (b == -1) {
+            return null;
+        }
+        while (b != -1 && b != 0xA) {
+            bytes.add((byte) b);
+            b = input.read();
+        }
+        byte[] buf = new byte[bytes.size()];
+        for (int i = 0; i < bytes.size(); i++) {
+            buf[i] = bytes.get(i);
+        }
+        return charset.decode(ByteBuffer.wrap(buf)).toString();
+    }
+
+    private static byte[] corpus() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            sb.append("=> gemini://example.com/gemlog/").append(i).append(".gmi An entry in the archive\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** A Latin-1 capsule: mostly ASCII link lines, with an accented paragraph every tenth line. */
+    private static byte[] latinCorpus(Charset charset) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            if (i % 10 == 0) {
+                sb.append("Olá, esta é a edição número ").append(i).append(" do boletim\n");
+            } else {
+                sb.append("=> gemini://example.com/arquivo/").append(i).append(".gmi Uma entrada no arquivo\n");
+            }
+        }
+        return sb.toString().getBytes(charset);
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        return sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled() ? sunBean : null;
+    }
+
+    private static long measureLegacy(com.sun.management.ThreadMXBean bean, byte[] data) throws IOException {
+        return measureLegacy(bean, data, Charset.defaultCharset());
+    }
+
+    private static long measureLegacy(com.sun.management.ThreadMXBean bean, byte[] data, Charset charset) throws IOException {
+        InputStream input = new java.io.BufferedInputStream(new ByteArrayInputStream(data));
+        long tid = Thread.currentThread().getId();
+        long before = bean.getThreadAllocatedBytes(tid);
+        while (legacyReadLine(input, charset) != null) {
+            // drain
+        }
+        return bean.getThreadAllocatedBytes(tid) - before;
+    }
+
+    private static long measureReader(com.sun.management.ThreadMXBean bean, byte[] data) throws IOException {
+        return measureReader(bean, data, GeminiSpec.DEFAULT_CHARSET);
+    }
+
+    private static long measureReader(com.sun.management.ThreadMXBean bean, byte[] data, Charset charset) throws IOException {
+        GeminiLineReader reader = new GeminiLineReader(new ByteArrayInputStream(data));
+        reader.setCharset(charset);
+        long tid = Thread.currentThread().getId();
+        long before = bean.getThreadAllocatedBytes(tid);
+        while (reader.readLine() != null) {
+            // drain
+        }
+        return bean.getThreadAllocatedBytes(tid) - before;
+    }
+
+    @Test
+    public void readerAllocatesLessPerLineThanLegacyReader() throws IOException {
+        com.sun.management.ThreadMXBean bean = threadBean();
+        Assume.assumeTrue("Thread allocation counters unavailable", bean != null);
+
+        byte[] data = corpus();
+        long legacy = Long.MAX_VALUE;
+        long current = Long.MAX_VALUE;
+        // Best of several rounds, so JIT warm-up and TLAB refills do not skew the numbers.
+        for (int i = 0; i < ROUNDS; i++) {
+            legacy = Math.min(legacy, measureLegacy(bean, data));
+            current = Math.min(current, measureReader(bean, data));
+        }
+
+        assertTrue("GeminiLineReader should allocate less than the legacy reader", current < legacy);
+    }
+
+    @Test
+    public void declaredCharsetDecodesWithFewerAllocations() throws IOException {
+        com.sun.management.ThreadMXBean bean = threadBean();
+        Assume.assumeTrue("Thread allocation counters unavailable", bean != null);
+
+        Charset charset = Charset.forName("windows-1252");
+        byte[] data = latinCorpus(charset);
+        long legacy = Long.MAX_VALUE;
+        long current = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            legacy = Math.min(legacy, measureLegacy(bean, data, charset));
+            current = Math.min(current, measureReader(bean, data, charset));
+        }
+
+        assertTrue("Reusing the decoder should allocate less than a decode per line", current < legacy);
+    }
+}
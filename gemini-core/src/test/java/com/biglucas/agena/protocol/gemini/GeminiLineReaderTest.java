@@ -0,0 +1,150 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class GeminiLineReaderTest {
+
+    private static GeminiLineReader reader(String content, int bufferSize) {
+        return new GeminiLineReader(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), bufferSize);
+    }
+
+    @Test
+    public void readsLfAndCrlfTerminatedLines() throws IOException {
+        GeminiLineReader reader = reader("first\nsecond\r\nthird", 64);
+        assertEquals("first", reader.readLine());
+        assertEquals("second", reader.readLine());
+        assertEquals("third", reader.readLine());
+        assertNull(reader.readLine());
+    }
+
+    @Test
+    public void emptyStreamYieldsNull() throws IOException {
+        assertNull(reader("", 64).readLine());
+    }
+
+    @Test
+    public void emptyLinesArePreserved() throws IOException {
+        GeminiLineReader reader = reader("\n\nx\n", 64);
+        assertEquals("", reader.readLine());
+        assertEquals("", reader.readLine());
+        assertEquals("x", reader.readLine());
+        assertNull(reader.readLine());
+    }
+
+    @Test
+    public void linesSpanningBufferRefillsAreJoined() throws IOException {
+        String longLine = "abcdefghijklmnopqrstuvwxyz0123456789";
+        GeminiLineReader reader = reader(longLine + "\nshort\n" + longLine, 5);
+        assertEquals(longLine, reader.readLine());
+        assertEquals("short", reader.readLine());
+        assertEquals(longLine, reader.readLine());
+        assertNull(reader.readLine());
+    }
+
+    @Test
+    public void multiByteCharactersSplitAcrossRefillsDecodeCorrectly() throws IOException {
+        String text = "olá mundo ░▒▓ 日本語";
+        for (int bufferSize = 1; bufferSize < 12; bufferSize++) {
+            GeminiLineReader reader = reader(text + "\n" + text, bufferSize);
+            assertEquals(text, reader.readLine());
+            assertEquals(text, reader.readLine());
+        }
+    }
+
+    @Test
+    public void bodyIsDecodedWithTheDeclaredCharset() throws Exception {
+        Charset windows1252 = Charset.forName("windows-1252");
+        byte[] header = "20 text/gemini; charset=windows-1252\r\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] body = "# Café “Olé”\r\nplain ascii\n=> /menu Menú €5\n".getBytes(windows1252);
+        byte[] response = new byte[header.length + body.length];
+        System.arraycopy(header, 0, response, 0, header.length);
+        System.arraycopy(body, 0, response, header.length, body.length);
+
+        // A small buffer also sends lines through the carry-over array.
+        GeminiLineReader reader = new GeminiLineReader(new ByteArrayInputStream(response), 8);
+        String meta = reader.readHeaderLine().substring(3);
+        reader.setCharset(GeminiSpec.charsetOf(meta));
+        assertEquals(windows1252, reader.getCharset());
+        assertEquals("# Café “Olé”", reader.readLine());
+        assertEquals("plain ascii", reader.readLine());
+        assertEquals("=> /menu Menú €5", reader.readLine());
+        assertNull(reader.readLine());
+    }
+
+    @Test
+    public void latin1BodyDecodesEveryByte() throws IOException {
+        byte[] body = new byte[256 - 0x80 + 1];
+        for (int i = 0; i < body.length - 1; i++) {
+            body[i] = (byte) (0x80 + i);
+        }
+        body[body.length - 1] = '\n';
+        GeminiLineReader reader = new GeminiLineReader(new ByteArrayInputStream(body), 16);
+        reader.setCharset(StandardCharsets.ISO_8859_1);
+        assertEquals(new String(body, 0, body.length - 1, StandardCharsets.ISO_8859_1), reader.readLine());
+    }
+
+    @Test
+    public void malformedBytesAreReplaced() throws IOException {
+        // 0x81 is unmapped in windows-1252.
+        byte[] body = {'a', (byte) 0x81, 'b', '\n'};
+        GeminiLineReader reader = new GeminiLineReader(new ByteArrayInputStream(body), 64);
+        reader.setCharset(Charset.forName("windows-1252"));
+        assertEquals("a\uFFFDb", reader.readLine());
+    }
+
+    @Test
+    public void headerWithinLimitIsAccepted() throws Exception {
+        StringBuilder meta = new StringBuilder();
+        while (meta.length() < GeminiSpec.MAX_META_LENGTH_BYTES) {
+            meta.append('a');
+        }
+        GeminiLineReader reader = reader("20 " + meta + "\r\nbody\n", 128);
+        assertEquals("20 " + meta, reader.readHeaderLine());
+        assertEquals("body", reader.readLine());
+    }
+
+    @Test(expected = FailedGeminiRequestException.GeminiInvalidResponse.class)
+    public void headerWithoutLineFeedIsRejectedAtLimit() throws Exception {
+        // A server that never sends LF must not make the reader consume the whole stream.
+        InputStream endless = new InputStream() {
+            @Override
+            public int read() {
+                return 'a';
+            }
+        };
+        new GeminiLineReader(endless, 256).readHeaderLine();
+    }
+
+    @Test
+    public void bufferedBytesAfterHeaderAreServedAsStream() throws Exception {
+        byte[] payload = new byte[300];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+        byte[] header = "20 application/octet-stream\r\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] response = new byte[header.length + payload.length];
+        System.arraycopy(header, 0, response, 0, header.length);
+        System.arraycopy(payload, 0, response, header.length, payload.length);
+
+        GeminiLineReader reader = new GeminiLineReader(new ByteArrayInputStream(response), 64);
+        assertEquals("20 application/octet-stream", reader.readHeaderLine());
+
+        byte[] body = new byte[payload.length];
+        int total = 0;
+        int read;
+        while ((read = reader.read(body, total, body.length - total)) > 0) {
+            total += read;
+        }
+        assertEquals(payload.length, total);
+        assertArrayEquals(payload, body);
+        assertEquals(-1, reader.read());
+    }
+}
@@ -1,6 +1,10 @@
 package com.biglucas.agena.protocol.gemini;
 
 import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
 import static org.junit.Assert.*;
 
 /**
@@ -78,6 +82,39 @@ public class GeminiProtocolTest {
         assertTrue("Meta should contain charset", meta.contains("charset"));
     }
 
+    @Test
+    public void testHeaderHelpers() {
+        assertEquals(20, GeminiSpec.statusOf("20 text/gemini; charset=utf-8"));
+        assertEquals("text/gemini; charset=utf-8", GeminiSpec.metaOf("20 text/gemini; charset=utf-8"));
+        assertEquals(51, GeminiSpec.statusOf("51"));
+        assertEquals("", GeminiSpec.metaOf("51"));
+        assertEquals("", GeminiSpec.metaOf("31 "));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testHeaderHelpersRejectNonNumericStatus() {
+        GeminiSpec.statusOf("OK text/gemini");
+    }
+
+    @Test
+    public void testCharsetFromMeta() {
+        assertEquals(StandardCharsets.UTF_8, GeminiSpec.charsetOf("text/gemini"));
+        assertEquals(StandardCharsets.UTF_8, GeminiSpec.charsetOf("text/gemini; charset=utf-8"));
+        assertEquals(StandardCharsets.ISO_8859_1, GeminiSpec.charsetOf("text/gemini; charset=ISO-8859-1"));
+        assertEquals(StandardCharsets.ISO_8859_1, GeminiSpec.charsetOf("text/gemini;lang=pt;Charset=\"latin1\""));
+        assertEquals(Charset.forName("windows-1252"), GeminiSpec.charsetOf("text/gemini; lang=en ; charset = windows-1252 "));
+    }
+
+    @Test
+    public void testCharsetFallsBackToUtf8() {
+        assertEquals(StandardCharsets.UTF_8, GeminiSpec.charsetOf(null));
+        assertEquals(StandardCharsets.UTF_8, GeminiSpec.charsetOf("text/gemini; charset="));
+        assertEquals(StandardCharsets.UTF_8, GeminiSpec.charsetOf("text/gemini; charset=no-such-charset"));
+        assertEquals(StandardCharsets.UTF_8, GeminiSpec.charsetOf("text/gemini; charset=bad name!"));
+        // Not an ASCII superset, so lines could not be split on LF
+        assertEquals(StandardCharsets.UTF_8, GeminiSpec.charsetOf("text/gemini; charset=utf-16"));
+    }
+
     @Test
     public void testStatusCodeRangeInput() {
         // Status codes 10-19: INPUT
@@ -0,0 +1,207 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class GeminiUriHelperTest {
+
+    @Test
+    public void testResolveRelative() {
+        String base = "gemini://example.com/foo";
+        String target = "bar";
+        // /foo doesn't end in / or .gmi, so / is appended -> /foo/bar
+        assertEquals("gemini://example.com/foo/bar", GeminiUriHelper.resolve(base, target));
+    }
+
+    @Test
+    public void testResolveRelativeWithSlash() {
+        String base = "gemini://example.com/foo/";
+        String target = "bar";
+        assertEquals("gemini://example.com/foo/bar", GeminiUriHelper.resolve(base, target));
+    }
+
+    @Test
+    public void testResolveAbsolute() {
+        String base = "gemini://example.com/foo";
+        String target = "gemini://other.com/baz";
+        assertEquals("gemini://other.com/baz", GeminiUriHelper.resolve(base, target));
+    }
+
+    @Test
+    public void testSanitizeMalformed() {
+        String base = "gemini://example.com/";
+        String badTarget = "foo bar"; // space -> URI.create fails
+        // the space is percent-encoded -> foo%20bar
+        assertEquals("gemini://example.com/foo%20bar", GeminiUriHelper.resolve(base, badTarget));
+    }
+
+    @Test
+    public void testBracketsAreEncodedOutsideIpLiterals() throws Exception {
+        String resolved = GeminiUriHelper.resolve("gemini://example.org/dir/", "foo[1].gmi?q=[a b]");
+        assertEquals("gemini://example.org/dir/foo%5B1%5D.gmi?q=%5Ba%20b%5D", resolved);
+        // Parses, so it normalizes to itself.
+        new java.net.URI(resolved);
+        assertEquals(resolved, GeminiUriHelper.normalize(resolved));
+
+        GeminiUriHelper.Resolver resolver = new GeminiUriHelper.Resolver("gemini://[2001:db8::1]:1966/logs/");
+        assertEquals("gemini://[2001:db8::1]:1966/logs/a.gmi", resolver.resolve("a.gmi"));
+        assertEquals("gemini://[::1]/x%5B2%5D", resolver.resolve("gemini://[::1]/x[2]"));
+        // Brackets around something that is not an IP literal are not a valid host.
+        assertEquals("gemini://hostname/", resolver.resolve("gemini://[hostname]/"));
+    }
+
+    @Test
+    public void testGmiExtension() {
+        String base = "gemini://example.com/file.gmi";
+        String target = "other.gmi";
+        // .gmi doesn't append slash -> relative to parent directory (replaces file)
+        assertEquals("gemini://example.com/other.gmi", GeminiUriHelper.resolve(base, target));
+    }
+
+    @Test
+    public void testSpecialCharsRemoval() {
+        // Test removing special chars
+        String base = "gemini://example.com/";
+        String reallyBadTarget = "foo<bar>";
+        // < > not allowed. URI.create throws IAE.
+        // Regex removes < >. -> foobar.
+        assertEquals("gemini://example.com/foobar", GeminiUriHelper.resolve(base, reallyBadTarget));
+    }
+
+    @Test
+    public void testResolveRelativePreservesQueryDirectorySemantics() {
+        // After a Gemini input (10) response the page URI often carries a query string.
+        // Directory slash must apply to the path only, not the full string (which would corrupt the query).
+        String base = "gemini://example.com/cgi?user-input";
+        String target = "bar";
+        assertEquals("gemini://example.com/cgi/bar", GeminiUriHelper.resolve(base, target));
+    }
+
+    @Test
+    public void testResolveRelativeWithQueryAndExistingSlash() {
+        String base = "gemini://example.com/cgi/?user-input";
+        String target = "bar";
+        assertEquals("gemini://example.com/cgi/bar", GeminiUriHelper.resolve(base, target));
+    }
+
+    @Test
+    public void testResolveAbsoluteIgnoresBaseQuery() {
+        String base = "gemini://example.com/cgi?user-input";
+        String target = "gemini://other.com/baz";
+        assertEquals("gemini://other.com/baz", GeminiUriHelper.resolve(base, target));
+    }
+
+    @Test
+    public void testHostOnlyBaseGetsRootSlash() {
+        String base = "gemini://example.com";
+        String target = "index.gmi";
+        assertEquals("gemini://example.com/index.gmi", GeminiUriHelper.resolve(base, target));
+    }
+
+    @Test
+    public void testRfc3986NormalExamples() {
+        // RFC 3986 section 5.4.1, with a .gmi base so no directory slash is added.
+        GeminiUriHelper.Resolver resolver = new GeminiUriHelper.Resolver("gemini://a/b/c/d.gmi?q");
+        String[][] cases = {
+                {"g:h", "g:h"},
+                {"g", "gemini://a/b/c/g"},
+                {"./g", "gemini://a/b/c/g"},
+                {"g/", "gemini://a/b/c/g/"},
+                {"/g", "gemini://a/g"},
+                {"//g", "gemini://g"},
+                {"?y", "gemini://a/b/c/d.gmi?y"},
+                {"g?y", "gemini://a/b/c/g?y"},
+                {"#s", "gemini://a/b/c/d.gmi?q#s"},
+                {"g#s", "gemini://a/b/c/g#s"},
+                {"g?y#s", "gemini://a/b/c/g?y#s"},
+                {";x", "gemini://a/b/c/;x"},
+                {"g;x?y#s", "gemini://a/b/c/g;x?y#s"},
+                {"", "gemini://a/b/c/d.gmi?q"},
+                {".", "gemini://a/b/c/"},
+                {"./", "gemini://a/b/c/"},
+                {"..", "gemini://a/b/"},
+                {"../", "gemini://a/b/"},
+                {"../g", "gemini://a/b/g"},
+                {"../..", "gemini://a/"},
+                {"../../", "gemini://a/"},
+                {"../../g", "gemini://a/g"},
+        };
+        for (String[] c : cases) {
+            assertEquals(c[0], c[1], resolver.resolve(c[0]));
+        }
+    }
+
+    @Test
+    public void testRfc3986AbnormalExamples() {
+        // RFC 3986 section 5.4.2
+        GeminiUriHelper.Resolver resolver = new GeminiUriHelper.Resolver("gemini://a/b/c/d.gmi?q");
+        String[][] cases = {
+                {"../../../g", "gemini://a/g"},
+                {"../../../../g", "gemini://a/g"},
+                {"/./g", "gemini://a/g"},
+                {"/../g", "gemini://a/g"},
+                {"g.", "gemini://a/b/c/g."},
+                {".g", "gemini://a/b/c/.g"},
+                {"g..", "gemini://a/b/c/g.."},
+                {"..g", "gemini://a/b/c/..g"},
+                {"./../g", "gemini://a/b/g"},
+                {"./g/.", "gemini://a/b/c/g/"},
+                {"g/./h", "gemini://a/b/c/g/h"},
+                {"g/../h", "gemini://a/b/c/h"},
+                {"g;x=1/./y", "gemini://a/b/c/g;x=1/y"},
+                {"g;x=1/../y", "gemini://a/b/c/y"},
+                {"g?y/./x", "gemini://a/b/c/g?y/./x"},
+                {"g#s/../x", "gemini://a/b/c/g#s/../x"},
+        };
+        for (String[] c : cases) {
+            assertEquals(c[0], c[1], resolver.resolve(c[0]));
+        }
+    }
+
+    @Test
+    public void testResolverKeepsPortAndUnicode() {
+        GeminiUriHelper.Resolver resolver = new GeminiUriHelper.Resolver("gemini://example.com:1966/gemlog");
+        assertEquals("gemini://example.com:1966/gemlog/café.gmi", resolver.resolve("café.gmi"));
+        assertEquals("gemini://example.com:1966/a%20b", resolver.resolve("/a%20b"));
+        assertEquals("mailto:someone@example.com", resolver.resolve("mailto:someone@example.com"));
+        // A broken escape is sanitized like other invalid characters.
+        assertEquals("gemini://example.com:1966/gemlog/50off", resolver.resolve("50%off"));
+    }
+
+    @Test
+    public void testInvalidBaseReturnsTarget() {
+        assertEquals("bar", GeminiUriHelper.resolve("not a uri", "bar"));
+        assertEquals("bar", GeminiUriHelper.resolve("/relative/base", "bar"));
+    }
+
+    @Test
+    public void testMatchesJavaNetUriForPageLinks() {
+        // What the resolver replaced, on the links pages usually have.
+        String[] bases = {"gemini://example.com/", "gemini://example.com/gemlog/index.gmi",
+                "gemini://example.com/dir", "gemini://example.com/cgi/?query"};
+        String[] links = {"other.gmi", "/root.gmi", "sub/page.gmi", "sub/../up.gmi", "gemini://other.org/x",
+                "https://www.youtube.com/watch?v=dQw4w9WgXcQ", "img.jpg", "search?q=a+b", "page.gmi#top",
+                "//mirror.example.org/", "mailto:a@example.com"};
+        for (String base : bases) {
+            java.net.URI legacyBase = java.net.URI.create(base.endsWith("/dir") ? base + "/" : base);
+            GeminiUriHelper.Resolver resolver = new GeminiUriHelper.Resolver(base);
+            for (String link : links) {
+                assertEquals(base + " + " + link, legacyBase.resolve(link).toString(), resolver.resolve(link));
+            }
+        }
+    }
+
+    @Test
+    public void testNormalizeEquivalentSpellings() {
+        String expected = "gemini://example.com/a/b.gmi";
+        assertEquals(expected, GeminiUriHelper.normalize("GEMINI://Example.COM:1965/a/./x/../b.gmi#section"));
+        assertEquals(expected, GeminiUriHelper.normalize("  gemini://example.com/a/b.gmi  "));
+    }
+
+    @Test
+    public void testNormalizeKeepsQueryAndCustomPort() {
+        assertEquals("gemini://example.com/", GeminiUriHelper.normalize("gemini://example.com"));
+        assertEquals("gemini://example.com:1966/cgi?q=A%20b",
+                GeminiUriHelper.normalize("gemini://example.com:1966/cgi?q=A%20b"));
+    }
+}
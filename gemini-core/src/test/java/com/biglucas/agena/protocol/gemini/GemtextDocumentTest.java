@@ -0,0 +1,111 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GemtextDocumentTest {
+
+    /** Checks that {@code document} holds what the node parser makes of the same lines. */
+    static void assertSameContent(List<GemtextParser.Element> expected, GemtextDocument document) {
+        assertEquals(expected.size(), document.size());
+        GemtextDocument.Cursor cursor = document.cursor();
+        for (GemtextParser.Element element : expected) {
+            assertTrue(cursor.next());
+            if (element instanceof GemtextParser.Preformatted) {
+                assertEquals(GemtextDocument.PREFORMATTED, cursor.type());
+                assertEquals(((GemtextParser.Preformatted) element).text, cursor.text());
+                assertEquals(((GemtextParser.Preformatted) element).alt, cursor.alt());
+            } else if (element instanceof GemtextParser.Link) {
+                assertEquals(GemtextDocument.LINK, cursor.type());
+                assertEquals(((GemtextParser.Link) element).url, cursor.url());
+                assertEquals(((GemtextParser.Link) element).label, cursor.text());
+            } else if (element instanceof GemtextParser.Heading) {
+                assertEquals(GemtextDocument.HEADING, cursor.type());
+                assertEquals(((GemtextParser.Heading) element).level, cursor.level());
+                assertEquals(((GemtextParser.Heading) element).text, cursor.text());
+            } else if (element instanceof GemtextParser.ListItem) {
+                assertEquals(GemtextDocument.LIST_ITEM, cursor.type());
+                assertEquals(((GemtextParser.ListItem) element).text, cursor.text());
+            } else if (element instanceof GemtextParser.Quote) {
+                assertEquals(GemtextDocument.QUOTE, cursor.type());
+                assertEquals(((GemtextParser.Quote) element).text, cursor.text());
+            } else {
+                assertEquals(GemtextDocument.TEXT, cursor.type());
+                assertEquals(((GemtextParser.Line) element).raw.trim(), cursor.text());
+            }
+        }
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void demoPagesMatchTheNodeParser() throws IOException {
+        for (String name : Arrays.asList("index.gmi", "text.gmi")) {
+            List<String> lines = GemtextParserTest.demoPage(name);
+            assertSameContent(GemtextParser.parse(lines), GemtextDocument.parse(lines));
+        }
+    }
+
+    @Test
+    public void fieldsAreSplitOnce() {
+        List<String> lines = Arrays.asList("=> gemini://é.example/ Ünïcode label ", "=>", "#### Deep",
+                "```  ascii  ", "", "a", "```", "* item", ">quote", "  plain  ", "```", "unclosed");
+        GemtextDocument document = GemtextDocument.parse(lines);
+        assertSameContent(GemtextParser.parse(lines), document);
+
+        GemtextDocument.Cursor cursor = document.cursor();
+        cursor.moveTo(0);
+        assertEquals("gemini://é.example/", cursor.url());
+        assertNull(cursor.alt());
+        cursor.moveTo(1);
+        assertEquals("", cursor.url());
+        assertTrue(cursor.isTextEmpty());
+        cursor.moveTo(3);
+        assertEquals("ascii", cursor.alt());
+        assertNull(cursor.url());
+    }
+
+    @Test
+    public void streamedLinesBecomeVisibleAsTheyComplete() {
+        GemtextDocument document = new GemtextDocument();
+        GemtextDocument.Cursor cursor = document.cursor();
+        document.append("# Title");
+        document.append("```");
+        document.append("code");
+        assertEquals("open block is held back", 1, document.size());
+        assertTrue(cursor.next());
+        assertFalse(cursor.next());
+
+        document.append("```");
+        document.append("=> /next");
+        assertTrue(cursor.next());
+        assertEquals("code", cursor.text());
+        assertTrue(cursor.next());
+        assertEquals("/next", cursor.url());
+
+        document.append("```");
+        document.append("tail");
+        document.finish();
+        assertTrue(cursor.next());
+        assertEquals("tail", cursor.text());
+        assertEquals(4, document.size());
+    }
+
+    @Test
+    public void growsPastItsInitialCapacity() {
+        GemtextDocument document = new GemtextDocument();
+        for (int i = 0; i < 10_000; i++) {
+            document.append("=> /page/" + i + " Page " + i);
+        }
+        document.finish();
+        assertEquals(10_000, document.size());
+        GemtextDocument.Cursor cursor = document.cursor();
+        cursor.moveTo(9_999);
+        assertEquals("/page/9999", cursor.url());
+        assertEquals("Page 9999", cursor.text());
+    }
+}
@@ -0,0 +1,83 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class GemtextOutlineTest {
+
+    /** Checks the outline against a walk over every element. */
+    private static void assertOutlineMatchesElements(GemtextDocument document) {
+        List<Integer> headings = new ArrayList<>();
+        List<Integer> links = new ArrayList<>();
+        GemtextDocument.Cursor cursor = document.cursor();
+        while (cursor.next()) {
+            if (cursor.type() == GemtextDocument.HEADING) {
+                headings.add(cursor.index());
+            } else if (cursor.type() == GemtextDocument.LINK && !cursor.url().isEmpty()) {
+                links.add(cursor.index());
+            }
+        }
+        GemtextOutline outline = document.getOutline();
+        assertEquals(headings.size(), outline.getHeadingCount());
+        for (int n = 0; n < headings.size(); n++) {
+            assertEquals(headings.get(n).intValue(), outline.getHeadingElement(n));
+            cursor.moveTo(outline.getHeadingElement(n));
+            assertEquals(cursor.level(), outline.getHeadingLevel(n));
+        }
+        assertEquals(links.size(), outline.getLinkCount());
+        int counted = 0;
+        for (int n = 0; n < links.size(); n++) {
+            assertEquals(links.get(n).intValue(), outline.getLinkElement(n));
+        }
+        for (int perHost : outline.getLinksPerHost().values()) {
+            counted += perHost;
+        }
+        assertEquals(links.size(), counted);
+    }
+
+    @Test
+    public void demoPagesAreIndexed() throws IOException {
+        for (String name : Arrays.asList("index.gmi", "text.gmi")) {
+            GemtextDocument document = GemtextDocument.parse(GemtextParserTest.demoPage(name));
+            assertOutlineMatchesElements(document);
+        }
+        assertEquals(7, GemtextDocument.parse(GemtextParserTest.demoPage("index.gmi")).getOutline().getHeadingCount());
+    }
+
+    @Test
+    public void headingsLinksAndHostsAreRecorded() {
+        GemtextDocument document = GemtextDocument.parse(Arrays.asList(
+                "# Archive", "=> /2024/ 2024", "=>", "```", "## not a heading", "```",
+                "## 2023", "=> gemini://Example.org:1965/a", "=> gemini://example.org/b",
+                "=> //other.example/c", "=> mailto:me@example.org", "=> https://user@[::1]:8080/x"));
+        assertOutlineMatchesElements(document);
+
+        GemtextOutline outline = document.getOutline();
+        assertEquals(2, outline.getHeadingCount());
+        assertEquals(0, outline.getHeadingElement(0));
+        assertEquals(4, outline.getHeadingElement(1));
+        assertEquals(2, outline.getHeadingLevel(1));
+        assertEquals(1, outline.getLinkElement(0));
+        assertEquals(0, outline.linkIndexOf(1));
+        assertEquals("a link without a URL", -1, outline.linkIndexOf(2));
+        assertEquals(-1, outline.linkIndexOf(4));
+        assertEquals(1, outline.linkIndexOf(5));
+
+        Map<String, Integer> hosts = new HashMap<>();
+        hosts.put("", 1);
+        hosts.put("example.org", 2);
+        hosts.put("other.example", 1);
+        hosts.put("mailto:", 1);
+        hosts.put("[::1]", 1);
+        assertEquals(hosts, outline.getLinksPerHost());
+    }
+
+}
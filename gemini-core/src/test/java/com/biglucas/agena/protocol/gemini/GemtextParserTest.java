@@ -0,0 +1,210 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GemtextParserTest {
+
+    /** The demo capsule shipped with the repository; tests run from a module directory. */
+    static List<String> demoPage(String name) throws IOException {
+        byte[] data = Files.readAllBytes(new File("../demo", name).toPath());
+        return Arrays.asList(new String(data, StandardCharsets.UTF_8).split("\n", -1));
+    }
+
+    static void assertSameElements(List<GemtextParser.Element> expected, List<GemtextParser.Element> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getClass(), actual.get(i).getClass());
+            if (expected.get(i) instanceof GemtextParser.Line) {
+                assertEquals(((GemtextParser.Line) expected.get(i)).raw, ((GemtextParser.Line) actual.get(i)).raw);
+            } else {
+                assertEquals(((GemtextParser.Preformatted) expected.get(i)).text, ((GemtextParser.Preformatted) actual.get(i)).text);
+                assertEquals(((GemtextParser.Preformatted) expected.get(i)).alt, ((GemtextParser.Preformatted) actual.get(i)).alt);
+            }
+        }
+    }
+
+    @Test
+    public void emptyInputYieldsNoElements() {
+        assertTrue(GemtextParser.parse(null).isEmpty());
+        assertTrue(GemtextParser.parse(Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    public void plainLinesPassThrough() {
+        List<GemtextParser.Element> elements = GemtextParser.parse(Arrays.asList(
+                "# Heading",
+                "Hello",
+                "=> /link Label"
+        ));
+        assertEquals(3, elements.size());
+        assertTrue(elements.get(0) instanceof GemtextParser.Line);
+        assertEquals("# Heading", ((GemtextParser.Line) elements.get(0)).raw);
+        assertEquals("Hello", ((GemtextParser.Line) elements.get(1)).raw);
+        assertEquals("=> /link Label", ((GemtextParser.Line) elements.get(2)).raw);
+    }
+
+    @Test
+    public void closedPreformattedBlockIsCollectedWithoutLeadingNewline() {
+        List<GemtextParser.Element> elements = GemtextParser.parse(Arrays.asList(
+                "before",
+                "```",
+                "line1",
+                "line2",
+                "```",
+                "after"
+        ));
+        assertEquals(3, elements.size());
+        assertEquals("before", ((GemtextParser.Line) elements.get(0)).raw);
+        assertTrue(elements.get(1) instanceof GemtextParser.Preformatted);
+        assertEquals("line1\nline2", ((GemtextParser.Preformatted) elements.get(1)).text);
+        assertEquals("after", ((GemtextParser.Line) elements.get(2)).raw);
+    }
+
+    @Test
+    public void unclosedPreformattedBlockIsStillEmitted() {
+        // Bug: old GeminiPageContentFragment dropped body when the closing fence was missing.
+        List<GemtextParser.Element> elements = GemtextParser.parse(Arrays.asList(
+                "intro",
+                "```",
+                "code a",
+                "code b"
+        ));
+        assertEquals(2, elements.size());
+        assertEquals("intro", ((GemtextParser.Line) elements.get(0)).raw);
+        assertTrue(elements.get(1) instanceof GemtextParser.Preformatted);
+        assertEquals("code a\ncode b", ((GemtextParser.Preformatted) elements.get(1)).text);
+    }
+
+    @Test
+    public void emptyPreformattedBlockIsEmitted() {
+        List<GemtextParser.Element> elements = GemtextParser.parse(Arrays.asList(
+                "```",
+                "```"
+        ));
+        assertEquals(1, elements.size());
+        assertTrue(elements.get(0) instanceof GemtextParser.Preformatted);
+        assertEquals("", ((GemtextParser.Preformatted) elements.get(0)).text);
+    }
+
+    @Test
+    public void fenceToggleIgnoresAltTextOnOpeningLine() {
+        List<GemtextParser.Element> elements = GemtextParser.parse(Arrays.asList(
+                "```python",
+                "print(1)",
+                "```"
+        ));
+        assertEquals(1, elements.size());
+        assertEquals("print(1)", ((GemtextParser.Preformatted) elements.get(0)).text);
+    }
+
+    @Test
+    public void streamParserEmitsLinesImmediatelyAndBlocksOnClose() {
+        GemtextParser.StreamParser parser = new GemtextParser.StreamParser();
+        List<GemtextParser.Element> out = new ArrayList<>();
+
+        parser.feed("intro", out);
+        assertEquals(1, out.size());
+
+        parser.feed("```", out);
+        parser.feed("code", out);
+        assertEquals("open block is held back", 1, out.size());
+
+        parser.feed("```", out);
+        assertEquals(2, out.size());
+        assertEquals("code", ((GemtextParser.Preformatted) out.get(1)).text);
+    }
+
+    @Test
+    public void streamParserMatchesBatchParse() {
+        List<String> lines = Arrays.asList("# Title", "```", "a", "b", "```", "=> /x X", "```", "unclosed");
+        GemtextParser.StreamParser parser = new GemtextParser.StreamParser();
+        List<GemtextParser.Element> streamed = new ArrayList<>();
+        for (String line : lines) {
+            parser.feed(line, streamed);
+        }
+        parser.finish(streamed);
+
+        List<GemtextParser.Element> parsed = GemtextParser.parse(lines);
+        assertEquals(parsed.size(), streamed.size());
+        for (int i = 0; i < parsed.size(); i++) {
+            assertEquals(parsed.get(i).getClass(), streamed.get(i).getClass());
+        }
+        assertEquals("unclosed", ((GemtextParser.Preformatted) streamed.get(streamed.size() - 1)).text);
+    }
+
+    @Test
+    public void linesAreClassifiedIntoTypedNodes() {
+        List<GemtextParser.Element> elements = GemtextParser.parse(Arrays.asList(
+                "=>  /link \tA  spaced   label ",
+                "=> gemini://example.com/",
+                "=>",
+                "## Sub heading",
+                "* item",
+                "> quoted",
+                "*not an item",
+                "```ascii art",
+                "<o>",
+                "```"
+        ));
+        assertEquals(8, elements.size());
+
+        GemtextParser.Link link = (GemtextParser.Link) elements.get(0);
+        assertEquals("/link", link.url);
+        assertEquals("A spaced label", link.label);
+        assertEquals("gemini://example.com/", ((GemtextParser.Link) elements.get(1)).url);
+        assertEquals("", ((GemtextParser.Link) elements.get(1)).label);
+        assertEquals("", ((GemtextParser.Link) elements.get(2)).url);
+
+        GemtextParser.Heading heading = (GemtextParser.Heading) elements.get(3);
+        assertEquals(2, heading.level);
+        assertEquals("Sub heading", heading.text);
+        assertEquals("item", ((GemtextParser.ListItem) elements.get(4)).text);
+        assertEquals("quoted", ((GemtextParser.Quote) elements.get(5)).text);
+        assertSame(GemtextParser.Text.class, elements.get(6).getClass());
+        assertEquals("*not an item", ((GemtextParser.Line) elements.get(6)).raw);
+
+        GemtextParser.Preformatted block = (GemtextParser.Preformatted) elements.get(7);
+        assertEquals("ascii art", block.alt);
+        assertEquals("<o>", block.text);
+        assertEquals("", ((GemtextParser.Preformatted) GemtextParser.parse(Arrays.asList("```", "x")).get(0)).alt);
+    }
+
+    @Test
+    public void linkLabelWhitespaceIsCollapsed() {
+        String line = "=> /a \t Tab\tand  double  spaces\f here ";
+        assertEquals("Tab and double spaces here", ((GemtextParser.Link) GemtextParser.classify(line)).label);
+        assertEquals("Plain label", ((GemtextParser.Link) GemtextParser.classify("=> /a Plain label")).label);
+
+        GemtextDocument document = GemtextDocument.parse(Arrays.asList(line, "Text  keeps\tits spacing"));
+        GemtextDocument.Cursor cursor = document.cursor();
+        cursor.moveTo(0);
+        assertEquals("Tab and double spaces here", cursor.text());
+        cursor.moveTo(1);
+        assertEquals("Text  keeps\tits spacing", cursor.text());
+    }
+
+    @Test
+    public void asteriskWithoutSpaceIsText() {
+        // The spec requires "* " for list items; older renderers bulleted any line starting with '*'.
+        assertSame(GemtextParser.Text.class, GemtextParser.classify("*emphasis*").getClass());
+        assertSame(GemtextParser.Text.class, GemtextParser.classify("**bold**").getClass());
+        assertEquals("item", ((GemtextParser.ListItem) GemtextParser.classify("* item")).text);
+
+        GemtextDocument.Cursor cursor = GemtextDocument.parse(Arrays.asList("*emphasis*")).cursor();
+        cursor.moveTo(0);
+        assertEquals(GemtextDocument.TEXT, cursor.type());
+    }
+}
@@ -0,0 +1,113 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GemtextPushParserTest {
+
+    private static byte[] demoBytes(String name) throws IOException {
+        return java.nio.file.Files.readAllBytes(new File("../demo", name).toPath());
+    }
+
+    /** What the network path produces: lines from {@link GeminiLineReader} fed to a {@link GemtextParser.StreamParser}. */
+    private static List<GemtextParser.Element> lineByLine(byte[] data) throws IOException {
+        GeminiLineReader reader = new GeminiLineReader(new ByteArrayInputStream(data));
+        GemtextParser.StreamParser parser = new GemtextParser.StreamParser();
+        List<GemtextParser.Element> out = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            parser.feed(line, out);
+        }
+        parser.finish(out);
+        return out;
+    }
+
+    private static List<GemtextParser.Element> pushed(byte[] data, int... splits) {
+        GemtextParser.PushParser parser = new GemtextParser.PushParser();
+        List<GemtextParser.Element> out = new ArrayList<>();
+        int start = 0;
+        for (int split : splits) {
+            parser.feed(ByteBuffer.wrap(data, start, split - start), out);
+            start = split;
+        }
+        parser.feed(ByteBuffer.wrap(data, start, data.length - start), out);
+        parser.finish(out);
+        return out;
+    }
+
+    @Test
+    public void demoPagesSplitAtEveryOffsetParseTheSame() throws IOException {
+        for (String name : Arrays.asList("index.gmi", "text.gmi")) {
+            byte[] data = demoBytes(name);
+            List<GemtextParser.Element> expected = lineByLine(data);
+            assertFalse(expected.isEmpty());
+            for (int split = 0; split <= data.length; split++) {
+                GemtextParserTest.assertSameElements(expected, pushed(data, split));
+            }
+        }
+    }
+
+    @Test
+    public void singleByteChunksParseTheSame() throws IOException {
+        byte[] data = demoBytes("index.gmi");
+        int[] splits = new int[data.length];
+        for (int i = 0; i < splits.length; i++) {
+            splits[i] = i;
+        }
+        GemtextParserTest.assertSameElements(lineByLine(data), pushed(data, splits));
+    }
+
+    @Test
+    public void multiByteCharactersAndLineEndingsSurviveAnySplit() throws IOException {
+        byte[] data = "# Café €\r\n```ç\r\n😀\n```\n=> /a 😀\r\nlast é"
+                .getBytes(StandardCharsets.UTF_8);
+        List<GemtextParser.Element> expected = lineByLine(data);
+        assertEquals("Café €", ((GemtextParser.Heading) expected.get(0)).text);
+        for (int first = 0; first <= data.length; first++) {
+            for (int second = first; second <= data.length; second++) {
+                GemtextParserTest.assertSameElements(expected, pushed(data, first, second));
+            }
+        }
+    }
+
+    @Test
+    public void elementsAreEmittedAsSoonAsTheirLineCompletes() {
+        GemtextParser.PushParser parser = new GemtextParser.PushParser();
+        List<GemtextParser.Element> out = new ArrayList<>();
+
+        parser.feed(ByteBuffer.wrap("# Tit".getBytes(StandardCharsets.UTF_8)), out);
+        assertTrue(out.isEmpty());
+        parser.feed(ByteBuffer.wrap("le\n=> /x".getBytes(StandardCharsets.UTF_8)), out);
+        assertEquals(1, out.size());
+        assertEquals(1, parser.getLineCount());
+
+        parser.feed(ByteBuffer.wrap("\n```\ncode\n".getBytes(StandardCharsets.UTF_8)), out);
+        assertEquals("open fence is carried over", 2, out.size());
+        parser.feed(ByteBuffer.wrap("```\n".getBytes(StandardCharsets.UTF_8)), out);
+        assertEquals("code", ((GemtextParser.Preformatted) out.get(2)).text);
+
+        parser.feed(ByteBuffer.wrap("tail".getBytes(StandardCharsets.UTF_8)), out);
+        assertEquals(3, out.size());
+        parser.finish(out);
+        assertEquals("tail", ((GemtextParser.Line) out.get(3)).raw);
+    }
+
+    @Test
+    public void malformedBytesAreReplaced() {
+        byte[] data = {'a', (byte) 0xE2, '\n', (byte) 0xF0, (byte) 0x9F};
+        List<GemtextParser.Element> out = pushed(data, 2);
+        assertEquals(2, out.size());
+        assertEquals("a�", ((GemtextParser.Line) out.get(0)).raw);
+        assertEquals("�", ((GemtextParser.Line) out.get(1)).raw);
+    }
+}
@@ -0,0 +1,147 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Races addresses against a local server; IPv6 "routes" are simulated by a stand-in dialer.
+ */
+public class HappyEyeballsConnectorTest {
+    private static final long ATTEMPT_DELAY_MS = 50;
+
+    private ServerSocket server;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        executor.shutdownNow();
+    }
+
+    private static InetAddress v6(int last) throws IOException {
+        byte[] bytes = new byte[16];
+        bytes[0] = 0x20;
+        bytes[1] = 0x01;
+        bytes[15] = (byte) last;
+        return InetAddress.getByAddress(bytes);
+    }
+
+    private static InetAddress v4(int last) throws IOException {
+        return InetAddress.getByAddress(new byte[]{(byte) 192, 0, 2, (byte) last});
+    }
+
+    /**
+     * IPv6 addresses hang until the attempt is cancelled (a black-holed route); IPv4 addresses
+     * are redirected to the local server.
+     */
+    private HappyEyeballsConnector.Dialer blackholedV6Dialer(CountDownLatch v6Attempts) {
+        return (address, timeoutMs) -> {
+            if (address.getAddress() instanceof Inet6Address) {
+                v6Attempts.countDown();
+                try {
+                    Thread.sleep(timeoutMs);
+                } catch (InterruptedException e) {
+                    throw new IOException("cancelled");
+                }
+                throw new SocketTimeoutException("black hole");
+            }
+            return HappyEyeballsConnector.PLAIN_DIALER.connect(
+                    new InetSocketAddress(server.getInetAddress(), server.getLocalPort()), timeoutMs);
+        };
+    }
+
+    @Test
+    public void interleavesFamiliesStartingWithIpv6() throws IOException {
+        List<InetAddress> ordered = HappyEyeballsConnector.interleave(
+                new InetAddress[]{v4(1), v4(2), v6(1), v6(2), v6(3)});
+        assertEquals(v6(1), ordered.get(0));
+        assertEquals(v4(1), ordered.get(1));
+        assertEquals(v6(2), ordered.get(2));
+        assertEquals(v4(2), ordered.get(3));
+        assertEquals(v6(3), ordered.get(4));
+    }
+
+    @Test
+    public void brokenIpv6CostsOnlyTheAttemptDelay() throws IOException {
+        CountDownLatch v6Attempts = new CountDownLatch(1);
+        HappyEyeballsConnector connector = new HappyEyeballsConnector(
+                blackholedV6Dialer(v6Attempts), executor, ATTEMPT_DELAY_MS);
+
+        long start = System.nanoTime();
+        try (Socket socket = connector.connect(new InetAddress[]{v6(1), v4(1)}, 1965, 5000)) {
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue(socket.isConnected());
+            assertEquals(0, v6Attempts.getCount());
+            assertTrue("took " + elapsedMs + " ms", elapsedMs < 2000);
+        }
+    }
+
+    @Test
+    public void refusedAttemptStartsNextAddressImmediately() throws IOException {
+        HappyEyeballsConnector.Dialer dialer = (address, timeoutMs) -> {
+            if (address.getAddress() instanceof Inet6Address) {
+                throw new ConnectException("refused");
+            }
+            return HappyEyeballsConnector.PLAIN_DIALER.connect(
+                    new InetSocketAddress(server.getInetAddress(), server.getLocalPort()), timeoutMs);
+        };
+        // A huge attempt delay proves the fallback was triggered by the failure, not the timer.
+        HappyEyeballsConnector connector = new HappyEyeballsConnector(dialer, executor, 60_000);
+
+        try (Socket socket = connector.connect(new InetAddress[]{v6(1), v4(1)}, 1965, 5000)) {
+            assertTrue(socket.isConnected());
+        }
+    }
+
+    @Test
+    public void allAttemptsFailingReportsLastFailure() throws IOException {
+        HappyEyeballsConnector connector = new HappyEyeballsConnector(
+                (address, timeoutMs) -> {
+                    throw new ConnectException("refused " + address);
+                }, executor, ATTEMPT_DELAY_MS);
+        try {
+            connector.connect(new InetAddress[]{v6(1), v4(1)}, 1965, 5000);
+            fail("expected failure");
+        } catch (ConnectException e) {
+            assertTrue(e.getMessage().startsWith("refused"));
+        }
+    }
+
+    @Test(expected = SocketTimeoutException.class)
+    public void overallTimeoutIsEnforced() throws IOException {
+        HappyEyeballsConnector connector = new HappyEyeballsConnector(
+                blackholedV6Dialer(new CountDownLatch(2)), executor, ATTEMPT_DELAY_MS);
+        connector.connect(new InetAddress[]{v6(1), v6(2)}, 1965, 200);
+    }
+
+    @Test
+    public void singleAddressConnectsDirectly() throws IOException {
+        HappyEyeballsConnector connector = new HappyEyeballsConnector();
+        try (Socket socket = connector.connect(new InetAddress[]{server.getInetAddress()}, server.getLocalPort(), 5000)) {
+            assertTrue(socket.isConnected());
+        }
+    }
+}
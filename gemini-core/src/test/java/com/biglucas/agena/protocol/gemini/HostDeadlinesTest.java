@@ -0,0 +1,164 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HostDeadlinesTest {
+
+    /** In-memory stand-in for the preferences-backed store. */
+    private static class MapStore implements KeyValueStore {
+        final Map<String, String> values = new LinkedHashMap<>();
+
+        @Override
+        public Map<String, String> load() {
+            return new HashMap<>(values);
+        }
+
+        @Override
+        public void save(String host, String encoded) {
+            values.put(host, encoded);
+        }
+
+        @Override
+        public void remove(String host) {
+            values.remove(host);
+        }
+    }
+
+    @Test
+    public void unknownHostsGetDefaults() {
+        HostDeadlines.Deadlines deadlines = new HostDeadlines().deadlinesFor("example.com");
+        assertEquals(HostDeadlines.DEFAULT_CONNECT_MS, deadlines.connectMs);
+        assertEquals(HostDeadlines.DEFAULT_READ_MS, deadlines.readMs);
+        assertEquals(HostDeadlines.DEFAULT_TOTAL_MS, deadlines.totalMs);
+    }
+
+    @Test
+    public void fastHostsGetShortDeadlines() {
+        HostDeadlines hostDeadlines = new HostDeadlines();
+        for (int i = 0; i < 10; i++) {
+            hostDeadlines.recordConnect("fast.example", 20);
+            hostDeadlines.recordFirstByte("fast.example", 50);
+        }
+        HostDeadlines.Deadlines deadlines = hostDeadlines.deadlinesFor("fast.example");
+        assertEquals(HostDeadlines.MIN_CONNECT_MS, deadlines.connectMs);
+        assertEquals(HostDeadlines.MIN_READ_MS, deadlines.readMs);
+        // A hung fast host must not be waited on for as long as an unknown one.
+        assertTrue(deadlines.readMs < HostDeadlines.DEFAULT_READ_MS);
+        assertTrue(deadlines.readMs <= 1_000);
+        assertEquals(HostDeadlines.MIN_TOTAL_MS, deadlines.totalMs);
+    }
+
+    @Test
+    public void slowHostsGetMoreTimeThanTheDefault() {
+        HostDeadlines hostDeadlines = new HostDeadlines();
+        for (int i = 0; i < 10; i++) {
+            hostDeadlines.recordConnect("slow.example", 1500);
+            hostDeadlines.recordFirstByte("slow.example", 8000);
+            hostDeadlines.recordTransfer("slow.example", 200_000, 20_000);
+        }
+        HostDeadlines.Deadlines deadlines = hostDeadlines.deadlinesFor("slow.example");
+        assertTrue(deadlines.connectMs > HostDeadlines.DEFAULT_CONNECT_MS);
+        assertTrue(deadlines.readMs > HostDeadlines.DEFAULT_READ_MS);
+        // Four times the expected 20 s transfer on top of connect and read.
+        assertTrue(deadlines.totalMs >= 80_000);
+        assertTrue(deadlines.totalMs <= HostDeadlines.MAX_TOTAL_MS);
+    }
+
+    @Test
+    public void timedOutHeaderSampleGrowsTheReadDeadline() {
+        HostDeadlines hostDeadlines = new HostDeadlines();
+        for (int i = 0; i < 10; i++) {
+            hostDeadlines.recordFirstByte("cgi.example", 1000);
+        }
+        int before = hostDeadlines.deadlinesFor("cgi.example").readMs;
+        hostDeadlines.recordFirstByte("cgi.example", before);
+        assertTrue(hostDeadlines.deadlinesFor("cgi.example").readMs > before);
+    }
+
+    @Test
+    public void smallBodiesDoNotSampleThroughput() {
+        HostDeadlines.Estimate estimate = new HostDeadlines.Estimate();
+        estimate.addTransfer(100, 1);
+        assertTrue(estimate.bytesPerMs < 0);
+        estimate.addTransfer(HostDeadlines.MIN_THROUGHPUT_SAMPLE_BYTES, 10);
+        assertTrue(estimate.bytesPerMs > 0);
+    }
+
+    @Test
+    public void overridesWinOverLearnedValues() {
+        HostDeadlines hostDeadlines = new HostDeadlines();
+        hostDeadlines.recordConnect("example.com", 20);
+        hostDeadlines.setOverrides(7000, 0, 90_000);
+        HostDeadlines.Deadlines deadlines = hostDeadlines.deadlinesFor("example.com");
+        assertEquals(7000, deadlines.connectMs);
+        assertEquals(HostDeadlines.DEFAULT_READ_MS, deadlines.readMs);
+        assertEquals(90_000, deadlines.totalMs);
+    }
+
+    @Test
+    public void estimatesSurviveARestart() {
+        MapStore store = new MapStore();
+        HostDeadlines first = new HostDeadlines(store, 16);
+        for (int i = 0; i < 5; i++) {
+            first.recordConnect("Example.com", 3000);
+            first.recordFirstByte("example.com", 9000);
+        }
+        HostDeadlines.Deadlines learned = first.deadlinesFor("example.com");
+
+        HostDeadlines second = new HostDeadlines(store, 16);
+        HostDeadlines.Deadlines restored = second.deadlinesFor("EXAMPLE.COM");
+        assertEquals(learned.connectMs, restored.connectMs);
+        assertEquals(learned.readMs, restored.readMs);
+    }
+
+    @Test
+    public void corruptStoredEntriesAreDropped() {
+        MapStore store = new MapStore();
+        store.values.put("broken.example", "not,a,number");
+        HostDeadlines hostDeadlines = new HostDeadlines(store, 16);
+        assertEquals(HostDeadlines.DEFAULT_CONNECT_MS, hostDeadlines.deadlinesFor("broken.example").connectMs);
+        assertFalse(store.values.containsKey("broken.example"));
+    }
+
+    @Test
+    public void storeIsBoundedToMaxHosts() {
+        MapStore store = new MapStore();
+        HostDeadlines hostDeadlines = new HostDeadlines(store, 2);
+        hostDeadlines.recordConnect("a", 10);
+        hostDeadlines.recordConnect("b", 10);
+        hostDeadlines.recordConnect("c", 10);
+        assertEquals(2, hostDeadlines.size());
+        assertEquals(2, store.values.size());
+        assertFalse(store.values.containsKey("a"));
+    }
+
+    @Test
+    public void responseDeadlineClosesTargetWhenItPasses() throws Exception {
+        CountDownLatch closed = new CountDownLatch(1);
+        Closeable target = closed::countDown;
+        ResponseDeadline deadline = new ResponseDeadline();
+        deadline.arm(target, 20);
+        assertTrue(closed.await(2, TimeUnit.SECONDS));
+        assertTrue(deadline.hasExpired());
+        assertEquals(20, deadline.getDeadlineMs());
+    }
+
+    @Test
+    public void disarmedResponseDeadlineLeavesTargetOpen() throws Exception {
+        CountDownLatch closed = new CountDownLatch(1);
+        ResponseDeadline deadline = new ResponseDeadline();
+        deadline.arm(closed::countDown, 50);
+        deadline.disarm();
+        assertFalse(closed.await(150, TimeUnit.MILLISECONDS));
+        assertFalse(deadline.hasExpired());
+    }
+}
@@ -0,0 +1,45 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class LinkPrefetcherTest {
+
+    @Test
+    public void onlyDistinctSameHostPagesAreSelectedInDocumentOrder() {
+        assertEquals(Arrays.asList(
+                        "gemini://example.com/log/one.gmi",
+                        "gemini://example.com/about/",
+                        "gemini://example.com/log/two"),
+                LinkPrefetcher.select("gemini://Example.com/log/", Arrays.asList(
+                        "one.gmi",
+                        "gemini://other.org/",
+                        "/about/",
+                        "gemini://example.com:1965/log/one.gmi#again",
+                        "search?term",
+                        "image.png",
+                        "https://example.com/",
+                        "gemini://example.com:1966/",
+                        "two",
+                        "three"), 3));
+    }
+
+    @Test
+    public void thePageItselfIsNotSelected() {
+        assertEquals(Collections.emptyList(), LinkPrefetcher.select("gemini://example.com/",
+                Arrays.asList("/", "gemini://example.com", "#top"), 5));
+    }
+
+    @Test
+    public void gemtextFilesAndDirectoriesLookLikePages() {
+        assertTrue(LinkPrefetcher.looksLikePage("gemini://example.com"));
+        assertTrue(LinkPrefetcher.looksLikePage("gemini://example.com/log/"));
+        assertTrue(LinkPrefetcher.looksLikePage("gemini://example.com/log/2024-01-01.gmi"));
+        assertTrue(LinkPrefetcher.looksLikePage("gemini://example.com/index.GEMINI"));
+        assertFalse(LinkPrefetcher.looksLikePage("gemini://example.com/song.ogg"));
+    }
+}
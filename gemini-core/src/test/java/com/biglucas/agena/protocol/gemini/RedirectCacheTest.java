@@ -0,0 +1,124 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RedirectCacheTest {
+
+    private static class MapStore implements KeyValueStore {
+        final Map<String, String> values = new LinkedHashMap<>();
+
+        @Override
+        public Map<String, String> load() {
+            return new HashMap<>(values);
+        }
+
+        @Override
+        public void save(String key, String value) {
+            values.put(key, value);
+        }
+
+        @Override
+        public void remove(String key) {
+            values.remove(key);
+        }
+    }
+
+    @Test
+    public void permanentRedirectsAreFoundByNormalizedUri() {
+        RedirectCache cache = new RedirectCache();
+        cache.record("gemini://old.example/page", "gemini://new.example/page", true);
+        assertEquals("gemini://new.example/page", cache.lookup("GEMINI://Old.Example:1965/page"));
+        assertEquals(1, cache.getPermanentHitCount());
+        assertNull(cache.lookup("gemini://old.example/other"));
+    }
+
+    @Test
+    public void permanentRedirectsArePersisted() {
+        MapStore store = new MapStore();
+        RedirectCache first = new RedirectCache(store, 16, 16, 60_000);
+        first.record("gemini://old.example/", "gemini://new.example/", true);
+
+        RedirectCache second = new RedirectCache(store, 16, 16, 60_000);
+        assertEquals("gemini://new.example/", second.lookup("gemini://old.example/"));
+    }
+
+    @Test
+    public void temporaryRedirectsStayInMemoryAndExpire() throws InterruptedException {
+        MapStore store = new MapStore();
+        RedirectCache cache = new RedirectCache(store, 16, 16, 30);
+        cache.record("gemini://example.com/today", "gemini://example.com/2026-10-18", false);
+        assertTrue(store.values.isEmpty());
+        assertEquals("gemini://example.com/2026-10-18", cache.lookup("gemini://example.com/today"));
+        assertEquals(1, cache.getTemporaryHitCount());
+
+        Thread.sleep(60);
+        assertNull(cache.lookup("gemini://example.com/today"));
+    }
+
+    @Test
+    public void permanentStoreIsBounded() {
+        MapStore store = new MapStore();
+        RedirectCache cache = new RedirectCache(store, 2, 16, 60_000);
+        cache.record("gemini://a/", "gemini://a2/", true);
+        cache.record("gemini://b/", "gemini://b2/", true);
+        cache.record("gemini://c/", "gemini://c2/", true);
+        assertEquals(2, store.values.size());
+        assertFalse(store.values.containsKey("gemini://a/"));
+        assertNull(cache.lookup("gemini://a/"));
+    }
+
+    @Test
+    public void selfRedirectsAreNotCached() {
+        RedirectCache cache = new RedirectCache();
+        cache.record("gemini://example.com", "gemini://example.com/", true);
+        assertNull(cache.lookup("gemini://example.com/"));
+    }
+
+    @Test
+    public void removeForgetsBothKinds() {
+        MapStore store = new MapStore();
+        RedirectCache cache = new RedirectCache(store, 16, 16, 60_000);
+        cache.record("gemini://a/", "gemini://b/", true);
+        cache.record("gemini://c/", "gemini://d/", false);
+        cache.remove("gemini://a/");
+        cache.remove("gemini://c/");
+        assertNull(cache.lookup("gemini://a/"));
+        assertNull(cache.lookup("gemini://c/"));
+        assertTrue(store.values.isEmpty());
+    }
+
+    @Test
+    public void cachedLoopIsBoundedWhenCountingHops() {
+        RedirectCache cache = new RedirectCache();
+        cache.record("gemini://a/", "gemini://b/", true);
+        cache.record("gemini://b/", "gemini://a/", true);
+
+        // Mirrors Gemini.requestInternal: every cached hop counts against MAX_REDIRECTS.
+        String uri = "gemini://a/";
+        int hops = 0;
+        String next;
+        while ((next = cache.lookup(uri)) != null) {
+            hops++;
+            if (hops > GeminiSpec.MAX_REDIRECTS) {
+                break;
+            }
+            uri = next;
+        }
+        assertEquals(GeminiSpec.MAX_REDIRECTS + 1, hops);
+    }
+
+    @Test
+    public void permanentRedirectReplacesTemporaryOne() {
+        RedirectCache cache = new RedirectCache();
+        cache.record("gemini://a/", "gemini://tmp/", false);
+        cache.record("gemini://a/", "gemini://final/", true);
+        assertEquals("gemini://final/", cache.lookup("gemini://a/"));
+        assertEquals(1, cache.size());
+    }
+}
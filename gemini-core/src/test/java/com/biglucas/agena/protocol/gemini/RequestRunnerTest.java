@@ -0,0 +1,182 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Requests block on a local server that accepts connections but never answers, like a hung
+ * capsule; the read timeout is far longer than any assertion window.
+ */
+public class RequestRunnerTest {
+    private static final int READ_TIMEOUT_MS = 30_000;
+
+    private ServerSocket server;
+    private ExecutorService worker;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        // One worker thread: a second task only runs once the first released it.
+        worker = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        worker.shutdownNow();
+    }
+
+    /** Runs callbacks inline; the app passes the main thread executor instead. */
+    private static final Executor DIRECT = Runnable::run;
+
+    private RequestRunner.Task<Integer> blockingRead(CountDownLatch reading, CountDownLatch finished,
+                                                     AtomicReference<Exception> failure) {
+        return call -> {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(server.getInetAddress(), server.getLocalPort()), 5000);
+                socket.setSoTimeout(READ_TIMEOUT_MS);
+                call.getCancellation().attach(socket);
+                reading.countDown();
+                return socket.getInputStream().read();
+            } catch (Exception e) {
+                failure.set(e);
+                throw e;
+            } finally {
+                finished.countDown();
+            }
+        };
+    }
+
+    private static <T> RequestRunner.Callback<T> recording(AtomicBoolean delivered) {
+        return new RequestRunner.Callback<T>() {
+            @Override
+            public void onResult(T result) {
+                delivered.set(true);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                delivered.set(true);
+            }
+        };
+    }
+
+    @Test
+    public void cancelFreesBlockedThreadWithinMilliseconds() throws Exception {
+        RequestRunner runner = new RequestRunner(worker, DIRECT);
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(1);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        AtomicBoolean delivered = new AtomicBoolean();
+
+        RequestRunner.Call call = runner.submit(blockingRead(reading, finished, failure), recording(delivered));
+        assertTrue(reading.await(5, TimeUnit.SECONDS));
+        Thread.sleep(20); // let the read actually block
+
+        long start = System.nanoTime();
+        call.cancel();
+        assertTrue("task did not return", finished.await(1, TimeUnit.SECONDS));
+        long releasedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("released after " + releasedMs + " ms", releasedMs < 250);
+        assertTrue(failure.get() instanceof IOException);
+
+        // The worker thread is free for the next request.
+        CountDownLatch next = new CountDownLatch(1);
+        runner.submit(c -> {
+            next.countDown();
+            return 0;
+        }, recording(new AtomicBoolean()));
+        assertTrue(next.await(1, TimeUnit.SECONDS));
+        assertTrue(call.isCancelled());
+        assertFalse("cancelled call delivered a callback", delivered.get());
+    }
+
+    @Test
+    public void completedTaskDeliversResult() throws Exception {
+        RequestRunner runner = new RequestRunner(worker, DIRECT);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<String> result = new AtomicReference<>();
+        runner.submit(call -> "ok", new RequestRunner.Callback<String>() {
+            @Override
+            public void onResult(String value) {
+                result.set(value);
+                done.countDown();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals("ok", result.get());
+    }
+
+    @Test
+    public void failuresAreDeliveredToOnError() throws Exception {
+        RequestRunner runner = new RequestRunner(worker, DIRECT);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<Exception> error = new AtomicReference<>();
+        runner.submit(call -> {
+            throw new IOException("boom");
+        }, new RequestRunner.Callback<Object>() {
+            @Override
+            public void onResult(Object value) {
+                done.countDown();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                error.set(e);
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals("boom", error.get().getMessage());
+    }
+
+    @Test
+    public void progressPostedAfterCancelIsDropped() throws Exception {
+        RequestRunner runner = new RequestRunner(worker, DIRECT);
+        AtomicBoolean ran = new AtomicBoolean();
+        CountDownLatch done = new CountDownLatch(1);
+        runner.submit(call -> {
+            call.cancel();
+            call.post(() -> ran.set(true));
+            done.countDown();
+            return null;
+        }, recording(new AtomicBoolean()));
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertFalse(ran.get());
+    }
+
+    @Test
+    public void attachingAfterCancelClosesImmediately() throws Exception {
+        Cancellation cancellation = new Cancellation();
+        cancellation.cancel();
+        AtomicBoolean closed = new AtomicBoolean();
+        try {
+            cancellation.attach(() -> closed.set(true));
+            fail("expected cancellation");
+        } catch (InterruptedIOException expected) {
+            assertTrue(closed.get());
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RequestTimingsTest {
+
+    @Test
+    public void repeatedPhasesAccumulate() throws InterruptedException {
+        RequestTimings timings = new RequestTimings("gemini://example.com/");
+        timings.begin(RequestTimings.Phase.PARSE);
+        Thread.sleep(5);
+        timings.end(RequestTimings.Phase.PARSE);
+        long first = timings.getDurationNanos(RequestTimings.Phase.PARSE);
+        long firstBegin = timings.getBeginNanos(RequestTimings.Phase.PARSE);
+
+        timings.begin(RequestTimings.Phase.PARSE);
+        Thread.sleep(5);
+        timings.end(RequestTimings.Phase.PARSE);
+
+        assertTrue(first >= 5_000_000L);
+        assertTrue(timings.getDurationNanos(RequestTimings.Phase.PARSE) >= first + 5_000_000L);
+        assertEquals(firstBegin, timings.getBeginNanos(RequestTimings.Phase.PARSE));
+        assertTrue(timings.getEndNanos(RequestTimings.Phase.PARSE) > firstBegin);
+    }
+
+    @Test
+    public void endWithoutBeginIsIgnored() {
+        RequestTimings timings = new RequestTimings("gemini://example.com/");
+        timings.end(RequestTimings.Phase.DNS);
+        assertEquals(0, timings.getDurationNanos(RequestTimings.Phase.DNS));
+        assertEquals(0, timings.getEndNanos(RequestTimings.Phase.DNS));
+    }
+
+    @Test
+    public void firstPaintIsOnlyRecordedOnce() throws InterruptedException {
+        RequestTimings timings = new RequestTimings("gemini://example.com/");
+        assertEquals(-1, timings.getTimeToFirstPaintNanos());
+        timings.markFirstPaint();
+        long firstPaint = timings.getTimeToFirstPaintNanos();
+        Thread.sleep(2);
+        timings.markFirstPaint();
+        assertEquals(firstPaint, timings.getTimeToFirstPaintNanos());
+    }
+
+    @Test
+    public void totalIsUnknownUntilEnd() {
+        RequestTimings timings = new RequestTimings("gemini://example.com/");
+        assertEquals(-1, timings.getTotalNanos());
+        timings.markEnd();
+        assertTrue(timings.getTotalNanos() >= 0);
+    }
+
+    @Test
+    public void summaryIncludesCountersAndError() {
+        RequestTimings timings = new RequestTimings("gemini://example.com/");
+        timings.setStatusCode(20);
+        timings.addBytesReceived(100);
+        timings.addBytesReceived(23);
+        timings.setRedirectHops(2);
+        timings.setTlsResumed(true);
+        timings.setError(new IOException("boom"));
+
+        String summary = timings.toString();
+        assertTrue(summary, summary.startsWith("gemini://example.com/"));
+        assertTrue(summary, summary.contains("status=20"));
+        assertTrue(summary, summary.contains("bytes=123"));
+        assertTrue(summary, summary.contains("redirects=2"));
+        assertTrue(summary, summary.contains("tlsResumed=true"));
+        assertTrue(summary, summary.contains("error=IOException"));
+        assertTrue(summary, summary.contains("transfer="));
+    }
+
+    @Test
+    public void logKeepsNewestEntriesFirst() {
+        RequestTimingsLog log = new RequestTimingsLog(3);
+        for (int i = 0; i < 5; i++) {
+            log.add(new RequestTimings("gemini://example.com/" + i));
+        }
+        List<RequestTimings> entries = log.snapshot();
+        assertEquals(3, log.size());
+        assertEquals(3, entries.size());
+        assertEquals("gemini://example.com/4", entries.get(0).getUri());
+        assertEquals("gemini://example.com/3", entries.get(1).getUri());
+        assertEquals("gemini://example.com/2", entries.get(2).getUri());
+    }
+
+    @Test
+    public void partiallyFilledLogReturnsOnlyStoredEntries() {
+        RequestTimingsLog log = new RequestTimingsLog(8);
+        log.add(new RequestTimings("gemini://a/"));
+        log.add(new RequestTimings("gemini://b/"));
+        List<RequestTimings> entries = log.snapshot();
+        assertEquals(2, entries.size());
+        assertEquals("gemini://b/", entries.get(0).getUri());
+        assertEquals(8, log.capacity());
+    }
+}
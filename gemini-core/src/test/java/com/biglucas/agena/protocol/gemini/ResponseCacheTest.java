@@ -0,0 +1,94 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ResponseCacheTest {
+
+    private static final List<String> PAGE = Arrays.asList("# Title", "Some text", "=> /next Next");
+
+    private static long sizeOf(String uri) {
+        return ResponseCache.estimateBytes(GeminiUriHelper.normalize(uri), "text/gemini", PAGE);
+    }
+
+    @Test
+    public void storedResponsesAreServedByNormalizedUri() {
+        ResponseCache cache = new ResponseCache();
+        cache.put("gemini://Example.com:1965/a/../index.gmi", 20, "text/gemini", PAGE);
+
+        ResponseCache.Entry entry = cache.get("gemini://example.com/index.gmi#top");
+        assertNotNull(entry);
+        assertEquals(20, entry.status);
+        assertEquals("text/gemini", entry.meta);
+        assertEquals(PAGE, entry.lines);
+        assertEquals(1, cache.getHitCount());
+        assertNull(cache.get("gemini://example.com/other.gmi"));
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvictedToFitTheBudget() {
+        long entryBytes = sizeOf("gemini://example.com/a");
+        ResponseCache cache = new ResponseCache(entryBytes * 2 + entryBytes / 2);
+        cache.put("gemini://example.com/a", 20, "text/gemini", PAGE);
+        cache.put("gemini://example.com/b", 20, "text/gemini", PAGE);
+        // Touch a so b becomes the eldest.
+        assertNotNull(cache.get("gemini://example.com/a"));
+        cache.put("gemini://example.com/c", 20, "text/gemini", PAGE);
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("gemini://example.com/b"));
+        assertNotNull(cache.get("gemini://example.com/a"));
+        assertNotNull(cache.get("gemini://example.com/c"));
+        assertEquals(1, cache.getEvictionCount());
+        assertTrue(cache.getBytes() <= cache.getMaxBytes());
+    }
+
+    @Test
+    public void replacingAnEntryDoesNotLeakBytes() {
+        ResponseCache cache = new ResponseCache();
+        cache.put("gemini://example.com/", 20, "text/gemini", PAGE);
+        long bytes = cache.getBytes();
+        cache.put("gemini://example.com/", 20, "text/gemini", PAGE);
+        assertEquals(bytes, cache.getBytes());
+        cache.remove("gemini://example.com/");
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void oversizedResponsesAreNotStored() {
+        ResponseCache cache = new ResponseCache(64);
+        cache.put("gemini://example.com/", 20, "text/gemini", PAGE);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void responsesToQueriesAreNotStored() {
+        ResponseCache cache = new ResponseCache();
+        cache.put("gemini://example.com/search", 20, "text/gemini", PAGE);
+        cache.put("gemini://example.com/search?term", 20, "text/gemini", Collections.singletonList("results"));
+        assertEquals(1, cache.size());
+        assertNull(cache.get("gemini://example.com/search?term"));
+    }
+
+    @Test
+    public void entriesPastTheMaxAgeAreOnlyServedWhenStaleIsAllowed() {
+        ResponseCache cache = new ResponseCache(ResponseCache.DEFAULT_MAX_BYTES, 60_000);
+        // Promoted from disk with the time of the original fetch, just past the max age.
+        long fetchedAt = System.currentTimeMillis() - 61_000;
+        cache.put(new ResponseCache.Entry("gemini://example.com/", 20, "text/gemini", PAGE, fetchedAt));
+        cache.put("gemini://example.com/new", 20, "text/gemini", PAGE);
+
+        assertNull(cache.get("gemini://example.com/"));
+        assertEquals(1, cache.getMissCount());
+        assertNotNull(cache.get("gemini://example.com/", true));
+        assertNotNull(cache.get("gemini://example.com/new"));
+        assertEquals(2, cache.getHitCount());
+    }
+}
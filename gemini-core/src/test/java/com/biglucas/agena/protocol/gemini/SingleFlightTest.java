@@ -0,0 +1,274 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+
+    /** Runs {@code body} on a new thread, recording what it throws. */
+    private static Thread start(AtomicReference<Exception> failure, Callable body) {
+        Thread thread = new Thread(() -> {
+            try {
+                body.call();
+            } catch (Exception e) {
+                failure.set(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private interface Callable {
+        void call() throws Exception;
+    }
+
+    /** Waits until {@code flight} has coalesced {@code count} callers. */
+    private static void awaitCoalesced(SingleFlight<?, ?> flight, int count) throws InterruptedException {
+        while (flight.getCoalescedCount() < count) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void concurrentCallersShareOneExecution() throws Exception {
+        SingleFlight<String, Object> flight = new SingleFlight<>();
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch followerJoined = new CountDownLatch(1);
+        CountDownLatch firstLineSent = new CountDownLatch(1);
+        SingleFlight.Work<String, Object> work = (sink, cancellation) -> {
+            runs.incrementAndGet();
+            started.countDown();
+            assertTrue(followerJoined.await(5, TimeUnit.SECONDS));
+            sink.onItem("# title");
+            firstLineSent.countDown();
+            // Give the follower time to start waiting.
+            Thread.sleep(50);
+            sink.onItem("body");
+            return "20 text/gemini";
+        };
+
+        List<String> leaderLines = Collections.synchronizedList(new ArrayList<>());
+        List<String> followerLines = Collections.synchronizedList(new ArrayList<>());
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        List<Object> results = Collections.synchronizedList(new ArrayList<>());
+        Thread leader = start(failure, () -> results.add(flight.execute("k", leaderLines::add, new Cancellation(), work)));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Thread follower = start(failure, () -> results.add(flight.execute("k", followerLines::add, new Cancellation(), work)));
+        awaitCoalesced(flight, 1);
+        followerJoined.countDown();
+        leader.join(5000);
+        follower.join(5000);
+
+        assertNull(failure.get());
+        assertEquals(1, runs.get());
+        assertEquals(Arrays.asList("# title", "body"), leaderLines);
+        assertEquals(Arrays.asList("# title", "body"), followerLines);
+        assertEquals(Arrays.asList("20 text/gemini", "20 text/gemini"), results);
+        assertEquals(1, flight.getExecutedCount());
+        assertEquals(1, flight.getCoalescedCount());
+    }
+
+    @Test
+    public void callerArrivingAfterUnsharedItemsRunsItsOwn() throws Exception {
+        SingleFlight<String, Object> flight = new SingleFlight<>();
+        CountDownLatch firstLineSent = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread leader = start(failure, () -> flight.execute("k", line -> { }, new Cancellation(), (sink, cancellation) -> {
+            sink.onItem("# title");
+            firstLineSent.countDown();
+            release.await();
+            return null;
+        }));
+        assertTrue(firstLineSent.await(5, TimeUnit.SECONDS));
+
+        // The first line was not kept, so it cannot be replayed to a late caller.
+        List<String> lines = new ArrayList<>();
+        flight.execute("k", lines::add, new Cancellation(), (sink, cancellation) -> {
+            sink.onItem("# title");
+            return null;
+        });
+        assertEquals(Collections.singletonList("# title"), lines);
+        assertEquals(2, flight.getExecutedCount());
+        assertEquals(0, flight.getCoalescedCount());
+
+        release.countDown();
+        leader.join(5000);
+        assertNull(failure.get());
+    }
+
+    @Test
+    public void cancelledLeaderKeepsRunningForFollowers() throws Exception {
+        SingleFlight<String, Object> flight = new SingleFlight<>();
+        Cancellation leaderCancellation = new Cancellation();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<Cancellation> shared = new AtomicReference<>();
+        List<String> leaderLines = Collections.synchronizedList(new ArrayList<>());
+        List<String> followerLines = Collections.synchronizedList(new ArrayList<>());
+        AtomicReference<Exception> leaderFailure = new AtomicReference<>();
+        AtomicReference<Exception> followerFailure = new AtomicReference<>();
+        Thread leader = start(leaderFailure, () -> flight.execute("k", leaderLines::add, leaderCancellation, (sink, cancellation) -> {
+            shared.set(cancellation);
+            started.countDown();
+            release.await();
+            sink.onItem("# title");
+            sink.onItem("body");
+            return null;
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Thread follower = start(followerFailure,
+                () -> flight.execute("k", followerLines::add, new Cancellation(), (sink, cancellation) -> null));
+        awaitCoalesced(flight, 1);
+
+        leaderCancellation.cancel();
+        assertFalse(shared.get().isCancelled());
+        release.countDown();
+        leader.join(5000);
+        follower.join(5000);
+
+        assertTrue(leaderFailure.get() instanceof InterruptedIOException);
+        assertTrue(leaderLines.isEmpty());
+        assertNull(followerFailure.get());
+        assertEquals(Arrays.asList("# title", "body"), followerLines);
+    }
+
+    @Test
+    public void workIsCancelledOnceEveryCallerIs() throws Exception {
+        SingleFlight<String, Object> flight = new SingleFlight<>();
+        Cancellation leaderCancellation = new Cancellation();
+        Cancellation followerCancellation = new Cancellation();
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicReference<Cancellation> shared = new AtomicReference<>();
+        AtomicReference<Exception> leaderFailure = new AtomicReference<>();
+        AtomicReference<Exception> followerFailure = new AtomicReference<>();
+        Thread leader = start(leaderFailure, () -> flight.execute("k", line -> { }, leaderCancellation, (sink, cancellation) -> {
+            shared.set(cancellation);
+            started.countDown();
+            // Stands in for a socket read that fails once the socket is closed.
+            CountDownLatch closed = new CountDownLatch(1);
+            cancellation.attach(closed::countDown);
+            closed.await();
+            throw new IOException("Socket closed");
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Thread follower = start(followerFailure,
+                () -> flight.execute("k", line -> { }, followerCancellation, (sink, cancellation) -> null));
+        awaitCoalesced(flight, 1);
+
+        followerCancellation.cancel();
+        follower.join(5000);
+        assertFalse(shared.get().isCancelled());
+        leaderCancellation.cancel();
+        leader.join(5000);
+
+        assertTrue(shared.get().isCancelled());
+        assertTrue(leaderFailure.get() instanceof InterruptedIOException);
+        assertTrue(followerFailure.get() instanceof InterruptedIOException);
+    }
+
+    @Test
+    public void followersReceiveTheLeadersFailure() throws Exception {
+        SingleFlight<String, Object> flight = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        SingleFlight.Work<String, Object> work = (sink, cancellation) -> {
+            started.countDown();
+            release.await();
+            throw new IOException("boom");
+        };
+
+        AtomicReference<Exception> leaderFailure = new AtomicReference<>();
+        AtomicReference<Exception> followerFailure = new AtomicReference<>();
+        Thread leader = start(leaderFailure, () -> flight.execute("k", line -> { }, new Cancellation(), work));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Thread follower = start(followerFailure, () -> flight.execute("k", line -> { }, new Cancellation(), work));
+        awaitCoalesced(flight, 1);
+        release.countDown();
+        leader.join(5000);
+        follower.join(5000);
+
+        assertEquals("boom", leaderFailure.get().getMessage());
+        assertSame(leaderFailure.get(), followerFailure.get());
+    }
+
+    @Test
+    public void sequentialCallsAreNotCoalesced() throws Exception {
+        SingleFlight<String, Object> flight = new SingleFlight<>();
+        AtomicInteger runs = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            flight.execute("k", line -> { }, new Cancellation(), (sink, cancellation) -> runs.incrementAndGet());
+        }
+        assertEquals(3, runs.get());
+        assertEquals(0, flight.getCoalescedCount());
+    }
+
+    @Test
+    public void cancelledLeaderIsReplacedByNewCaller() throws Exception {
+        SingleFlight<String, Object> flight = new SingleFlight<>();
+        Cancellation leaderCancellation = new Cancellation();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread leader = start(failure, () -> flight.execute("k", line -> { }, leaderCancellation, (sink, cancellation) -> {
+            started.countDown();
+            release.await();
+            return null;
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        leaderCancellation.cancel();
+
+        // Like a reload: the old request is cancelled but its thread has not unwound yet.
+        List<String> lines = new ArrayList<>();
+        flight.execute("k", lines::add, new Cancellation(), (sink, cancellation) -> {
+            sink.onItem("fresh");
+            return null;
+        });
+        assertEquals(Collections.singletonList("fresh"), lines);
+        assertEquals(2, flight.getExecutedCount());
+
+        release.countDown();
+        leader.join(5000);
+    }
+
+    @Test
+    public void cancelledFollowerStopsWaiting() throws Exception {
+        SingleFlight<String, Object> flight = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<Exception> leaderFailure = new AtomicReference<>();
+        Thread leader = start(leaderFailure, () -> flight.execute("k", line -> { }, new Cancellation(), (sink, cancellation) -> {
+            started.countDown();
+            release.await();
+            return null;
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Cancellation followerCancellation = new Cancellation();
+        AtomicReference<Exception> followerFailure = new AtomicReference<>();
+        Thread follower = start(followerFailure,
+                () -> flight.execute("k", line -> { }, followerCancellation, (sink, cancellation) -> null));
+        awaitCoalesced(flight, 1);
+        followerCancellation.cancel();
+        follower.join(1000);
+        assertFalse(follower.isAlive());
+        assertTrue(followerFailure.get() instanceof InterruptedIOException);
+
+        release.countDown();
+        leader.join(5000);
+        assertNull(leaderFailure.get());
+    }
+}
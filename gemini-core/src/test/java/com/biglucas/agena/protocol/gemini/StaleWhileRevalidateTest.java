@@ -0,0 +1,31 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class StaleWhileRevalidateTest {
+
+    @Test
+    public void hostsAndPrefixesOptOut() {
+        StaleWhileRevalidate revalidation = new StaleWhileRevalidate(new GeminiClient(() -> null));
+        revalidation.setOptOut(Arrays.asList(" Static.example ", "", "gemini://example.com:1965/cgi-bin/"));
+
+        assertTrue(revalidation.isOptedOut("gemini://static.example/index.gmi"));
+        assertTrue(revalidation.isOptedOut("gemini://EXAMPLE.com/cgi-bin/weather"));
+        assertFalse(revalidation.isOptedOut("gemini://example.com/gemlog/"));
+        assertFalse(revalidation.isOptedOut("gemini://sub.static.example/"));
+        assertFalse(revalidation.shouldRevalidate("gemini://static.example/"));
+    }
+
+    @Test
+    public void sameBodyComparesDigests() {
+        ResponseCache.Entry entry = new ResponseCache.Entry("gemini://example.com/", 20, "text/gemini",
+                Arrays.asList("a", "b"), 0);
+        assertTrue(entry.sameBody(Arrays.asList("a", "b")));
+        assertFalse(entry.sameBody(Arrays.asList("a", "b", "")));
+        assertFalse(entry.sameBody(Arrays.asList("ab")));
+    }
+}
@@ -0,0 +1,72 @@
+package com.biglucas.agena.protocol.gemini;
+
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+
+import javax.net.ssl.SSLSession;
+
+import static org.junit.Assert.*;
+
+public class TlsSessionMetricsTest {
+
+    private static SSLSession session(byte[] id, long creationTime) {
+        return (SSLSession) Proxy.newProxyInstance(
+                SSLSession.class.getClassLoader(),
+                new Class<?>[]{SSLSession.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getId":
+                            return id;
+                        case "getCreationTime":
+                            return creationTime;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    @Test
+    public void endpointKeyIsCaseInsensitiveOnHost() {
+        assertEquals("example.com:1965", TlsSessionMetrics.endpointKey("Example.COM", 1965));
+    }
+
+    @Test
+    public void freshSessionCountsAsFullHandshake() {
+        TlsSessionMetrics metrics = new TlsSessionMetrics();
+        boolean resumed = metrics.record("a:1965", session(new byte[]{1}, 1000), 1000, 5_000_000);
+        assertFalse(resumed);
+        assertEquals(1, metrics.getHandshakeCount());
+        assertEquals(0, metrics.getResumedCount());
+        assertEquals(5.0, metrics.getAverageFullHandshakeMs(), 0.001);
+    }
+
+    @Test
+    public void sameSessionIdOnSameEndpointCountsAsResumed() {
+        TlsSessionMetrics metrics = new TlsSessionMetrics();
+        metrics.record("a:1965", session(new byte[]{7, 7}, 1000), 1000, 8_000_000);
+        boolean resumed = metrics.record("a:1965", session(new byte[]{7, 7}, 2000), 2000, 2_000_000);
+        assertTrue(resumed);
+        assertEquals(0.5, metrics.getHitRate(), 0.001);
+        assertEquals(2.0, metrics.getAverageResumedHandshakeMs(), 0.001);
+    }
+
+    @Test
+    public void sessionOlderThanHandshakeCountsAsResumed() {
+        // TLS 1.3 tickets may come with an empty session ID; creation time still gives it away.
+        TlsSessionMetrics metrics = new TlsSessionMetrics();
+        assertTrue(metrics.record("a:1965", session(new byte[0], 1000), 5000, 1_000_000));
+    }
+
+    @Test
+    public void sessionIdsAreTrackedPerEndpoint() {
+        TlsSessionMetrics metrics = new TlsSessionMetrics();
+        metrics.record("a:1965", session(new byte[]{1}, 1000), 1000, 1);
+        assertFalse(metrics.record("b:1965", session(new byte[]{1}, 2000), 2000, 1));
+    }
+
+    @Test
+    public void hitRateIsZeroWithoutHandshakes() {
+        assertEquals(0.0, new TlsSessionMetrics().getHitRate(), 0.0);
+    }
+}